@@ -1,10 +1,12 @@
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 
+import com.ltpeacock.sorter.ByteBufferInputStream;
 import com.ltpeacock.sorter.ContentSorter;
 
 /**
@@ -13,28 +15,72 @@ import com.ltpeacock.sorter.ContentSorter;
  * @author LieutenantPeacock
  */
 abstract class AbstractSorterCli {
+	/** The option of the YAML sorters for the largest number of code points in one document. */
+	protected static final String CODE_POINT_LIMIT_OPTION = "--code-point-limit=";
+	private boolean check;
+	private boolean batch;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private String include;
+	private Path outputDirectory;
+
 	protected final void run(final String[] args) throws IOException {
-		switch (args.length) {
-		case 2: {
-			final File inputFile = new File(args[0]), outputFile = new File(args[1]);
-			try (FileInputStream fis = new FileInputStream(inputFile);
-					FileOutputStream fos = new FileOutputStream(outputFile)) {
-				runImpl(fis, fos, inputFile.toString(), outputFile.toString());
+		final List<String> files = new ArrayList<>(args.length);
+		for (final String arg : args) {
+			if ("--help".equals(arg)) {
+				help();
+				return;
+			}
+			if ("--check".equals(arg)) {
+				check = true;
+			} else if ("--batch".equals(arg)) {
+				batch = true;
+			} else if (arg.startsWith("--threads=")) {
+				try {
+					threads = Integer.parseInt(arg.substring("--threads=".length()));
+				} catch (NumberFormatException e) {
+					System.err.println("Invalid number of threads: " + arg);
+					return;
+				}
+			} else if (arg.startsWith("--include=")) {
+				include = arg.substring("--include=".length());
+			} else if (arg.startsWith("--output-dir=")) {
+				outputDirectory = Paths.get(arg.substring("--output-dir=".length()));
+			} else if (arg.startsWith("--")) {
+				if (!option(arg)) {
+					System.err.println("Unknown option: " + arg);
+					return;
+				}
+			} else {
+				files.add(arg);
 			}
+		}
+		if (batch) {
+			if (!new BatchSorter(this::getSortEngine, threads, include != null ? include : getFilePattern(),
+					outputDirectory, check).run(files))
+				System.exit(1);
+			return;
+		}
+		if (check) {
+			check(files);
+			return;
+		}
+		switch (files.size()) {
+		case 2: {
+			final Path inputFile = Paths.get(files.get(0)), outputFile = Paths.get(files.get(1));
+			runImpl(engine -> engine.sort(inputFile, outputFile), inputFile.toString(), outputFile.toString(), true);
 			break;
 		}
-		case 1:
-			if ("--help".equals(args[0])) {
-				help();
-			} else {
-				final File inputFile = new File(args[0]);
-				try (FileInputStream fis = new FileInputStream(inputFile)) {
-					runImpl(fis, System.out, inputFile.toString(), "stdout");
+		case 1: {
+			final Path inputFile = Paths.get(files.get(0));
+			runImpl(engine -> {
+				try (InputStream is = ByteBufferInputStream.open(FileChannel.open(inputFile))) {
+					engine.sort(is, System.out);
 				}
-			}
+			}, inputFile.toString(), "stdout", false);
 			break;
+		}
 		case 0:
-			runImpl(System.in, System.out, "stdin", "stdout");
+			runImpl(engine -> engine.sort(System.in, System.out), "stdin", "stdout", false);
 			break;
 		default:
 			System.err.println("Too many arguments.");
@@ -42,27 +88,128 @@ abstract class AbstractSorterCli {
 		}
 	}
 
-	private void runImpl(final InputStream is, final OutputStream os, final String inputName, final String outputName)
-			throws IOException {
+	/**
+	 * Checks whether each input file, or stdin if there are none, is already sorted, without writing anything else.
+	 * Exits with status 1 if any of them is not.
+	 */
+	private void check(final List<String> files) throws IOException {
+		final ContentSorter engine = getSortEngine();
+		boolean sorted = true;
+		if (files.isEmpty() && !engine.isSorted(System.in)) {
+			System.out.println("Not sorted: stdin");
+			sorted = false;
+		}
+		for (final String file : files) {
+			if (!engine.isSorted(Paths.get(file))) {
+				System.out.println("Not sorted: " + file);
+				sorted = false;
+			}
+		}
+		if (!sorted)
+			System.exit(1);
+	}
+
+	private void runImpl(final SortAction action, final String inputName, final String outputName,
+			final boolean verbose) throws IOException {
 		final long startMs = System.currentTimeMillis();
-		if (os != System.out) {
+		if (verbose) {
 			System.out.println("Running " + getName());
 			System.out.format("Reading from '%s' ...%n", inputName);
 		}
-		getSortEngine().sort(is, os);
+		action.sort(getSortEngine());
 		final long endMs = System.currentTimeMillis();
 		final long tookMs = endMs - startMs;
-		if (os != System.out)
+		if (verbose)
 			System.out.format("Wrote to '%s' ..., took %s ms.%n", outputName, tookMs);
 	}
 
+	@FunctionalInterface
+	private interface SortAction {
+		void sort(ContentSorter engine) throws IOException;
+	}
+
 	protected abstract ContentSorter getSortEngine();
 
+	/**
+	 * Applies an option given on the command line, which starts with {@code --}.
+	 * @param option The option.
+	 * @return Whether the option is supported by this sorter.
+	 */
+	protected boolean option(final String option) {
+		return false;
+	}
+
+	/**
+	 * Parses the value of {@link #CODE_POINT_LIMIT_OPTION}, and exits with status 1 if it is not a positive number.
+	 * @param option The option, including its name.
+	 */
+	protected static int parseCodePointLimit(final String option) {
+		try {
+			final int codePointLimit = Integer.parseInt(option.substring(CODE_POINT_LIMIT_OPTION.length()));
+			if (codePointLimit > 0)
+				return codePointLimit;
+		} catch (NumberFormatException e) {
+			// Reported below
+		}
+		System.err.println("Invalid code point limit: " + option);
+		System.exit(1);
+		return 0;
+	}
+
+	/**
+	 * Prints the description of {@link #CODE_POINT_LIMIT_OPTION}.
+	 */
+	protected static void printCodePointLimitHelp() {
+		System.out.println("  --code-point-limit  The most characters in one document (default: 3 MB), which");
+		System.out.println("                 should only be raised for trusted input");
+	}
+
+	/**
+	 * Get the number of threads that the engine for one file may use: all available processors, or one in batch
+	 * mode, where as many files are sorted at once instead.
+	 */
+	protected final int getParallelism() {
+		return batch ? 1 : Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * Get the glob pattern for the names of the files that batch mode sorts in the directories it is given.
+	 */
+	protected String getFilePattern() {
+		return "*";
+	}
+
 	protected String getName() {
 		return getClass().getSimpleName();
 	}
 
 	protected void help() {
 		System.out.println("Usage: [inputFile] [outputFile]");
+		System.out.println("       --check [inputFile...]");
+		printBatchUsage("");
+		System.out.println("  --check        Only check that each file is already sorted, and exit with status 1 if not");
+		printBatchHelp();
+	}
+
+	/**
+	 * Prints the usage line of batch mode.
+	 * @param options The options of the sorter, each followed by a space.
+	 */
+	protected final void printBatchUsage(final String options) {
+		System.out.println("       --batch [--check] " + options
+				+ "[--threads=n] [--include=glob] [--output-dir=dir] [file|dir|glob...]");
+	}
+
+	/**
+	 * Prints the description of the options of batch mode.
+	 */
+	protected final void printBatchHelp() {
+		System.out.println("  --batch        Sort every file given, and every file matching the include pattern in each");
+		System.out.println("                 directory given, in place or into the output directory, with several files");
+		System.out.println("                 at once; failures are reported and the other files are still sorted");
+		System.out.println("  --threads      The number of files sorted at once (default: the number of processors)");
+		System.out.println("  --include      The names of the files to sort in directories (default: " + getFilePattern()
+				+ ")");
+		System.out.println("  --output-dir   Write the sorted files here, with their paths relative to their directory");
 	}
 }
@@ -0,0 +1,232 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import com.ltpeacock.sorter.ContentSorter;
+
+/**
+ * <p>Sorts many files with one command, on a pool of worker threads.</p>
+ * Each argument is a file, a directory, which is searched recursively for the files whose names match the include
+ * pattern, or a glob pattern such as {@code src/**&#47;*.json}, which is matched against the paths below the
+ * directory before its first wildcard. The largest files are started first, so that the smaller ones fill in
+ * around them and no worker is left idle while one large file is still being sorted. Each file is sorted into a
+ * temporary file next to its output, which replaces the output only once it is complete, so a file that cannot be
+ * sorted is reported and left as it was, and the other files are still sorted. A file that is given more than once
+ * is sorted once, but if files with the same name in different directories would be written to the same output,
+ * nothing is sorted.
+ * @author LieutenantPeacock
+ *
+ */
+final class BatchSorter {
+	private static final String GLOB_CHARACTERS = "*?[{";
+	private final Supplier<ContentSorter> engines;
+	private final int threads;
+	private final PathMatcher include;
+	private final Path outputDirectory;
+	private final boolean check;
+	private final AtomicInteger done = new AtomicInteger();
+	private final AtomicInteger failed = new AtomicInteger();
+	private final AtomicInteger unsorted = new AtomicInteger();
+	private final AtomicLong bytes = new AtomicLong();
+
+	/**
+	 * A file to sort.
+	 */
+	private static final class Task {
+		final Path input;
+		final Path output;
+		final long size;
+
+		Task(final Path input, final Path output) {
+			this.input = input;
+			this.output = output;
+			long size;
+			try {
+				size = Files.size(input);
+			} catch (IOException e) {
+				// Reported as a failure of this file when it is sorted
+				size = 0;
+			}
+			this.size = size;
+		}
+	}
+
+	/**
+	 * @param engines Creates the engine for each file.
+	 * @param threads The number of files sorted at once.
+	 * @param include The glob pattern for the names of the files in directories.
+	 * @param outputDirectory The directory to write the sorted files to, with the same relative paths as below the
+	 * directory they were found in, or {@code null} to replace each file with its sorted content.
+	 * @param check Whether to only check that each file is already sorted.
+	 */
+	BatchSorter(final Supplier<ContentSorter> engines, final int threads, final String include,
+			final Path outputDirectory, final boolean check) {
+		this.engines = engines;
+		this.threads = Math.max(1, threads);
+		this.include = FileSystems.getDefault().getPathMatcher("glob:" + include);
+		this.outputDirectory = outputDirectory;
+		this.check = check;
+	}
+
+	/**
+	 * Sorts or checks all files given by the arguments, and prints a summary.
+	 * @param args The files, directories and glob patterns.
+	 * @return Whether every file was sorted, or was already sorted when checking.
+	 * @throws IOException If the files cannot be listed.
+	 */
+	boolean run(final List<String> args) throws IOException {
+		final List<Task> tasks = new ArrayList<>();
+		for (final String arg : args)
+			collect(arg, tasks);
+		if (!removeDuplicates(tasks))
+			return false;
+		// Longest first: the pool takes tasks in the order they were submitted
+		tasks.sort(Comparator.comparingLong((Task task) -> task.size).reversed());
+		final int workers = Math.min(threads, Math.max(1, tasks.size()));
+		final long startNs = System.nanoTime();
+		final ExecutorService executor = Executors.newFixedThreadPool(workers);
+		try {
+			for (final Task task : tasks)
+				executor.execute(() -> sort(task));
+			executor.shutdown();
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		} catch (InterruptedException e) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while sorting");
+		}
+		final long tookMs = (System.nanoTime() - startNs) / 1_000_000;
+		final double megabytes = bytes.get() / (1024.0 * 1024.0);
+		System.out.format("%s %d files (%.1f MB) in %d ms, %.1f MB/s on %d thread%s; %d failed%s.%n",
+				check ? "Checked" : "Sorted", done.get(), megabytes, tookMs,
+				megabytes * 1000 / Math.max(1, tookMs), workers, workers == 1 ? "" : "s", failed.get(),
+				check ? ", " + unsorted.get() + " not sorted" : "");
+		return failed.get() == 0 && unsorted.get() == 0;
+	}
+
+	private void sort(final Task task) {
+		try {
+			final ContentSorter engine = engines.get();
+			if (check) {
+				if (!engine.isSorted(task.input)) {
+					System.out.println("Not sorted: " + task.input);
+					unsorted.incrementAndGet();
+				}
+			} else if (Files.exists(task.output) && Files.isSameFile(task.input, task.output)) {
+				// Sorted through a temporary file that replaces the input, keeping its permissions
+				engine.sort(task.input, task.output);
+			} else {
+				sortInto(engine, task);
+			}
+			done.incrementAndGet();
+			bytes.addAndGet(task.size);
+		} catch (IOException | RuntimeException e) {
+			failed.incrementAndGet();
+			System.err.println("Failed: " + task.input + ": " + e);
+		}
+	}
+
+	/**
+	 * Sorts a file into another file through a temporary file, which is moved into place only once it is complete.
+	 * An existing output is replaced with the permissions it had, and a new one gets those of the input.
+	 */
+	private static void sortInto(final ContentSorter engine, final Task task) throws IOException {
+		final Path output = Files.exists(task.output) ? task.output.toRealPath() : task.output.toAbsolutePath();
+		Files.createDirectories(output.getParent());
+		final Path temp = Files.createTempFile(output.getParent(), output.getFileName().toString(), ".tmp");
+		try {
+			engine.sort(task.input, temp);
+			final PosixFileAttributeView view = Files.getFileAttributeView(
+					Files.exists(output) ? output : task.input, PosixFileAttributeView.class);
+			if (view != null)
+				Files.setPosixFilePermissions(temp, view.readAttributes().permissions());
+			Files.move(temp, output, StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/**
+	 * Removes the tasks for files that were given more than once, and checks that no two files are written to the
+	 * same output, which happens when files of the same name from different directories are sorted into the output
+	 * directory.
+	 * @return Whether every output is written from one file only, which is reported otherwise.
+	 */
+	private boolean removeDuplicates(final List<Task> tasks) throws IOException {
+		final Map<Path, Task> inputs = new HashMap<>();
+		final Map<Path, Task> outputs = new HashMap<>();
+		boolean unique = true;
+		for (final Iterator<Task> iterator = tasks.iterator(); iterator.hasNext();) {
+			final Task task = iterator.next();
+			final Path input = Files.exists(task.input) ? task.input.toRealPath() : task.input.toAbsolutePath();
+			if (inputs.putIfAbsent(input.normalize(), task) != null) {
+				iterator.remove();
+				continue;
+			}
+			if (check)
+				continue;
+			final Task other = outputs.putIfAbsent(task.output.toAbsolutePath().normalize(), task);
+			if (other != null) {
+				System.err.println("Both " + other.input + " and " + task.input + " would be sorted into "
+						+ task.output);
+				unique = false;
+			}
+		}
+		return unique;
+	}
+
+	/**
+	 * Adds the files given by one argument.
+	 */
+	private void collect(final String arg, final List<Task> tasks) throws IOException {
+		int glob = -1;
+		for (int i = 0; i < arg.length() && glob < 0; i++) {
+			if (GLOB_CHARACTERS.indexOf(arg.charAt(i)) >= 0)
+				glob = i;
+		}
+		if (glob >= 0) {
+			// The directory before the first wildcard is searched for the paths that match the whole pattern
+			final int slash = Math.max(arg.lastIndexOf('/', glob), arg.lastIndexOf(File.separatorChar, glob));
+			final Path base = Paths.get(slash < 0 ? "." : arg.substring(0, slash + 1));
+			final PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + arg);
+			collect(base, path -> matcher.matches(slash < 0 ? base.relativize(path) : path), tasks);
+		} else {
+			final Path path = Paths.get(arg);
+			if (Files.isDirectory(path))
+				collect(path, file -> include.matches(file.getFileName()), tasks);
+			else
+				tasks.add(new Task(path,
+						outputDirectory == null ? path : outputDirectory.resolve(path.getFileName().toString())));
+		}
+	}
+
+	private void collect(final Path base, final Predicate<Path> filter, final List<Task> tasks) throws IOException {
+		try (Stream<Path> paths = Files.walk(base)) {
+			for (final Path path : (Iterable<Path>) paths.filter(Files::isRegularFile).filter(filter)::iterator) {
+				tasks.add(new Task(path,
+						outputDirectory == null ? path : outputDirectory.resolve(base.relativize(path).toString())));
+			}
+		}
+	}
+}
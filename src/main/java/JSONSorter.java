@@ -2,19 +2,53 @@ import java.io.IOException;
 
 import com.ltpeacock.sorter.ContentSorter;
 import com.ltpeacock.sorter.json.SortJSONEngine;
+import com.ltpeacock.sorter.json.StreamingSortJSONEngine;
 
 /**
- * Main class for sorting JSON using {@link SortJSONEngine}.
+ * Main class for sorting JSON using {@link StreamingSortJSONEngine}, or newline-delimited JSON using
+ * {@link SortJSONEngine} on all available processors.
  * @author LieutenantPeacock
  *
  */
 public class JSONSorter extends AbstractSorterCli {
+	private boolean lineDelimited;
+
 	public static void main(final String[] args) throws IOException {
 		new JSONSorter().run(args);
 	}
 
 	@Override
 	protected ContentSorter getSortEngine() {
-		return new SortJSONEngine();
+		if (lineDelimited) {
+			final SortJSONEngine engine = new SortJSONEngine();
+			engine.setLineDelimited(true);
+			engine.setParallelism(getParallelism());
+			return engine;
+		}
+		return new StreamingSortJSONEngine();
+	}
+
+	@Override
+	protected String getFilePattern() {
+		return lineDelimited ? "*.{ndjson,jsonl}" : "*.json";
+	}
+
+	@Override
+	protected boolean option(final String option) {
+		if ("--ndjson".equals(option)) {
+			lineDelimited = true;
+			return true;
+		}
+		return false;
+	}
+
+	@Override
+	protected void help() {
+		System.out.println("Usage: [--ndjson] [inputFile] [outputFile]");
+		System.out.println("       --check [--ndjson] [inputFile...]");
+		printBatchUsage("[--ndjson] ");
+		System.out.println("  --ndjson       Sort each line of newline-delimited JSON (JSON Lines) separately");
+		System.out.println("  --check        Only check that each file is already sorted, and exit with status 1 if not");
+		printBatchHelp();
 	}
 }
@@ -4,17 +4,54 @@ import com.ltpeacock.sorter.ContentSorter;
 import com.ltpeacock.sorter.json.SortOpenApiJSONEngine;
 
 /**
- * Main class for sorting OpenAPI JSON using {@link SortOpenApiJSONEngine}.
+ * Main class for sorting OpenAPI JSON using {@link SortOpenApiJSONEngine} on all available processors.
  * @author LieutenantPeacock
  *
  */
 public class OpenApiJSONSorter extends AbstractSorterCli {
+	private boolean pruneComponents;
+	private boolean topologicalSchemas;
+
 	public static void main(final String[] args) throws IOException {
 		new OpenApiJSONSorter().run(args);
 	}
 
 	@Override
 	protected ContentSorter getSortEngine() {
-		return new SortOpenApiJSONEngine();
+		final SortOpenApiJSONEngine engine = new SortOpenApiJSONEngine();
+		engine.setParallelism(getParallelism());
+		engine.setPruneComponents(pruneComponents);
+		engine.setTopologicalSchemas(topologicalSchemas);
+		return engine;
+	}
+
+	@Override
+	protected String getFilePattern() {
+		return "*.json";
+	}
+
+	@Override
+	protected boolean option(final String option) {
+		switch (option) {
+		case "--prune":
+			pruneComponents = true;
+			return true;
+		case "--topological":
+			topologicalSchemas = true;
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	@Override
+	protected void help() {
+		System.out.println("Usage: [--prune] [--topological] [inputFile] [outputFile]");
+		System.out.println("       --check [--prune] [--topological] [inputFile...]");
+		printBatchUsage("[--prune] [--topological] ");
+		System.out.println("  --prune        Leave out components that are not referenced from the paths");
+		System.out.println("  --topological  Order each schema after the schemas it references");
+		System.out.println("  --check        Only check that each file is already sorted, and exit with status 1 if not");
+		printBatchHelp();
 	}
 }
@@ -0,0 +1,50 @@
+import java.io.IOException;
+
+import com.ltpeacock.sorter.ContentSorter;
+import com.ltpeacock.sorter.yaml.SortOpenApiYAMLEngine;
+
+/**
+ * Main class for sorting OpenAPI YAML using {@link SortOpenApiYAMLEngine} on all available processors.
+ * @author LieutenantPeacock
+ *
+ */
+public class OpenApiYAMLSorter extends AbstractSorterCli {
+	private Integer codePointLimit;
+
+	public static void main(final String[] args) throws IOException {
+		new OpenApiYAMLSorter().run(args);
+	}
+
+	@Override
+	protected ContentSorter getSortEngine() {
+		final SortOpenApiYAMLEngine engine = new SortOpenApiYAMLEngine();
+		engine.setParallelism(getParallelism());
+		if (codePointLimit != null)
+			engine.setCodePointLimit(codePointLimit);
+		return engine;
+	}
+
+	@Override
+	protected String getFilePattern() {
+		return "*.{yaml,yml}";
+	}
+
+	@Override
+	protected boolean option(final String option) {
+		if (option.startsWith(CODE_POINT_LIMIT_OPTION)) {
+			codePointLimit = parseCodePointLimit(option);
+			return true;
+		}
+		return false;
+	}
+
+	@Override
+	protected void help() {
+		System.out.println("Usage: [--code-point-limit=n] [inputFile] [outputFile]");
+		System.out.println("       --check [--code-point-limit=n] [inputFile...]");
+		printBatchUsage("[--code-point-limit=n] ");
+		printCodePointLimitHelp();
+		System.out.println("  --check        Only check that each file is already sorted, and exit with status 1 if not");
+		printBatchHelp();
+	}
+}
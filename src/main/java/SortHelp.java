@@ -9,8 +9,13 @@ public class SortHelp {
 		System.out.println();
 		System.out.println("To sort XML          : java -cp lp-multisorter.jar XMLSorter         [inputFile] [outputFile]");
 		System.out.println("To sort JSON         : java -cp lp-multisorter.jar JSONSorter        [inputFile] [outputFile]");
+		System.out.println("To sort JSON Lines   : java -cp lp-multisorter.jar JSONSorter --ndjson [inputFile] [outputFile]");
 		System.out.println("To sort OpenAPI JSON : java -cp lp-multisorter.jar OpenApiJSONSorter [inputFile] [outputFile]");
 		System.out.println("To sort YAML         : java -cp lp-multisorter.jar YAMLSorter        [inputFile] [outputFile]");
+		System.out.println("To sort large YAML   : java -cp lp-multisorter.jar YAMLSorter --streaming [inputFile] [outputFile]");
+		System.out.println("To sort OpenAPI YAML : java -cp lp-multisorter.jar OpenApiYAMLSorter [inputFile] [outputFile]");
+		System.out.println("To check sorting     : java -cp lp-multisorter.jar <Sorter> --check [inputFile...]");
+		System.out.println("To sort many files   : java -cp lp-multisorter.jar <Sorter> --batch [--output-dir=dir] [file|dir|glob...]");
 		System.out.println();
 		System.out.println("If outputFile is not specified, the output is to stdout.");
 		System.out.println("If inputFile is not specified, input is taken from stdin.");
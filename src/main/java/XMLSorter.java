@@ -18,4 +18,9 @@ public class XMLSorter extends AbstractSorterCli {
 	protected ContentSorter getSortEngine() {
 		return new SortXMLEngine();
 	}
+
+	@Override
+	protected String getFilePattern() {
+		return "*.xml";
+	}
 }
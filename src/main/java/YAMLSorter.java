@@ -2,19 +2,71 @@ import java.io.IOException;
 
 import com.ltpeacock.sorter.ContentSorter;
 import com.ltpeacock.sorter.yaml.SortYAMLEngine;
+import com.ltpeacock.sorter.yaml.StreamingSortYAMLEngine;
 
 /**
- * Main class for sorting YAML using {@link SortYAMLEngine}.
+ * Main class for sorting YAML using {@link SortYAMLEngine}, which sorts the documents of a multi-document stream
+ * on all available processors with {@code --parallel}, or {@link StreamingSortYAMLEngine} for large files.
  * @author LieutenantPeacock
  *
  */
 public class YAMLSorter extends AbstractSorterCli {
+	private static final long STREAMING_MEMORY_BUDGET = 64L * 1024 * 1024;
+	private boolean streaming;
+	private boolean parallel;
+	private Integer codePointLimit;
+
 	public static void main(final String[] args) throws IOException {
 		new YAMLSorter().run(args);
 	}
 
 	@Override
 	protected ContentSorter getSortEngine() {
-		return new SortYAMLEngine();
+		if (streaming) {
+			final StreamingSortYAMLEngine engine = new StreamingSortYAMLEngine();
+			engine.setMemoryBudget(STREAMING_MEMORY_BUDGET);
+			if (codePointLimit != null)
+				engine.setCodePointLimit(codePointLimit);
+			return engine;
+		}
+		final SortYAMLEngine engine = new SortYAMLEngine();
+		engine.setParallelism(parallel ? getParallelism() : 1);
+		if (codePointLimit != null)
+			engine.setCodePointLimit(codePointLimit);
+		return engine;
+	}
+
+	@Override
+	protected String getFilePattern() {
+		return "*.{yaml,yml}";
+	}
+
+	@Override
+	protected boolean option(final String option) {
+		if ("--streaming".equals(option)) {
+			streaming = true;
+			return true;
+		}
+		if ("--parallel".equals(option)) {
+			parallel = true;
+			return true;
+		}
+		if (option.startsWith(CODE_POINT_LIMIT_OPTION)) {
+			codePointLimit = parseCodePointLimit(option);
+			return true;
+		}
+		return false;
+	}
+
+	@Override
+	protected void help() {
+		System.out.println("Usage: [--streaming|--parallel] [--code-point-limit=n] [inputFile] [outputFile]");
+		System.out.println("       --check [--streaming|--parallel] [--code-point-limit=n] [inputFile...]");
+		printBatchUsage("[--streaming] [--code-point-limit=n] ");
+		System.out.println("  --streaming    Sort without reading whole documents into memory, for large files");
+		System.out.println("  --parallel     Sort the documents of a multi-document stream on all available processors");
+		printCodePointLimitHelp();
+		System.out.println("  --check        Only check that each file is already sorted, and exit with status 1 if not");
+		printBatchHelp();
 	}
 }
@@ -0,0 +1,351 @@
+package com.ltpeacock.sorter;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * <p>Rules for ordering the elements of particular arrays, which are otherwise kept in their original order.</p>
+ * Each rule applies to the arrays (JSON arrays, or YAML sequences) at the paths matching its pattern:
+ * <ul>
+ * <li>{@link #sortValues(String)} sorts the elements by their own values, for arrays of numbers or strings.</li>
+ * <li>{@link #sortBy(String, String...)} sorts the elements by the values at one or more key paths inside them,
+ * for arrays of records.</li>
+ * </ul>
+ * Elements are ordered by type first: numbers (by their exact numeric value, however many digits they have), then
+ * strings, then booleans, and last anything else, including {@code null} and missing keys. Elements with equal
+ * keys keep their original order.
+ * When an array matches several rules, the rule added last is applied.
+ * <br>
+ * Patterns and key paths are JSON Pointers: a pattern such as {@code /dependencies} or {@code /items/0/tags} is
+ * matched from the root of the document, and may contain {@code *} for any one member or element and {@code **}
+ * for any number of levels. A key path such as {@code /name} or {@code /meta/id} is followed from each element.
+ * For example:
+ * <pre>
+ * ArraySortRules rules = new ArraySortRules()
+ *         .sortValues("/**&#47;tags")
+ *         .sortBy("/users", "/lastName", "/firstName");
+ * engine.setArraySortRules(rules);
+ * </pre>
+ * The keys of all elements are extracted once before sorting, through the {@link Keys} of the engine. Keys that
+ * are all integers that fit in a {@code long}, or all numbers that a {@code double} holds exactly enough to keep
+ * them apart, are ordered with primitive sorts of their ranks. Arrays longer than the parallel threshold are
+ * sorted with {@link Arrays#parallelSort(long[])} and its overloads.
+ * @author LieutenantPeacock
+ *
+ */
+public final class ArraySortRules {
+	private final List<Rule> rules = new ArrayList<>();
+	private int parallelThreshold = 8192;
+
+	/**
+	 * Sorts the elements of the arrays matching a pattern by their values.
+	 * @param pattern The path pattern of the arrays.
+	 * @return These rules.
+	 */
+	public ArraySortRules sortValues(final String pattern) {
+		rules.add(new Rule(parse(pattern), Collections.singletonList(Collections.emptyList())));
+		return this;
+	}
+
+	/**
+	 * Sorts the elements of the arrays matching a pattern by the values at the given key paths, comparing the
+	 * value at the next key path when the values at the previous ones are equal.
+	 * @param pattern The path pattern of the arrays.
+	 * @param keyPaths The JSON Pointers of the keys inside each element.
+	 * @return These rules.
+	 */
+	public ArraySortRules sortBy(final String pattern, final String... keyPaths) {
+		if (keyPaths.length == 0)
+			throw new IllegalArgumentException("No key paths for pattern: " + pattern);
+		final List<List<String>> paths = new ArrayList<>(keyPaths.length);
+		for (final String keyPath : keyPaths)
+			paths.add(Collections.unmodifiableList(Arrays.asList(parse(keyPath))));
+		rules.add(new Rule(parse(pattern), Collections.unmodifiableList(paths)));
+		return this;
+	}
+
+	/**
+	 * Set the number of elements from which arrays are sorted in parallel. The default is {@code 8192}.
+	 * @param elements The length from which arrays are sorted with {@code Arrays.parallelSort}.
+	 * @return These rules.
+	 */
+	public ArraySortRules setParallelThreshold(final int elements) {
+		this.parallelThreshold = elements;
+		return this;
+	}
+
+	private static String[] parse(final String pointer) {
+		if (pointer == null || !pointer.isEmpty() && pointer.charAt(0) != '/')
+			throw new IllegalArgumentException("JSON Pointer must be empty or start with '/': " + pointer);
+		if (pointer.isEmpty())
+			return new String[0];
+		final String[] segments = pointer.substring(1).split("/", -1);
+		for (int i = 0; i < segments.length; i++)
+			segments[i] = segments[i].replace("~1", "/").replace("~0", "~");
+		return segments;
+	}
+
+	/**
+	 * Gets the order of the elements of an array by the rule for its path.
+	 * @param path The names of the members and the indexes of the elements from the root to the array.
+	 * @param length The number of elements.
+	 * @param keys Gets the keys of the elements.
+	 * @return The original indexes of the elements in sorted order, or {@code null} if no rule applies.
+	 */
+	public int[] order(final List<String> path, final int length, final Keys keys) {
+		final Rule rule = getRule(path);
+		if (rule == null || length < 2)
+			return null;
+		final Object[][] values = new Object[length][rule.keyPaths.size()];
+		for (int i = 0; i < length; i++) {
+			for (int k = 0; k < values[i].length; k++)
+				values[i][k] = key(keys.key(i, rule.keyPaths.get(k)));
+		}
+		return order(values);
+	}
+
+	/**
+	 * Get the rule added last whose pattern matches the path of an array, or {@code null} if none does.
+	 */
+	private Rule getRule(final List<String> path) {
+		for (int i = rules.size() - 1; i >= 0; i--) {
+			final Rule rule = rules.get(i);
+			if (matches(rule.pattern, 0, path, 0))
+				return rule;
+		}
+		return null;
+	}
+
+	private static boolean matches(final String[] pattern, final int p, final List<String> path, final int i) {
+		if (p == pattern.length)
+			return i == path.size();
+		if ("**".equals(pattern[p])) {
+			for (int j = i; j <= path.size(); j++) {
+				if (matches(pattern, p + 1, path, j))
+					return true;
+			}
+			return false;
+		}
+		return i < path.size() && ("*".equals(pattern[p]) || pattern[p].equals(path.get(i)))
+				&& matches(pattern, p + 1, path, i + 1);
+	}
+
+	/**
+	 * Gets the order of elements from their keys, one for each key path of the rule. Each key is a {@link Long},
+	 * {@link Double}, {@link BigInteger}, {@link BigDecimal}, {@link String}, {@link Boolean} or {@code null}.
+	 */
+	private int[] order(final Object[][] keys) {
+		if (keys.length > 0 && keys[0].length == 1) {
+			boolean longs = true, doubles = true;
+			for (final Object[] key : keys) {
+				longs &= key[0] instanceof Long;
+				doubles &= key[0] instanceof Double;
+			}
+			if (longs) {
+				final long[] values = new long[keys.length];
+				for (int i = 0; i < values.length; i++)
+					values[i] = (Long) keys[i][0];
+				return order(values);
+			}
+			if (doubles) {
+				final double[] values = new double[keys.length];
+				for (int i = 0; i < values.length; i++)
+					values[i] = (Double) keys[i][0];
+				return order(values);
+			}
+		}
+		final Integer[] indexes = new Integer[keys.length];
+		for (int i = 0; i < indexes.length; i++)
+			indexes[i] = i;
+		final Comparator<Integer> comparator = (a, b) -> {
+			final Object[] ka = keys[a], kb = keys[b];
+			for (int k = 0; k < ka.length; k++) {
+				final int c = compareKeys(ka[k], kb[k]);
+				if (c != 0)
+					return c;
+			}
+			return 0;
+		};
+		if (indexes.length >= parallelThreshold)
+			Arrays.parallelSort(indexes, comparator);
+		else
+			Arrays.sort(indexes, comparator);
+		final int[] order = new int[indexes.length];
+		for (int i = 0; i < order.length; i++)
+			order[i] = indexes[i];
+		return order;
+	}
+
+	/**
+	 * Gets the order of elements from numeric keys, with primitive sorts only: the keys are sorted to find the rank
+	 * of each one, and the ranks are sorted together with the indexes, packed into a {@code long[]}.
+	 */
+	private int[] order(final long[] keys) {
+		final long[] sorted = keys.clone();
+		sort(sorted);
+		final long[] packed = new long[keys.length];
+		for (int i = 0; i < keys.length; i++) {
+			int low = 0, high = sorted.length;
+			while (low < high) {
+				final int mid = (low + high) >>> 1;
+				if (sorted[mid] < keys[i])
+					low = mid + 1;
+				else
+					high = mid;
+			}
+			packed[i] = (long) low << 32 | i;
+		}
+		return unpack(packed);
+	}
+
+	private int[] order(final double[] keys) {
+		final double[] sorted = keys.clone();
+		sort(sorted);
+		final long[] packed = new long[keys.length];
+		for (int i = 0; i < keys.length; i++) {
+			int low = 0, high = sorted.length;
+			while (low < high) {
+				final int mid = (low + high) >>> 1;
+				if (Double.compare(sorted[mid], keys[i]) < 0)
+					low = mid + 1;
+				else
+					high = mid;
+			}
+			packed[i] = (long) low << 32 | i;
+		}
+		return unpack(packed);
+	}
+
+	private int[] unpack(final long[] packed) {
+		sort(packed);
+		final int[] order = new int[packed.length];
+		for (int i = 0; i < order.length; i++)
+			order[i] = (int) packed[i];
+		return order;
+	}
+
+	private void sort(final long[] values) {
+		if (values.length >= parallelThreshold)
+			Arrays.parallelSort(values);
+		else
+			Arrays.sort(values);
+	}
+
+	private void sort(final double[] values) {
+		if (values.length >= parallelThreshold)
+			Arrays.parallelSort(values);
+		else
+			Arrays.sort(values);
+	}
+
+	/**
+	 * Converts a number given by an engine to a {@link Long} if it is an integer that fits, to a {@link Double} if
+	 * a {@code double} tells it apart from every other number of at most as many digits, and otherwise to a
+	 * {@link BigInteger} or {@link BigDecimal}, so that large and precise numbers are compared exactly.
+	 */
+	private static Object key(final Object key) {
+		if (key instanceof Long || key instanceof Double || !(key instanceof Number))
+			return key;
+		if (key instanceof Integer || key instanceof Short || key instanceof Byte)
+			return ((Number) key).longValue();
+		if (key instanceof BigInteger)
+			return ((BigInteger) key).bitLength() < Long.SIZE ? (Object) ((BigInteger) key).longValue() : key;
+		if (key instanceof BigDecimal) {
+			final BigDecimal value = (BigDecimal) key;
+			if (value.signum() == 0)
+				return 0L;
+			if (value.precision() - value.scale() <= 19 && value.stripTrailingZeros().scale() <= 0) {
+				final BigInteger integer = value.toBigIntegerExact();
+				return integer.bitLength() < Long.SIZE ? (Object) integer.longValue() : integer;
+			}
+			// Every decimal of up to 15 digits in the normal range is its own double
+			final double d = value.doubleValue();
+			return value.precision() <= 15 && Math.abs(d) >= Double.MIN_NORMAL && Math.abs(d) <= Double.MAX_VALUE
+					? (Object) d : value;
+		}
+		return ((Number) key).doubleValue();
+	}
+
+	/**
+	 * Compares two keys in the order of the rules.
+	 */
+	private static int compareKeys(final Object a, final Object b) {
+		final int ra = rank(a), rb = rank(b);
+		if (ra != rb)
+			return Integer.compare(ra, rb);
+		switch (ra) {
+		case 0:
+			if (a instanceof Long && b instanceof Long)
+				return Long.compare((Long) a, (Long) b);
+			// Rounding to double keeps the order, so only numbers that round to the same double are compared exactly
+			final int c = Double.compare(((Number) a).doubleValue(), ((Number) b).doubleValue());
+			if (c != 0 || a instanceof Double && b instanceof Double || !isFinite(a) || !isFinite(b))
+				return c;
+			return exact(a).compareTo(exact(b));
+		case 1:
+			return ((String) a).compareTo((String) b);
+		case 2:
+			return Boolean.compare((Boolean) a, (Boolean) b);
+		default:
+			return 0;
+		}
+	}
+
+	private static boolean isFinite(final Object number) {
+		return !(number instanceof Double) || !((Double) number).isInfinite() && !((Double) number).isNaN();
+	}
+
+	private static BigDecimal exact(final Object number) {
+		if (number instanceof BigDecimal)
+			return (BigDecimal) number;
+		if (number instanceof BigInteger)
+			return new BigDecimal((BigInteger) number);
+		if (number instanceof Long)
+			return BigDecimal.valueOf((Long) number);
+		return new BigDecimal((Double) number);
+	}
+
+	private static int rank(final Object key) {
+		if (key instanceof Number)
+			return 0;
+		if (key instanceof String)
+			return 1;
+		if (key instanceof Boolean)
+			return 2;
+		return 3;
+	}
+
+	/**
+	 * Gets the sort keys of the elements of an array. Implemented by the sorting engines.
+	 */
+	@FunctionalInterface
+	public interface Keys {
+		/**
+		 * Get the sort key of the value at a key path inside an element.
+		 * @param element The index of the element.
+		 * @param keyPath The names of members and indexes of elements from the element to its key, which is empty
+		 * to sort the elements by their own values.
+		 * @return A {@link Number}, {@link String} or {@link Boolean} value, or {@code null} for anything else
+		 * or a missing key.
+		 */
+		Object key(int element, List<String> keyPath);
+	}
+
+	/**
+	 * A rule for ordering the elements of arrays.
+	 */
+	private static final class Rule {
+		private final String[] pattern;
+		private final List<List<String>> keyPaths;
+
+		Rule(final String[] pattern, final List<List<String>> keyPaths) {
+			this.pattern = pattern;
+			this.keyPaths = keyPaths;
+		}
+	}
+}
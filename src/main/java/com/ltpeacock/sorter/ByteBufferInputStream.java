@@ -0,0 +1,162 @@
+package com.ltpeacock.sorter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * <p>{@link InputStream} that reads the remaining bytes of a {@link ByteBuffer}, or of a memory-mapped file.</p>
+ * Reading from a mapped file copies the bytes straight from the page cache into the reader's buffer, without the
+ * intermediate copies of {@link java.io.FileInputStream}. Files larger than {@link Integer#MAX_VALUE} bytes are
+ * mapped one region at a time as they are read.
+ * @author LieutenantPeacock
+ *
+ */
+public final class ByteBufferInputStream extends InputStream {
+	/**
+	 * Files smaller than this are read through the channel, since mapping them costs more than it saves.
+	 */
+	private static final long MAP_THRESHOLD = 1 << 20;
+	private static final long MAX_REGION = Integer.MAX_VALUE;
+
+	private final FileChannel channel;
+	private final long size;
+	private long position;
+	private ByteBuffer buffer;
+	private int mark = -1;
+
+	/**
+	 * Creates a stream over the remaining bytes of a buffer. The buffer's position is not changed.
+	 * @param buffer The buffer to read from.
+	 */
+	public ByteBufferInputStream(final ByteBuffer buffer) {
+		this.channel = null;
+		this.buffer = buffer.slice();
+		this.size = this.buffer.remaining();
+		this.position = size;
+	}
+
+	private ByteBufferInputStream(final FileChannel channel) throws IOException {
+		this.channel = channel;
+		this.position = channel.position();
+		this.size = channel.size();
+		this.buffer = ByteBuffer.allocate(0);
+	}
+
+	/**
+	 * Opens a stream that reads a file channel from its current position. Large files are memory-mapped;
+	 * small files are read into memory at once, and their channel is closed. Either way, the stream can be read
+	 * again from a mark. Closing the stream closes the channel.
+	 * @param channel The channel to read from.
+	 * @return The stream.
+	 * @throws IOException If there is an error in reading the size of the channel.
+	 */
+	public static InputStream open(final FileChannel channel) throws IOException {
+		if (channel.size() - channel.position() >= MAP_THRESHOLD)
+			return new ByteBufferInputStream(channel);
+		try {
+			final ByteBuffer bytes = ByteBuffer.allocate((int) (channel.size() - channel.position()));
+			while (bytes.hasRemaining()) {
+				if (channel.read(bytes) < 0)
+					break;
+			}
+			((Buffer) bytes).flip();
+			return new ByteBufferInputStream(bytes);
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Maps the next region of the file once the current one has been read.
+	 * @return {@code false} at the end of the input.
+	 */
+	private boolean fill() throws IOException {
+		if (buffer.hasRemaining())
+			return true;
+		if (channel == null || position >= size)
+			return false;
+		final long length = Math.min(MAX_REGION, size - position);
+		buffer = channel.map(MapMode.READ_ONLY, position, length);
+		position += length;
+		mark = -1;
+		return true;
+	}
+
+	@Override
+	public int read() throws IOException {
+		return fill() ? buffer.get() & 0xFF : -1;
+	}
+
+	@Override
+	public int read(final byte[] b, final int off, final int len) throws IOException {
+		if (len == 0)
+			return 0;
+		if (!fill())
+			return -1;
+		final int n = Math.min(len, buffer.remaining());
+		buffer.get(b, off, n);
+		return n;
+	}
+
+	@Override
+	public long skip(final long n) throws IOException {
+		long skipped = 0;
+		while (skipped < n && fill()) {
+			final int step = (int) Math.min(n - skipped, buffer.remaining());
+			// Cast for Java 8, where ByteBuffer does not override position(int)
+			((Buffer) buffer).position(buffer.position() + step);
+			skipped += step;
+		}
+		return skipped;
+	}
+
+	@Override
+	public int available() {
+		return (int) Math.min(Integer.MAX_VALUE, buffer.remaining() + (size - position));
+	}
+
+	@Override
+	public boolean markSupported() {
+		return true;
+	}
+
+	/**
+	 * Marks the current position. For a mapped file, the mark is lost when the next region is mapped.
+	 */
+	@Override
+	public synchronized void mark(final int readlimit) {
+		mark = buffer.position();
+	}
+
+	/**
+	 * Marks the current position if the rest of the input can be read again from it, which for a mapped file is
+	 * when the rest fits in the region that is mapped next.
+	 * @return Whether the mark was set.
+	 */
+	synchronized boolean markRemaining() throws IOException {
+		fill();
+		if (channel != null && position < size)
+			return false;
+		mark = buffer.position();
+		return true;
+	}
+
+	@Override
+	public synchronized void reset() throws IOException {
+		if (mark < 0)
+			throw new IOException("Mark not set");
+		((Buffer) buffer).position(mark);
+	}
+
+	@Override
+	public void close() throws IOException {
+		buffer = ByteBuffer.allocate(0);
+		position = size;
+		if (channel != null)
+			channel.close();
+	}
+}
@@ -3,9 +3,17 @@ package com.ltpeacock.sorter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
 
 /**
- * Interface for classes capable of reading content from an {@link InputStream}, sorting it, 
+ * Interface for classes capable of reading content from an {@link InputStream}, sorting it,
  * and writing the result to an {@link OutputStream}.
  * @author LieutenantPeacock
  */
@@ -17,4 +25,77 @@ public interface ContentSorter {
 	 * @throws IOException If there is an error in reading/writing data.
 	 */
 	void sort(InputStream is, OutputStream os) throws IOException;
+
+	/**
+	 * Sort the content of the file at the given {@link Path} and write it to another file.
+	 * Large input files are memory-mapped, and the output is written through a {@link FileChannel}.
+	 * If both paths refer to the same file, the result is written to a temporary file next to it first,
+	 * which then replaces the input. A symbolic link is followed to the file it points to, which is the one that is
+	 * replaced, and the POSIX permissions of that file are given to its replacement.
+	 * @param in The file to read the content from.
+	 * @param out The file to write the sorted result to, which is created or truncated.
+	 * @throws IOException If there is an error in reading/writing data.
+	 */
+	default void sort(final Path in, final Path out) throws IOException {
+		if (Files.exists(out) && Files.isSameFile(in, out)) {
+			final Path target = out.toRealPath();
+			final Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+			try {
+				sort(in, temp);
+				// Temporary files are only readable by their owner
+				final PosixFileAttributeView view = Files.getFileAttributeView(target, PosixFileAttributeView.class);
+				if (view != null)
+					Files.setPosixFilePermissions(temp, view.readAttributes().permissions());
+				Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+			} finally {
+				Files.deleteIfExists(temp);
+			}
+			return;
+		}
+		try (FileChannel input = FileChannel.open(in, StandardOpenOption.READ);
+				FileChannel output = FileChannel.open(out, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+						StandardOpenOption.TRUNCATE_EXISTING);
+				InputStream is = ByteBufferInputStream.open(input);
+				OutputStream os = Channels.newOutputStream(output)) {
+			sort(is, os);
+		}
+	}
+
+	/**
+	 * Check whether the content from the given {@link InputStream} is already sorted, which is whether sorting it
+	 * would write exactly the bytes that were read. The content is sorted against its own input, stopping at the
+	 * first byte that differs where the sorter allows it; sorters may override this with a cheaper check.
+	 * @param is The {@link InputStream} to read the content from.
+	 * @return Whether the content is already sorted and formatted as this sorter would write it.
+	 * @throws IOException If there is an error in reading data.
+	 */
+	default boolean isSorted(final InputStream is) throws IOException {
+		final SortedInputMatcher matcher = new SortedInputMatcher(is);
+		sort(matcher.getInput(), matcher.getOutput());
+		return matcher.matchesAll();
+	}
+
+	/**
+	 * Check whether the content of the file at the given {@link Path} is already sorted.
+	 * @param in The file to read the content from.
+	 * @return Whether the content is already sorted and formatted as this sorter would write it.
+	 * @throws IOException If there is an error in reading data.
+	 * @see #isSorted(InputStream)
+	 */
+	default boolean isSorted(final Path in) throws IOException {
+		try (InputStream is = ByteBufferInputStream.open(FileChannel.open(in, StandardOpenOption.READ))) {
+			return isSorted(is);
+		}
+	}
+
+	/**
+	 * Sort the content held in the remaining bytes of a {@link ByteBuffer}, such as a mapped file,
+	 * and write it to the given {@link OutputStream}.
+	 * @param in The buffer to read the content from. Its position is not changed.
+	 * @param os The {@link OutputStream} to write the sorted result to.
+	 * @throws IOException If there is an error in reading/writing data.
+	 */
+	default void sort(final ByteBuffer in, final OutputStream os) throws IOException {
+		sort(new ByteBufferInputStream(in), os);
+	}
 }
@@ -0,0 +1,102 @@
+package com.ltpeacock.sorter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * <p>Runs tasks that each render one part of the output into a buffer, and writes the parts in the order in which
+ * the tasks were submitted, whichever finishes first.</p>
+ * With a {@link ForkJoinPool}, at most a fixed number of tasks are submitted ahead of the one being written, which
+ * bounds the memory used by the size of the parts rather than the size of the output. Without one, each task is
+ * run and written as soon as it is submitted.
+ * @author LieutenantPeacock
+ *
+ */
+public final class OrderedTaskWriter implements AutoCloseable {
+	private final OutputStream out;
+	private final ForkJoinPool pool;
+	private final int window;
+	private final ArrayDeque<Future<ByteArrayOutputStream>> pending = new ArrayDeque<>();
+
+	/**
+	 * @param out The stream to write the parts to.
+	 * @param pool The pool to run the tasks on, or {@code null} to run them on the calling thread.
+	 * @param window The largest number of tasks running while the oldest one is waited for.
+	 */
+	public OrderedTaskWriter(final OutputStream out, final ForkJoinPool pool, final int window) {
+		this.out = out;
+		this.pool = pool;
+		this.window = Math.max(1, window);
+	}
+
+	/**
+	 * Submits a task, and writes the parts of earlier tasks if too many are running.
+	 */
+	public void submit(final Callable<ByteArrayOutputStream> task) throws IOException {
+		if (pool == null) {
+			call(task).writeTo(out);
+			return;
+		}
+		pending.add(pool.submit(task));
+		if (pending.size() >= window)
+			await(pending.poll()).writeTo(out);
+	}
+
+	/**
+	 * Waits for all tasks submitted so far, and writes their parts.
+	 */
+	public void drain() throws IOException {
+		while (!pending.isEmpty())
+			await(pending.poll()).writeTo(out);
+	}
+
+	/**
+	 * Cancels the tasks whose parts have not been written, after an error.
+	 */
+	@Override
+	public void close() {
+		for (final Future<ByteArrayOutputStream> future : pending)
+			future.cancel(false);
+		pending.clear();
+	}
+
+	private static ByteArrayOutputStream call(final Callable<ByteArrayOutputStream> task) throws IOException {
+		try {
+			return task.call();
+		} catch (IOException | RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IOException(e);
+		}
+	}
+
+	private static ByteArrayOutputStream await(final Future<ByteArrayOutputStream> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while sorting", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			// A ForkJoinTask rethrows a copy of the exception of another thread, with the original as its cause
+			if (cause.getCause() != null && cause.getCause().getClass() == cause.getClass())
+				cause = cause.getCause();
+			if (cause instanceof UncheckedIOException)
+				throw ((UncheckedIOException) cause).getCause();
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new IOException(cause);
+		}
+	}
+}
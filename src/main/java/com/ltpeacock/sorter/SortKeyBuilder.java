@@ -0,0 +1,91 @@
+package com.ltpeacock.sorter;
+
+import java.util.Arrays;
+
+/**
+ * <p>Builder for binary sort keys: byte arrays that order the same way as the sequence of strings they were built from.</p>
+ * A key is built from components appended with {@link #append(String)}. Comparing two keys with
+ * {@link #compare(byte[], byte[])} gives the same result as comparing their components one by one with
+ * {@link String#compareTo(String)}, with {@code null} components ordered first, and stops at the first component
+ * that differs. The comparison is a plain unsigned byte comparison that does not depend on the locale and does not
+ * allocate, which makes it suitable for sorting large numbers of elements whose keys are computed once in advance,
+ * much like a {@link java.text.CollationKey}.
+ * <br>
+ * A builder can be reused for any number of keys by calling {@link #reset()}.
+ * @author LieutenantPeacock
+ *
+ */
+public final class SortKeyBuilder {
+	private byte[] bytes = new byte[64];
+	private int length;
+
+	/**
+	 * Appends a string component to the key.
+	 * @param component The component, which may be {@code null}.
+	 * @return This builder.
+	 */
+	public SortKeyBuilder append(final String component) {
+		if (component == null) {
+			ensureCapacity(1);
+			bytes[length++] = 0;
+			return this;
+		}
+		final int n = component.length();
+		ensureCapacity(1 + 4 * n + 4);
+		bytes[length++] = 1;
+		for (int i = 0; i < n; i++) {
+			final char c = component.charAt(i);
+			// Each char is written big-endian, except that U+0000 is escaped so that it still sorts
+			// after the four zero bytes that terminate the component.
+			bytes[length++] = (byte) (c >>> 8);
+			bytes[length++] = (byte) c;
+			if (c == 0) {
+				bytes[length++] = 0;
+				bytes[length++] = 1;
+			}
+		}
+		bytes[length++] = 0;
+		bytes[length++] = 0;
+		bytes[length++] = 0;
+		bytes[length++] = 0;
+		return this;
+	}
+
+	/**
+	 * Get the key built so far.
+	 * @return A new byte array holding the key.
+	 */
+	public byte[] toKey() {
+		return Arrays.copyOf(bytes, length);
+	}
+
+	/**
+	 * Clears the builder so that a new key can be built.
+	 * @return This builder.
+	 */
+	public SortKeyBuilder reset() {
+		length = 0;
+		return this;
+	}
+
+	private void ensureCapacity(final int extra) {
+		if (length + extra > bytes.length)
+			bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + extra));
+	}
+
+	/**
+	 * Compares two sort keys.
+	 * @param key1 The first key.
+	 * @param key2 The second key.
+	 * @return A negative integer, zero, or a positive integer as the first key
+	 * is less than, equal to, or greater than the second.
+	 */
+	public static int compare(final byte[] key1, final byte[] key2) {
+		final int n = Math.min(key1.length, key2.length);
+		for (int i = 0; i < n; i++) {
+			if (key1[i] != key2[i])
+				return (key1[i] & 0xFF) - (key2[i] & 0xFF);
+		}
+		return key1.length - key2.length;
+	}
+}
@@ -0,0 +1,202 @@
+package com.ltpeacock.sorter;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntBinaryOperator;
+
+/**
+ * <p>Cache of sort permutations for objects that have the same keys in the same order.</p>
+ * Records in large arrays or sequences usually all have the same shape: the same keys, in the same order. Sorting
+ * the keys of such a record always gives the same permutation, so it is computed for the first record of each
+ * shape and looked up for the others, which are then reordered in linear time without calling the comparator.
+ * <br>
+ * The cache holds at most a fixed number of shapes, evicting one that has not been used recently when it is full:
+ * shapes are kept in the order they were added, and each shape that was used since it was last passed over gets
+ * another turn at the end instead of being evicted. Lookups of shapes in the cache do not take a lock, so that
+ * threads sorting records of the same shape at once do not wait for each other; only adding a shape does.
+ * Objects with more than {@value #MAX_SHAPE_LENGTH} keys are not records, and are always sorted directly.
+ * The counters of hits, misses and evictions show how effective the cache is on the data being sorted.
+ * <br>
+ * A cache is only valid for one comparator, which must order keys by their names alone. It is safe to use from
+ * several threads at once.
+ * @author LieutenantPeacock
+ *
+ */
+public final class SortPermutationCache {
+	/**
+	 * The default number of shapes kept.
+	 */
+	public static final int DEFAULT_CAPACITY = 1024;
+	/**
+	 * The largest number of keys of a shape that is cached.
+	 */
+	public static final int MAX_SHAPE_LENGTH = 256;
+
+	private final int capacity;
+	private final ConcurrentHashMap<Shape, Entry> permutations = new ConcurrentHashMap<>();
+	/**
+	 * The shapes in the cache, in the order they are considered for eviction. Guarded by itself.
+	 */
+	private final ArrayDeque<Shape> order = new ArrayDeque<>();
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	 * Creates a cache that holds up to {@link #DEFAULT_CAPACITY} shapes.
+	 */
+	public SortPermutationCache() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates a cache that holds up to the given number of shapes.
+	 * @param capacity The maximum number of shapes.
+	 */
+	public SortPermutationCache(final int capacity) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Get the permutation that sorts keys, from the cache if keys with the same names in the same order have
+	 * been sorted before.
+	 * @param keys The names of the keys, in their original order.
+	 * @param comparator Compares the keys at two indexes of {@code keys}. Keys that compare equal keep their
+	 * original order.
+	 * @return The original indexes of the keys in sorted order. The array must not be modified.
+	 */
+	public int[] getPermutation(final String[] keys, final IntBinaryOperator comparator) {
+		if (keys.length > MAX_SHAPE_LENGTH)
+			return sort(keys.length, comparator);
+		final Entry cached = permutations.get(new Shape(keys));
+		if (cached != null) {
+			hits.increment();
+			// Only written when it changes, so that threads sharing a shape do not keep writing the same field
+			if (!cached.used)
+				cached.used = true;
+			return cached.permutation;
+		}
+		misses.increment();
+		final int[] permutation = sort(keys.length, comparator);
+		// The caller may reuse its array, so the cache keeps its own copy of the names
+		final Shape shape = new Shape(keys.clone());
+		synchronized (order) {
+			if (permutations.putIfAbsent(shape, new Entry(permutation)) == null) {
+				order.addLast(shape);
+				while (order.size() > capacity) {
+					final Shape eldest = order.pollFirst();
+					final Entry entry = permutations.get(eldest);
+					if (entry.used) {
+						entry.used = false;
+						order.addLast(eldest);
+					} else {
+						permutations.remove(eldest);
+						evictions.increment();
+					}
+				}
+			}
+		}
+		return permutation;
+	}
+
+	private static int[] sort(final int n, final IntBinaryOperator comparator) {
+		final Integer[] indexes = new Integer[n];
+		for (int i = 0; i < n; i++)
+			indexes[i] = i;
+		Arrays.sort(indexes, comparator::applyAsInt);
+		final int[] permutation = new int[n];
+		for (int i = 0; i < n; i++)
+			permutation[i] = indexes[i];
+		return permutation;
+	}
+
+	/**
+	 * Get the number of lookups that found the permutation in the cache.
+	 * @return The number of hits.
+	 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/**
+	 * Get the number of lookups that had to sort the keys.
+	 * @return The number of misses.
+	 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * Get the number of shapes that were removed to make room for others.
+	 * @return The number of evictions.
+	 */
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	/**
+	 * Get the number of shapes in the cache.
+	 * @return The number of shapes.
+	 */
+	public int size() {
+		return permutations.size();
+	}
+
+	/**
+	 * Removes all shapes from the cache and resets the counters.
+	 */
+	public void clear() {
+		synchronized (order) {
+			permutations.clear();
+			order.clear();
+			hits.reset();
+			misses.reset();
+			evictions.reset();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "SortPermutationCache[size=" + permutations.size() + ", hits=" + hits + ", misses=" + misses
+				+ ", evictions=" + evictions + "]";
+	}
+
+	/**
+	 * A cached permutation, with whether it was looked up since eviction last passed over it.
+	 */
+	private static final class Entry {
+		final int[] permutation;
+		volatile boolean used;
+
+		Entry(final int[] permutation) {
+			this.permutation = permutation;
+		}
+	}
+
+	/**
+	 * Key names in their original order, with the hash code computed once.
+	 */
+	private static final class Shape {
+		private final String[] keys;
+		private final int hash;
+
+		Shape(final String[] keys) {
+			this.keys = keys;
+			this.hash = Arrays.hashCode(keys);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			return obj instanceof Shape && ((Shape) obj).hash == hash && Arrays.equals(((Shape) obj).keys, keys);
+		}
+	}
+}
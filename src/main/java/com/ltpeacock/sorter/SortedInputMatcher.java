@@ -0,0 +1,212 @@
+package com.ltpeacock.sorter;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * <p>Compares the output of a sorter with its input while both are being produced, to check whether the input is
+ * already sorted.</p>
+ * The sorter reads from {@link #getInput()} and writes to {@link #getOutput()}, and every byte written is compared
+ * with the byte at the same offset of the input. Bytes are only kept from where the side that is further behind is
+ * up to, so for a sorter that writes its output while it reads its input, only the distance between the two is
+ * held in memory. Once a byte differs, the output is ignored and the input is no longer kept for it.
+ * <br>
+ * Not thread-safe.
+ * @author LieutenantPeacock
+ *
+ */
+public final class SortedInputMatcher {
+	private final InputStream source;
+	private byte[] buffer = new byte[8192];
+	private int readPosition;
+	private int matchPosition;
+	private int limit;
+	private boolean end;
+	private boolean matching = true;
+	private final InputStream input = new Input();
+	private final OutputStream output = new Output();
+
+	/**
+	 * @param source The input of the sorter.
+	 */
+	public SortedInputMatcher(final InputStream source) {
+		this.source = source;
+	}
+
+	/**
+	 * Get the stream for the sorter to read its input from. Closing it does not close the source.
+	 */
+	public InputStream getInput() {
+		return input;
+	}
+
+	/**
+	 * Get the stream for the sorter to write its output to.
+	 */
+	public OutputStream getOutput() {
+		return output;
+	}
+
+	/**
+	 * Whether all the output so far is the same as the start of the input.
+	 */
+	public boolean isMatching() {
+		return matching;
+	}
+
+	/**
+	 * Whether the whole output has been the same as the input, and the input ends where the output does. This
+	 * reads the rest of the input, if the sorter did not.
+	 * @throws IOException If there is an error in reading the input.
+	 */
+	public boolean matchesAll() throws IOException {
+		if (!matching)
+			return false;
+		while (matchPosition == limit) {
+			if (!fill())
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Reads more of the source, after dropping the bytes that both sides are done with.
+	 * @return {@code false} at the end of the input.
+	 */
+	private boolean fill() throws IOException {
+		if (end)
+			return false;
+		final int keep = matching ? Math.min(readPosition, matchPosition) : readPosition;
+		if (keep > 0) {
+			System.arraycopy(buffer, keep, buffer, 0, limit - keep);
+			limit -= keep;
+			readPosition -= keep;
+			matchPosition = Math.max(0, matchPosition - keep);
+		}
+		if (limit == buffer.length)
+			buffer = Arrays.copyOf(buffer, buffer.length * 2);
+		final int n = source.read(buffer, limit, buffer.length - limit);
+		if (n < 0) {
+			end = true;
+			return false;
+		}
+		limit += n;
+		return true;
+	}
+
+	private final class Input extends InputStream {
+		@Override
+		public int read() throws IOException {
+			while (readPosition == limit) {
+				if (!fill())
+					return -1;
+			}
+			return buffer[readPosition++] & 0xFF;
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) throws IOException {
+			if (len == 0)
+				return 0;
+			while (readPosition == limit) {
+				if (!fill())
+					return -1;
+			}
+			final int n = Math.min(len, limit - readPosition);
+			System.arraycopy(buffer, readPosition, b, off, n);
+			readPosition += n;
+			return n;
+		}
+
+		@Override
+		public int available() throws IOException {
+			return limit - readPosition;
+		}
+	}
+
+	private final class Output extends OutputStream {
+		@Override
+		public void write(final int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(final byte[] b, int off, int len) throws IOException {
+			while (matching && len > 0) {
+				while (matchPosition == limit) {
+					if (!fill()) {
+						// The output is longer than the input
+						matching = false;
+						return;
+					}
+				}
+				final int n = Math.min(len, limit - matchPosition);
+				for (int i = 0; i < n; i++) {
+					if (buffer[matchPosition + i] != b[off + i]) {
+						matching = false;
+						return;
+					}
+				}
+				matchPosition += n;
+				off += n;
+				len -= n;
+			}
+		}
+	}
+
+	/**
+	 * Check whether an input is already sorted, such as {@link ContentSorter#isSorted(InputStream)}.
+	 */
+	@FunctionalInterface
+	public interface Check {
+		boolean isSorted(InputStream is) throws IOException;
+	}
+
+	/**
+	 * Marks the current position of an input if it can be read again from there without holding more of the input in
+	 * memory, as for {@link #copyIfSorted(InputStream, OutputStream, Check)}, so that a check can read it and
+	 * {@link InputStream#reset()} it afterwards.
+	 * @param is The input.
+	 * @return Whether the input was marked.
+	 * @throws IOException If there is an error in reading data.
+	 */
+	public static boolean markIfRereadable(final InputStream is) throws IOException {
+		if (!(is instanceof ByteArrayInputStream
+				|| is instanceof ByteBufferInputStream && ((ByteBufferInputStream) is).markRemaining()))
+			return false;
+		is.mark(Integer.MAX_VALUE);
+		return true;
+	}
+
+	/**
+	 * Copies the input to the output as it is if a check finds that it is already sorted, so that a sorter can skip
+	 * parsing and writing it again. The input is read twice, so only streams that can be read again from where they
+	 * are without holding more of the input in memory are checked: streams over bytes in memory, or over a file
+	 * opened with {@link ByteBufferInputStream#open} whose rest is mapped in one region. Other streams, such as
+	 * standard input or a socket, are not checked, since that would take as much memory as the whole input.
+	 * @param is The input.
+	 * @param os The output.
+	 * @param check The check of the sorter.
+	 * @return {@code null} if the input was copied, or otherwise a stream with the whole input for the sorter to
+	 * read, which is the given stream without any check if it could not be read twice.
+	 * @throws IOException If there is an error in reading/writing data.
+	 */
+	public static InputStream copyIfSorted(final InputStream is, final OutputStream os, final Check check)
+			throws IOException {
+		if (!markIfRereadable(is))
+			return is;
+		final boolean sorted = check.isSorted(is);
+		is.reset();
+		if (!sorted)
+			return is;
+		final byte[] bytes = new byte[65536];
+		int n;
+		while ((n = is.read(bytes)) != -1)
+			os.write(bytes, 0, n);
+		os.flush();
+		return null;
+	}
+}
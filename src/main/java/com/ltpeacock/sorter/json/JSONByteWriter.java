@@ -0,0 +1,305 @@
+package com.ltpeacock.sorter.json;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import com.github.openjson.JSONArray;
+import com.github.openjson.JSONObject;
+import com.github.openjson.JSONString;
+
+/**
+ * Buffered UTF-8 writer for JSON, which serializes values straight to an {@link OutputStream}.
+ * <br>
+ * It writes exactly the bytes of {@code toString(indent).getBytes(UTF_8)} for the same values: strings are escaped
+ * as {@link com.github.openjson.JSONStringer JSONStringer} does, numbers are written with
+ * {@link JSONObject#numberToString(Number)}, members with {@code null} values are left out, and an indent of
+ * {@code 0} or less writes everything on one line. Runs of ASCII characters that need no escaping are copied into
+ * the buffer without any further checks, and the line break followed by the indentation of each depth is encoded
+ * once and kept for reuse.
+ * <br>
+ * Since this is also an {@link OutputStream}, already encoded JSON can be copied into it directly.
+ * @author LieutenantPeacock
+ *
+ */
+final class JSONByteWriter extends OutputStream {
+	private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+	private final OutputStream out;
+	private final byte[] buffer = new byte[16384];
+	private int position;
+	private long count;
+	private final int indent;
+	private byte[][] newlines = new byte[16][];
+
+	/**
+	 * @param out The stream to write to.
+	 * @param indent The number of spaces per indent level, or {@code 0} to write everything on one line.
+	 */
+	JSONByteWriter(final OutputStream out, final int indent) {
+		this.out = out;
+		this.indent = indent;
+	}
+
+	/**
+	 * Writes a value of an openjson tree, as {@link com.github.openjson.JSONStringer#value(Object)
+	 * JSONStringer.value} would.
+	 * @param depth The depth of the value, which is {@code 0} for the root.
+	 */
+	void writeValue(final Object value, final int depth) throws IOException {
+		if (value instanceof JSONObject) {
+			writeObject((JSONObject) value, depth);
+		} else if (value instanceof JSONArray) {
+			writeArray((JSONArray) value, depth);
+		} else if (value instanceof String) {
+			writeString((String) value);
+		} else if (value instanceof Number) {
+			writeAscii(JSONObject.numberToString((Number) value));
+		} else if (value instanceof JSONRawNumber) {
+			writeAscii(((JSONRawNumber) value).getText());
+		} else if (value == null || value instanceof Boolean || value == JSONObject.NULL) {
+			writeAscii(String.valueOf(value));
+		} else if (value instanceof JSONString) {
+			writeRaw(((JSONString) value).toJSONString());
+		} else if (value.getClass().getName().contains("JSONFunction")) {
+			writeRaw(value.toString());
+		} else {
+			writeString(value.toString());
+		}
+	}
+
+	private void writeObject(final JSONObject obj, final int depth) throws IOException {
+		write('{');
+		boolean empty = true;
+		for (final String key : obj.keySet()) {
+			final Object value = obj.opt(key);
+			if (JSONObject.NULL.equals(value))
+				continue;
+			if (!empty)
+				write(',');
+			empty = false;
+			writeNewline(depth + 1);
+			writeKey(key);
+			writeValue(value, depth + 1);
+		}
+		if (!empty)
+			writeNewline(depth);
+		write('}');
+	}
+
+	private void writeArray(final JSONArray arr, final int depth) throws IOException {
+		write('[');
+		final int length = arr.length();
+		for (int i = 0; i < length; i++) {
+			if (i > 0)
+				write(',');
+			writeNewline(depth + 1);
+			writeValue(arr.opt(i), depth + 1);
+		}
+		if (length > 0)
+			writeNewline(depth);
+		write(']');
+	}
+
+	/**
+	 * Writes a key and the separator after it.
+	 */
+	void writeKey(final String key) throws IOException {
+		writeString(key);
+		write(':');
+		if (indent > 0)
+			write(' ');
+	}
+
+	/**
+	 * Writes a line break followed by the indentation for the given depth, unless the output is on one line.
+	 */
+	void writeNewline(final int depth) throws IOException {
+		if (indent <= 0)
+			return;
+		if (depth >= newlines.length)
+			newlines = Arrays.copyOf(newlines, Math.max(depth + 1, newlines.length * 2));
+		byte[] bytes = newlines[depth];
+		if (bytes == null) {
+			bytes = new byte[1 + indent * depth];
+			Arrays.fill(bytes, (byte) ' ');
+			bytes[0] = '\n';
+			newlines[depth] = bytes;
+		}
+		write(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * Writes a quoted and escaped string.
+	 */
+	void writeString(final String str) throws IOException {
+		write('"');
+		final int n = str.length();
+		char last = 0;
+		int i = 0;
+		while (i < n) {
+			// Copy the run of ASCII characters that need no escaping straight into the buffer
+			int room = buffer.length - position;
+			if (room == 0) {
+				flushBuffer();
+				room = buffer.length;
+			}
+			final int end = Math.min(n, i + room);
+			final int start = i;
+			while (i < end) {
+				final char c = str.charAt(i);
+				if (c < 0x20 || c >= 0x80 || c == '"' || c == '\\' || c == '/')
+					break;
+				buffer[position++] = (byte) c;
+				i++;
+			}
+			count += i - start;
+			if (i > start)
+				last = str.charAt(i - 1);
+			if (i == end)
+				continue;
+			final char c = str.charAt(i);
+			switch (c) {
+			case '"':
+			case '\\':
+				write('\\');
+				write(c);
+				break;
+			case '/':
+				if (last == '<')
+					write('\\');
+				write(c);
+				break;
+			case '\t':
+				writeEscape('t');
+				break;
+			case '\b':
+				writeEscape('b');
+				break;
+			case '\n':
+				writeEscape('n');
+				break;
+			case '\r':
+				writeEscape('r');
+				break;
+			case '\f':
+				writeEscape('f');
+				break;
+			default:
+				if (c < 0x20) {
+					writeEscape('u');
+					write('0');
+					write('0');
+					write(HEX[c >> 4]);
+					write(HEX[c & 0xF]);
+				} else {
+					i = writeChar(c, i + 1 < n ? str.charAt(i + 1) : 0, i);
+				}
+				break;
+			}
+			last = str.charAt(i);
+			i++;
+		}
+		write('"');
+	}
+
+	private void writeEscape(final char c) throws IOException {
+		write('\\');
+		write(c);
+	}
+
+	/**
+	 * Writes a character that is not ASCII.
+	 * @param next The character after it, used to complete a surrogate pair.
+	 * @return The index of the last character consumed.
+	 */
+	private int writeChar(final char c, final char next, final int index) throws IOException {
+		if (c < 0x800) {
+			write(0xC0 | c >> 6);
+			write(0x80 | c & 0x3F);
+		} else if (Character.isHighSurrogate(c) && Character.isLowSurrogate(next)) {
+			final int codePoint = Character.toCodePoint(c, next);
+			write(0xF0 | codePoint >> 18);
+			write(0x80 | codePoint >> 12 & 0x3F);
+			write(0x80 | codePoint >> 6 & 0x3F);
+			write(0x80 | codePoint & 0x3F);
+			return index + 1;
+		} else if (Character.isSurrogate(c)) {
+			write('?');
+		} else {
+			write(0xE0 | c >> 12);
+			write(0x80 | c >> 6 & 0x3F);
+			write(0x80 | c & 0x3F);
+		}
+		return index;
+	}
+
+	/**
+	 * Writes text that is already JSON, without escaping it.
+	 */
+	private void writeRaw(final String json) throws IOException {
+		final byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+		write(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * Writes text that is known to be ASCII, such as a number or a literal.
+	 */
+	void writeAscii(final String str) throws IOException {
+		for (int i = 0, n = str.length(); i < n; i++)
+			write(str.charAt(i));
+	}
+
+	/**
+	 * Get the number of bytes written so far.
+	 */
+	long getCount() {
+		return count;
+	}
+
+	@Override
+	public void write(final int b) throws IOException {
+		if (position == buffer.length)
+			flushBuffer();
+		buffer[position++] = (byte) b;
+		count++;
+	}
+
+	@Override
+	public void write(final byte[] b, final int off, final int len) throws IOException {
+		if (len > buffer.length - position) {
+			flushBuffer();
+			if (len > buffer.length) {
+				out.write(b, off, len);
+				count += len;
+				return;
+			}
+		}
+		System.arraycopy(b, off, buffer, position, len);
+		position += len;
+		count += len;
+	}
+
+	private void flushBuffer() throws IOException {
+		if (position > 0) {
+			out.write(buffer, 0, position);
+			position = 0;
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		flushBuffer();
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			flushBuffer();
+		} finally {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,278 @@
+package com.ltpeacock.sorter.json;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+
+import com.github.openjson.JSONException;
+import com.github.openjson.JSONObject;
+
+/**
+ * Reads JSON from a {@link Reader} one token at a time, without holding the whole input in memory.
+ * <br>
+ * It accepts exactly what {@link com.github.openjson.JSONTokener JSONTokener} does, including its lenient syntax
+ * (comments, single-quoted strings, unquoted literals, {@code =} or {@code =>} after keys and {@code ;} between
+ * members), and resolves literals to the same values, so that the streaming engine produces the same output
+ * as {@link SortJSONEngine}.
+ * @author LieutenantPeacock
+ *
+ */
+final class JSONLexer {
+	private static final String LITERAL_DELIMITERS = "{}[]/\\:,=;# \t\f";
+
+	private final Reader reader;
+	/** The last character of the previous block is kept at the start of the buffer, so that it can be unread. */
+	private final char[] buffer = new char[8192];
+	private int position;
+	private int limit;
+	private long bufferStart;
+	private final StringBuilder text = new StringBuilder();
+
+	JSONLexer(final Reader reader) {
+		this.reader = reader;
+	}
+
+	/**
+	 * Reads the next character.
+	 * @return The character, or {@code -1} at the end of the input.
+	 */
+	int next() {
+		if (position == limit && !fill())
+			return -1;
+		return buffer[position++];
+	}
+
+	/**
+	 * Unreads the last character returned by {@link #next()} or {@link #nextClean()}.
+	 */
+	void back() {
+		position--;
+	}
+
+	private int peek() {
+		if (position == limit && !fill())
+			return -1;
+		return buffer[position];
+	}
+
+	private boolean fill() {
+		final int keep = limit > 0 ? 1 : 0;
+		if (keep > 0)
+			buffer[0] = buffer[limit - 1];
+		bufferStart += limit - keep;
+		position = limit = keep;
+		try {
+			int n;
+			while ((n = reader.read(buffer, keep, buffer.length - keep)) == 0) {
+				// Keep reading until there is at least one character or the end of the input
+			}
+			if (n < 0)
+				return false;
+			limit = keep + n;
+			return true;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Reads the next character that is not whitespace or part of a comment.
+	 * @return The character, or {@code -1} at the end of the input.
+	 */
+	int nextClean() {
+		while (true) {
+			final int c = next();
+			switch (c) {
+			case '\t':
+			case '\n':
+			case '\r':
+			case ' ':
+				continue;
+			case '#':
+				skipToEndOfLine();
+				continue;
+			case '/':
+				final int n = peek();
+				if (n == '*') {
+					next();
+					skipComment();
+					continue;
+				} else if (n == '/') {
+					next();
+					skipToEndOfLine();
+					continue;
+				}
+				return c;
+			default:
+				return c;
+			}
+		}
+	}
+
+	private void skipToEndOfLine() {
+		int c;
+		while ((c = next()) != -1) {
+			if (c == '\r' || c == '\n')
+				return;
+		}
+	}
+
+	private void skipComment() {
+		int c = next();
+		while (c != -1) {
+			final int n = next();
+			if (c == '*' && n == '/')
+				return;
+			c = n;
+		}
+		throw syntaxError("Unterminated comment");
+	}
+
+	/**
+	 * Reads a string up to the closing quote. The opening quote must already have been read.
+	 */
+	String nextString(final char quote) {
+		text.setLength(0);
+		while (true) {
+			if (position == limit && !fill())
+				throw syntaxError("Unterminated string");
+			final int start = position;
+			while (position < limit) {
+				final char c = buffer[position];
+				if (c == quote || c == '\\')
+					break;
+				position++;
+			}
+			text.append(buffer, start, position - start);
+			if (position == limit)
+				continue;
+			if (buffer[position++] == quote)
+				return text.toString();
+			text.append(readEscapeCharacter());
+		}
+	}
+
+	private char readEscapeCharacter() {
+		final int escaped = next();
+		switch (escaped) {
+		case -1:
+			throw syntaxError("Unterminated escape sequence");
+		case 'u':
+			final char[] hex = new char[4];
+			for (int i = 0; i < hex.length; i++) {
+				final int c = next();
+				if (c == -1)
+					throw syntaxError("Unterminated escape sequence");
+				hex[i] = (char) c;
+			}
+			try {
+				return (char) Integer.parseInt(new String(hex), 16);
+			} catch (NumberFormatException e) {
+				throw syntaxError("Invalid escape sequence: " + new String(hex));
+			}
+		case 't':
+			return '\t';
+		case 'b':
+			return '\b';
+		case 'n':
+			return '\n';
+		case 'r':
+			return '\r';
+		case 'f':
+			return '\f';
+		default:
+			return (char) escaped;
+		}
+	}
+
+	/**
+	 * Reads an unquoted literal, starting at the next character, and resolves it the way
+	 * {@link com.github.openjson.JSONTokener JSONTokener} does.
+	 * @return {@link JSONObject#NULL}, a {@link Boolean}, an {@link Integer}, {@link Long} or {@link Double},
+	 * or the literal itself as a {@link String}.
+	 */
+	Object readLiteral() {
+		return readLiteral(false);
+	}
+
+	/**
+	 * Reads an unquoted literal, starting at the next character.
+	 * @param rawNumbers Whether literals that are JSON numbers are kept as the text they were written with,
+	 * rather than resolved to a {@link Number}.
+	 * @return A {@link JSONRawNumber}, or any value returned by {@link #readLiteral()}.
+	 */
+	Object readLiteral(final boolean rawNumbers) {
+		text.setLength(0);
+		int c;
+		while ((c = peek()) != -1 && c != '\r' && c != '\n' && LITERAL_DELIMITERS.indexOf(c) == -1) {
+			text.append((char) c);
+			position++;
+		}
+		if (text.length() == 0)
+			throw syntaxError("Expected literal value");
+		final String literal = text.toString();
+		if (rawNumbers && JSONRawNumber.isNumber(literal))
+			return new JSONRawNumber(literal);
+		if ("null".equalsIgnoreCase(literal))
+			return JSONObject.NULL;
+		if ("true".equalsIgnoreCase(literal))
+			return Boolean.TRUE;
+		if ("false".equalsIgnoreCase(literal))
+			return Boolean.FALSE;
+		if (literal.indexOf('.') == -1) {
+			int base = 10;
+			String number = literal;
+			if (number.startsWith("0x") || number.startsWith("0X")) {
+				number = number.substring(2);
+				base = 16;
+			} else if (number.startsWith("0") && number.length() > 1) {
+				number = number.substring(1);
+				base = 8;
+			}
+			try {
+				final long value = Long.parseLong(number, base);
+				if (value <= Integer.MAX_VALUE && value >= Integer.MIN_VALUE)
+					return (int) value;
+				return value;
+			} catch (NumberFormatException e) {
+				// Not an integer, so it may still be a floating-point number
+			}
+		}
+		try {
+			return Double.valueOf(literal);
+		} catch (NumberFormatException e) {
+			return literal;
+		}
+	}
+
+	/**
+	 * Reads the name of a member, which is a string or an unquoted literal that is not a number or keyword.
+	 */
+	String nextKey() {
+		final int c = nextClean();
+		switch (c) {
+		case -1:
+			throw syntaxError("End of input");
+		case '"':
+		case '\'':
+			return nextString((char) c);
+		case '{':
+		case '[':
+			throw syntaxError("Names must be strings");
+		default:
+			back();
+			final Object literal = readLiteral();
+			if (!(literal instanceof String))
+				throw syntaxError("Names must be strings, but " + literal + " is of type "
+						+ literal.getClass().getName());
+			return (String) literal;
+		}
+	}
+
+	/**
+	 * Creates an exception for a syntax error at the current position.
+	 */
+	JSONException syntaxError(final String message) {
+		return new JSONException(message + " at character " + (bufferStart + position));
+	}
+}
@@ -0,0 +1,186 @@
+package com.ltpeacock.sorter.json;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+import com.github.openjson.JSONException;
+import com.ltpeacock.sorter.OrderedTaskWriter;
+
+/**
+ * <p>Sorts newline-delimited JSON (JSON Lines, NDJSON) one record at a time.</p>
+ * The input is split into batches of whole lines, and each batch is sorted into its own buffer, on a
+ * {@link ForkJoinPool} if one is given. Batches are written out in the order in which they were read, whichever
+ * finishes first, so the records keep their order. At most a fixed number of batches are read ahead of the
+ * one being written, which bounds the memory used by the size of the batches rather than the size of the input.
+ * <br>
+ * Every record is written on one line, followed by {@code \n}. A {@code \r} before a line break is dropped, and
+ * lines with nothing but whitespace are written as empty lines.
+ * @author LieutenantPeacock
+ *
+ */
+final class JSONLinesSorter {
+	/**
+	 * Sorts one record, and writes it without any line breaks.
+	 */
+	@FunctionalInterface
+	interface RecordSorter {
+		void sort(String record, JSONByteWriter out) throws IOException;
+	}
+
+	private final RecordSorter recordSorter;
+	private final int batchLines;
+	private final int batchBytes;
+
+	/**
+	 * @param recordSorter Sorts each record. It is called from several threads at once when there is a pool.
+	 * @param batchLines The largest number of lines in a batch.
+	 * @param batchBytes The number of bytes after which a batch ends at the next line break.
+	 */
+	JSONLinesSorter(final RecordSorter recordSorter, final int batchLines, final int batchBytes) {
+		this.recordSorter = recordSorter;
+		this.batchLines = Math.max(1, batchLines);
+		this.batchBytes = Math.max(1, batchBytes);
+	}
+
+	/**
+	 * Sorts all records of the input.
+	 * @param pool The pool to sort batches on, or {@code null} to sort them on the calling thread.
+	 * @param window The largest number of batches being sorted while the oldest one is waited for.
+	 */
+	void sort(final InputStream is, final OutputStream os, final ForkJoinPool pool, final int window)
+			throws IOException {
+		final LineReader reader = new LineReader(is);
+		try (OrderedTaskWriter tasks = new OrderedTaskWriter(os, pool, window)) {
+			Batch batch;
+			while ((batch = reader.readBatch()) != null)
+				tasks.submit(batch::sort);
+			tasks.drain();
+		}
+		os.flush();
+	}
+
+	/**
+	 * Lines read from the input, as ranges of one byte array.
+	 */
+	private final class Batch {
+		private final byte[] data;
+		private final int[] ends;
+		private final int lines;
+		private final long firstLine;
+
+		Batch(final byte[] data, final int[] ends, final int lines, final long firstLine) {
+			this.data = data;
+			this.ends = ends;
+			this.lines = lines;
+			this.firstLine = firstLine;
+		}
+
+		ByteArrayOutputStream sort() throws IOException {
+			final ByteArrayOutputStream buffer = new ByteArrayOutputStream(ends[lines - 1] + lines);
+			final JSONByteWriter writer = new JSONByteWriter(buffer, 0);
+			int start = 0;
+			for (int i = 0; i < lines; i++) {
+				final int end = ends[i];
+				if (!isBlank(start, end)) {
+					try {
+						recordSorter.sort(new String(data, start, end - start, StandardCharsets.UTF_8), writer);
+					} catch (JSONException e) {
+						final JSONException located = new JSONException(
+								e.getMessage() + " on line " + (firstLine + i));
+						located.initCause(e);
+						throw located;
+					}
+				}
+				writer.write('\n');
+				start = end;
+			}
+			writer.flush();
+			return buffer;
+		}
+
+		private boolean isBlank(final int start, final int end) {
+			for (int i = start; i < end; i++) {
+				if (data[i] > ' ')
+					return false;
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Splits the input into batches of lines, without the line breaks.
+	 */
+	private final class LineReader {
+		private final InputStream is;
+		private final byte[] buffer = new byte[65536];
+		private int position;
+		private int limit;
+		private boolean eof;
+		private long lineNumber = 1;
+
+		LineReader(final InputStream is) {
+			this.is = is;
+		}
+
+		Batch readBatch() throws IOException {
+			byte[] data = new byte[Math.min(batchBytes, 65536)];
+			int size = 0;
+			int[] ends = new int[Math.min(batchLines, 1024)];
+			int lines = 0;
+			boolean lineStarted = false;
+			while (lines < batchLines && (size < batchBytes || lineStarted)) {
+				if (position == limit && !fill())
+					break;
+				int end = position;
+				while (end < limit && buffer[end] != '\n')
+					end++;
+				final int length = end - position;
+				if (size + length > data.length)
+					data = Arrays.copyOf(data, Math.max(size + length, data.length * 2));
+				System.arraycopy(buffer, position, data, size, length);
+				size += length;
+				lineStarted = true;
+				if (end == limit) {
+					position = limit;
+					continue;
+				}
+				position = end + 1;
+				if (size > 0 && data[size - 1] == '\r' && (lines == 0 || size - 1 >= ends[lines - 1]))
+					size--;
+				if (lines == ends.length)
+					ends = Arrays.copyOf(ends, Math.min(batchLines, ends.length * 2));
+				ends[lines++] = size;
+				lineStarted = false;
+			}
+			if (lineStarted) {
+				// The last line of the input has no line break
+				if (lines == ends.length)
+					ends = Arrays.copyOf(ends, ends.length + 1);
+				ends[lines++] = size;
+			}
+			if (lines == 0)
+				return null;
+			final Batch batch = new Batch(data, ends, lines, lineNumber);
+			lineNumber += lines;
+			return batch;
+		}
+
+		private boolean fill() throws IOException {
+			if (eof)
+				return false;
+			final int n = is.read(buffer);
+			if (n < 0) {
+				eof = true;
+				return false;
+			}
+			position = 0;
+			limit = n;
+			return true;
+		}
+	}
+}
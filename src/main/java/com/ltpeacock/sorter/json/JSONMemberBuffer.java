@@ -0,0 +1,224 @@
+package com.ltpeacock.sorter.json;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>Holds the members of one JSON object while it is being read by {@link StreamingSortJSONEngine}.</p>
+ * The values of the members are written through its {@link JSONByteWriter}, already rendered at their depth in the
+ * output, and only their keys and positions are kept as objects, so that the members can be written out in any
+ * order once the object has ended. When the buffered values grow beyond the memory budget, they are moved to a temporary file, and the
+ * rest of the object is written there.
+ * <br>
+ * Members are kept in the order of their keys' first appearance, and a repeated key replaces the value of the earlier
+ * member, as {@link com.github.openjson.JSONObject#put(String, Object) JSONObject.put} does. Members with a
+ * {@code null} value keep their place in that order, but have no value to write.
+ * @author LieutenantPeacock
+ *
+ */
+final class JSONMemberBuffer extends OutputStream {
+	private static final String PREFIX = "lp-multisorter-";
+	/** Objects with more members than this look up repeated keys in a hash map instead of comparing every key. */
+	private static final int INDEX_THRESHOLD = 8;
+
+	private final long memoryBudget;
+	private final Path tempDirectory;
+	private byte[] data = new byte[1024];
+	private long count;
+	private Path file;
+	private OutputStream fileOut;
+	private FileChannel fileIn;
+	private final List<Member> members = new ArrayList<>();
+	private Map<String, Member> index;
+	private final JSONByteWriter writer;
+
+	/**
+	 * @param memoryBudget The number of bytes kept in memory before the values are moved to a file,
+	 * or {@code 0} for no limit.
+	 * @param tempDirectory The directory for the temporary file, or {@code null} for the system default.
+	 * @param indent The indent of the values.
+	 */
+	JSONMemberBuffer(final long memoryBudget, final Path tempDirectory, final int indent) {
+		this.memoryBudget = memoryBudget;
+		this.tempDirectory = tempDirectory;
+		this.writer = new JSONByteWriter(this, indent);
+	}
+
+	/**
+	 * Get the writer for the values of the members.
+	 */
+	JSONByteWriter getWriter() {
+		return writer;
+	}
+
+	/**
+	 * Get the position at which the next value starts.
+	 */
+	long position() throws IOException {
+		writer.flush();
+		return count;
+	}
+
+	/**
+	 * Adds a member whose value was written since {@code start}, or replaces the value of the member with the
+	 * same key.
+	 * @param start The position at which the value started, or {@code -1} if the value is {@code null}.
+	 */
+	void addMember(final String key, final long start) throws IOException {
+		final long length = start < 0 ? 0 : position() - start;
+		final Member member = find(key);
+		if (member != null) {
+			member.offset = start;
+			member.length = length;
+			return;
+		}
+		final Member added = new Member(key, start, length);
+		members.add(added);
+		if (index != null) {
+			index.put(key, added);
+		} else if (members.size() > INDEX_THRESHOLD) {
+			index = new HashMap<>();
+			for (final Member m : members)
+				index.put(m.key, m);
+		}
+	}
+
+	private Member find(final String key) {
+		if (index != null)
+			return index.get(key);
+		for (final Member member : members) {
+			if (member.key.equals(key))
+				return member;
+		}
+		return null;
+	}
+
+	/**
+	 * Get the members in their original order. The list may be sorted.
+	 */
+	List<Member> getMembers() {
+		return members;
+	}
+
+	/**
+	 * Copies the value of a member to a writer.
+	 */
+	void writeValue(final Member member, final JSONByteWriter out) throws IOException {
+		if (file == null) {
+			out.write(data, (int) member.offset, (int) member.length);
+			return;
+		}
+		if (fileIn == null) {
+			fileOut.flush();
+			fileIn = FileChannel.open(file, StandardOpenOption.READ);
+		}
+		final ByteBuffer chunk = ByteBuffer.wrap(data);
+		long position = member.offset;
+		final long end = member.offset + member.length;
+		while (position < end) {
+			// Cast for Java 8, where ByteBuffer does not override these methods
+			((Buffer) chunk).clear();
+			((Buffer) chunk).limit((int) Math.min(data.length, end - position));
+			final int n = fileIn.read(chunk, position);
+			if (n < 0)
+				throw new IOException("Unexpected end of temporary file " + file);
+			out.write(data, 0, n);
+			position += n;
+		}
+	}
+
+	@Override
+	public void write(final int b) throws IOException {
+		if (fileOut == null && count == data.length)
+			grow(1);
+		if (fileOut != null)
+			fileOut.write(b);
+		else
+			data[(int) count] = (byte) b;
+		count++;
+	}
+
+	@Override
+	public void write(final byte[] b, final int off, final int len) throws IOException {
+		if (fileOut == null && len > data.length - count)
+			grow(len);
+		if (fileOut != null)
+			fileOut.write(b, off, len);
+		else
+			System.arraycopy(b, off, data, (int) count, len);
+		count += len;
+	}
+
+	/**
+	 * Makes room for more bytes, or moves the values to a temporary file if they would not fit in the budget.
+	 */
+	private void grow(final int needed) throws IOException {
+		final long required = count + needed;
+		if (memoryBudget > 0 && required > memoryBudget || required > Integer.MAX_VALUE - 8) {
+			file = tempDirectory == null ? Files.createTempFile(PREFIX, ".json")
+					: Files.createTempFile(tempDirectory, PREFIX, ".json");
+			fileOut = new BufferedOutputStream(Files.newOutputStream(file), 65536);
+			fileOut.write(data, 0, (int) count);
+			// The array is kept for copying the values back out of the file
+			if (data.length != 65536)
+				data = new byte[65536];
+			return;
+		}
+		data = Arrays.copyOf(data, (int) Math.min(Integer.MAX_VALUE - 8, Math.max(required, 2L * data.length)));
+	}
+
+	/**
+	 * Clears the buffer for the next object, deleting the temporary file if there is one.
+	 */
+	void reset() throws IOException {
+		close();
+		count = 0;
+		members.clear();
+		index = null;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			if (fileIn != null)
+				fileIn.close();
+			if (fileOut != null)
+				fileOut.close();
+		} finally {
+			fileIn = null;
+			fileOut = null;
+			if (file != null) {
+				Files.deleteIfExists(file);
+				file = null;
+			}
+		}
+	}
+
+	/**
+	 * Key of a member, and the position of its value in the buffer.
+	 */
+	static final class Member {
+		final String key;
+		/** The position of the value, or {@code -1} if the value is {@code null}. */
+		long offset;
+		long length;
+
+		Member(final String key, final long offset, final long length) {
+			this.key = key;
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+}
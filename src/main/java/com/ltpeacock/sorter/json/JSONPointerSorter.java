@@ -0,0 +1,427 @@
+package com.ltpeacock.sorter.json;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.github.openjson.JSONException;
+
+/**
+ * <p>Sorts the values at the {@link JSONSortTargets} of a document, and copies everything else as it is.</p>
+ * The input is scanned as bytes, following the structure of objects and arrays only as far as a target can still
+ * be reached. Every byte that is not part of a target is copied to the output in runs, including whitespace and
+ * comments, and the bytes of each target value are collected and handed to a {@link SubtreeSorter}, whose output
+ * takes their place.
+ * <br>
+ * The scanner accepts the same lenient syntax as {@link JSONLexer}: comments, single-quoted strings, unquoted
+ * names and literals, {@code =} or {@code =>} after names and {@code ;} between members.
+ * @author LieutenantPeacock
+ *
+ */
+final class JSONPointerSorter {
+	/**
+	 * Sorts the bytes of one target value.
+	 */
+	@FunctionalInterface
+	interface SubtreeSorter {
+		/**
+		 * @param value The bytes of the value.
+		 * @param out The writer for the sorted value.
+		 * @param depth The depth of the value in the document, for indenting it.
+		 * @param path The names of the members and the indexes of the elements from the root to the value.
+		 */
+		void sort(InputStream value, JSONByteWriter out, int depth, List<String> path) throws IOException;
+	}
+
+	private static final String LITERAL_DELIMITERS = "{}[]/\\:,=;# \t\f\r\n";
+
+	private final InputStream is;
+	private final JSONByteWriter out;
+	private final JSONSortTargets.Matcher matcher;
+	private final SubtreeSorter subtreeSorter;
+	private final byte[] buffer = new byte[65536];
+	private int position;
+	private int limit;
+	private long bufferStart;
+	/** The start of the bytes of the buffer that have been read but not yet copied to the sink. */
+	private int copied;
+	private OutputStream sink;
+	private final ByteArrayOutputStream capture = new ByteArrayOutputStream();
+	private final ByteArrayOutputStream name = new ByteArrayOutputStream();
+	private final List<String> path = new ArrayList<>();
+
+	JSONPointerSorter(final InputStream is, final JSONByteWriter out, final JSONSortTargets targets,
+			final SubtreeSorter subtreeSorter) {
+		this.is = is;
+		this.out = out;
+		this.matcher = targets.newMatcher();
+		this.subtreeSorter = subtreeSorter;
+		this.sink = out;
+	}
+
+	/**
+	 * Copies the document, sorting its targets, along with anything before and after its value.
+	 */
+	void sort() throws IOException {
+		if (skipClean() == -1)
+			throw syntaxError("End of input");
+		writeValue(matcher.getStart(), 0);
+		while (next() != -1) {
+			// Whatever follows the value is copied as it is
+		}
+		flushCopy();
+	}
+
+	private void writeValue(final JSONSortTargets.State state, final int depth) throws IOException {
+		final int c = peek();
+		if (state.isTarget()) {
+			flushCopy();
+			sink = capture;
+			skipValue();
+			flushCopy();
+			sink = out;
+			subtreeSorter.sort(new ByteArrayInputStream(capture.toByteArray()), out, depth, path);
+			capture.reset();
+		} else if (state.isDead() || c != '{' && c != '[') {
+			skipValue();
+		} else if (c == '{') {
+			writeObject(state, depth);
+		} else {
+			writeArray(state, depth);
+		}
+	}
+
+	private void writeObject(final JSONSortTargets.State state, final int depth) throws IOException {
+		next();
+		int c = skipClean();
+		if (c == '}') {
+			next();
+			return;
+		}
+		while (true) {
+			final String key = readName();
+			c = skipClean();
+			if (c != ':' && c != '=')
+				throw syntaxError("Expected ':' after " + key);
+			next();
+			if (c == '=' && peek() == '>')
+				next();
+			if (skipClean() == -1)
+				throw syntaxError("End of input");
+			path.add(key);
+			writeValue(matcher.next(state, key), depth + 1);
+			path.remove(path.size() - 1);
+			c = skipClean();
+			next();
+			if (c == '}')
+				return;
+			if (c != ',' && c != ';')
+				throw syntaxError("Unterminated object");
+			skipClean();
+		}
+	}
+
+	private void writeArray(final JSONSortTargets.State state, final int depth) throws IOException {
+		next();
+		int index = 0;
+		while (true) {
+			int c = skipClean();
+			switch (c) {
+			case -1:
+				throw syntaxError("Unterminated array");
+			case ']':
+				next();
+				return;
+			case ',':
+			case ';':
+				// An empty slot, which holds null
+				next();
+				index++;
+				continue;
+			default:
+				final String segment = Integer.toString(index++);
+				path.add(segment);
+				writeValue(matcher.next(state, segment), depth + 1);
+				path.remove(path.size() - 1);
+				c = skipClean();
+				next();
+				if (c == ']')
+					return;
+				if (c != ',' && c != ';')
+					throw syntaxError("Unterminated array");
+			}
+		}
+	}
+
+	/**
+	 * Reads the name of a member, which is copied like any other bytes, and decodes it.
+	 */
+	private String readName() throws IOException {
+		final int c = peek();
+		if (c == -1)
+			throw syntaxError("End of input");
+		if (c == '{' || c == '[')
+			throw syntaxError("Names must be strings");
+		name.reset();
+		if (c == '"' || c == '\'') {
+			next();
+			while (true) {
+				final int b = next();
+				if (b == -1)
+					throw syntaxError("Unterminated string");
+				if (b == c)
+					break;
+				name.write(b);
+				if (b == '\\') {
+					final int escaped = next();
+					if (escaped == -1)
+						throw syntaxError("Unterminated escape sequence");
+					name.write(escaped);
+				}
+			}
+			return unescape(new String(name.toByteArray(), StandardCharsets.UTF_8));
+		}
+		int b;
+		while ((b = peek()) != -1 && LITERAL_DELIMITERS.indexOf(b) == -1) {
+			name.write(b);
+			next();
+		}
+		if (name.size() == 0)
+			throw syntaxError("Expected literal value");
+		return new String(name.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	private String unescape(final String str) {
+		if (str.indexOf('\\') < 0)
+			return str;
+		final StringBuilder sb = new StringBuilder(str.length());
+		for (int i = 0; i < str.length(); i++) {
+			char c = str.charAt(i);
+			if (c == '\\' && i + 1 < str.length()) {
+				c = str.charAt(++i);
+				switch (c) {
+				case 'u':
+					if (i + 4 >= str.length())
+						throw syntaxError("Unterminated escape sequence");
+					try {
+						c = (char) Integer.parseInt(str.substring(i + 1, i + 5), 16);
+					} catch (NumberFormatException e) {
+						throw syntaxError("Invalid escape sequence: " + str.substring(i + 1, i + 5));
+					}
+					i += 4;
+					break;
+				case 't':
+					c = '\t';
+					break;
+				case 'b':
+					c = '\b';
+					break;
+				case 'n':
+					c = '\n';
+					break;
+				case 'r':
+					c = '\r';
+					break;
+				case 'f':
+					c = '\f';
+					break;
+				default:
+					break;
+				}
+			}
+			sb.append(c);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Copies a whole value to the sink, only looking for its end.
+	 */
+	private void skipValue() throws IOException {
+		int c = peek();
+		if (c == '"' || c == '\'') {
+			skipString();
+			return;
+		}
+		if (c != '{' && c != '[') {
+			int length = 0;
+			while ((c = peek()) != -1 && LITERAL_DELIMITERS.indexOf(c) == -1) {
+				next();
+				length++;
+			}
+			if (length == 0)
+				throw syntaxError("Expected literal value");
+			return;
+		}
+		int nesting = 0;
+		while (true) {
+			c = peek();
+			switch (c) {
+			case -1:
+				throw syntaxError(nesting > 0 ? "Unterminated object or array" : "End of input");
+			case '"':
+			case '\'':
+				skipString();
+				continue;
+			case '#':
+			case '/':
+				if (skipComment())
+					continue;
+				break;
+			case '{':
+			case '[':
+				nesting++;
+				break;
+			case '}':
+			case ']':
+				nesting--;
+				break;
+			default:
+				break;
+			}
+			next();
+			if (nesting == 0)
+				return;
+		}
+	}
+
+	private void skipString() throws IOException {
+		final int quote = next();
+		while (true) {
+			// Scan the buffer directly, since strings are most of the bytes of a document
+			while (position < limit) {
+				final byte b = buffer[position];
+				if (b == quote || b == '\\')
+					break;
+				position++;
+			}
+			final int c = next();
+			if (c == -1)
+				throw syntaxError("Unterminated string");
+			if (c == quote)
+				return;
+			if (c == '\\' && next() == -1)
+				throw syntaxError("Unterminated escape sequence");
+		}
+	}
+
+	/**
+	 * Copies whitespace and comments to the sink.
+	 * @return The next character, which has not been read yet, or {@code -1} at the end of the input.
+	 */
+	private int skipClean() throws IOException {
+		while (true) {
+			final int c = peek();
+			switch (c) {
+			case '\t':
+			case '\n':
+			case '\r':
+			case ' ':
+				next();
+				continue;
+			case '#':
+			case '/':
+				if (skipComment())
+					continue;
+				return c;
+			default:
+				return c;
+			}
+		}
+	}
+
+	/**
+	 * Copies a comment to the sink, if one starts at the next character.
+	 * @return Whether there was a comment.
+	 */
+	private boolean skipComment() throws IOException {
+		final int c = peek();
+		if (c == '/') {
+			if (position + 1 >= limit) {
+				// Make sure the character after the slash is in the buffer
+				flushCopy();
+				compact();
+			}
+			final int n = position + 1 < limit ? buffer[position + 1] : -1;
+			if (n == '*') {
+				next();
+				next();
+				int prev = next();
+				while (true) {
+					if (prev == -1)
+						throw syntaxError("Unterminated comment");
+					final int b = next();
+					if (prev == '*' && b == '/')
+						return true;
+					prev = b;
+				}
+			}
+			if (n != '/')
+				return false;
+		} else if (c != '#') {
+			return false;
+		}
+		int b;
+		while ((b = next()) != -1) {
+			if (b == '\r' || b == '\n')
+				break;
+		}
+		return true;
+	}
+
+	private int peek() throws IOException {
+		if (position == limit && !fill())
+			return -1;
+		return buffer[position] & 0xFF;
+	}
+
+	private int next() throws IOException {
+		if (position == limit && !fill())
+			return -1;
+		return buffer[position++] & 0xFF;
+	}
+
+	private boolean fill() throws IOException {
+		flushCopy();
+		bufferStart += limit;
+		position = limit = copied = 0;
+		final int n = is.read(buffer);
+		if (n <= 0)
+			return false;
+		limit = n;
+		return true;
+	}
+
+	/**
+	 * Moves the unread bytes to the start of the buffer and reads more after them.
+	 */
+	private void compact() throws IOException {
+		final int remaining = limit - position;
+		System.arraycopy(buffer, position, buffer, 0, remaining);
+		bufferStart += position;
+		position = copied = 0;
+		limit = remaining;
+		final int n = is.read(buffer, remaining, buffer.length - remaining);
+		if (n > 0)
+			limit += n;
+	}
+
+	/**
+	 * Copies the bytes read since the last copy to the sink.
+	 */
+	private void flushCopy() throws IOException {
+		if (position > copied) {
+			sink.write(buffer, copied, position - copied);
+			copied = position;
+		}
+	}
+
+	private JSONException syntaxError(final String message) {
+		return new JSONException(message + " at byte " + (bufferStart + position));
+	}
+}
@@ -0,0 +1,77 @@
+package com.ltpeacock.sorter.json;
+
+import com.github.openjson.JSONString;
+
+/**
+ * A number kept as the text it was written with in the input, so that it is written out the same way without
+ * being parsed and formatted again.
+ * @author LieutenantPeacock
+ *
+ */
+final class JSONRawNumber implements JSONString {
+	private final String text;
+
+	JSONRawNumber(final String text) {
+		this.text = text;
+	}
+
+	/**
+	 * Checks whether a literal follows the grammar of a JSON number:
+	 * {@code -?(0|[1-9][0-9]*)(\.[0-9]+)?([eE][+-]?[0-9]+)?}.
+	 */
+	static boolean isNumber(final String literal) {
+		final int n = literal.length();
+		int i = 0;
+		if (i < n && literal.charAt(i) == '-')
+			i++;
+		if (i == n)
+			return false;
+		if (literal.charAt(i) == '0') {
+			i++;
+		} else {
+			final int start = i;
+			i = digits(literal, i);
+			if (i == start)
+				return false;
+		}
+		if (i < n && literal.charAt(i) == '.') {
+			final int start = ++i;
+			i = digits(literal, i);
+			if (i == start)
+				return false;
+		}
+		if (i < n && (literal.charAt(i) == 'e' || literal.charAt(i) == 'E')) {
+			i++;
+			if (i < n && (literal.charAt(i) == '+' || literal.charAt(i) == '-'))
+				i++;
+			final int start = i;
+			i = digits(literal, i);
+			if (i == start)
+				return false;
+		}
+		return i == n;
+	}
+
+	private static int digits(final String literal, int i) {
+		while (i < literal.length() && literal.charAt(i) >= '0' && literal.charAt(i) <= '9')
+			i++;
+		return i;
+	}
+
+	/**
+	 * Get the number as it was written, which is only ASCII.
+	 */
+	String getText() {
+		return text;
+	}
+
+	@Override
+	public String toJSONString() {
+		return text;
+	}
+
+	@Override
+	public String toString() {
+		return text;
+	}
+}
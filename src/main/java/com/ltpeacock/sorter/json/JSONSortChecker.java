@@ -0,0 +1,204 @@
+package com.ltpeacock.sorter.json;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Comparator;
+
+import com.github.openjson.JSONObject;
+import com.ltpeacock.sorter.SortedInputMatcher;
+
+/**
+ * <p>Checks whether JSON is already sorted, without building a tree or buffering any members.</p>
+ * The input is read one token at a time, as {@link StreamingSortJSONEngine} does, and the output of the engines
+ * for each token is compared with the input by a {@link SortedInputMatcher}. Since the members of an object can
+ * only be written in the order they are read when that order is already sorted, each member is written as soon
+ * as it is read, and the check stops at the first key that is out of order or the first byte that differs. The
+ * only state is the previous key of each open object.
+ * @author LieutenantPeacock
+ *
+ */
+final class JSONSortChecker {
+	private final Comparator<String> keyComparator;
+	private final boolean recursive;
+	private final int indent;
+	private final boolean rawNumbers;
+	private JSONLexer lexer;
+	private JSONByteWriter out;
+	private SortedInputMatcher matcher;
+
+	JSONSortChecker(final Comparator<String> keyComparator, final boolean recursive, final int indent,
+			final boolean rawNumbers) {
+		this.keyComparator = keyComparator;
+		this.recursive = recursive;
+		this.indent = indent;
+		this.rawNumbers = rawNumbers;
+	}
+
+	/**
+	 * Checks one document. A checker can be used for one document at a time.
+	 * @return Whether the engines would write exactly the input.
+	 */
+	boolean isSorted(final InputStream is) throws IOException {
+		matcher = new SortedInputMatcher(is);
+		lexer = new JSONLexer(new InputStreamReader(matcher.getInput(), StandardCharsets.UTF_8));
+		out = new JSONByteWriter(matcher.getOutput(), indent);
+		try {
+			final int c = lexer.nextClean();
+			if (c == -1)
+				throw lexer.syntaxError("End of input");
+			if (!checkValue(c, 0, true))
+				return false;
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+		out.flush();
+		return matcher.matchesAll();
+	}
+
+	/**
+	 * Reads a value starting with the given character, and writes it as it is.
+	 * @param sort Whether the keys of the value must be in order if it is an object, or the keys of its elements
+	 * that are objects if it is an array.
+	 * @return Whether the value is sorted.
+	 */
+	private boolean checkValue(final int c, final int depth, final boolean sort) throws IOException {
+		switch (c) {
+		case '{':
+			return checkObject(depth, sort);
+		case '[':
+			return checkArray(depth, sort);
+		case '"':
+		case '\'':
+			out.writeString(lexer.nextString((char) c));
+			return true;
+		default:
+			lexer.back();
+			out.writeValue(lexer.readLiteral(rawNumbers), depth);
+			return true;
+		}
+	}
+
+	private boolean checkObject(final int depth, final boolean sort) throws IOException {
+		out.write('{');
+		int c = lexer.nextClean();
+		if (c == '}') {
+			out.write('}');
+			return true;
+		}
+		if (c != -1)
+			lexer.back();
+		String previous = null;
+		boolean empty = true;
+		while (true) {
+			final String key = lexer.nextKey();
+			if (sort && previous != null) {
+				final int order = keyComparator.compare(previous, key);
+				// Keys that compare equal keep their order, but SortJSONEngine merges a repeated key
+				if (order > 0 || order == 0 && previous.equals(key))
+					return false;
+			}
+			previous = key;
+			c = lexer.nextClean();
+			if (c != ':' && c != '=')
+				throw lexer.syntaxError("Expected ':' after " + key);
+			c = lexer.next();
+			if (c != '>' && c != -1)
+				lexer.back();
+			c = lexer.nextClean();
+			if (c == -1)
+				throw lexer.syntaxError("End of input");
+			if (c == '{' || c == '[' || c == '"' || c == '\'') {
+				empty = writeKey(key, empty, depth);
+				if (!checkValue(c, depth + 1, sort && recursive))
+					return false;
+			} else {
+				lexer.back();
+				final Object literal = lexer.readLiteral(rawNumbers);
+				// A null member is left out of the output, so the input only matches if there are none
+				if (literal != JSONObject.NULL) {
+					empty = writeKey(key, empty, depth);
+					out.writeValue(literal, depth + 1);
+				}
+			}
+			if (!matcher.isMatching())
+				return false;
+			c = lexer.nextClean();
+			if (c == '}')
+				break;
+			if (c != ',' && c != ';')
+				throw lexer.syntaxError("Unterminated object");
+		}
+		if (!empty)
+			out.writeNewline(depth);
+		out.write('}');
+		return true;
+	}
+
+	/**
+	 * Writes the separator before a member, if it is not the first one, and its key.
+	 * @return {@code false}, as the object is no longer empty.
+	 */
+	private boolean writeKey(final String key, final boolean empty, final int depth) throws IOException {
+		if (!empty)
+			out.write(',');
+		out.writeNewline(depth + 1);
+		out.writeKey(key);
+		return false;
+	}
+
+	private boolean checkArray(final int depth, final boolean sort) throws IOException {
+		out.write('[');
+		boolean empty = true;
+		boolean trailingSeparator = false;
+		while (true) {
+			int c = lexer.nextClean();
+			switch (c) {
+			case -1:
+				throw lexer.syntaxError("Unterminated array");
+			case ']':
+				if (trailingSeparator)
+					empty = writeNull(empty, depth);
+				if (!empty)
+					out.writeNewline(depth);
+				out.write(']');
+				return true;
+			case ',':
+			case ';':
+				empty = writeNull(empty, depth);
+				trailingSeparator = true;
+				continue;
+			default:
+				if (!empty)
+					out.write(',');
+				out.writeNewline(depth + 1);
+				empty = false;
+				if (!checkValue(c, depth + 1, c == '[' ? sort && recursive : sort) || !matcher.isMatching())
+					return false;
+				c = lexer.nextClean();
+				if (c == ']') {
+					out.writeNewline(depth);
+					out.write(']');
+					return true;
+				}
+				if (c != ',' && c != ';')
+					throw lexer.syntaxError("Unterminated array");
+				trailingSeparator = true;
+			}
+		}
+	}
+
+	/**
+	 * Writes the {@code null} element implied by an empty array slot.
+	 * @return {@code false}, as the array is no longer empty.
+	 */
+	private boolean writeNull(final boolean empty, final int depth) throws IOException {
+		if (!empty)
+			out.write(',');
+		out.writeNewline(depth + 1);
+		out.writeValue(JSONObject.NULL, depth + 1);
+		return false;
+	}
+}
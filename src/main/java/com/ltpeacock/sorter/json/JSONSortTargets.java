@@ -0,0 +1,224 @@
+package com.ltpeacock.sorter.json;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>The parts of a document that {@link SortJSONEngine} sorts, selected by JSON Pointers.</p>
+ * When targets are set, only the values at the given pointers are read into objects and sorted, along with
+ * everything inside them if the engine is recursive. The rest of the document is copied to the output byte for
+ * byte, so a large document with a small sort scope is mostly copied rather than parsed and written again.
+ * <br>
+ * Pointers follow RFC 6901: {@code ""} is the whole document, and {@code /dependencies/0} is the first element
+ * of the {@code dependencies} member of the root object, with {@code ~1} standing for {@code /} and {@code ~0} for
+ * {@code ~} in names. In addition, a segment {@code *} matches any one member or element, and a segment {@code **}
+ * matches any number of levels, including none. For example:
+ * <pre>
+ * JSONSortTargets targets = new JSONSortTargets()
+ *         .add("/dependencies")
+ *         .add("/scripts")
+ *         .add("/workspaces/*&#47;config");
+ * engine.setSortTargets(targets);
+ * </pre>
+ * Pointers are compiled into a trie when they are added, and matched against the path of each value as the
+ * document is read, following one automaton state per open object or array. Values that no pointer can reach are
+ * copied without looking at their structure.
+ * @author LieutenantPeacock
+ *
+ */
+public final class JSONSortTargets {
+	private final List<Node> nodes = new ArrayList<>();
+	private final Node root = newNode(false);
+
+	/**
+	 * Adds a target.
+	 * @param pointer The JSON Pointer of the values to sort, which may contain {@code *} and {@code **} segments.
+	 * @return These targets.
+	 */
+	public JSONSortTargets add(final String pointer) {
+		if (pointer == null || !pointer.isEmpty() && pointer.charAt(0) != '/')
+			throw new IllegalArgumentException("JSON Pointer must be empty or start with '/': " + pointer);
+		Node node = root;
+		int i = 1;
+		while (i <= pointer.length()) {
+			final int end = pointer.indexOf('/', i) < 0 ? pointer.length() : pointer.indexOf('/', i);
+			final String segment = pointer.substring(i, end);
+			if ("**".equals(segment)) {
+				if (node.descendant == null)
+					node.descendant = newNode(true);
+				node = node.descendant;
+			} else if ("*".equals(segment)) {
+				if (node.wildcard == null)
+					node.wildcard = newNode(false);
+				node = node.wildcard;
+			} else {
+				node = node.children.computeIfAbsent(unescape(segment), k -> newNode(false));
+			}
+			i = end + 1;
+		}
+		node.target = true;
+		return this;
+	}
+
+	private static String unescape(final String segment) {
+		if (segment.indexOf('~') < 0)
+			return segment;
+		final StringBuilder sb = new StringBuilder(segment.length());
+		for (int i = 0; i < segment.length(); i++) {
+			final char c = segment.charAt(i);
+			if (c == '~') {
+				final char escaped = i + 1 < segment.length() ? segment.charAt(++i) : 0;
+				if (escaped != '0' && escaped != '1')
+					throw new IllegalArgumentException("Invalid escape in JSON Pointer segment: " + segment);
+				sb.append(escaped == '0' ? '~' : '/');
+			} else {
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+
+	private Node newNode(final boolean loop) {
+		final Node node = new Node(nodes.size(), loop);
+		nodes.add(node);
+		return node;
+	}
+
+	/**
+	 * Creates a matcher for one document.
+	 */
+	Matcher newMatcher() {
+		return new Matcher();
+	}
+
+	/**
+	 * Node of the pointer trie. A {@code loop} node stays active for any number of levels, which is how
+	 * {@code **} is matched.
+	 */
+	private static final class Node {
+		final int id;
+		final boolean loop;
+		final Map<String, Node> children = new HashMap<>();
+		Node wildcard;
+		Node descendant;
+		boolean target;
+
+		Node(final int id, final boolean loop) {
+			this.id = id;
+			this.loop = loop;
+		}
+	}
+
+	/**
+	 * Set of active trie nodes after matching the path of a value.
+	 */
+	static final class State {
+		private final BitSet nodes;
+		private final boolean target;
+		/** The names that lead to a different state than any other name. */
+		private final Set<String> names = new HashSet<>();
+		private final Map<String, State> transitions = new HashMap<>();
+		private State other;
+
+		State(final BitSet nodes, final boolean target) {
+			this.nodes = nodes;
+			this.target = target;
+		}
+
+		/**
+		 * Whether the value is sorted.
+		 */
+		boolean isTarget() {
+			return target;
+		}
+
+		/**
+		 * Whether no value inside this one can be a target, so that it can be copied as it is.
+		 */
+		boolean isDead() {
+			return nodes.isEmpty();
+		}
+	}
+
+	/**
+	 * Matches value paths against the targets, building the states of the automaton as they are first reached.
+	 * Not thread-safe.
+	 */
+	final class Matcher {
+		private final Map<BitSet, State> states = new HashMap<>();
+		private final State start;
+
+		Matcher() {
+			final BitSet initial = new BitSet();
+			initial.set(root.id);
+			start = state(closure(initial));
+		}
+
+		/**
+		 * Get the state of the root value.
+		 */
+		State getStart() {
+			return start;
+		}
+
+		/**
+		 * Get the state of a member or element.
+		 * @param parent The state of the object or array.
+		 * @param name The name of the member, or the index of the element.
+		 */
+		State next(final State parent, final String name) {
+			if (!parent.names.contains(name)) {
+				if (parent.other == null)
+					parent.other = transition(parent, null);
+				return parent.other;
+			}
+			State next = parent.transitions.get(name);
+			if (next == null) {
+				next = transition(parent, name);
+				parent.transitions.put(name, next);
+			}
+			return next;
+		}
+
+		private State transition(final State parent, final String name) {
+			final BitSet set = new BitSet();
+			for (int i = parent.nodes.nextSetBit(0); i >= 0; i = parent.nodes.nextSetBit(i + 1)) {
+				final Node node = nodes.get(i);
+				if (node.loop)
+					set.set(node.id);
+				final Node child = name == null ? null : node.children.get(name);
+				if (child != null)
+					set.set(child.id);
+				if (node.wildcard != null)
+					set.set(node.wildcard.id);
+			}
+			return state(closure(set));
+		}
+
+		private BitSet closure(final BitSet set) {
+			for (int i = set.nextSetBit(0); i >= 0; i = set.nextSetBit(i + 1)) {
+				final Node descendant = nodes.get(i).descendant;
+				if (descendant != null)
+					set.set(descendant.id);
+			}
+			return set;
+		}
+
+		private State state(final BitSet set) {
+			return states.computeIfAbsent(set, k -> {
+				boolean target = false;
+				for (int i = k.nextSetBit(0); i >= 0; i = k.nextSetBit(i + 1))
+					target |= nodes.get(i).target;
+				final State state = new State(k, target);
+				for (int i = k.nextSetBit(0); i >= 0; i = k.nextSetBit(i + 1))
+					state.names.addAll(nodes.get(i).children.keySet());
+				return state;
+			});
+		}
+	}
+}
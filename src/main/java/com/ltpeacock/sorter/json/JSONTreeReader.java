@@ -0,0 +1,113 @@
+package com.ltpeacock.sorter.json;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+
+import com.github.openjson.JSONArray;
+import com.github.openjson.JSONObject;
+
+/**
+ * Reads JSON into an openjson tree with {@link JSONLexer}, the same tree {@link com.github.openjson.JSONTokener
+ * JSONTokener} would build, except that numbers can be kept as the text they were written with.
+ * @author LieutenantPeacock
+ *
+ */
+final class JSONTreeReader {
+	private final JSONLexer lexer;
+	private final boolean rawNumbers;
+
+	/**
+	 * @param rawNumbers Whether literals that are JSON numbers are read as {@link JSONRawNumber}s.
+	 */
+	JSONTreeReader(final Reader reader, final boolean rawNumbers) {
+		this.lexer = new JSONLexer(reader);
+		this.rawNumbers = rawNumbers;
+	}
+
+	/**
+	 * Reads the first value of the input.
+	 * @return A {@link JSONObject}, {@link JSONArray} or literal value.
+	 */
+	Object readValue() throws IOException {
+		try {
+			final int c = lexer.nextClean();
+			if (c == -1)
+				throw lexer.syntaxError("End of input");
+			return readValue(c);
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	private Object readValue(final int c) {
+		switch (c) {
+		case '{':
+			return readObject();
+		case '[':
+			return readArray();
+		case '"':
+		case '\'':
+			return lexer.nextString((char) c);
+		default:
+			lexer.back();
+			return lexer.readLiteral(rawNumbers);
+		}
+	}
+
+	private JSONObject readObject() {
+		final JSONObject obj = new JSONObject();
+		int c = lexer.nextClean();
+		if (c == '}')
+			return obj;
+		if (c != -1)
+			lexer.back();
+		while (true) {
+			final String key = lexer.nextKey();
+			c = lexer.nextClean();
+			if (c != ':' && c != '=')
+				throw lexer.syntaxError("Expected ':' after " + key);
+			c = lexer.next();
+			if (c != '>' && c != -1)
+				lexer.back();
+			c = lexer.nextClean();
+			if (c == -1)
+				throw lexer.syntaxError("End of input");
+			obj.put(key, readValue(c));
+			c = lexer.nextClean();
+			if (c == '}')
+				return obj;
+			if (c != ',' && c != ';')
+				throw lexer.syntaxError("Unterminated object");
+		}
+	}
+
+	private JSONArray readArray() {
+		final JSONArray arr = new JSONArray();
+		boolean trailingSeparator = false;
+		while (true) {
+			int c = lexer.nextClean();
+			switch (c) {
+			case -1:
+				throw lexer.syntaxError("Unterminated array");
+			case ']':
+				if (trailingSeparator)
+					arr.put((Object) null);
+				return arr;
+			case ',':
+			case ';':
+				arr.put((Object) null);
+				trailingSeparator = true;
+				continue;
+			default:
+				arr.put(readValue(c));
+				c = lexer.nextClean();
+				if (c == ']')
+					return arr;
+				if (c != ',' && c != ';')
+					throw lexer.syntaxError("Unterminated array");
+				trailingSeparator = true;
+			}
+		}
+	}
+}
@@ -0,0 +1,203 @@
+package com.ltpeacock.sorter.json;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.github.openjson.JSONArray;
+import com.github.openjson.JSONObject;
+
+/**
+ * <p>Index of the {@code $ref} edges between the components of an OpenAPI spec and from its paths.</p>
+ * Every component is registered once under the local reference that points to it, such as
+ * {@code #/components/schemas/Pet}, so resolving each {@code $ref} read from the spec is a single hash lookup of
+ * the string as it is, and all the references to a component share one node of the graph. The paths and every
+ * section of {@code components} are walked once to collect the edges, including the references and schema
+ * names in the {@code mapping} of a discriminator. References that are external or that point to no component are
+ * ignored.
+ * <br>
+ * A component is reachable if it is referenced from the paths, directly or through other components. Security
+ * schemes are referenced by name from security requirements rather than by {@code $ref}, so they are always
+ * reachable.
+ * @author LieutenantPeacock
+ *
+ */
+final class OpenApiRefIndex {
+	private static final String PREFIX = "#/components/";
+	private static final Comparator<Component> DEPENDENCY_ORDER = Comparator
+			.comparing((Component component) -> component.name).thenComparing(component -> component.section);
+	private final Map<String, Component> byRef = new HashMap<>();
+	private final Map<String, List<Component>> sections = new LinkedHashMap<>();
+
+	private static final class Component {
+		final String section;
+		final String name;
+		final List<Component> refs = new ArrayList<>(2);
+		boolean reachable;
+		boolean visited;
+		int next;
+
+		Component(final String section, final String name) {
+			this.section = section;
+			this.name = name;
+		}
+	}
+
+	/**
+	 * @param paths The {@code paths} of the spec, or {@code null}.
+	 * @param components The {@code components} of the spec.
+	 */
+	OpenApiRefIndex(final JSONObject paths, final JSONObject components) {
+		for (final String section : components.keySet()) {
+			final Object value = components.get(section);
+			if (!(value instanceof JSONObject))
+				continue;
+			final List<String> names = new ArrayList<>(((JSONObject) value).keySet());
+			Collections.sort(names);
+			final List<Component> entries = new ArrayList<>(names.size());
+			for (final String name : names) {
+				if (JSONObject.NULL.equals(((JSONObject) value).get(name)))
+					continue;
+				final Component component = new Component(section, name);
+				entries.add(component);
+				byRef.put(PREFIX + escape(section) + '/' + escape(name), component);
+			}
+			sections.put(section, entries);
+		}
+		for (final List<Component> entries : sections.values()) {
+			for (final Component component : entries)
+				collect(components.getJSONObject(component.section).get(component.name), component.refs);
+		}
+		final List<Component> roots = new ArrayList<>();
+		if (paths != null)
+			collect(paths, roots);
+		roots.addAll(sections.getOrDefault("securitySchemes", Collections.emptyList()));
+		markReachable(roots);
+	}
+
+	/**
+	 * Escapes a name as a segment of a JSON Pointer.
+	 */
+	private static String escape(final String name) {
+		return name.replace("~", "~0").replace("/", "~1");
+	}
+
+	/**
+	 * Adds the components referenced anywhere within a value.
+	 */
+	private void collect(final Object value, final List<Component> refs) {
+		if (value instanceof JSONObject) {
+			final JSONObject object = (JSONObject) value;
+			for (final String key : object.keySet()) {
+				final Object member = object.get(key);
+				if (member instanceof String) {
+					if ("$ref".equals(key))
+						resolve((String) member, refs);
+				} else {
+					if ("discriminator".equals(key) && member instanceof JSONObject)
+						collectMapping(((JSONObject) member).opt("mapping"), refs);
+					collect(member, refs);
+				}
+			}
+		} else if (value instanceof JSONArray) {
+			final JSONArray array = (JSONArray) value;
+			for (int i = 0; i < array.length(); i++)
+				collect(array.opt(i), refs);
+		}
+	}
+
+	/**
+	 * Adds the schemas in the {@code mapping} of a discriminator, whose values are either references or the bare
+	 * names of schemas, such as {@code Dog} for {@code #/components/schemas/Dog}.
+	 */
+	private void collectMapping(final Object mapping, final List<Component> refs) {
+		if (!(mapping instanceof JSONObject))
+			return;
+		final JSONObject object = (JSONObject) mapping;
+		for (final String key : object.keySet()) {
+			final Object value = object.get(key);
+			if (value instanceof String) {
+				final String ref = (String) value;
+				// Component names cannot contain a slash, so a value with one is a reference
+				resolve(ref.indexOf('/') < 0 ? PREFIX + "schemas/" + ref : ref, refs);
+			}
+		}
+	}
+
+	private void resolve(final String ref, final List<Component> refs) {
+		final Component component = byRef.get(ref);
+		if (component != null)
+			refs.add(component);
+	}
+
+	private static void markReachable(final List<Component> roots) {
+		final ArrayDeque<Component> stack = new ArrayDeque<>();
+		for (final Component root : roots) {
+			if (!root.reachable) {
+				root.reachable = true;
+				stack.push(root);
+			}
+		}
+		while (!stack.isEmpty()) {
+			for (final Component ref : stack.pop().refs) {
+				if (!ref.reachable) {
+					ref.reachable = true;
+					stack.push(ref);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Lists the names of the entries of a section of {@code components}, in order of their names.
+	 * @param reachableOnly Whether to leave out the entries that are not reachable from the paths.
+	 */
+	List<String> names(final String section, final boolean reachableOnly) {
+		final List<String> names = new ArrayList<>();
+		for (final Component component : sections.getOrDefault(section, Collections.emptyList())) {
+			if (!reachableOnly || component.reachable)
+				names.add(component.name);
+		}
+		return names;
+	}
+
+	/**
+	 * Lists the names of the entries of a section of {@code components} in topological order: each entry comes
+	 * after the entries of the same section that it references, directly or through other components, and
+	 * otherwise entries are in order of their names. A cycle of references is broken at the entry that is
+	 * reached first. Only one section can be listed in this order per index.
+	 * @param reachableOnly Whether to leave out the entries that are not reachable from the paths.
+	 */
+	List<String> topologicalNames(final String section, final boolean reachableOnly) {
+		final List<String> names = new ArrayList<>();
+		final ArrayDeque<Component> stack = new ArrayDeque<>();
+		for (final Component start : sections.getOrDefault(section, Collections.emptyList())) {
+			if (start.visited || reachableOnly && !start.reachable)
+				continue;
+			start.visited = true;
+			stack.push(start);
+			while (!stack.isEmpty()) {
+				final Component top = stack.peek();
+				if (top.next == 0)
+					top.refs.sort(DEPENDENCY_ORDER);
+				if (top.next < top.refs.size()) {
+					final Component ref = top.refs.get(top.next++);
+					if (!ref.visited) {
+						ref.visited = true;
+						stack.push(ref);
+					}
+				} else {
+					stack.pop();
+					if (top.section.equals(section))
+						names.add(top.name);
+				}
+			}
+		}
+		return names;
+	}
+}
@@ -1,19 +1,27 @@
 package com.ltpeacock.sorter.json;
 
-import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.Reader;
+import java.io.StringReader;
+import java.math.BigDecimal;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 import com.github.openjson.JSONArray;
 import com.github.openjson.JSONObject;
 import com.github.openjson.JSONTokener;
+import com.ltpeacock.sorter.ArraySortRules;
 import com.ltpeacock.sorter.ContentSorter;
+import com.ltpeacock.sorter.SortPermutationCache;
+import com.ltpeacock.sorter.SortedInputMatcher;
 
 /**
  * Engine for sorting JSON by key name.
@@ -21,9 +29,20 @@ import com.ltpeacock.sorter.ContentSorter;
  *
  */
 public class SortJSONEngine implements ContentSorter {
+	/** The number of bytes after which a batch of lines ends, so that very long records make smaller batches. */
+	private static final int BATCH_BYTES = 1 << 20;
 	private final Comparator<String> keyComparator;
 	private boolean recursive = true;
 	private int indent = 4;
+	private SortPermutationCache permutationCache = new SortPermutationCache();
+	private boolean rawNumbers = false;
+	private JSONSortTargets sortTargets;
+	private ArraySortRules arraySortRules;
+	private boolean lineDelimited = false;
+	private ForkJoinPool forkJoinPool;
+	private int parallelism = 1;
+	private int batchSize = 1024;
+	private boolean checkSorted = true;
 	
 	/**
 	 * Constructs a {@code SortJSONEngine} that sorts the keys in lexicographical order.
@@ -48,25 +67,142 @@ public class SortJSONEngine implements ContentSorter {
 	 */
 	@Override
 	public void sort(InputStream is, OutputStream os) throws IOException {
-		if (!(os instanceof BufferedOutputStream)) os = new BufferedOutputStream(os);
-		final Reader reader = new InputStreamReader(is, StandardCharsets.UTF_8);
-		final Object value = new JSONTokener(reader).nextValue();
-		final String output;
+		if (lineDelimited) {
+			sortLines(is, os);
+			return;
+		}
+		if (sortTargets != null) {
+			final JSONByteWriter writer = new JSONByteWriter(os, indent);
+			new JSONPointerSorter(is, writer, sortTargets, this::sortTarget).sort();
+			writer.flush();
+			return;
+		}
+		InputStream input = is;
+		if (checkSorted && arraySortRules == null) {
+			input = SortedInputMatcher.copyIfSorted(is, os, this::isSorted);
+			if (input == null)
+				return;
+		}
+		final Object value = read(new InputStreamReader(input, StandardCharsets.UTF_8));
+		final JSONByteWriter writer = new JSONByteWriter(os, indent);
+		writeSorted(writer, value, 0, true, arraySortRules == null ? null : new ArrayList<>());
+		writer.flush();
+	}
+
+	/**
+	 * Checks whether the JSON is already sorted and formatted as this engine would write it. Unless there are sort
+	 * targets, array sort rules or line-delimited input, this reads one token at a time without building a tree,
+	 * and stops at the first key that is out of order.
+	 * @param is The InputStream to read the JSON file from.
+	 * @return Whether sorting the JSON would write exactly the same bytes.
+	 * @throws IOException If there is an error in reading data.
+	 */
+	@Override
+	public boolean isSorted(final InputStream is) throws IOException {
+		if (lineDelimited || sortTargets != null || arraySortRules != null)
+			return ContentSorter.super.isSorted(is);
+		return new JSONSortChecker(keyComparator, recursive, indent, rawNumbers).isSorted(is);
+	}
+
+	/**
+	 * Reads the first value of the input, keeping numbers as they were written if raw numbers are on.
+	 */
+	private Object read(final Reader reader) throws IOException {
+		return rawNumbers ? new JSONTreeReader(reader, true).readValue() : new JSONTokener(reader).nextValue();
+	}
+
+	/**
+	 * Reads and sorts the value at one of the sort targets.
+	 */
+	private void sortTarget(final InputStream value, final JSONByteWriter writer, final int depth,
+			final List<String> path) throws IOException {
+		writeSorted(writer, read(new InputStreamReader(value, StandardCharsets.UTF_8)), depth, true,
+				arraySortRules == null ? null : path);
+	}
+
+	/**
+	 * Sorts each line of newline-delimited JSON as a separate value, in batches of lines that are sorted
+	 * concurrently if there is a pool.
+	 */
+	private void sortLines(final InputStream is, final OutputStream os) throws IOException {
+		final ForkJoinPool pool = forkJoinPool != null ? forkJoinPool
+				: parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+		final JSONLinesSorter linesSorter = new JSONLinesSorter((record, writer) -> {
+			if (sortTargets != null) {
+				new JSONPointerSorter(new ByteArrayInputStream(record.getBytes(StandardCharsets.UTF_8)), writer,
+						sortTargets, this::sortTarget).sort();
+			} else {
+				writeSorted(writer, rawNumbers ? read(new StringReader(record)) : new JSONTokener(record).nextValue(),
+						0, true, arraySortRules == null ? null : new ArrayList<>());
+			}
+		}, batchSize, BATCH_BYTES);
+		try {
+			// Two batches per thread keep every thread busy while the oldest batch is written
+			linesSorter.sort(is, os, pool, pool == null ? 1 : 2 * pool.getParallelism());
+		} finally {
+			if (pool != null && pool != forkJoinPool)
+				pool.shutdown();
+		}
+	}
+
+	/**
+	 * Writes a value with the keys of its objects in sorted order, the same as {@link #sort(JSONObject)} or
+	 * {@link #sort(JSONArray)} followed by {@code toString(indent)}, but without modifying it: the keys of each
+	 * object are sorted in an array of exactly their number, and the members are written in that order.
+	 * @param sort Whether the keys of the value are sorted if it is an object, or the keys of its elements
+	 * that are objects if it is an array.
+	 * @param path The path of the value, which is only followed when there are array sort rules, or {@code null}.
+	 */
+	private void writeSorted(final JSONByteWriter writer, final Object value, final int depth, final boolean sort,
+			final List<String> path) throws IOException {
 		if (value instanceof JSONObject) {
-			sort((JSONObject) value);
-			output = ((JSONObject) value).toString(indent);
+			final JSONObject obj = (JSONObject) value;
+			final String[] names = obj.keySet().toArray(new String[obj.length()]);
+			final String[] keys = sort ? sortKeys(names) : names;
+			writer.write('{');
+			boolean empty = true;
+			for (final String key : keys) {
+				final Object member = obj.opt(key);
+				if (JSONObject.NULL.equals(member))
+					continue;
+				if (!empty)
+					writer.write(',');
+				empty = false;
+				writer.writeNewline(depth + 1);
+				writer.writeKey(key);
+				if (path != null)
+					path.add(key);
+				writeSorted(writer, member, depth + 1, sort && recursive, path);
+				if (path != null)
+					path.remove(path.size() - 1);
+			}
+			if (!empty)
+				writer.writeNewline(depth);
+			writer.write('}');
 		} else if (value instanceof JSONArray) {
-			sort((JSONArray) value);
-			output = ((JSONArray) value).toString(indent);
-		} else if (value instanceof String) {
-			output = JSONObject.quote((String) value);
-		} else if (value instanceof Number) {
-			output = JSONObject.numberToString((Number) value);
+			final JSONArray arr = (JSONArray) value;
+			final int length = arr.length();
+			final int[] indexes = path == null ? null : new int[length];
+			final Object[] elements = path == null ? null : sortElements(arr, path, indexes);
+			writer.write('[');
+			for (int i = 0; i < length; i++) {
+				final Object element = elements == null ? arr.opt(i) : elements[i];
+				if (i > 0)
+					writer.write(',');
+				writer.writeNewline(depth + 1);
+				if (path != null)
+					path.add(Integer.toString(indexes[i]));
+				writeSorted(writer, element, depth + 1, element instanceof JSONArray ? sort && recursive : sort,
+						path);
+				if (path != null)
+					path.remove(path.size() - 1);
+			}
+			if (length > 0)
+				writer.writeNewline(depth);
+			writer.write(']');
 		} else {
-			output = String.valueOf(value);
+			writer.writeValue(value, depth);
 		}
-		os.write(output.getBytes(StandardCharsets.UTF_8));
-		os.flush();
 	}
 
 	/**
@@ -74,20 +210,7 @@ public class SortJSONEngine implements ContentSorter {
 	 * @param obj The object to sort.
 	 */
 	public void sort(final JSONObject obj) {
-		final String[] keys = JSONObject.getNames(obj);
-		Arrays.sort(keys, keyComparator);
-		final Object[] values = Arrays.stream(keys).map(obj::get).toArray();
-		for (int i = 0; i < keys.length; i++) {
-			obj.remove(keys[i]);
-			obj.put(keys[i], values[i]);
-			if (recursive) {
-				if (values[i] instanceof JSONObject) {
-					sort((JSONObject) values[i]);
-				} else if (values[i] instanceof JSONArray) {
-					sort((JSONArray) values[i]);
-				}
-			}
-		}
+		sort(obj, true, arraySortRules == null ? null : new ArrayList<>());
 	}
 
 	/**
@@ -95,13 +218,131 @@ public class SortJSONEngine implements ContentSorter {
 	 * @param arr The JSONArray.
 	 */
 	public void sort(final JSONArray arr) {
-		for (final Object obj : arr) {
-			if (obj instanceof JSONObject) {
-				sort((JSONObject) obj);
-			} else if (recursive && obj instanceof JSONArray) {
-				sort((JSONArray) obj);
+		sort(arr, true, arraySortRules == null ? null : new ArrayList<>());
+	}
+
+	/**
+	 * Sorts a value in place, with the same flags as {@link #writeSorted(JSONByteWriter, Object, int, boolean, List)}.
+	 */
+	private void sort(final Object value, final boolean sort, final List<String> path) {
+		if (value instanceof JSONObject) {
+			final JSONObject obj = (JSONObject) value;
+			final String[] original = JSONObject.getNames(obj);
+			if (original == null)
+				return;
+			final String[] keys = sort ? sortKeys(original) : original;
+			// The keys up to the first one out of place already are in order, so only the rest is moved to the end
+			int first = 0;
+			while (first < keys.length && keys[first].equals(original[first]))
+				first++;
+			for (int i = 0; i < keys.length; i++) {
+				final Object member = obj.opt(keys[i]);
+				if (i >= first) {
+					obj.remove(keys[i]);
+					obj.put(keys[i], member);
+				}
+				if (sort && recursive || path != null) {
+					if (path != null)
+						path.add(keys[i]);
+					sort(member, sort && recursive, path);
+					if (path != null)
+						path.remove(path.size() - 1);
+				}
+			}
+		} else if (value instanceof JSONArray) {
+			final JSONArray arr = (JSONArray) value;
+			final int length = arr.length();
+			final int[] indexes = path == null ? null : new int[length];
+			if (path != null) {
+				final Object[] elements = sortElements(arr, path, indexes);
+				for (int i = 0; i < length; i++)
+					arr.put(i, elements[i]);
+			}
+			for (int i = 0; i < length; i++) {
+				final Object element = arr.opt(i);
+				if (path != null)
+					path.add(Integer.toString(indexes[i]));
+				if (element instanceof JSONObject)
+					sort(element, sort, path);
+				else if (element instanceof JSONArray && (sort && recursive || path != null))
+					sort(element, sort && recursive, path);
+				if (path != null)
+					path.remove(path.size() - 1);
+			}
+		}
+	}
+
+	/**
+	 * Get the elements of an array in the order of the array sort rule for its path, if there is one.
+	 * @param indexes Receives the original index of each element.
+	 */
+	private Object[] sortElements(final JSONArray arr, final List<String> path, final int[] indexes) {
+		final int length = arr.length();
+		final Object[] elements = new Object[length];
+		for (int i = 0; i < length; i++) {
+			elements[i] = arr.opt(i);
+			indexes[i] = i;
+		}
+		final int[] order = arraySortRules.order(path, length, (element, keyPath) -> key(elements[element], keyPath));
+		if (order == null)
+			return elements;
+		final Object[] sorted = new Object[length];
+		for (int i = 0; i < length; i++) {
+			sorted[i] = elements[order[i]];
+			indexes[i] = order[i];
+		}
+		return sorted;
+	}
+
+	/**
+	 * Get the sort key of the value at a key path inside an element.
+	 */
+	private static Object key(final Object element, final List<String> keyPath) {
+		Object value = element;
+		for (final String segment : keyPath) {
+			if (value instanceof JSONObject) {
+				value = ((JSONObject) value).opt(segment);
+			} else if (value instanceof JSONArray) {
+				try {
+					value = ((JSONArray) value).opt(Integer.parseInt(segment));
+				} catch (NumberFormatException e) {
+					return null;
+				}
+			} else {
+				return null;
 			}
 		}
+		return key(value);
+	}
+
+	/**
+	 * Get the sort key of a value, as described by {@link ArraySortRules}.
+	 */
+	private static Object key(final Object value) {
+		if (value instanceof JSONRawNumber)
+			return new BigDecimal(value.toString());
+		if (value instanceof Number || value instanceof String || value instanceof Boolean)
+			return value;
+		return null;
+	}
+
+	/**
+	 * Sorts the names of the keys of an object, with the sort permutation cache if there is one.
+	 * @param names The names in their original order, which is not changed.
+	 * @return A new array with the names in sorted order.
+	 */
+	private String[] sortKeys(final String[] names) {
+		if (permutationCache == null || names.length < 2) {
+			final String[] keys = names.clone();
+			Arrays.sort(keys, keyComparator);
+			return keys;
+		}
+		final int[] permutation = permutationCache.getPermutation(names,
+				(a, b) -> keyComparator.compare(names[a], names[b]));
+		final String[] keys = new String[names.length];
+		for (int i = 0; i < keys.length; i++)
+			keys[i] = names[permutation[i]];
+		return keys;
 	}
 
 	/**
@@ -123,4 +364,114 @@ public class SortJSONEngine implements ContentSorter {
 	public void setIndent(int indent) {
 		this.indent = indent;
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Set whether numbers are written exactly as they appear in the input, such as {@code 1.0}, {@code 1e3} or
+	 * integers of any length, instead of being parsed and written in openjson's format. This also saves parsing
+	 * and formatting every number. Only literals that are valid JSON numbers are kept as they are; other numeric
+	 * literals, such as hexadecimal ones, are still parsed. It does not apply to {@link #sort(JSONObject)} and
+	 * {@link #sort(JSONArray)}, whose numbers have already been parsed. The default is {@code false}.
+	 * @param rawNumbers Whether numbers are copied from the input as they are.
+	 */
+	public void setRawNumbers(final boolean rawNumbers) {
+		this.rawNumbers = rawNumbers;
+	}
+
+	/**
+	 * Set the cache of sort permutations, which sorts objects with the same keys in the same order as an object
+	 * sorted before without comparing their keys again. By default, each engine has its own cache with the default
+	 * capacity. A cache must not be shared with engines that use a different comparator.
+	 * @param permutationCache The cache, or {@code null} to sort the keys of every object.
+	 */
+	public void setPermutationCache(final SortPermutationCache permutationCache) {
+		this.permutationCache = permutationCache;
+	}
+
+	/**
+	 * Get the cache of sort permutations, whose counters show how many objects had a known shape.
+	 * @return The cache, or {@code null} if there is none.
+	 */
+	public SortPermutationCache getPermutationCache() {
+		return permutationCache;
+	}
+
+	/**
+	 * Set the parts of the document to sort. Only the values at the targets are read and sorted, with their
+	 * nested objects if the sorting is recursive, and written with the indent of this engine at their depth.
+	 * Everything else is copied from the input as it is, including its whitespace and comments.
+	 * The default is {@code null}, which sorts the whole document.
+	 * @param sortTargets The JSON Pointers of the values to sort.
+	 */
+	public void setSortTargets(final JSONSortTargets sortTargets) {
+		this.sortTargets = sortTargets;
+	}
+
+	/**
+	 * Set the rules for ordering the elements of arrays, which otherwise keep their original order. The rules
+	 * apply to every array in the output, whether or not the keys of its objects are sorted.
+	 * The default is {@code null}, which keeps the order of all arrays.
+	 * @param arraySortRules The rules for ordering arrays.
+	 */
+	public void setArraySortRules(final ArraySortRules arraySortRules) {
+		this.arraySortRules = arraySortRules;
+	}
+
+	/**
+	 * Set whether the input is newline-delimited JSON (JSON Lines, NDJSON), with one value on each line.
+	 * Each line is then sorted on its own and written on one line, whatever the indent, in the same order as
+	 * in the input. Lines are read and sorted in batches, so the memory used depends on the size of the batches
+	 * that are being sorted at once, not on the size of the input.
+	 * The default is {@code false}, which reads a single value.
+	 * @param lineDelimited Whether the input has one value on each line.
+	 * @see #setParallelism(int)
+	 */
+	public void setLineDelimited(final boolean lineDelimited) {
+		this.lineDelimited = lineDelimited;
+	}
+
+	/**
+	 * Set the {@link ForkJoinPool} used to sort batches of lines in parallel, for newline-delimited input.
+	 * Up to two batches per thread of the pool are read ahead of the one being written, and the output is the
+	 * same as with sequential sorting. The comparator must be safe to call from several threads at once.
+	 * The default is {@code null}, which sorts on the calling thread unless a parallelism level is set.
+	 * @param forkJoinPool The pool to sort with, e.g. {@link ForkJoinPool#commonPool()}.
+	 * @see #setLineDelimited(boolean)
+	 */
+	public void setForkJoinPool(final ForkJoinPool forkJoinPool) {
+		this.forkJoinPool = forkJoinPool;
+	}
+
+	/**
+	 * Set the number of threads used to sort batches of lines in parallel, for newline-delimited input, when no
+	 * {@link ForkJoinPool} is set. A new pool with this parallelism is created for each input and shut down
+	 * afterwards. The default is {@code 1}, which sorts on the calling thread.
+	 * @param parallelism The number of threads to sort with.
+	 * @see #setForkJoinPool(ForkJoinPool)
+	 */
+	public void setParallelism(final int parallelism) {
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Set the largest number of lines in one batch, for newline-delimited input. A batch also ends at the first
+	 * line break after 1 MiB. The default is {@code 1024}.
+	 * @param lines The number of lines sorted together as one task.
+	 */
+	public void setBatchSize(final int lines) {
+		this.batchSize = lines;
+	}
+
+	/**
+	 * Set whether the input is first checked to be sorted already, in which case it is copied to the output as
+	 * it is instead of being read into a tree and written again. The check reads one token at a time and stops at
+	 * the first key that is out of order, so it costs little for input that is not sorted, and the output is the
+	 * same either way. Only input that can be read twice without holding it in memory is checked, such as a file
+	 * sorted through {@link #sort(java.nio.file.Path, java.nio.file.Path)}, not standard input. It does not apply
+	 * with array sort rules, sort targets or line-delimited input. The default is {@code true}.
+	 * @param checkSorted Whether sorted input is copied as it is.
+	 * @see #isSorted(InputStream)
+	 */
+	public void setCheckSorted(final boolean checkSorted) {
+		this.checkSorted = checkSorted;
+	}
+}
@@ -1,6 +1,6 @@
 package com.ltpeacock.sorter.json;
 
-import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -10,20 +10,35 @@ import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 
 import com.github.openjson.JSONArray;
 import com.github.openjson.JSONObject;
 import com.github.openjson.JSONTokener;
 import com.ltpeacock.sorter.ContentSorter;
+import com.ltpeacock.sorter.OrderedTaskWriter;
 
 /**
- * Engine for sorting OpenAPI JSON.
+ * <p>Engine for sorting OpenAPI JSON.</p>
+ * {@code openapi}, {@code info}, {@code servers}, {@code paths} and {@code components} are written in this order,
+ * the entries of {@code paths} are sorted by path, the {@code responses} of each operation by code, and the
+ * sections of {@code components} and their entries by name. Unused components can be left out, and schemas can be
+ * ordered so that each comes after the schemas it references, with an index of the {@code $ref} edges of the spec.
  * @author LieutenantPeacock
  *
  */
 public class SortOpenApiJSONEngine implements ContentSorter {
+	/** The number of entries of {@code paths} or of a section of {@code components} rendered by one task. */
+	private static final int ENTRIES_PER_TASK = 64;
 	private int indent = 4;
+	private boolean rawNumbers = false;
+	private ForkJoinPool forkJoinPool;
+	private int parallelism = 1;
+	private boolean pruneComponents = false;
+	private boolean topologicalSchemas = false;
 
 	/**
 	 * Sorts the OpenAPI JSON from an {@link InputStream} and prints the result to the given {@link OutputStream}.
@@ -33,12 +48,185 @@ public class SortOpenApiJSONEngine implements ContentSorter {
 	 */
 	@Override
 	public void sort(InputStream is, OutputStream os) throws IOException {
-		if (!(os instanceof BufferedOutputStream))
-			os = new BufferedOutputStream(os);
 		final Reader reader = new InputStreamReader(is, StandardCharsets.UTF_8);
-		final JSONObject sorted = sort((JSONObject) new JSONTokener(reader).nextValue());
-		os.write(sorted.toString(indent).getBytes(StandardCharsets.UTF_8));
-		os.flush();
+		final Object value = rawNumbers ? new JSONTreeReader(reader, true).readValue()
+				: new JSONTokener(reader).nextValue();
+		final ForkJoinPool pool = forkJoinPool != null ? forkJoinPool
+				: parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+		final JSONByteWriter writer = new JSONByteWriter(os, indent);
+		try {
+			write((JSONObject) value, writer, pool);
+		} finally {
+			if (pool != null && pool != forkJoinPool)
+				pool.shutdown();
+		}
+		writer.flush();
+	}
+
+	/**
+	 * Writes an OpenAPI object in the order of {@link #sort(JSONObject)}, straight from the tree that was read
+	 * rather than from a sorted copy of it. The entries of {@code paths} and of each section of {@code components}
+	 * are rendered in chunks, concurrently if there is a pool, and each chunk is written as soon as the ones before
+	 * it have been.
+	 */
+	private void write(final JSONObject obj, final JSONByteWriter writer, final ForkJoinPool pool)
+			throws IOException {
+		final Object api = obj.get("openapi");
+		final JSONObject info = (JSONObject) obj.get("info");
+		final JSONArray serversOut = sortServers((JSONArray) obj.get("servers"));
+		final JSONObject paths = obj.getJSONObject("paths");
+		final JSONObject components = obj.getJSONObject("components");
+		final Map<String, List<String>> sections = sortComponents(paths, components);
+		writer.write('{');
+		writeMember(writer, "openapi", api, true);
+		writeMember(writer, "info", info, false);
+		writeMember(writer, "servers", serversOut, false);
+		writer.write(',');
+		writer.writeNewline(1);
+		writer.writeKey("paths");
+		writeEntries(writer, pool, paths, sortNames(paths), 1, SortOpenApiJSONEngine::writePath);
+		writer.write(',');
+		writer.writeNewline(1);
+		writer.writeKey("components");
+		writer.write('{');
+		boolean first = true;
+		for (final Map.Entry<String, List<String>> section : sections.entrySet()) {
+			if (!first)
+				writer.write(',');
+			first = false;
+			writer.writeNewline(2);
+			writer.writeKey(section.getKey());
+			if (section.getValue() == null)
+				writer.writeValue(components.get(section.getKey()), 2);
+			else
+				writeEntries(writer, pool, components.getJSONObject(section.getKey()), section.getValue(), 2,
+						(object, name, out, depth) -> out.writeValue(object.get(name), depth));
+		}
+		if (!first)
+			writer.writeNewline(1);
+		writer.write('}');
+		writer.writeNewline(0);
+		writer.write('}');
+	}
+
+	/**
+	 * Writes a member of the root object, unless its value is {@code null}.
+	 */
+	private static void writeMember(final JSONByteWriter writer, final String key, final Object value,
+			final boolean first) throws IOException {
+		if (JSONObject.NULL.equals(value))
+			return;
+		if (!first)
+			writer.write(',');
+		writer.writeNewline(1);
+		writer.writeKey(key);
+		writer.writeValue(value, 1);
+	}
+
+	/**
+	 * Writes one entry of an object whose entries are written in a given order.
+	 */
+	@FunctionalInterface
+	private interface EntryWriter {
+		void write(JSONObject object, String name, JSONByteWriter out, int depth) throws IOException;
+	}
+
+	/**
+	 * Writes the given entries of an object in the given order, rendering them in chunks on the pool.
+	 * @param depth The depth of the object.
+	 */
+	private void writeEntries(final JSONByteWriter writer, final ForkJoinPool pool, final JSONObject object,
+			final List<String> names, final int depth, final EntryWriter entryWriter) throws IOException {
+		writer.write('{');
+		// Two chunks per thread keep every thread busy while the oldest chunk is written
+		try (OrderedTaskWriter tasks = new OrderedTaskWriter(writer, pool,
+				pool == null ? 1 : 2 * pool.getParallelism())) {
+			for (int from = 0; from < names.size(); from += ENTRIES_PER_TASK) {
+				final int start = from, end = Math.min(names.size(), from + ENTRIES_PER_TASK);
+				tasks.submit(() -> {
+					final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+					final JSONByteWriter out = new JSONByteWriter(buffer, indent);
+					for (int i = start; i < end; i++) {
+						if (i > 0)
+							out.write(',');
+						out.writeNewline(depth + 1);
+						out.writeKey(names.get(i));
+						entryWriter.write(object, names.get(i), out, depth + 1);
+					}
+					out.flush();
+					return buffer;
+				});
+			}
+			tasks.drain();
+		}
+		if (!names.isEmpty())
+			writer.writeNewline(depth);
+		writer.write('}');
+	}
+
+	/**
+	 * Writes a path item with the responses of each operation sorted by code.
+	 */
+	private static void writePath(final JSONObject paths, final String name, final JSONByteWriter out,
+			final int depth) throws IOException {
+		final JSONObject path = paths.getJSONObject(name);
+		out.write('{');
+		boolean empty = true;
+		for (final String method : path.keySet()) {
+			final JSONObject operation = path.getJSONObject(method);
+			if (!empty)
+				out.write(',');
+			empty = false;
+			out.writeNewline(depth + 1);
+			out.writeKey(method);
+			writeOperation(operation, out, depth + 1);
+		}
+		if (!empty)
+			out.writeNewline(depth);
+		out.write('}');
+	}
+
+	private static void writeOperation(final JSONObject operation, final JSONByteWriter out, final int depth)
+			throws IOException {
+		out.write('{');
+		boolean empty = true;
+		for (final String key : operation.keySet()) {
+			final Object value = operation.get(key);
+			if (JSONObject.NULL.equals(value))
+				continue;
+			if (!empty)
+				out.write(',');
+			empty = false;
+			out.writeNewline(depth + 1);
+			out.writeKey(key);
+			if ("responses".equals(key))
+				writeResponses((JSONObject) value, out, depth + 1);
+			else
+				out.writeValue(value, depth + 1);
+		}
+		if (!empty)
+			out.writeNewline(depth);
+		out.write('}');
+	}
+
+	private static void writeResponses(final JSONObject responses, final JSONByteWriter out, final int depth)
+			throws IOException {
+		out.write('{');
+		boolean empty = true;
+		for (final String code : sortNames(responses)) {
+			final Object value = responses.get(code);
+			if (JSONObject.NULL.equals(value))
+				continue;
+			if (!empty)
+				out.write(',');
+			empty = false;
+			out.writeNewline(depth + 1);
+			out.writeKey(code);
+			out.writeValue(value, depth + 1);
+		}
+		if (!empty)
+			out.writeNewline(depth);
+		out.write('}');
 	}
 
 	/**
@@ -50,16 +238,7 @@ public class SortOpenApiJSONEngine implements ContentSorter {
 		final JSONObject sortedObj = new JSONObject();
 		final Object api = obj.get("openapi");
 		final JSONObject info = (JSONObject) obj.get("info");
-		final JSONArray serversOut = new JSONArray();
-		final JSONArray servers = (JSONArray) obj.get("servers");
-		final int serversLen = servers.length();
-		for (int i = 0; i < serversLen; i++) {
-			final JSONObject outObject = new JSONObject();
-			final JSONObject o = servers.getJSONObject(i);
-			outObject.put("url", o.get("url"));
-			outObject.put("description", o.get("description"));
-			serversOut.put(outObject);
-		}
+		final JSONArray serversOut = sortServers((JSONArray) obj.get("servers"));
 		sortedObj.put("openapi", api);
 		sortedObj.put("info", info);
 		sortedObj.put("servers", serversOut);
@@ -67,24 +246,71 @@ public class SortOpenApiJSONEngine implements ContentSorter {
 		sortedObj.put("paths", pathsOut);
 		final JSONObject componentNew = new JSONObject();
 		final JSONObject component = obj.getJSONObject("components");
-		final JSONObject schema = component.getJSONObject("schemas");
-		final JSONArray schemaNames = schema.names();
-		final List<String> nameList = sortNames(schemaNames);
-		final JSONObject schemaNew = new JSONObject();
-		for (int i = 0; i < nameList.size(); i++) {
-			final String key = nameList.get(i);
-			final JSONObject schemaItem = schema.getJSONObject(key);
-			schemaNew.put(key, schemaItem);
+		for (final Map.Entry<String, List<String>> section : sortComponents(obj.getJSONObject("paths"), component)
+				.entrySet()) {
+			if (section.getValue() == null) {
+				componentNew.put(section.getKey(), component.get(section.getKey()));
+				continue;
+			}
+			final JSONObject entries = component.getJSONObject(section.getKey());
+			final JSONObject entriesNew = new JSONObject();
+			for (final String key : section.getValue())
+				entriesNew.put(key, entries.get(key));
+			componentNew.put(section.getKey(), entriesNew);
 		}
-		componentNew.put("schemas", schemaNew);
 		sortedObj.put("components", componentNew);
 		return sortedObj;
 	}
 
+	/**
+	 * Lists the sections of {@code components} in order of their names, each with the names of its entries in the
+	 * order they are written, or with {@code null} if it is not an object and is written as it is.
+	 */
+	private Map<String, List<String>> sortComponents(final JSONObject paths, final JSONObject components) {
+		final OpenApiRefIndex index = pruneComponents || topologicalSchemas
+				? new OpenApiRefIndex(paths, components)
+				: null;
+		final Map<String, List<String>> sections = new LinkedHashMap<>();
+		for (final String section : sortNames(components)) {
+			final Object value = components.get(section);
+			if (JSONObject.NULL.equals(value))
+				continue;
+			if (!(value instanceof JSONObject)) {
+				if (!pruneComponents)
+					sections.put(section, null);
+				continue;
+			}
+			final List<String> names;
+			if (index == null) {
+				names = sortNames((JSONObject) value);
+				names.removeIf(name -> JSONObject.NULL.equals(((JSONObject) value).get(name)));
+			} else if (topologicalSchemas && "schemas".equals(section)) {
+				names = index.topologicalNames(section, pruneComponents);
+			} else {
+				names = index.names(section, pruneComponents);
+			}
+			if (!pruneComponents || !names.isEmpty())
+				sections.put(section, names);
+		}
+		return sections;
+	}
+
+	private JSONArray sortServers(final JSONArray servers) {
+		final JSONArray serversOut = new JSONArray();
+		final int serversLen = servers.length();
+		for (int i = 0; i < serversLen; i++) {
+			final JSONObject outObject = new JSONObject();
+			final JSONObject o = servers.getJSONObject(i);
+			outObject.put("url", o.get("url"));
+			outObject.put("description", o.get("description"));
+			serversOut.put(outObject);
+		}
+		return serversOut;
+	}
+
 	private JSONObject sortPaths(final JSONObject paths) {
-		final JSONArray names = paths.names();
-		final int sizeOfPaths = names.length();
-		final List<String> nameList = sortNames(names);
+		final List<String> nameList = sortNames(paths);
+		final int sizeOfPaths = nameList.size();
 		final JSONObject pathsOut = new JSONObject();
 		for (int i = 0; i < sizeOfPaths; i++) {
 			final String key = nameList.get(i);
@@ -104,8 +330,7 @@ public class SortOpenApiJSONEngine implements ContentSorter {
 					if ("responses".equals(keyUnterAction)) {
 						final JSONObject responses = (JSONObject) objUnderAction;
 						final JSONObject responsesNew = new JSONObject();
-						final JSONArray responseCodes = responses.names();
-						final List<String> codeList = sortNames(responseCodes);
+						final List<String> codeList = sortNames(responses);
 						for (int j = 0; j < codeList.size(); j++) {
 							final String codeStr = codeList.get(j);
 							final Object codeObj = responses.get(codeStr);
@@ -121,13 +346,8 @@ public class SortOpenApiJSONEngine implements ContentSorter {
 		return pathsOut;
 	}
 
-	private List<String> sortNames(final JSONArray names) {
-		final int sizeOfPaths = names.length();
-		final List<String> nameList = new ArrayList<>(sizeOfPaths);
-		for (int i = 0; i < sizeOfPaths; i++) {
-			final String o = (String) names.get(i);
-			nameList.add(o);
-		}
+	private static List<String> sortNames(final JSONObject obj) {
+		final List<String> nameList = new ArrayList<>(obj.keySet());
 		Collections.sort(nameList);
 		return nameList;
 	}
@@ -139,4 +359,58 @@ public class SortOpenApiJSONEngine implements ContentSorter {
 	public void setIndent(final int indent) {
 		this.indent = indent;
 	}
+
+	/**
+	 * Set whether numbers are written exactly as they appear in the input, such as {@code 1.0} or {@code 1e3},
+	 * instead of being parsed and written in openjson's format. Only literals that are valid JSON numbers are
+	 * kept as they are. The default is {@code false}.
+	 * @param rawNumbers Whether numbers are copied from the input as they are.
+	 */
+	public void setRawNumbers(final boolean rawNumbers) {
+		this.rawNumbers = rawNumbers;
+	}
+
+	/**
+	 * Set whether components that are not referenced from {@code paths}, directly or through other components, are
+	 * left out, and the sections of {@code components} that are then empty. References are found in {@code $ref}
+	 * and in the {@code mapping} of discriminators; security schemes are always kept, as they are referenced by
+	 * name. The default is {@code false}.
+	 * @param pruneComponents Whether unused components are left out.
+	 */
+	public void setPruneComponents(final boolean pruneComponents) {
+		this.pruneComponents = pruneComponents;
+	}
+
+	/**
+	 * Set whether {@code components.schemas} are ordered topologically, so that each schema comes after the
+	 * schemas it references, rather than only by name. Schemas are otherwise in order of their names, and a cycle
+	 * of references is broken at the schema that comes first. The default is {@code false}.
+	 * @param topologicalSchemas Whether schemas are ordered by their references.
+	 */
+	public void setTopologicalSchemas(final boolean topologicalSchemas) {
+		this.topologicalSchemas = topologicalSchemas;
+	}
+
+	/**
+	 * Set the {@link ForkJoinPool} used to write the entries of {@code paths} and {@code components} in
+	 * parallel. Chunks of entries are rendered concurrently, up to two chunks per thread of the pool ahead of the
+	 * one being written, and the output is the same as with sequential writing.
+	 * The default is {@code null}, which writes on the calling thread unless a parallelism level is set.
+	 * @param forkJoinPool The pool to write with, e.g. {@link ForkJoinPool#commonPool()}.
+	 * @see #setParallelism(int)
+	 */
+	public void setForkJoinPool(final ForkJoinPool forkJoinPool) {
+		this.forkJoinPool = forkJoinPool;
+	}
+
+	/**
+	 * Set the number of threads used to write the entries of {@code paths} and {@code components} in
+	 * parallel, when no {@link ForkJoinPool} is set. A new pool with this parallelism is created for each input and
+	 * shut down afterwards. The default is {@code 1}, which writes on the calling thread.
+	 * @param parallelism The number of threads to write with.
+	 * @see #setForkJoinPool(ForkJoinPool)
+	 */
+	public void setParallelism(final int parallelism) {
+		this.parallelism = parallelism;
+	}
 }
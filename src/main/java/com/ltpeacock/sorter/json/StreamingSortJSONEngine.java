@@ -0,0 +1,375 @@
+package com.ltpeacock.sorter.json;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import com.github.openjson.JSONObject;
+import com.ltpeacock.sorter.ContentSorter;
+import com.ltpeacock.sorter.SortPermutationCache;
+import com.ltpeacock.sorter.SortedInputMatcher;
+
+/**
+ * <p>Engine for sorting JSON by key name without reading the whole document into memory.</p>
+ * The input is read one token at a time, and each value is written out as soon as it has been read, except for
+ * the members of objects, which are buffered until the end of their object so that they can be reordered.
+ * The elements of arrays, including a top-level array, are written one by one as they are read.
+ * <br>
+ * The output is the same as that of {@link SortJSONEngine} with the same comparator, indent and recursive setting.
+ * @author LieutenantPeacock
+ *
+ */
+public class StreamingSortJSONEngine implements ContentSorter {
+	private final Comparator<String> keyComparator;
+	private boolean recursive = true;
+	private int indent = 4;
+	private boolean rawNumbers = false;
+	private long memoryBudget = 0;
+	private Path tempDirectory;
+	private SortPermutationCache permutationCache = new SortPermutationCache();
+	private boolean checkSorted = true;
+
+	/**
+	 * Constructs a {@code StreamingSortJSONEngine} that sorts the keys in lexicographical order.
+	 */
+	public StreamingSortJSONEngine() {
+		this(Comparator.naturalOrder());
+	}
+
+	/**
+	 * Constructs a {@code StreamingSortJSONEngine} that sorts the keys using the {@code keyComparator}.
+	 * @param keyComparator The {@link Comparator} for sorting object keys.
+	 */
+	public StreamingSortJSONEngine(final Comparator<String> keyComparator) {
+		this.keyComparator = keyComparator;
+	}
+
+	/**
+	 * Sorts the JSON from an {@link InputStream} and prints the result to the given {@link OutputStream}.
+	 * @param is The InputStream to read the JSON file from.
+	 * @param os The OutputStream to write the sorted JSON to.
+	 * @throws IOException If there is an error in reading/writing data.
+	 */
+	@Override
+	public void sort(final InputStream is, final OutputStream os) throws IOException {
+		InputStream input = is;
+		if (checkSorted) {
+			input = SortedInputMatcher.copyIfSorted(is, os, this::isSorted);
+			if (input == null)
+				return;
+		}
+		final JSONByteWriter writer = new JSONByteWriter(os, indent);
+		final JSONLexer lexer = new JSONLexer(new InputStreamReader(input, StandardCharsets.UTF_8));
+		final Session session = new Session(lexer);
+		try {
+			final int c = lexer.nextClean();
+			if (c == -1)
+				throw lexer.syntaxError("End of input");
+			session.writeValue(c, 0, true, writer);
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		} finally {
+			session.close();
+		}
+		writer.flush();
+	}
+
+	/**
+	 * Checks whether the JSON is already sorted and formatted as this engine would write it, reading one token at a
+	 * time and stopping at the first key that is out of order. Nothing is buffered.
+	 * @param is The InputStream to read the JSON file from.
+	 * @return Whether sorting the JSON would write exactly the same bytes.
+	 * @throws IOException If there is an error in reading data.
+	 */
+	@Override
+	public boolean isSorted(final InputStream is) throws IOException {
+		return new JSONSortChecker(keyComparator, recursive, indent, rawNumbers).isSorted(is);
+	}
+
+	/**
+	 * State for sorting one document: the lexer, and a member buffer for each depth of nested objects.
+	 */
+	private final class Session {
+		private final JSONLexer lexer;
+		private final List<JSONMemberBuffer> buffers = new ArrayList<>();
+		private final Comparator<JSONMemberBuffer.Member> memberComparator = (a, b) -> keyComparator.compare(a.key,
+				b.key);
+
+		Session(final JSONLexer lexer) {
+			this.lexer = lexer;
+		}
+
+		/**
+		 * Reads a value starting with the given character, and writes it sorted.
+		 * @param sort Whether the keys of the value are sorted if it is an object, or the keys of its elements
+		 * that are objects if it is an array.
+		 */
+		void writeValue(final int c, final int depth, final boolean sort, final JSONByteWriter out)
+				throws IOException {
+			switch (c) {
+			case '{':
+				writeObject(depth, sort, out);
+				break;
+			case '[':
+				writeArray(depth, sort, out);
+				break;
+			case '"':
+			case '\'':
+				out.writeString(lexer.nextString((char) c));
+				break;
+			default:
+				lexer.back();
+				out.writeValue(lexer.readLiteral(rawNumbers), depth);
+				break;
+			}
+		}
+
+		private void writeObject(final int depth, final boolean sort, final JSONByteWriter out) throws IOException {
+			int c = lexer.nextClean();
+			if (c == '}') {
+				out.write('{');
+				out.write('}');
+				return;
+			}
+			if (c != -1)
+				lexer.back();
+			final JSONMemberBuffer buffer = getBuffer(depth);
+			while (true) {
+				final String key = lexer.nextKey();
+				c = lexer.nextClean();
+				if (c != ':' && c != '=')
+					throw lexer.syntaxError("Expected ':' after " + key);
+				c = lexer.next();
+				if (c != '>' && c != -1)
+					lexer.back();
+				c = lexer.nextClean();
+				if (c == -1)
+					throw lexer.syntaxError("End of input");
+				final long start = buffer.position();
+				if (c == '{' || c == '[' || c == '"' || c == '\'') {
+					writeValue(c, depth + 1, sort && recursive, buffer.getWriter());
+					buffer.addMember(key, start);
+				} else {
+					lexer.back();
+					final Object literal = lexer.readLiteral(rawNumbers);
+					if (literal == JSONObject.NULL) {
+						// Kept in its place among the other keys, but not written
+						buffer.addMember(key, -1);
+					} else {
+						buffer.getWriter().writeValue(literal, depth + 1);
+						buffer.addMember(key, start);
+					}
+				}
+				c = lexer.nextClean();
+				if (c == '}')
+					break;
+				if (c != ',' && c != ';')
+					throw lexer.syntaxError("Unterminated object");
+			}
+			final List<JSONMemberBuffer.Member> members = buffer.getMembers();
+			if (sort)
+				sortMembers(members);
+			out.write('{');
+			boolean empty = true;
+			for (final JSONMemberBuffer.Member member : members) {
+				if (member.offset < 0)
+					continue;
+				if (!empty)
+					out.write(',');
+				empty = false;
+				out.writeNewline(depth + 1);
+				out.writeKey(member.key);
+				buffer.writeValue(member, out);
+			}
+			if (!empty)
+				out.writeNewline(depth);
+			out.write('}');
+			buffer.reset();
+		}
+
+		/**
+		 * Sorts the members of an object by key, with the sort permutation cache if there is one.
+		 */
+		private void sortMembers(final List<JSONMemberBuffer.Member> members) {
+			final int size = members.size();
+			if (permutationCache == null || size < 2) {
+				members.sort(memberComparator);
+				return;
+			}
+			final JSONMemberBuffer.Member[] original = members.toArray(new JSONMemberBuffer.Member[size]);
+			final String[] names = new String[size];
+			for (int i = 0; i < size; i++)
+				names[i] = original[i].key;
+			final int[] permutation = permutationCache.getPermutation(names,
+					(a, b) -> keyComparator.compare(names[a], names[b]));
+			for (int i = 0; i < size; i++)
+				members.set(i, original[permutation[i]]);
+		}
+
+		private void writeArray(final int depth, final boolean sort, final JSONByteWriter out) throws IOException {
+			out.write('[');
+			boolean empty = true;
+			boolean trailingSeparator = false;
+			while (true) {
+				int c = lexer.nextClean();
+				switch (c) {
+				case -1:
+					throw lexer.syntaxError("Unterminated array");
+				case ']':
+					if (trailingSeparator)
+						empty = writeNull(empty, depth, out);
+					if (!empty)
+						out.writeNewline(depth);
+					out.write(']');
+					return;
+				case ',':
+				case ';':
+					empty = writeNull(empty, depth, out);
+					trailingSeparator = true;
+					continue;
+				default:
+					if (!empty)
+						out.write(',');
+					out.writeNewline(depth + 1);
+					empty = false;
+					writeValue(c, depth + 1, c == '[' ? sort && recursive : sort, out);
+					c = lexer.nextClean();
+					if (c == ']') {
+						out.writeNewline(depth);
+						out.write(']');
+						return;
+					}
+					if (c != ',' && c != ';')
+						throw lexer.syntaxError("Unterminated array");
+					trailingSeparator = true;
+				}
+			}
+		}
+
+		/**
+		 * Writes the {@code null} element implied by an empty array slot.
+		 * @return {@code false}, as the array is no longer empty.
+		 */
+		private boolean writeNull(final boolean empty, final int depth, final JSONByteWriter out) throws IOException {
+			if (!empty)
+				out.write(',');
+			out.writeNewline(depth + 1);
+			out.writeValue(JSONObject.NULL, depth + 1);
+			return false;
+		}
+
+		private JSONMemberBuffer getBuffer(final int depth) {
+			while (buffers.size() <= depth)
+				buffers.add(null);
+			JSONMemberBuffer buffer = buffers.get(depth);
+			if (buffer == null) {
+				buffer = new JSONMemberBuffer(memoryBudget, tempDirectory, indent);
+				buffers.set(depth, buffer);
+			}
+			return buffer;
+		}
+
+		/**
+		 * Deletes any temporary files left by an object that was not finished.
+		 */
+		void close() throws IOException {
+			for (final JSONMemberBuffer buffer : buffers) {
+				if (buffer != null)
+					buffer.close();
+			}
+		}
+	}
+
+	/**
+	 * Set whether the sorting should be recursive.
+	 * If set to {@code true}, the keys of all objects contained within the root object
+	 * will also be sorted, and arrays within arrays will also have the keys of
+	 * all objects within them sorted.
+	 * The default is {@code true}.
+	 * @param recursive Whether or not the sorting should be recursive.
+	 */
+	public void setRecursive(final boolean recursive) {
+		this.recursive = recursive;
+	}
+
+	/**
+	 * Set the amount of indent used when outputting the JSON. The default is {@code 4}.
+	 * @param indent The number of spaces used for one indent level.
+	 */
+	public void setIndent(final int indent) {
+		this.indent = indent;
+	}
+
+	/**
+	 * Set whether numbers are written exactly as they appear in the input, such as {@code 1.0}, {@code 1e3} or
+	 * integers of any length, instead of being parsed and written in openjson's format. Only literals that are
+	 * valid JSON numbers are kept as they are; other numeric literals, such as hexadecimal ones, are still parsed.
+	 * The default is {@code false}.
+	 * @param rawNumbers Whether numbers are copied from the input as they are.
+	 */
+	public void setRawNumbers(final boolean rawNumbers) {
+		this.rawNumbers = rawNumbers;
+	}
+
+	/**
+	 * Set the approximate amount of memory, in bytes, that the members of each object being sorted may use.
+	 * The members of an object are held, already rendered, until the end of the object so that they can be
+	 * reordered; when they grow beyond this budget, they are moved to a temporary file instead, and only their
+	 * keys stay in memory. The output is the same either way.
+	 * The default is {@code 0}, which keeps all members in memory.
+	 *
+	 * @param bytes The memory budget in bytes, or {@code 0} for no limit.
+	 */
+	public void setMemoryBudget(final long bytes) {
+		this.memoryBudget = bytes;
+	}
+
+	/**
+	 * Set the directory for the temporary files used when a memory budget is set. The default is
+	 * {@code null}, which uses the system temporary-file directory.
+	 *
+	 * @param tempDirectory The directory for temporary files.
+	 * @see #setMemoryBudget(long)
+	 */
+	public void setTempDirectory(final Path tempDirectory) {
+		this.tempDirectory = tempDirectory;
+	}
+
+	/**
+	 * Set the cache of sort permutations, which sorts objects with the same keys in the same order as an object
+	 * sorted before without comparing their keys again. By default, each engine has its own cache with the default
+	 * capacity. A cache must not be shared with engines that use a different comparator.
+	 * @param permutationCache The cache, or {@code null} to sort the keys of every object.
+	 */
+	public void setPermutationCache(final SortPermutationCache permutationCache) {
+		this.permutationCache = permutationCache;
+	}
+
+	/**
+	 * Get the cache of sort permutations, whose counters show how many objects had a known shape.
+	 * @return The cache, or {@code null} if there is none.
+	 */
+	public SortPermutationCache getPermutationCache() {
+		return permutationCache;
+	}
+
+	/**
+	 * Set whether the input is first checked to be sorted already, in which case it is copied to the output as
+	 * it is. The check reads one token at a time and stops at the first key that is out of order, and the output is
+	 * the same either way. Only input that can be read twice without holding it in memory is checked, such as a file
+	 * sorted through {@link #sort(java.nio.file.Path, java.nio.file.Path)}, not standard input, so the check never
+	 * takes more memory than sorting. The default is {@code true}.
+	 * @param checkSorted Whether sorted input is copied as it is.
+	 * @see #isSorted(InputStream)
+	 */
+	public void setCheckSorted(final boolean checkSorted) {
+		this.checkSorted = checkSorted;
+	}
+}
@@ -9,14 +9,31 @@ import java.util.Comparator;
  * @author LieutenantPeacock
  *
  */
-public class AttributeComparator implements Comparator<ElementAttribute> {
+public class AttributeComparator implements Comparator<ElementAttribute>, TreeAttributeComparator {
 	/**
 	 * Comparator for maintaining original order of attributes on elements.
 	 */
-	public static final Comparator<ElementAttribute> MAINTAIN_ORDER = (a,b) -> 0;
+	public static final Comparator<ElementAttribute> MAINTAIN_ORDER = new MaintainOrder();
 	
 	@Override
 	public int compare(final ElementAttribute o1, ElementAttribute o2) {
 		return Util.compare(o1.getQualifiedName(), o2.getQualifiedName());
 	}
+
+	@Override
+	public int compare(final XMLTree tree, final int attribute1, final int attribute2) {
+		return Util.compare(tree.getAttributeName(attribute1), tree.getAttributeName(attribute2));
+	}
+
+	private static final class MaintainOrder implements Comparator<ElementAttribute>, TreeAttributeComparator {
+		@Override
+		public int compare(final ElementAttribute o1, final ElementAttribute o2) {
+			return 0;
+		}
+
+		@Override
+		public int compare(final XMLTree tree, final int attribute1, final int attribute2) {
+			return 0;
+		}
+	}
 }
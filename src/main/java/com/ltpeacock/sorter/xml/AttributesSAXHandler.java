@@ -13,8 +13,10 @@ import org.xml.sax.helpers.DefaultHandler;
  * in the document into a {@link Queue} of {@link List}s of {@link ElementAttribute}s,
  * all in the order that they appear in the document.
  * @author LieutenantPeacock
- *
+ * @deprecated {@link SortXMLEngine} now reads attributes in the same pass that builds the element tree
+ * and no longer uses this handler.
  */
+@Deprecated
 public class AttributesSAXHandler extends DefaultHandler {
 	private final Queue<List<ElementAttribute>> queue = new ArrayDeque<>();
 
@@ -3,20 +3,28 @@ package com.ltpeacock.sorter.xml;
 import java.util.Comparator;
 import java.util.Optional;
 
+import com.ltpeacock.sorter.SortKeyBuilder;
+
 /**
  * Comparator for sorting elements by node name and then by the {@code "name"} attribute.
+ * When sorting, the sort key of each element is computed only once with
+ * {@link #appendSortKey(XMLTree, int, SortKeyBuilder)}, rather than rebuilding the upper-cased names
+ * for every comparison.
  * @author LieutenantPeacock
  *
  */
-public class ElementComparator implements Comparator<ElementVO> {
+public class ElementComparator implements Comparator<ElementVO>, KeyedElementComparator {
     private static final String NAME = "name";
     /**
      * Comparator for maintaining original order of XML elements.
      */
-    public static final Comparator<ElementVO> MAINTAIN_ORDER = (a,b) -> 0;
+    public static final Comparator<ElementVO> MAINTAIN_ORDER = new MaintainOrder();
 
     @Override
     public int compare(final ElementVO arg0, final ElementVO arg1) {
+        if (arg0.getTree() != null && arg0.getTree() == arg1.getTree()) {
+            return compare(arg0.getTree(), arg0.getIndex(), arg1.getIndex());
+        }
         int c = Util.compare(safeToUpper(
                 reverseColumns(arg0.getElement().getNodeName())),
                 safeToUpper(reverseColumns(arg1.getElement().getNodeName())));
@@ -28,6 +36,23 @@ public class ElementComparator implements Comparator<ElementVO> {
         return c;
     }
 
+    @Override
+    public int compare(final XMLTree tree, final int element0, final int element1) {
+        int c = Util.compare(safeToUpper(reverseColumns(tree.getName(element0))),
+                safeToUpper(reverseColumns(tree.getName(element1))));
+        if (c == 0) {
+            c = Util.compare(safeToUpper(tree.getAttribute(element0, NAME)),
+                    safeToUpper(tree.getAttribute(element1, NAME)));
+        }
+        return c;
+    }
+
+    @Override
+    public void appendSortKey(final XMLTree tree, final int element, final SortKeyBuilder key) {
+        key.append(safeToUpper(reverseColumns(tree.getName(element))))
+                .append(safeToUpper(tree.getAttribute(element, NAME)));
+    }
+
     protected String reverseColumns(final String input) {
         final String result;
         if (input == null) {
@@ -48,4 +73,16 @@ public class ElementComparator implements Comparator<ElementVO> {
     protected String safeToUpper(final String input) {
         return Optional.ofNullable(input).map(String::toUpperCase).orElse(null);
     }
+
+    private static final class MaintainOrder implements Comparator<ElementVO>, TreeElementComparator {
+        @Override
+        public int compare(final ElementVO o1, final ElementVO o2) {
+            return 0;
+        }
+
+        @Override
+        public int compare(final XMLTree tree, final int element1, final int element2) {
+            return 0;
+        }
+    }
 }
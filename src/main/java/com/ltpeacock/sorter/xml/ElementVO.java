@@ -2,33 +2,51 @@ package com.ltpeacock.sorter.xml;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
 
 import org.w3c.dom.Element;
 
 /**
- * Wrapper class for {@link Element} containing 
+ * Wrapper class for {@link Element} containing
  * its attributes in the order they appear in the document
  * and its child elements.
+ * <br>
+ * Instances created by {@link SortXMLEngine} are views of an element in an {@link XMLTree};
+ * they are only created when a {@link java.util.Comparator Comparator&lt;ElementVO&gt;} that does not
+ * implement {@link TreeElementComparator} is used.
  * @author LieutenantPeacock
  *
  */
 public class ElementVO {
-	private final Element element;
-	private final List<ElementAttribute> attributes;
-	private List<ElementVO> childElements = new ArrayList<>();
+	private final XMLTree tree;
+	private final int index;
+	private Element element;
+	private List<ElementAttribute> attributes;
+	private List<ElementVO> childElements;
 
 	public ElementVO(final Element element, final List<ElementAttribute> attributes) {
+		this.tree = null;
+		this.index = XMLTree.NONE;
 		this.element = element;
 		this.attributes = attributes;
+		this.childElements = new ArrayList<>();
+	}
+
+	ElementVO(final XMLTree tree, final int index) {
+		this.tree = tree;
+		this.index = index;
 	}
 
 	/**
 	 * Get the wrapped {@link org.w3c.dom.Element}.
+	 * For a view of an {@link XMLTree}, the element is created on first access and carries the name,
+	 * attributes, and text, comment and CDATA children of the element; its child elements are
+	 * available through {@link #getChildElements()}.
 	 * @return The wrapped element.
 	 */
 	public Element getElement() {
+		if (element == null)
+			element = tree.toElement(index);
 		return element;
 	}
 
@@ -37,6 +55,13 @@ public class ElementVO {
 	 * @return A {@link List} of attributes for this element.
 	 */
 	public List<ElementAttribute> getAttributes() {
+		if (attributes == null) {
+			final int first = tree.getFirstAttribute(index), count = tree.getAttributeCount(index);
+			final List<ElementAttribute> list = new ArrayList<>(count);
+			for (int i = first; i < first + count; i++)
+				list.add(new ElementAttribute(tree.getAttributeName(i), tree.getAttributeValue(i)));
+			attributes = list;
+		}
 		return Collections.unmodifiableList(attributes);
 	}
 
@@ -45,14 +70,20 @@ public class ElementVO {
 	 * @return A {@link List} of child elements for this element.
 	 */
 	public List<ElementVO> getChildElements() {
+		if (childElements == null) {
+			final List<ElementVO> list = new ArrayList<>();
+			for (int child = tree.getFirstChild(index); child != XMLTree.NONE; child = tree.getNextSibling(child))
+				list.add(new ElementVO(tree, child));
+			childElements = list;
+		}
 		return Collections.unmodifiableList(childElements);
 	}
-	
-	void sortAttributes(final Comparator<ElementAttribute> comparator) {
-		this.attributes.sort(comparator);
+
+	XMLTree getTree() {
+		return tree;
 	}
-	
-	void setChildElements(final List<ElementVO> childElements) {
-		this.childElements = childElements;
+
+	int getIndex() {
+		return index;
 	}
 }
@@ -0,0 +1,36 @@
+package com.ltpeacock.sorter.xml;
+
+import com.ltpeacock.sorter.SortKeyBuilder;
+
+/**
+ * Element comparator that orders elements by a precomputed binary sort key.
+ * {@link SortXMLEngine} computes the key of each element once, with {@link #appendSortKey(XMLTree, int, SortKeyBuilder)},
+ * and then sorts the elements by comparing their keys with {@link SortKeyBuilder#compare(byte[], byte[])}, instead of
+ * calling {@link #compare(XMLTree, int, int)} for every comparison. Custom comparators can implement this interface
+ * to opt in to that cached-key path.
+ * <br>
+ * The keys must order the elements the same way as {@link #compare(XMLTree, int, int)} does.
+ * @author LieutenantPeacock
+ *
+ */
+public interface KeyedElementComparator extends TreeElementComparator {
+	/**
+	 * Appends the sort key components of an element.
+	 * @param tree The tree containing the element.
+	 * @param element The index of the element.
+	 * @param key The builder to append the key components to.
+	 */
+	void appendSortKey(XMLTree tree, int element, SortKeyBuilder key);
+
+	/**
+	 * Compares two elements by their sort keys.
+	 */
+	@Override
+	default int compare(final XMLTree tree, final int element1, final int element2) {
+		final SortKeyBuilder key = new SortKeyBuilder();
+		appendSortKey(tree, element1, key);
+		final byte[] key1 = key.toKey();
+		appendSortKey(tree, element2, key.reset());
+		return SortKeyBuilder.compare(key1, key.toKey());
+	}
+}
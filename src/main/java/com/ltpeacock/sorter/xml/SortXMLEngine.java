@@ -1,41 +1,23 @@
 package com.ltpeacock.sorter.xml;
 
 import static com.ltpeacock.sorter.xml.Util.logAndThrow;
-import static com.ltpeacock.sorter.xml.Util.repeat;
-import static java.lang.String.format;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
+import java.nio.file.Path;
 import java.util.Comparator;
-import java.util.List;
-import java.util.Queue;
-import java.util.logging.Logger;
+import java.util.concurrent.ForkJoinPool;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
-import javax.xml.stream.XMLOutputFactory;
-import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.XMLStreamWriter;
-
-import org.w3c.dom.CDATASection;
-import org.w3c.dom.Comment;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
+
+import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 
 import com.ltpeacock.sorter.ContentSorter;
+import com.ltpeacock.sorter.SortedInputMatcher;
 
 /**
  * Engine for sorting XML.
@@ -44,12 +26,19 @@ import com.ltpeacock.sorter.ContentSorter;
  *
  */
 public class SortXMLEngine implements ContentSorter {
-	private static final Logger LOG = Logger.getLogger(SortXMLEngine.class.getName());
+	private static final String LEXICAL_HANDLER = "http://xml.org/sax/properties/lexical-handler";
 	private final Comparator<ElementVO> elementComparator;
 	private final Comparator<ElementAttribute> attributeComparator;
 	private int indent = 2;
 	private boolean selfClosing = true;
 	private boolean preserveWhitespace = false;
+	private long memoryBudget = 0;
+	private Path tempDirectory;
+	private ForkJoinPool forkJoinPool;
+	private int parallelism = 1;
+	private int parallelThreshold = 8192;
+	private XMLSortRules sortRules;
+	private boolean checkSorted = true;
 
 	/**
 	 * Constructs a {@code SortXMLEngine} using {@link ElementComparator} for
@@ -88,120 +77,70 @@ public class SortXMLEngine implements ContentSorter {
 	 */
 	@Override
 	public void sort(final InputStream in, final OutputStream os) {
-		try (BufferedInputStream bis = new BufferedInputStream(in);
-				BufferedOutputStream bos = new BufferedOutputStream(os);) {
-			final XMLOutputFactory xmlOutputFactory = XMLOutputFactory.newFactory();
-			final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-			int b;
-			while ((b = bis.read()) != -1)
-				baos.write(b);
-			final byte[] bytes = baos.toByteArray();
-			final SAXParserFactory saxParserFactory = SAXParserFactory.newInstance();
-			final SAXParser saxParser = saxParserFactory.newSAXParser();
-			final AttributesSAXHandler handler = new AttributesSAXHandler();
-			saxParser.parse(new ByteArrayInputStream(bytes), handler);
-			final XMLStreamWriter writer = xmlOutputFactory.createXMLStreamWriter(bos, StandardCharsets.UTF_8.name());
-			final Document doc = readXml(new ByteArrayInputStream(bytes));
-			final ElementVO root = collectElements(doc.getDocumentElement(), handler.getQueue());
+		final XMLTreeSorter sorter = new XMLTreeSorter(elementComparator, attributeComparator, sortRules);
+		final XMLTreeWriter treeWriter = new XMLTreeWriter(sorter, indent, selfClosing, preserveWhitespace);
+		final ForkJoinPool pool = memoryBudget > 0 ? null
+				: forkJoinPool != null ? forkJoinPool : parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+		try (InputStream is = in; XMLByteWriter writer = treeWriter.createWriter(os);
+				XMLSpillStore spillStore = memoryBudget > 0
+						? new XMLSpillStore(memoryBudget, tempDirectory, sorter, treeWriter) : null) {
+			if (checkSorted && sorter.comparesNamesOnly()
+					&& SortedInputMatcher.copyIfSorted(is, os, input -> isSorted(sorter, input)) == null)
+				return;
+			treeWriter.setSpillStore(spillStore);
+			final XMLTree tree = readXml(is, pool == null ? sorter : null, spillStore,
+					sortRules == null ? null : sortRules.newMatcher());
+			if (pool != null)
+				new XMLParallelSorter(sorter, parallelThreshold).sort(tree, pool);
 			writer.writeStartDocument();
-			sortElement(root, writer, 0);
-			writer.writeEndDocument();
-			writer.flush();
-			writer.close();
-		} catch (IOException | XMLStreamException | ParserConfigurationException | SAXException e) {
+			treeWriter.writeElement(tree, tree.getRoot(), writer, 0);
+		} catch (IOException e) {
 			logAndThrow(e);
+		} finally {
+			if (pool != null && pool != forkJoinPool)
+				pool.shutdown();
 		}
 	}
 
-	private ElementVO collectElements(final Element element, final Queue<List<ElementAttribute>> queue) {
-		final ElementVO newElem = new ElementVO(element, queue.poll());
-		final NodeList nodeList = element.getChildNodes();
-		final int length = nodeList.getLength();
-		final List<ElementVO> children = new ArrayList<>(length);
-		for (int i = 0; i < length; i++) {
-			final Node node = nodeList.item(i);
-			if (node.getNodeType() == Node.ELEMENT_NODE) {
-				children.add(collectElements((Element) node, queue));
-			}
-		}
-		children.sort(elementComparator);
-		newElem.setChildElements(children);
-		return newElem;
-	}
-
-	private void sortElement(final ElementVO element, final XMLStreamWriter writer, final int depth)
-			throws XMLStreamException {
-		final NodeList nodeList = element.getElement().getChildNodes();
-		final int length = nodeList.getLength();
-		if (!preserveWhitespace) {
-			writer.writeCharacters(System.lineSeparator());
-			writer.writeCharacters(repeat(" ", indent * depth));
-		}
-		boolean selfClose = selfClosing && element.getChildElements().isEmpty();
-		for (int i = 0; i < length; i++) {
-			final Node node = nodeList.item(i);
-			if (node.getNodeType() == Node.TEXT_NODE && !node.getTextContent().trim().isEmpty()
-					|| node.getNodeType() == Node.COMMENT_NODE || node.getNodeType() == Node.CDATA_SECTION_NODE) {
-				selfClose = false;
-				break;
-			}
-		}
-		if (!selfClose)
-			writer.writeStartElement(element.getElement().getNodeName());
-		else
-			writer.writeEmptyElement(element.getElement().getNodeName());
-		element.sortAttributes(attributeComparator);
-		for (final ElementAttribute attribute : element.getAttributes()) {
-			writer.writeAttribute(attribute.getQualifiedName(), attribute.getValue());
-		}
-		for (int i = 0; i < length; i++) {
-			Node currentNode = nodeList.item(i);
-			if (currentNode.getNodeType() != Node.ELEMENT_NODE) {
-				LOG.fine(format("Node type [%s]", currentNode.getNodeType()));
-				if (currentNode.getNodeType() == Node.TEXT_NODE) {
-					if (preserveWhitespace) {
-						writer.writeCharacters(currentNode.getTextContent());
-					} else if (!currentNode.getTextContent().trim().isEmpty()) {
-						final String[] lines = currentNode.getTextContent().split("\\R");
-						for (final String line : lines) {
-							if (!line.trim().isEmpty()) {
-								writer.writeCharacters(System.lineSeparator());
-								writer.writeCharacters(repeat(" ", (depth + 1) * indent));
-								writer.writeCharacters(line.trim());
-							}
-						}
-					}
-				} else if (currentNode.getNodeType() == Node.COMMENT_NODE) {
-					writer.writeComment(((Comment) currentNode).getData());
-				} else if (currentNode.getNodeType() == Node.CDATA_SECTION_NODE) {
-					writer.writeCData(((CDATASection) currentNode).getData());
-				}
-			}
-		}
-		for (final ElementVO child : element.getChildElements()) {
-			sortElement(child, writer, depth + 1);
-		}
-		if (!selfClose) {
-			if (!preserveWhitespace) {
-				writer.writeCharacters(System.lineSeparator());
-				writer.writeCharacters(repeat(" ", indent * depth));
-			}
-			writer.writeEndElement();
-		}
+	/**
+	 * Checks whether the XML is already sorted and formatted as this engine would write it. Unless the element
+	 * comparator or a sort rule looks at more than the names and attributes of elements, the check is a single SAX
+	 * pass that keeps only the sort key of the last child of each open element, and stops at the first element that
+	 * is out of order, without building a tree of the document.
+	 * 
+	 * @param is The InputStream to read the XML document from
+	 * @return Whether sorting the XML would write exactly the same bytes
+	 * @throws IOException If there is an error in reading data.
+	 */
+	@Override
+	public boolean isSorted(final InputStream is) throws IOException {
+		return isSorted(new XMLTreeSorter(elementComparator, attributeComparator, sortRules), is);
+	}
+
+	private boolean isSorted(final XMLTreeSorter sorter, final InputStream is) throws IOException {
+		if (!sorter.comparesNamesOnly())
+			return ContentSorter.super.isSorted(is);
+		return new XMLSortChecker(sorter, indent, selfClosing, preserveWhitespace,
+				sortRules == null ? null : sortRules.newMatcher()).isSorted(is);
 	}
 
-	private Document readXml(final InputStream is) {
-		DocumentBuilderFactory docBuilderFac = DocumentBuilderFactory.newInstance();
-		docBuilderFac.setIgnoringElementContentWhitespace(true);
-		DocumentBuilder docBuilder = null;
-		Document doc = null;
+	/**
+	 * Reads the document into an {@link XMLTree} with a single SAX pass, sorting the child elements
+	 * of each element as it ends if a sorter is given.
+	 */
+	private XMLTree readXml(final InputStream is, final XMLTreeSorter sorter, final XMLSpillStore spillStore,
+			final XMLSortRules.Matcher matcher) {
+		XMLTree tree = null;
 		try {
-			docBuilder = docBuilderFac.newDocumentBuilder();
-			doc = docBuilder.parse(is);
+			final XMLTreeSAXHandler handler = new XMLTreeSAXHandler(sorter, spillStore, matcher);
+			final SAXParser saxParser = SAXParserFactory.newInstance().newSAXParser();
+			saxParser.setProperty(LEXICAL_HANDLER, handler);
+			saxParser.parse(new InputSource(is), handler);
+			tree = handler.getTree();
 		} catch (ParserConfigurationException | SAXException | IOException e) {
 			logAndThrow(e);
 		}
-		return doc;
+		return tree;
 	}
 
 	/**
@@ -234,4 +173,95 @@ public class SortXMLEngine implements ContentSorter {
 	public void setPreserveWhitespace(final boolean preserveWhitespace) {
 		this.preserveWhitespace = preserveWhitespace;
 	}
+
+	/**
+	 * Set the approximate amount of memory, in bytes, that the document tree may use while it is being read.
+	 * When the tree grows beyond this budget, the sibling elements read so far are sorted and written
+	 * to temporary files in runs, which are merged into the output when their parent element is written.
+	 * Subtrees that fit within the budget are sorted in memory as usual, and the output is the same either way.
+	 * Comparators only see the name and attributes of spilled elements, so comparators that inspect child
+	 * elements or content should not be used with a memory budget.
+	 * The default is {@code 0}, which keeps the whole document in memory.
+	 * 
+	 * @param bytes The memory budget in bytes, or {@code 0} for no limit.
+	 */
+	public void setMemoryBudget(final long bytes) {
+		this.memoryBudget = bytes;
+	}
+
+	/**
+	 * Set the directory for the temporary files used when a memory budget is set. The default is
+	 * {@code null}, which uses the system temporary-file directory.
+	 * 
+	 * @param tempDirectory The directory for temporary files.
+	 * @see #setMemoryBudget(long)
+	 */
+	public void setTempDirectory(final Path tempDirectory) {
+		this.tempDirectory = tempDirectory;
+	}
+
+	/**
+	 * Set the {@link ForkJoinPool} used to sort the document in parallel. The child elements of large subtrees
+	 * and long sibling lists are then sorted concurrently once the document has been read, while the output is
+	 * still written in order and is the same as with sequential sorting. As with sequential sorting, the children of
+	 * an element are only sorted after the subtrees of those children, so a comparator may look at the child
+	 * elements of the elements it compares, through {@link ElementVO#getChildElements()}, and sees them sorted.
+	 * The comparators must be safe to call from several threads at once, as {@link ElementComparator} and
+	 * {@link AttributeComparator} are. Parallel sorting is not used when a memory budget is set. The default is {@code null}, which sorts on the calling thread
+	 * unless a parallelism level is set.
+	 * 
+	 * @param forkJoinPool The pool to sort with, e.g. {@link ForkJoinPool#commonPool()}.
+	 * @see #setParallelism(int)
+	 */
+	public void setForkJoinPool(final ForkJoinPool forkJoinPool) {
+		this.forkJoinPool = forkJoinPool;
+	}
+
+	/**
+	 * Set the number of threads used to sort the document in parallel, when no {@link ForkJoinPool} is set.
+	 * A new pool with this parallelism is created for each document and shut down afterwards.
+	 * The default is {@code 1}, which sorts on the calling thread.
+	 * 
+	 * @param parallelism The number of threads to sort with.
+	 * @see #setForkJoinPool(ForkJoinPool)
+	 */
+	public void setParallelism(final int parallelism) {
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Set the number of elements below which work is not split any further when sorting in parallel.
+	 * Ranges of at most this many elements, and sibling lists of at most this length, are sorted sequentially
+	 * on one thread. The default is {@code 8192}.
+	 * 
+	 * @param elements The size threshold for splitting work between threads.
+	 */
+	public void setParallelThreshold(final int elements) {
+		this.parallelThreshold = elements;
+	}
+
+	/**
+	 * Set the rules for sorting parts of the document differently, such as keeping the original order
+	 * of order-sensitive sections. The default is {@code null}, which sorts the whole document with the
+	 * comparators of this engine.
+	 * 
+	 * @param sortRules The path-scoped sort rules.
+	 */
+	public void setSortRules(final XMLSortRules sortRules) {
+		this.sortRules = sortRules;
+	}
+
+	/**
+	 * Set whether the input is first checked to be sorted already, in which case it is copied to the output as
+	 * it is. The check is a single SAX pass that stops at the first element that is out of order, and the output is
+	 * the same either way. Only input that can be read twice without holding it in memory is checked, such as a file
+	 * sorted through {@link #sort(java.nio.file.Path, java.nio.file.Path)}, not standard input, and only when the
+	 * comparators look at no more than the names and attributes of elements. The default is {@code true}.
+	 * 
+	 * @param checkSorted Whether sorted input is copied as it is.
+	 * @see #isSorted(InputStream)
+	 */
+	public void setCheckSorted(final boolean checkSorted) {
+		this.checkSorted = checkSorted;
+	}
 }
@@ -0,0 +1,100 @@
+package com.ltpeacock.sorter.xml;
+
+import java.util.Arrays;
+
+/**
+ * Table of interned strings, each identified by a dense {@code int} symbol.
+ * Equal strings always map to the same symbol, so symbols can be compared with {@code ==}.
+ * @author LieutenantPeacock
+ *
+ */
+final class SymbolTable {
+	private String[] symbols = new String[64];
+	private int size;
+	private long symbolChars;
+	/** Open-addressed hash table of symbol + 1, with {@code 0} marking an empty slot. */
+	private int[] table = new int[128];
+
+	/**
+	 * Get the symbol for the given string, adding it to the table if it is not yet present.
+	 * @param str The string to intern.
+	 * @return The symbol for the string.
+	 */
+	int intern(final String str) {
+		final int mask = table.length - 1;
+		int slot = str.hashCode() & mask;
+		int entry;
+		while ((entry = table[slot]) != 0) {
+			if (symbols[entry - 1].equals(str))
+				return entry - 1;
+			slot = (slot + 1) & mask;
+		}
+		if (size == symbols.length)
+			symbols = Arrays.copyOf(symbols, size * 2);
+		symbols[size] = str;
+		symbolChars += str.length();
+		table[slot] = ++size;
+		if (size * 2 > table.length)
+			rehash(table.length * 2);
+		return size - 1;
+	}
+
+	/**
+	 * Get the symbol for the given string without adding it.
+	 * @param str The string to look up.
+	 * @return The symbol for the string, or {@code -1} if it has never been interned.
+	 */
+	int find(final String str) {
+		final int mask = table.length - 1;
+		int slot = str.hashCode() & mask;
+		int entry;
+		while ((entry = table[slot]) != 0) {
+			if (symbols[entry - 1].equals(str))
+				return entry - 1;
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	String get(final int symbol) {
+		return symbols[symbol];
+	}
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Removes all symbols added after the table had the given size.
+	 * @param newSize The number of symbols to keep.
+	 */
+	void truncate(final int newSize) {
+		if (newSize < size) {
+			for (int i = newSize; i < size; i++) {
+				symbolChars -= symbols[i].length();
+				symbols[i] = null;
+			}
+			size = newSize;
+			rehash(table.length);
+		}
+	}
+
+	/**
+	 * Get an estimate of the memory used by the symbols, in bytes.
+	 */
+	long getFootprint() {
+		return size * 56L + symbolChars * 2;
+	}
+
+	private void rehash(final int capacity) {
+		final int[] newTable = new int[capacity];
+		final int mask = capacity - 1;
+		for (int i = 0; i < size; i++) {
+			int slot = symbols[i].hashCode() & mask;
+			while (newTable[slot] != 0)
+				slot = (slot + 1) & mask;
+			newTable[slot] = i + 1;
+		}
+		table = newTable;
+	}
+}
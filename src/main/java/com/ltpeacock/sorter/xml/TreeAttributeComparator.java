@@ -0,0 +1,21 @@
+package com.ltpeacock.sorter.xml;
+
+/**
+ * Comparator for ordering the attributes of an element directly on an {@link XMLTree}, without creating
+ * {@link ElementAttribute} objects. {@link SortXMLEngine} uses this interface instead of
+ * {@link java.util.Comparator Comparator&lt;ElementAttribute&gt;} when the attribute comparator implements it.
+ * @author LieutenantPeacock
+ *
+ */
+@FunctionalInterface
+public interface TreeAttributeComparator {
+	/**
+	 * Compares two attributes of the same element.
+	 * @param tree The tree containing both attributes.
+	 * @param attribute1 The index of the first attribute.
+	 * @param attribute2 The index of the second attribute.
+	 * @return A negative integer, zero, or a positive integer as the first attribute
+	 * is less than, equal to, or greater than the second.
+	 */
+	int compare(XMLTree tree, int attribute1, int attribute2);
+}
@@ -0,0 +1,21 @@
+package com.ltpeacock.sorter.xml;
+
+/**
+ * Comparator for ordering sibling elements directly on an {@link XMLTree}, without creating
+ * {@link ElementVO} wrappers. {@link SortXMLEngine} uses this interface instead of
+ * {@link java.util.Comparator Comparator&lt;ElementVO&gt;} when the element comparator implements it.
+ * @author LieutenantPeacock
+ *
+ */
+@FunctionalInterface
+public interface TreeElementComparator {
+	/**
+	 * Compares two elements of the same tree.
+	 * @param tree The tree containing both elements.
+	 * @param element1 The index of the first element.
+	 * @param element2 The index of the second element.
+	 * @return A negative integer, zero, or a positive integer as the first element
+	 * is less than, equal to, or greater than the second.
+	 */
+	int compare(XMLTree tree, int element1, int element2);
+}
@@ -1,5 +1,7 @@
 package com.ltpeacock.sorter.xml;
 
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
@@ -50,6 +52,105 @@ public final class Util {
 		throw new RuntimeException(e);
 	}
 
+	/**
+	 * Stable sort of {@code a[from..to)} using the given comparator.
+	 * @param scratch A buffer at least {@code to} elements long.
+	 */
+	static void sort(final int[] a, final int from, final int to, final int[] scratch, final IntComparator c) {
+		System.arraycopy(a, from, scratch, from, to - from);
+		mergeSort(scratch, a, from, to, c);
+	}
+
+	private static void mergeSort(final int[] src, final int[] dest, final int low, final int high,
+			final IntComparator c) {
+		if (high - low < 16) {
+			for (int i = low + 1; i < high; i++) {
+				final int value = dest[i];
+				int j = i;
+				while (j > low && c.compare(dest[j - 1], value) > 0) {
+					dest[j] = dest[j - 1];
+					j--;
+				}
+				dest[j] = value;
+			}
+			return;
+		}
+		final int mid = (low + high) >>> 1;
+		mergeSort(dest, src, low, mid, c);
+		mergeSort(dest, src, mid, high, c);
+		merge(src, dest, low, mid, high, c);
+	}
+
+	/**
+	 * Same as {@link #sort(int[], int, int, int[], IntComparator)}, but sorts the halves of ranges longer than
+	 * {@code threshold} as separate fork/join tasks. Must be called from a {@link ForkJoinPool}, and the comparator
+	 * must be safe to call from several threads at once.
+	 */
+	static void parallelSort(final int[] a, final int from, final int to, final int[] scratch, final IntComparator c,
+			final int threshold) {
+		System.arraycopy(a, from, scratch, from, to - from);
+		new ParallelMergeSort(scratch, a, from, to, c, Math.max(threshold, 16)).invoke();
+	}
+
+	private static void merge(final int[] src, final int[] dest, final int low, final int mid, final int high,
+			final IntComparator c) {
+		if (c.compare(src[mid - 1], src[mid]) <= 0) {
+			System.arraycopy(src, low, dest, low, high - low);
+			return;
+		}
+		for (int i = low, p = low, q = mid; i < high; i++) {
+			if (q >= high || p < mid && c.compare(src[p], src[q]) <= 0)
+				dest[i] = src[p++];
+			else
+				dest[i] = src[q++];
+		}
+	}
+
+	private static final class ParallelMergeSort extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final int[] src, dest;
+		private final int low, high, threshold;
+		private final IntComparator c;
+
+		ParallelMergeSort(final int[] src, final int[] dest, final int low, final int high, final IntComparator c,
+				final int threshold) {
+			this.src = src;
+			this.dest = dest;
+			this.low = low;
+			this.high = high;
+			this.c = c;
+			this.threshold = threshold;
+		}
+
+		@Override
+		protected void compute() {
+			if (high - low <= threshold) {
+				mergeSort(src, dest, low, high, c);
+				return;
+			}
+			final int mid = (low + high) >>> 1;
+			invokeAll(new ParallelMergeSort(dest, src, low, mid, c, threshold),
+					new ParallelMergeSort(dest, src, mid, high, c, threshold));
+			merge(src, dest, low, mid, high, c);
+		}
+	}
+
+	static boolean isBlank(final char[] chars, final int start, final int length) {
+		for (int i = start, end = start + length; i < end; i++) {
+			if (chars[i] > ' ')
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Comparator for {@code int} values, such as node indexes.
+	 */
+	@FunctionalInterface
+	interface IntComparator {
+		int compare(int a, int b);
+	}
+
 	public static String repeat(final String str, final int times) {
 		final StringBuilder sb = new StringBuilder(str.length() * times);
 		for (int i = 0; i < times; i++)
@@ -0,0 +1,230 @@
+package com.ltpeacock.sorter.xml;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Buffered UTF-8 writer for the markup produced by {@link XMLTreeWriter}.
+ * <br>
+ * It writes exactly the bytes that the JDK's {@link javax.xml.stream.XMLStreamWriter} does for the same calls:
+ * {@code <}, {@code >} and {@code &} are escaped in text, {@code "} is also escaped in attribute values,
+ * and names, comments and CDATA sections are written as they are. The line separator followed by the indentation
+ * of each depth is encoded once and kept for reuse.
+ * <br>
+ * Since this is also an {@link OutputStream}, already encoded markup can be copied into it directly.
+ * @author LieutenantPeacock
+ *
+ */
+final class XMLByteWriter extends OutputStream {
+	private static final byte[] XML_DECLARATION = "<?xml version=\"1.0\" ?>".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] LT = "&lt;".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] GT = "&gt;".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] AMP = "&amp;".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] QUOT = "&quot;".getBytes(StandardCharsets.US_ASCII);
+
+	private final OutputStream out;
+	private final byte[] buffer = new byte[16384];
+	private int position;
+	private long count;
+	private final int indent;
+	private byte[][] indents = new byte[16][];
+
+	/**
+	 * @param out The stream to write to.
+	 * @param indent The number of spaces per indent level used by {@link #writeIndent(int)}.
+	 */
+	XMLByteWriter(final OutputStream out, final int indent) {
+		this.out = out;
+		this.indent = indent;
+	}
+
+	void writeStartDocument() throws IOException {
+		write(XML_DECLARATION, 0, XML_DECLARATION.length);
+	}
+
+	/**
+	 * Writes the line separator followed by the indentation for the given depth.
+	 */
+	void writeIndent(final int depth) throws IOException {
+		if (depth >= indents.length)
+			indents = Arrays.copyOf(indents, Math.max(depth + 1, indents.length * 2));
+		byte[] bytes = indents[depth];
+		if (bytes == null) {
+			final byte[] lineSeparator = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+			bytes = Arrays.copyOf(lineSeparator, lineSeparator.length + indent * depth);
+			Arrays.fill(bytes, lineSeparator.length, bytes.length, (byte) ' ');
+			indents[depth] = bytes;
+		}
+		write(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * Writes the start of a start tag, which must be finished with {@link #closeStartTag(boolean)}
+	 * after its attributes have been written.
+	 */
+	void writeStartTag(final String name) throws IOException {
+		write('<');
+		writeChars(name, false, false);
+	}
+
+	void writeAttribute(final String name, final String value) throws IOException {
+		write(' ');
+		writeChars(name, false, false);
+		write('=');
+		write('"');
+		writeChars(value, true, true);
+		write('"');
+	}
+
+	/**
+	 * Finishes a start tag.
+	 * @param empty Whether the element is written as an empty element tag.
+	 */
+	void closeStartTag(final boolean empty) throws IOException {
+		if (empty)
+			write('/');
+		write('>');
+	}
+
+	void writeEndTag(final String name) throws IOException {
+		write('<');
+		write('/');
+		writeChars(name, false, false);
+		write('>');
+	}
+
+	void writeText(final char[] chars, final int start, final int length) throws IOException {
+		writeChars(chars, start, length, true, false);
+	}
+
+	void writeComment(final char[] chars, final int start, final int length) throws IOException {
+		write('<');
+		write('!');
+		write('-');
+		write('-');
+		writeChars(chars, start, length, false, false);
+		write('-');
+		write('-');
+		write('>');
+	}
+
+	void writeCData(final char[] chars, final int start, final int length) throws IOException {
+		writeAscii("<![CDATA[");
+		writeChars(chars, start, length, false, false);
+		writeAscii("]]>");
+	}
+
+	/**
+	 * Get the number of bytes written so far.
+	 */
+	long getCount() {
+		return count;
+	}
+
+	private void writeAscii(final String str) throws IOException {
+		for (int i = 0; i < str.length(); i++)
+			write(str.charAt(i));
+	}
+
+	private void writeChars(final String str, final boolean escape, final boolean attribute) throws IOException {
+		for (int i = 0, n = str.length(); i < n; i++) {
+			final char c = str.charAt(i);
+			if (c < 0x80 && !(escape && needsEscape(c, attribute)))
+				write(c);
+			else
+				i = writeChar(c, i + 1 < n ? str.charAt(i + 1) : 0, i, escape, attribute);
+		}
+	}
+
+	private void writeChars(final char[] chars, final int start, final int length, final boolean escape,
+			final boolean attribute) throws IOException {
+		for (int i = start, end = start + length; i < end; i++) {
+			final char c = chars[i];
+			if (c < 0x80 && !(escape && needsEscape(c, attribute)))
+				write(c);
+			else
+				i = writeChar(c, i + 1 < end ? chars[i + 1] : 0, i, escape, attribute);
+		}
+	}
+
+	private static boolean needsEscape(final char c, final boolean attribute) {
+		return c == '<' || c == '>' || c == '&' || attribute && c == '"';
+	}
+
+	/**
+	 * Writes a character that is escaped or is not ASCII.
+	 * @param next The character after it, used to complete a surrogate pair.
+	 * @return The index of the last character consumed.
+	 */
+	private int writeChar(final char c, final char next, final int index, final boolean escape,
+			final boolean attribute) throws IOException {
+		if (escape && needsEscape(c, attribute)) {
+			final byte[] entity = c == '<' ? LT : c == '>' ? GT : c == '&' ? AMP : QUOT;
+			write(entity, 0, entity.length);
+		} else if (c < 0x800) {
+			write(0xC0 | c >> 6);
+			write(0x80 | c & 0x3F);
+		} else if (Character.isHighSurrogate(c) && Character.isLowSurrogate(next)) {
+			final int codePoint = Character.toCodePoint(c, next);
+			write(0xF0 | codePoint >> 18);
+			write(0x80 | codePoint >> 12 & 0x3F);
+			write(0x80 | codePoint >> 6 & 0x3F);
+			write(0x80 | codePoint & 0x3F);
+			return index + 1;
+		} else if (Character.isSurrogate(c)) {
+			write('?');
+		} else {
+			write(0xE0 | c >> 12);
+			write(0x80 | c >> 6 & 0x3F);
+			write(0x80 | c & 0x3F);
+		}
+		return index;
+	}
+
+	@Override
+	public void write(final int b) throws IOException {
+		if (position == buffer.length)
+			flushBuffer();
+		buffer[position++] = (byte) b;
+		count++;
+	}
+
+	@Override
+	public void write(final byte[] b, final int off, final int len) throws IOException {
+		if (len > buffer.length - position) {
+			flushBuffer();
+			if (len > buffer.length) {
+				out.write(b, off, len);
+				count += len;
+				return;
+			}
+		}
+		System.arraycopy(b, off, buffer, position, len);
+		position += len;
+		count += len;
+	}
+
+	private void flushBuffer() throws IOException {
+		if (position > 0) {
+			out.write(buffer, 0, position);
+			position = 0;
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		flushBuffer();
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			flushBuffer();
+		} finally {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,113 @@
+package com.ltpeacock.sorter.xml;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Sorts the child elements of every element in an {@link XMLTree} with fork/join tasks.
+ * <br>
+ * Sorting the children of one element only relinks those children, so the sibling lists of different subtrees
+ * can be sorted concurrently. As with the sequential sort, which sorts the children of each element as it ends,
+ * the children of an element are only sorted once all of their own subtrees have been sorted, so a comparator that
+ * looks at the child elements of the elements it compares sees them in the same order either way.
+ * <br>
+ * Since elements are numbered in document order, the elements of a subtree, and of consecutive sibling subtrees,
+ * are a range of element indexes. A subtree of more than {@code threshold} elements is split into tasks for its
+ * large child subtrees and for runs of consecutive small ones of about {@code threshold} elements, which are sorted
+ * sequentially on one worker, in reverse document order so that each element comes after its descendants; the
+ * children of the subtree's root are sorted once these tasks have finished. A single sibling list longer than the
+ * threshold, such as the children of the root of a wide document, is itself sorted with a parallel merge sort. The
+ * result is the same as that of the sequential sort, so the output does not depend on how the work was scheduled.
+ * @author LieutenantPeacock
+ *
+ */
+final class XMLParallelSorter {
+	private final XMLTreeSorter prototype;
+	private final int threshold;
+
+	XMLParallelSorter(final XMLTreeSorter prototype, final int threshold) {
+		this.prototype = prototype;
+		this.threshold = Math.max(threshold, 1);
+	}
+
+	/**
+	 * Sorts the child elements of all elements of a tree that was built without sorting.
+	 */
+	void sort(final XMLTree tree, final ForkJoinPool pool) {
+		if (tree.getElementCount() > 0)
+			pool.invoke(new SortSubtree(tree, tree.getRoot(), tree.getElementCount()));
+	}
+
+	/**
+	 * Sorts the children of the elements of whole subtrees, numbered from {@code from} to {@code to}, on one worker.
+	 */
+	private final class SortRange extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final XMLTree tree;
+		private final int from, to;
+
+		SortRange(final XMLTree tree, final int from, final int to) {
+			this.tree = tree;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			final XMLTreeSorter sorter = new XMLTreeSorter(prototype, threshold);
+			// Descendants are numbered after their ancestors, so they are sorted first
+			for (int element = to - 1; element >= from; element--)
+				sorter.sortChildren(tree, element);
+		}
+	}
+
+	/**
+	 * Sorts the subtree of an element, whose elements are numbered from the element up to {@code end}.
+	 */
+	private final class SortSubtree extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final XMLTree tree;
+		private final int element, end;
+
+		SortSubtree(final XMLTree tree, final int element, final int end) {
+			this.tree = tree;
+			this.element = element;
+			this.end = end;
+		}
+
+		@Override
+		protected void compute() {
+			if (end - element <= threshold) {
+				new SortRange(tree, element, end).compute();
+				return;
+			}
+			// The children are still in document order, so each subtree ends where the next sibling starts
+			final List<RecursiveAction> tasks = new ArrayList<>();
+			int runStart = XMLTree.NONE;
+			for (int child = tree.getFirstChild(element); child != XMLTree.NONE;) {
+				final int next = tree.getNextSibling(child);
+				final int childEnd = next == XMLTree.NONE ? end : next;
+				if (childEnd - child > threshold) {
+					if (runStart != XMLTree.NONE)
+						tasks.add(new SortRange(tree, runStart, child));
+					runStart = XMLTree.NONE;
+					tasks.add(new SortSubtree(tree, child, childEnd));
+				} else {
+					if (runStart == XMLTree.NONE)
+						runStart = child;
+					if (childEnd - runStart >= threshold) {
+						tasks.add(new SortRange(tree, runStart, childEnd));
+						runStart = XMLTree.NONE;
+					}
+				}
+				child = next;
+			}
+			if (runStart != XMLTree.NONE)
+				tasks.add(new SortRange(tree, runStart, end));
+			invokeAll(tasks);
+			new XMLTreeSorter(prototype, threshold).sortChildren(tree, element);
+		}
+	}
+}
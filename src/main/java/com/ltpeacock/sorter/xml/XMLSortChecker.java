@@ -0,0 +1,321 @@
+package com.ltpeacock.sorter.xml;
+
+import static com.ltpeacock.sorter.xml.Util.isBlank;
+import static com.ltpeacock.sorter.xml.Util.logAndThrow;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.DefaultHandler;
+
+import com.ltpeacock.sorter.SortKeyBuilder;
+import com.ltpeacock.sorter.SortedInputMatcher;
+
+/**
+ * <p>Checks whether XML is already sorted in a single SAX pass, without building a tree of the document.</p>
+ * Each element is written as soon as it starts, the way {@link XMLTreeWriter} writes it, and the output is compared
+ * with the input by a {@link SortedInputMatcher}. Since the sort is stable, the child elements of an element are in
+ * sorted order exactly when each one compares after or equal to the one before it, so only the sort key of the last
+ * child of each open element is kept, along with its name and whether its start tag has been closed yet. As with
+ * {@link XMLSpillStore}, sibling elements are compared by their names and attributes only, which is why the check is
+ * only used for sorters that {@link XMLTreeSorter#comparesNamesOnly() compare names only}. Besides that state for each
+ * depth, only the text, comment or CDATA section being read is held in memory.
+ * <br>
+ * The check stops at the first child element that is out of order or the first byte that differs, and also at the
+ * first text, comment or CDATA section after a child element, as the sorted output writes those before the child
+ * elements. Blank text is not written unless whitespace is preserved, so it can be anywhere.
+ * @author LieutenantPeacock
+ *
+ */
+final class XMLSortChecker extends DefaultHandler implements LexicalHandler {
+	private static final String LEXICAL_HANDLER = "http://xml.org/sax/properties/lexical-handler";
+	/** The number of elements after which the tree holding the names and attributes of elements is replaced. */
+	private static final int MAX_TREE_ELEMENTS = 1024;
+	private final XMLTreeSorter sorter;
+	private final int indent;
+	private final boolean selfClosing;
+	private final boolean preserveWhitespace;
+	private final XMLSortRules.Matcher ruleMatcher;
+	private SortedInputMatcher matcher;
+	private XMLByteWriter out;
+	/** Holds the name and attributes of each element while its attributes are sorted and its sort key is taken. */
+	private XMLTree tree = new XMLTree();
+	private int depth;
+	private String[] names = new String[16];
+	private XMLTreeSorter[] childSorters = new XMLTreeSorter[16];
+	private byte[][] lastChildKeys = new byte[16][];
+	private boolean[] hasChildren = new boolean[16];
+	private boolean[] closed = new boolean[16];
+	private XMLSortRules.State[] states = new XMLSortRules.State[16];
+	/** Blank text of the innermost element, which is written once it is known whether that element self-closes. */
+	private final StringBuilder pendingText = new StringBuilder();
+	private char[] text = new char[256];
+	private int textLength;
+	private boolean inText;
+	private boolean inCData;
+	private boolean inDTD;
+
+	/**
+	 * @param sorter A sorter that {@link XMLTreeSorter#comparesNamesOnly() compares names only}.
+	 * @param ruleMatcher A new matcher of the sort rules, or {@code null} if there are none.
+	 */
+	XMLSortChecker(final XMLTreeSorter sorter, final int indent, final boolean selfClosing,
+			final boolean preserveWhitespace, final XMLSortRules.Matcher ruleMatcher) {
+		this.sorter = sorter;
+		this.indent = indent;
+		this.selfClosing = selfClosing;
+		this.preserveWhitespace = preserveWhitespace;
+		this.ruleMatcher = ruleMatcher;
+		if (ruleMatcher != null)
+			states[0] = ruleMatcher.getStart();
+	}
+
+	/**
+	 * Checks one document. A checker can be used for one document only.
+	 * @return Whether {@link SortXMLEngine} would write exactly the input.
+	 */
+	boolean isSorted(final InputStream is) throws IOException {
+		matcher = new SortedInputMatcher(is);
+		out = new XMLByteWriter(matcher.getOutput(), indent);
+		try {
+			final SAXParser saxParser = SAXParserFactory.newInstance().newSAXParser();
+			saxParser.setProperty(LEXICAL_HANDLER, this);
+			saxParser.parse(new InputSource(matcher.getInput()), this);
+		} catch (NotSorted e) {
+			return false;
+		} catch (ParserConfigurationException | SAXException e) {
+			logAndThrow(e);
+		}
+		out.flush();
+		return matcher.matchesAll();
+	}
+
+	@Override
+	public void startDocument() throws SAXException {
+		try {
+			out.writeStartDocument();
+		} catch (IOException e) {
+			throw new SAXException(e);
+		}
+	}
+
+	@Override
+	public void startElement(final String uri, final String localName, final String qName,
+			final Attributes attributes) throws SAXException {
+		try {
+			if (depth > 0) {
+				endText();
+				final int parent = depth - 1;
+				if (!closed[parent])
+					closeStartTag(parent, false);
+				hasChildren[parent] = true;
+			}
+			if (tree.getElementCount() >= MAX_TREE_ELEMENTS)
+				tree = new XMLTree();
+			final int element = tree.startElement(qName);
+			for (int i = 0, n = attributes.getLength(); i < n; i++)
+				tree.addAttribute(attributes.getQName(i), attributes.getValue(i));
+			tree.endElement();
+			if (depth + 1 == states.length)
+				grow();
+			if (ruleMatcher != null) {
+				states[depth + 1] = ruleMatcher.next(states[depth], qName);
+				tree.setRule(element, states[depth + 1].getRule());
+			}
+			if (depth > 0 && childSorters[depth - 1].hasSortKeys()) {
+				final byte[] key = childSorters[depth - 1].sortKey(tree, element);
+				final byte[] previous = lastChildKeys[depth - 1];
+				if (previous != null && SortKeyBuilder.compare(previous, key) > 0)
+					throw new NotSorted();
+				lastChildKeys[depth - 1] = key;
+			}
+			if (!preserveWhitespace)
+				out.writeIndent(depth);
+			out.writeStartTag(qName);
+			sorter.sortAttributes(tree, element);
+			for (int i = tree.getFirstAttribute(element), end = i + tree.getAttributeCount(element); i < end; i++)
+				out.writeAttribute(tree.getAttributeName(i), tree.getAttributeValue(i));
+			names[depth] = qName;
+			childSorters[depth] = sorter.forElement(tree, element);
+			lastChildKeys[depth] = null;
+			hasChildren[depth] = false;
+			closed[depth] = false;
+			depth++;
+		} catch (IOException e) {
+			throw new SAXException(e);
+		}
+		checkMatching();
+	}
+
+	@Override
+	public void endElement(final String uri, final String localName, final String qName) throws SAXException {
+		try {
+			endText();
+			final int element = --depth;
+			// Any content that is not blank text has already closed the start tag
+			final boolean selfClose = !closed[element] && selfClosing;
+			if (!closed[element])
+				closeStartTag(element, selfClose);
+			if (!selfClose) {
+				if (!preserveWhitespace)
+					out.writeIndent(element);
+				out.writeEndTag(names[element]);
+			}
+			names[element] = null;
+		} catch (IOException e) {
+			throw new SAXException(e);
+		}
+		checkMatching();
+	}
+
+	@Override
+	public void characters(final char[] ch, final int start, final int length) {
+		if (depth > 0) {
+			if (!inCData)
+				inText = true;
+			if (textLength + length > text.length)
+				text = Arrays.copyOf(text, Math.max(text.length * 2, textLength + length));
+			System.arraycopy(ch, start, text, textLength, length);
+			textLength += length;
+		}
+	}
+
+	@Override
+	public void processingInstruction(final String target, final String data) throws SAXException {
+		// Not written to the output, but still separates the text around it.
+		endText();
+	}
+
+	@Override
+	public void comment(final char[] ch, final int start, final int length) throws SAXException {
+		if (!inDTD && depth > 0) {
+			endText();
+			writeContent(XMLTree.COMMENT, ch, start, length);
+		}
+	}
+
+	@Override
+	public void startCDATA() throws SAXException {
+		if (depth > 0) {
+			endText();
+			inCData = true;
+		}
+	}
+
+	@Override
+	public void endCDATA() throws SAXException {
+		if (inCData) {
+			inCData = false;
+			final int length = textLength;
+			textLength = 0;
+			writeContent(XMLTree.CDATA, text, 0, length);
+		}
+	}
+
+	@Override
+	public void startDTD(final String name, final String publicId, final String systemId) {
+		inDTD = true;
+	}
+
+	@Override
+	public void endDTD() {
+		inDTD = false;
+	}
+
+	@Override
+	public void startEntity(final String name) {
+	}
+
+	@Override
+	public void endEntity(final String name) {
+	}
+
+	/**
+	 * Writes the text read since the last other node, if there is any.
+	 */
+	private void endText() throws SAXException {
+		if (inText) {
+			inText = false;
+			final int length = textLength;
+			textLength = 0;
+			writeContent(XMLTree.TEXT, text, 0, length);
+		}
+	}
+
+	/**
+	 * Writes a text, comment or CDATA node of the innermost element, as {@link XMLTreeWriter} does.
+	 */
+	private void writeContent(final byte kind, final char[] chars, final int start, final int length)
+			throws SAXException {
+		final int element = depth - 1;
+		try {
+			if (kind == XMLTree.TEXT && isBlank(chars, start, length)) {
+				if (!preserveWhitespace)
+					return;
+				if (!closed[element]) {
+					pendingText.append(chars, start, length);
+					return;
+				}
+			}
+			// The sorted output writes the content of an element before its child elements
+			if (hasChildren[element])
+				throw new NotSorted();
+			if (!closed[element])
+				closeStartTag(element, false);
+			if (kind == XMLTree.TEXT) {
+				if (preserveWhitespace)
+					out.writeText(chars, start, length);
+				else
+					XMLTreeWriter.writeLines(chars, start, start + length, out, depth);
+			} else if (kind == XMLTree.COMMENT) {
+				out.writeComment(chars, start, length);
+			} else {
+				out.writeCData(chars, start, length);
+			}
+		} catch (IOException e) {
+			throw new SAXException(e);
+		}
+		checkMatching();
+	}
+
+	private void closeStartTag(final int element, final boolean selfClose) throws IOException {
+		out.closeStartTag(selfClose);
+		closed[element] = true;
+		if (pendingText.length() > 0) {
+			final char[] chars = pendingText.toString().toCharArray();
+			out.writeText(chars, 0, chars.length);
+			pendingText.setLength(0);
+		}
+	}
+
+	private void checkMatching() throws NotSorted {
+		if (!matcher.isMatching())
+			throw new NotSorted();
+	}
+
+	private void grow() {
+		final int capacity = states.length * 2;
+		names = Arrays.copyOf(names, capacity);
+		childSorters = Arrays.copyOf(childSorters, capacity);
+		lastChildKeys = Arrays.copyOf(lastChildKeys, capacity);
+		hasChildren = Arrays.copyOf(hasChildren, capacity);
+		closed = Arrays.copyOf(closed, capacity);
+		states = Arrays.copyOf(states, capacity);
+	}
+
+	/**
+	 * Stops the parser once the input is known not to be sorted.
+	 */
+	private static final class NotSorted extends SAXException {
+		private static final long serialVersionUID = 1L;
+	}
+}
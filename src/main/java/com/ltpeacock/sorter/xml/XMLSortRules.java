@@ -0,0 +1,263 @@
+package com.ltpeacock.sorter.xml;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>Rules that change how {@link SortXMLEngine} sorts particular parts of a document, selected by element paths.</p>
+ * Each rule applies to the elements matching its pattern:
+ * <ul>
+ * <li>{@link #sort(String, Comparator)} sorts the child elements of matching elements with another comparator.</li>
+ * <li>{@link #keep(String)} keeps the child elements of matching elements in their original order.</li>
+ * <li>{@link #skip(String)} leaves the whole subtree of matching elements as it is: no child elements or attributes
+ * of the element or any of its descendants are sorted.</li>
+ * </ul>
+ * Elements that do not match any rule are sorted with the engine's comparators as usual. When an element matches
+ * several rules, the rule added last is applied.
+ * <br>
+ * Patterns are element paths made of qualified element names and {@code *}, which matches any element, separated
+ * by {@code /} for a child or {@code //} for a descendant at any depth. A pattern starting with {@code /} is
+ * matched from the document element; any other pattern can match anywhere in the document. For example:
+ * <pre>
+ * XMLSortRules rules = new XMLSortRules()
+ *         .keep("/project/build/plugins")
+ *         .skip("//plugin/executions")
+ *         .sort("/project/dependencies", dependencyComparator);
+ * engine.setSortRules(rules);
+ * </pre>
+ * Patterns are compiled into a trie when they are added, and matched against each element as the document is read,
+ * following one automaton state per open element. Skipped subtrees are passed through without any sorting work.
+ * @author LieutenantPeacock
+ *
+ */
+public final class XMLSortRules {
+	private static final int SORT = 0;
+	private static final int KEEP = 1;
+	private static final int SKIP = 2;
+
+	private final List<Rule> rules = new ArrayList<>();
+	private final List<Node> nodes = new ArrayList<>();
+	private final Node root = newNode(false);
+
+	/**
+	 * Sorts the child elements of the elements matching a pattern with the given comparator.
+	 * @param pattern The element path pattern.
+	 * @param elementComparator The comparator for the child elements of matching elements.
+	 * @return These rules.
+	 */
+	public XMLSortRules sort(final String pattern, final Comparator<ElementVO> elementComparator) {
+		if (elementComparator == null)
+			throw new IllegalArgumentException("Element comparator is null");
+		return add(pattern, SORT, elementComparator);
+	}
+
+	/**
+	 * Keeps the child elements of the elements matching a pattern in their original order.
+	 * @param pattern The element path pattern.
+	 * @return These rules.
+	 */
+	public XMLSortRules keep(final String pattern) {
+		return add(pattern, KEEP, ElementComparator.MAINTAIN_ORDER);
+	}
+
+	/**
+	 * Leaves the elements matching a pattern, along with all of their descendants and attributes, in their
+	 * original order.
+	 * @param pattern The element path pattern.
+	 * @return These rules.
+	 */
+	public XMLSortRules skip(final String pattern) {
+		return add(pattern, SKIP, ElementComparator.MAINTAIN_ORDER);
+	}
+
+	private XMLSortRules add(final String pattern, final int action, final Comparator<ElementVO> comparator) {
+		if (pattern == null || pattern.isEmpty())
+			throw new IllegalArgumentException("Empty pattern");
+		final int rule = rules.size() + 1;
+		Node node = root;
+		int i = 0;
+		boolean descendant = true;
+		if (pattern.startsWith("/")) {
+			descendant = pattern.startsWith("//");
+			i = descendant ? 2 : 1;
+		}
+		while (true) {
+			final int end = pattern.indexOf('/', i);
+			final String step = pattern.substring(i, end < 0 ? pattern.length() : end);
+			if (step.isEmpty())
+				throw new IllegalArgumentException("Empty step in pattern: " + pattern);
+			if (descendant) {
+				if (node.descendant == null)
+					node.descendant = newNode(true);
+				node = node.descendant;
+			}
+			if ("*".equals(step)) {
+				if (node.wildcard == null)
+					node.wildcard = newNode(false);
+				node = node.wildcard;
+			} else {
+				node = node.children.computeIfAbsent(step, k -> newNode(false));
+			}
+			if (end < 0)
+				break;
+			descendant = pattern.startsWith("//", end);
+			i = descendant ? end + 2 : end + 1;
+		}
+		node.rule = rule;
+		rules.add(new Rule(action, comparator));
+		return this;
+	}
+
+	private Node newNode(final boolean loop) {
+		final Node node = new Node(nodes.size(), loop);
+		nodes.add(node);
+		return node;
+	}
+
+	/**
+	 * Get the number of rules. Rules are numbered from {@code 1}, with {@code 0} meaning that no rule applies.
+	 */
+	int size() {
+		return rules.size();
+	}
+
+	Comparator<ElementVO> getElementComparator(final int rule) {
+		return rules.get(rule - 1).comparator;
+	}
+
+	boolean isSkip(final int rule) {
+		return rules.get(rule - 1).action == SKIP;
+	}
+
+	/**
+	 * Creates a matcher for one document.
+	 */
+	Matcher newMatcher() {
+		return new Matcher();
+	}
+
+	private static final class Rule {
+		final int action;
+		final Comparator<ElementVO> comparator;
+
+		Rule(final int action, final Comparator<ElementVO> comparator) {
+			this.action = action;
+			this.comparator = comparator;
+		}
+	}
+
+	/**
+	 * Node of the pattern trie. A {@code loop} node stays active for any number of elements, which is how
+	 * {@code //} is matched.
+	 */
+	private static final class Node {
+		final int id;
+		final boolean loop;
+		final Map<String, Node> children = new HashMap<>();
+		Node wildcard;
+		Node descendant;
+		int rule;
+
+		Node(final int id, final boolean loop) {
+			this.id = id;
+			this.loop = loop;
+		}
+	}
+
+	/**
+	 * Set of active trie nodes after matching the path of an element, along with the rule that applies to it.
+	 */
+	static final class State {
+		private final BitSet nodes;
+		private final int rule;
+		private final boolean skip;
+		private final Map<String, State> transitions = new HashMap<>();
+
+		State(final BitSet nodes, final int rule, final boolean skip) {
+			this.nodes = nodes;
+			this.rule = rule;
+			this.skip = skip;
+		}
+
+		/**
+		 * Get the rule that applies to the element, or {@code 0} if none.
+		 */
+		int getRule() {
+			return rule;
+		}
+	}
+
+	/**
+	 * Matches element paths against the rules, building the states of the automaton as they are first reached.
+	 * Not thread-safe.
+	 */
+	final class Matcher {
+		private final Map<BitSet, State> states = new HashMap<>();
+		private final Map<Integer, State> skipStates = new HashMap<>();
+		private final State start;
+
+		Matcher() {
+			final BitSet initial = new BitSet();
+			initial.set(root.id);
+			start = state(closure(initial), 0);
+		}
+
+		/**
+		 * Get the state before the document element.
+		 */
+		State getStart() {
+			return start;
+		}
+
+		/**
+		 * Get the state of a child element.
+		 * @param parent The state of the parent element.
+		 * @param name The name of the child element.
+		 */
+		State next(final State parent, final String name) {
+			if (parent.skip || parent.nodes.isEmpty())
+				return parent;
+			State next = parent.transitions.get(name);
+			if (next == null) {
+				final BitSet set = new BitSet();
+				int rule = 0;
+				for (int i = parent.nodes.nextSetBit(0); i >= 0; i = parent.nodes.nextSetBit(i + 1)) {
+					final Node node = nodes.get(i);
+					if (node.loop)
+						set.set(node.id);
+					final Node child = node.children.get(name);
+					if (child != null)
+						set.set(child.id);
+					if (node.wildcard != null)
+						set.set(node.wildcard.id);
+				}
+				for (int i = set.nextSetBit(0); i >= 0; i = set.nextSetBit(i + 1))
+					rule = Math.max(rule, nodes.get(i).rule);
+				next = state(closure(set), rule);
+				parent.transitions.put(name, next);
+			}
+			return next;
+		}
+
+		private BitSet closure(final BitSet set) {
+			for (int i = set.nextSetBit(0); i >= 0; i = set.nextSetBit(i + 1)) {
+				final Node descendant = nodes.get(i).descendant;
+				if (descendant != null)
+					set.set(descendant.id);
+			}
+			return set;
+		}
+
+		private State state(final BitSet set, final int rule) {
+			if (rule != 0 && isSkip(rule)) {
+				// Everything below a skipped element stays in this state, so its nodes are not needed.
+				return skipStates.computeIfAbsent(rule, k -> new State(new BitSet(), rule, true));
+			}
+			return states.computeIfAbsent(set, k -> new State(k, rule, false));
+		}
+	}
+}
@@ -0,0 +1,331 @@
+package com.ltpeacock.sorter.xml;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import com.ltpeacock.sorter.SortKeyBuilder;
+
+/**
+ * <p>Bounded-memory support for {@link SortXMLEngine}: sorts large sibling lists in runs that are spilled
+ * to temporary files, and k-way merges the runs back when the parent element is written.</p>
+ * Whenever the tree being built grows beyond the memory budget, the completed children of the innermost open
+ * element are sorted, written out as one run, and removed from the tree. Each run record holds the child's
+ * name and attributes, which are all that is needed to compare it against the heads of the other runs,
+ * together with the child already rendered to bytes at its depth in the output. Runs of the same parent
+ * are merged in document order with ties going to the earlier run, so the result is the same as that of
+ * the stable in-memory sort.
+ * @author LieutenantPeacock
+ *
+ */
+final class XMLSpillStore implements Closeable {
+	private static final int MAX_MERGE_WIDTH = 64;
+	private static final String PREFIX = "lp-multisorter-";
+
+	private final long memoryBudget;
+	private final Path tempDirectory;
+	private final XMLTreeSorter sorter;
+	private final XMLTreeWriter writer;
+	private final Map<Integer, List<Run>> runs = new HashMap<>();
+
+	XMLSpillStore(final long memoryBudget, final Path tempDirectory, final XMLTreeSorter sorter,
+			final XMLTreeWriter writer) {
+		this.memoryBudget = memoryBudget;
+		this.tempDirectory = tempDirectory;
+		this.sorter = sorter;
+		this.writer = writer;
+	}
+
+	/**
+	 * Called after an element has ended and its children have been sorted.
+	 * If some of its children were already spilled, the remaining ones are spilled as the last run,
+	 * so that all of its children can be merged from disk.
+	 * Otherwise, the children of its parent are spilled if the tree has outgrown the memory budget.
+	 */
+	void elementEnded(final XMLTree tree, final int element) throws IOException {
+		if (runs.containsKey(element))
+			spill(tree, element, tree.getDepth());
+		final int level = tree.getDepth() - 1;
+		if (level >= 0 && tree.getFootprint() > memoryBudget
+				&& tree.getChildrenFootprint(level) >= memoryBudget / 4) {
+			final int parent = tree.getOpenElement(level);
+			sorter.sortChildren(tree, parent);
+			spill(tree, parent, level);
+		}
+	}
+
+	/**
+	 * Determines whether some of the children of an element have been spilled.
+	 */
+	boolean hasRuns(final int element) {
+		return runs.containsKey(element);
+	}
+
+	/**
+	 * Merges all spilled children of an element to the given stream, and deletes their runs.
+	 */
+	void writeRuns(final XMLTree tree, final int element, final OutputStream out) throws IOException {
+		final XMLTreeSorter childSorter = sorter.forElement(tree, element);
+		final List<Run> list = reduce(runs.remove(element), childSorter);
+		try {
+			merge(list, out, null, childSorter);
+		} finally {
+			delete(list);
+		}
+	}
+
+	private void spill(final XMLTree tree, final int element, final int level) throws IOException {
+		if (tree.getFirstChild(element) == XMLTree.NONE)
+			return;
+		final Run run = new Run(createTempFile(".idx"), createTempFile(".dat"));
+		runs.computeIfAbsent(element, k -> new ArrayList<>()).add(run);
+		try (RunWriter out = new RunWriter(run, writer)) {
+			for (int child = tree.getFirstChild(element); child != XMLTree.NONE; child = tree
+					.getNextSibling(child)) {
+				final int attributeCount = tree.getAttributeCount(child), first = tree.getFirstAttribute(child);
+				final String[] attributes = new String[attributeCount * 2];
+				for (int i = 0; i < attributeCount; i++) {
+					attributes[2 * i] = tree.getAttributeName(first + i);
+					attributes[2 * i + 1] = tree.getAttributeValue(first + i);
+				}
+				final long start = out.data.getCount();
+				writer.writeElement(tree, child, out.data, level + 1);
+				out.writeRecord(tree.getName(child), attributes, out.data.getCount() - start);
+			}
+		}
+		tree.truncateChildren(element, level);
+	}
+
+	/**
+	 * Merges consecutive runs until there are few enough to be merged at once. Since the runs are kept
+	 * in document order, ties between them are still resolved in favor of the earlier element.
+	 */
+	private List<Run> reduce(List<Run> list, final XMLTreeSorter childSorter) throws IOException {
+		while (list.size() > MAX_MERGE_WIDTH) {
+			final List<Run> reduced = new ArrayList<>();
+			for (int i = 0; i < list.size(); i += MAX_MERGE_WIDTH) {
+				final List<Run> group = list.subList(i, Math.min(i + MAX_MERGE_WIDTH, list.size()));
+				final Run run = new Run(createTempFile(".idx"), createTempFile(".dat"));
+				try (RunWriter out = new RunWriter(run, writer)) {
+					merge(group, out.data, out, childSorter);
+				} finally {
+					delete(group);
+				}
+				reduced.add(run);
+			}
+			list = reduced;
+		}
+		return list;
+	}
+
+	/**
+	 * Merges the given runs, copying the rendered bytes of each record to {@code out}
+	 * and, if {@code index} is not {@code null}, writing each record header to it.
+	 */
+	private void merge(final List<Run> list, final OutputStream out, final RunWriter index,
+			final XMLTreeSorter childSorter) throws IOException {
+		final Heads heads = new Heads(childSorter);
+		final PriorityQueue<RunReader> queue = new PriorityQueue<>(Math.max(1, list.size()), (a, b) -> {
+			final int c = a.key != null ? SortKeyBuilder.compare(a.key, b.key)
+					: childSorter.compareElements(heads.tree, a.head, b.head);
+			return c != 0 ? c : Integer.compare(a.order, b.order);
+		});
+		final List<RunReader> readers = new ArrayList<>(list.size());
+		try {
+			for (final Run run : list) {
+				final RunReader reader = new RunReader(run, readers.size());
+				readers.add(reader);
+				if (reader.next())
+					queue.add(heads.add(reader));
+			}
+			final byte[] buffer = new byte[8192];
+			RunReader reader;
+			while ((reader = queue.poll()) != null) {
+				reader.copyTo(out, buffer);
+				if (index != null)
+					index.writeRecord(reader.name, reader.attributes, reader.length);
+				if (reader.next()) {
+					if (heads.tree.getElementCount() > 4 * readers.size() + 1024)
+						heads.compact(queue);
+					queue.add(heads.add(reader));
+				}
+			}
+		} finally {
+			for (final RunReader reader : readers)
+				reader.close();
+		}
+	}
+
+	private Path createTempFile(final String suffix) throws IOException {
+		return tempDirectory == null ? Files.createTempFile(PREFIX, suffix)
+				: Files.createTempFile(tempDirectory, PREFIX, suffix);
+	}
+
+	private static void delete(final List<Run> list) throws IOException {
+		for (final Run run : list) {
+			Files.deleteIfExists(run.index);
+			Files.deleteIfExists(run.data);
+		}
+	}
+
+	/**
+	 * Deletes the runs of any children that were not written.
+	 */
+	@Override
+	public void close() throws IOException {
+		for (final List<Run> list : runs.values())
+			delete(list);
+		runs.clear();
+	}
+
+	private static final class Run {
+		final Path index;
+		final Path data;
+
+		Run(final Path index, final Path data) {
+			this.index = index;
+			this.data = data;
+		}
+	}
+
+	private static final class RunWriter implements Closeable {
+		final DataOutputStream index;
+		final XMLByteWriter data;
+
+		RunWriter(final Run run, final XMLTreeWriter writer) throws IOException {
+			this.index = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run.index)));
+			this.data = writer.createWriter(Files.newOutputStream(run.data));
+		}
+
+		void writeRecord(final String name, final String[] attributes, final long length) throws IOException {
+			writeString(name);
+			index.writeInt(attributes.length);
+			for (final String attribute : attributes)
+				writeString(attribute);
+			index.writeLong(length);
+		}
+
+		private void writeString(final String str) throws IOException {
+			final byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+			index.writeInt(bytes.length);
+			index.write(bytes);
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				index.close();
+			} finally {
+				data.close();
+			}
+		}
+	}
+
+	private static final class RunReader implements Closeable {
+		final int order;
+		final DataInputStream index;
+		final InputStream data;
+		String name;
+		String[] attributes;
+		long length;
+		int head;
+		byte[] key;
+
+		RunReader(final Run run, final int order) throws IOException {
+			this.order = order;
+			this.index = new DataInputStream(new BufferedInputStream(Files.newInputStream(run.index)));
+			this.data = new BufferedInputStream(Files.newInputStream(run.data));
+		}
+
+		/**
+		 * Reads the header of the next record.
+		 * @return {@code false} if there are no more records.
+		 */
+		boolean next() throws IOException {
+			final int nameLength;
+			try {
+				nameLength = index.readInt();
+			} catch (EOFException e) {
+				return false;
+			}
+			name = readString(nameLength);
+			attributes = new String[index.readInt()];
+			for (int i = 0; i < attributes.length; i++)
+				attributes[i] = readString(index.readInt());
+			length = index.readLong();
+			return true;
+		}
+
+		private String readString(final int length) throws IOException {
+			final byte[] bytes = new byte[length];
+			index.readFully(bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+
+		void copyTo(final OutputStream out, final byte[] buffer) throws IOException {
+			long remaining = length;
+			while (remaining > 0) {
+				final int n = data.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+				if (n < 0)
+					throw new EOFException("Truncated run " + order);
+				out.write(buffer, 0, n);
+				remaining -= n;
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				index.close();
+			} finally {
+				data.close();
+			}
+		}
+	}
+
+	/**
+	 * Tree holding the element at the head of each run, so that heads can be compared with the element comparator.
+	 * If the comparator uses sort keys, the key of each head is computed once when it is added.
+	 */
+	private static final class Heads {
+		private final XMLTreeSorter sorter;
+		XMLTree tree = new XMLTree();
+
+		Heads(final XMLTreeSorter sorter) {
+			this.sorter = sorter;
+		}
+
+		RunReader add(final RunReader reader) {
+			reader.head = tree.startElement(reader.name);
+			for (int i = 0; i < reader.attributes.length; i += 2)
+				tree.addAttribute(reader.attributes[i], reader.attributes[i + 1]);
+			tree.endElement();
+			if (sorter.hasSortKeys())
+				reader.key = sorter.sortKey(tree, reader.head);
+			return reader;
+		}
+
+		/**
+		 * Rebuilds the tree with only the current heads, which does not change how they compare.
+		 */
+		void compact(final Iterable<RunReader> current) {
+			tree = new XMLTree();
+			for (final RunReader reader : current)
+				add(reader);
+		}
+	}
+}
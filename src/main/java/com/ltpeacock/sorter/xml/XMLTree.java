@@ -0,0 +1,515 @@
+package com.ltpeacock.sorter.xml;
+
+import java.util.Arrays;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * <p>Compact in-memory representation of an XML document, used by {@link SortXMLEngine}.</p>
+ * Nodes are identified by {@code int} indexes into parallel arrays instead of being held as objects:
+ * elements are numbered in document order starting from the document element at {@code 0},
+ * and the attributes of each element occupy a contiguous range of attribute indexes.
+ * Element names and attribute names and values are interned in a symbol table shared by the whole document,
+ * and the character data of text, comment and CDATA nodes is held in a single character buffer.
+ * <br>
+ * The child elements of an element are linked separately from its text, comment and CDATA nodes,
+ * since the sorted output always writes the latter first.
+ * @author LieutenantPeacock
+ *
+ */
+public final class XMLTree {
+	/**
+	 * Index returned when there is no such node.
+	 */
+	public static final int NONE = -1;
+	static final byte TEXT = 0;
+	static final byte COMMENT = 1;
+	static final byte CDATA = 2;
+	private static final int INITIAL_CAPACITY = 64;
+
+	private final SymbolTable symbols = new SymbolTable();
+
+	private int elementCount;
+	private int[] elementName = new int[INITIAL_CAPACITY];
+	private int[] firstChild = new int[INITIAL_CAPACITY];
+	private int[] nextSibling = new int[INITIAL_CAPACITY];
+	private int[] firstContent = new int[INITIAL_CAPACITY];
+	private int[] firstAttribute = new int[INITIAL_CAPACITY];
+	/** Sort rule of each element, only allocated once a rule has been set. */
+	private int[] elementRule;
+
+	private int attributeCount;
+	private int[] attributeName = new int[INITIAL_CAPACITY];
+	private int[] attributeValue = new int[INITIAL_CAPACITY];
+
+	private int contentCount;
+	private byte[] contentKind = new byte[INITIAL_CAPACITY];
+	private int[] contentStart = new int[INITIAL_CAPACITY];
+	private int[] contentLength = new int[INITIAL_CAPACITY];
+	private int[] nextContent = new int[INITIAL_CAPACITY];
+
+	private int charCount;
+	private char[] chars = new char[INITIAL_CAPACITY * 16];
+
+	private Document document;
+
+	// State of the elements that are still open while the tree is being built.
+	private int depth;
+	private int[] openElement = new int[16];
+	private int[] lastChild = new int[16];
+	private int[] lastContent = new int[16];
+	private int openContent = NONE;
+	// Sizes of the tree when the first (remaining) child of each open element was started.
+	private int[] childContentMark = new int[16];
+	private int[] childCharMark = new int[16];
+	private int[] childSymbolMark = new int[16];
+	private long[] childFootprintMark = new long[16];
+
+	/**
+	 * Get the document element.
+	 * @return The index of the document element, or {@link #NONE} if the tree is empty.
+	 */
+	public int getRoot() {
+		return elementCount == 0 ? NONE : 0;
+	}
+
+	/**
+	 * Get the number of elements in the tree.
+	 * @return The element count.
+	 */
+	public int getElementCount() {
+		return elementCount;
+	}
+
+	/**
+	 * Get the qualified name of an element.
+	 * @param element The element index.
+	 * @return The element's name.
+	 */
+	public String getName(final int element) {
+		return symbols.get(elementName[element]);
+	}
+
+	/**
+	 * Get the first child element of an element. Once the children of an element have been sorted,
+	 * they are linked in sorted order.
+	 * @param element The element index.
+	 * @return The index of the first child element, or {@link #NONE} if there are no child elements.
+	 */
+	public int getFirstChild(final int element) {
+		return firstChild[element];
+	}
+
+	/**
+	 * Get the next sibling element of an element.
+	 * @param element The element index.
+	 * @return The index of the next sibling element, or {@link #NONE} if this is the last child element.
+	 */
+	public int getNextSibling(final int element) {
+		return nextSibling[element];
+	}
+
+	/**
+	 * Get the index of the first attribute of an element. The attributes of an element are numbered
+	 * consecutively from this index.
+	 * @param element The element index.
+	 * @return The index of the element's first attribute.
+	 */
+	public int getFirstAttribute(final int element) {
+		return firstAttribute[element];
+	}
+
+	/**
+	 * Get the number of attributes on an element.
+	 * @param element The element index.
+	 * @return The attribute count.
+	 */
+	public int getAttributeCount(final int element) {
+		return attributeEnd(element) - firstAttribute[element];
+	}
+
+	/**
+	 * Get the qualified name of an attribute.
+	 * @param attribute The attribute index.
+	 * @return The attribute's name.
+	 */
+	public String getAttributeName(final int attribute) {
+		return symbols.get(attributeName[attribute]);
+	}
+
+	/**
+	 * Get the value of an attribute.
+	 * @param attribute The attribute index.
+	 * @return The attribute's value.
+	 */
+	public String getAttributeValue(final int attribute) {
+		return symbols.get(attributeValue[attribute]);
+	}
+
+	/**
+	 * Get the value of the attribute with the given name on an element.
+	 * Like {@link org.w3c.dom.Element#getAttribute(String)}, an empty string is returned if there is no such attribute.
+	 * @param element The element index.
+	 * @param name The qualified name of the attribute.
+	 * @return The attribute value, or an empty string if the element has no attribute with that name.
+	 */
+	public String getAttribute(final int element, final String name) {
+		final int symbol = symbols.find(name);
+		if (symbol != NONE) {
+			for (int i = firstAttribute[element], end = attributeEnd(element); i < end; i++) {
+				if (attributeName[i] == symbol)
+					return symbols.get(attributeValue[i]);
+			}
+		}
+		return "";
+	}
+
+	int getFirstContent(final int element) {
+		return firstContent[element];
+	}
+
+	int getNextContent(final int content) {
+		return nextContent[content];
+	}
+
+	byte getContentKind(final int content) {
+		return contentKind[content];
+	}
+
+	int getContentStart(final int content) {
+		return contentStart[content];
+	}
+
+	int getContentLength(final int content) {
+		return contentLength[content];
+	}
+
+	String getContentText(final int content) {
+		return new String(chars, contentStart[content], contentLength[content]);
+	}
+
+	char[] getChars() {
+		return chars;
+	}
+
+	/**
+	 * Creates a detached DOM element with the name, attributes, and text, comment and CDATA children of an element.
+	 */
+	synchronized Element toElement(final int element) {
+		if (document == null) {
+			try {
+				document = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+			} catch (ParserConfigurationException e) {
+				Util.logAndThrow(e);
+			}
+		}
+		final Element result = document.createElement(getName(element));
+		for (int i = firstAttribute[element], end = attributeEnd(element); i < end; i++)
+			result.setAttribute(getAttributeName(i), getAttributeValue(i));
+		for (int content = firstContent[element]; content != NONE; content = nextContent[content]) {
+			final String text = getContentText(content);
+			final Node node;
+			if (contentKind[content] == COMMENT)
+				node = document.createComment(text);
+			else if (contentKind[content] == CDATA)
+				node = document.createCDATASection(text);
+			else
+				node = document.createTextNode(text);
+			result.appendChild(node);
+		}
+		return result;
+	}
+
+	private int attributeEnd(final int element) {
+		return element + 1 < elementCount ? firstAttribute[element + 1] : attributeCount;
+	}
+
+	/**
+	 * Starts a new element as the last child of the currently open element.
+	 * Attributes are added with {@link #addAttribute(String, String)} until the next call
+	 * that adds a node.
+	 */
+	int startElement(final String name) {
+		openContent = NONE;
+		final int element = elementCount;
+		if (element == elementName.length) {
+			final int capacity = element * 2;
+			elementName = Arrays.copyOf(elementName, capacity);
+			firstChild = Arrays.copyOf(firstChild, capacity);
+			nextSibling = Arrays.copyOf(nextSibling, capacity);
+			firstContent = Arrays.copyOf(firstContent, capacity);
+			firstAttribute = Arrays.copyOf(firstAttribute, capacity);
+			if (elementRule != null)
+				elementRule = Arrays.copyOf(elementRule, capacity);
+		}
+		if (elementRule != null)
+			elementRule[element] = 0;
+		firstChild[element] = nextSibling[element] = firstContent[element] = NONE;
+		firstAttribute[element] = attributeCount;
+		elementCount++;
+		if (depth > 0) {
+			final int parent = openElement[depth - 1], previous = lastChild[depth - 1];
+			if (previous == NONE) {
+				firstChild[parent] = element;
+				childContentMark[depth - 1] = contentCount;
+				childCharMark[depth - 1] = charCount;
+				childSymbolMark[depth - 1] = symbols.size();
+				childFootprintMark[depth - 1] = getFootprint();
+			} else
+				nextSibling[previous] = element;
+			lastChild[depth - 1] = element;
+		}
+		elementName[element] = symbols.intern(name);
+		if (depth == openElement.length) {
+			final int capacity = depth * 2;
+			openElement = Arrays.copyOf(openElement, capacity);
+			lastChild = Arrays.copyOf(lastChild, capacity);
+			lastContent = Arrays.copyOf(lastContent, capacity);
+			childContentMark = Arrays.copyOf(childContentMark, capacity);
+			childCharMark = Arrays.copyOf(childCharMark, capacity);
+			childSymbolMark = Arrays.copyOf(childSymbolMark, capacity);
+			childFootprintMark = Arrays.copyOf(childFootprintMark, capacity);
+		}
+		openElement[depth] = element;
+		lastChild[depth] = lastContent[depth] = NONE;
+		depth++;
+		return element;
+	}
+
+	void addAttribute(final String name, final String value) {
+		if (attributeCount == attributeName.length) {
+			attributeName = Arrays.copyOf(attributeName, attributeCount * 2);
+			attributeValue = Arrays.copyOf(attributeValue, attributeCount * 2);
+		}
+		attributeName[attributeCount] = symbols.intern(name);
+		attributeValue[attributeCount] = symbols.intern(value);
+		attributeCount++;
+	}
+
+	/**
+	 * Ends the currently open element.
+	 * @return The index of the element that was ended.
+	 */
+	int endElement() {
+		openContent = NONE;
+		return openElement[--depth];
+	}
+
+	/**
+	 * Sets the {@link XMLSortRules} rule that applies to an element.
+	 * @param rule The rule number, or {@code 0} for none.
+	 */
+	void setRule(final int element, final int rule) {
+		if (elementRule == null) {
+			if (rule == 0)
+				return;
+			elementRule = new int[elementName.length];
+		}
+		elementRule[element] = rule;
+	}
+
+	/**
+	 * Get the {@link XMLSortRules} rule that applies to an element, or {@code 0} if none.
+	 */
+	int getRule(final int element) {
+		return elementRule == null ? 0 : elementRule[element];
+	}
+
+	int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * Starts a new text, comment or CDATA node as the last content of the currently open element.
+	 * Character data is added to it with {@link #appendChars(char[], int, int)}.
+	 */
+	void startContent(final byte kind) {
+		final int content = contentCount;
+		if (content == contentKind.length) {
+			final int capacity = content * 2;
+			contentKind = Arrays.copyOf(contentKind, capacity);
+			contentStart = Arrays.copyOf(contentStart, capacity);
+			contentLength = Arrays.copyOf(contentLength, capacity);
+			nextContent = Arrays.copyOf(nextContent, capacity);
+		}
+		contentKind[content] = kind;
+		contentStart[content] = charCount;
+		contentLength[content] = 0;
+		nextContent[content] = NONE;
+		contentCount++;
+		final int parent = openElement[depth - 1], previous = lastContent[depth - 1];
+		if (previous == NONE)
+			firstContent[parent] = content;
+		else
+			nextContent[previous] = content;
+		lastContent[depth - 1] = content;
+		openContent = content;
+	}
+
+	/**
+	 * Appends character data to the content node started by the last call to {@link #startContent(byte)}.
+	 */
+	void appendChars(final char[] ch, final int start, final int length) {
+		if (charCount + length > chars.length)
+			chars = Arrays.copyOf(chars, Math.max(chars.length * 2, charCount + length));
+		System.arraycopy(ch, start, chars, charCount, length);
+		charCount += length;
+		contentLength[openContent] += length;
+	}
+
+	/**
+	 * Ends the open content node, so that further character data starts a new node.
+	 */
+	void endContent() {
+		openContent = NONE;
+	}
+
+	/**
+	 * Get the content node that character data is currently being appended to.
+	 * @return The open content node, or {@link #NONE}.
+	 */
+	int getOpenContent() {
+		return openContent;
+	}
+
+	/**
+	 * Copies the child elements of an element into {@code buffer} in their current order.
+	 * @return The number of child elements.
+	 */
+	int collectChildren(final int element, final int[] buffer) {
+		int n = 0;
+		for (int child = firstChild[element]; child != NONE; child = nextSibling[child])
+			buffer[n++] = child;
+		return n;
+	}
+
+	/**
+	 * Get the number of child elements of an element.
+	 */
+	int getChildCount(final int element) {
+		int n = 0;
+		for (int child = firstChild[element]; child != NONE; child = nextSibling[child])
+			n++;
+		return n;
+	}
+
+	/**
+	 * Relinks the child elements of an element in the order given by the first {@code n} entries of {@code children}.
+	 */
+	void setChildren(final int element, final int[] children, final int n) {
+		int previous = NONE;
+		for (int i = 0; i < n; i++) {
+			if (previous == NONE)
+				firstChild[element] = children[i];
+			else
+				nextSibling[previous] = children[i];
+			previous = children[i];
+		}
+		if (previous != NONE)
+			nextSibling[previous] = NONE;
+	}
+
+	/**
+	 * Get an estimate of the memory used by the nodes of the tree, in bytes.
+	 */
+	long getFootprint() {
+		return elementCount * 20L + attributeCount * 8L + contentCount * 13L + charCount * 2L
+				+ symbols.getFootprint();
+	}
+
+	/**
+	 * Get an estimate of the memory used by the child elements of the element open at the given depth
+	 * (and all of their descendants), in bytes.
+	 */
+	long getChildrenFootprint(final int level) {
+		return lastChild[level] == NONE ? 0 : getFootprint() - childFootprintMark[level];
+	}
+
+	/**
+	 * Get the element that is open at the given depth, where {@code 0} is the document element.
+	 */
+	int getOpenElement(final int level) {
+		return openElement[level];
+	}
+
+	/**
+	 * Removes all child elements of an element, along with their descendants, from the tree.
+	 * The element must be either the innermost open element, or the element that was just ended,
+	 * so that every element after it in the tree is one of its descendants. Text, comment and CDATA
+	 * nodes of the element itself are kept.
+	 * @param element The element.
+	 * @param level The depth at which the element is (or was) open.
+	 */
+	void truncateChildren(final int element, final int level) {
+		if (element + 1 >= elementCount)
+			return;
+		final int contentMark = childContentMark[level], charMark = childCharMark[level];
+		int last = NONE, moved = 0, movedChars = 0;
+		for (int content = firstContent[element]; content != NONE; content = nextContent[content]) {
+			if (content < contentMark) {
+				last = content;
+			} else {
+				moved++;
+				movedChars += contentLength[content];
+			}
+		}
+		final byte[] movedKind = new byte[moved];
+		final int[] movedLength = new int[moved];
+		final char[] movedText = new char[movedChars];
+		moved = movedChars = 0;
+		for (int content = firstContent[element]; content != NONE; content = nextContent[content]) {
+			if (content >= contentMark) {
+				movedKind[moved] = contentKind[content];
+				movedLength[moved] = contentLength[content];
+				System.arraycopy(chars, contentStart[content], movedText, movedChars, contentLength[content]);
+				movedChars += movedLength[moved++];
+			}
+		}
+		attributeCount = firstAttribute[element + 1];
+		elementCount = element + 1;
+		contentCount = contentMark;
+		charCount = charMark;
+		symbols.truncate(childSymbolMark[level]);
+		firstChild[element] = NONE;
+		lastChild[level] = NONE;
+		if (last == NONE)
+			firstContent[element] = NONE;
+		else
+			nextContent[last] = NONE;
+		for (int i = 0, offset = 0; i < moved; offset += movedLength[i++]) {
+			final int content = contentCount++;
+			contentKind[content] = movedKind[i];
+			contentStart[content] = charCount;
+			contentLength[content] = movedLength[i];
+			nextContent[content] = NONE;
+			System.arraycopy(movedText, offset, chars, charCount, movedLength[i]);
+			charCount += movedLength[i];
+			if (last == NONE)
+				firstContent[element] = content;
+			else
+				nextContent[last] = content;
+			last = content;
+		}
+		lastContent[level] = last;
+		openContent = NONE;
+	}
+
+	/**
+	 * Reorders the attributes of an element so that the attribute at {@code order[i]} moves to position
+	 * {@code first + i}, where {@code first} is the element's first attribute index.
+	 */
+	void setAttributeOrder(final int element, final int[] order, final int[] scratch) {
+		final int first = firstAttribute[element], n = attributeEnd(element) - first;
+		for (int i = 0; i < n; i++)
+			scratch[i] = attributeName[order[i]];
+		for (int i = 0; i < n; i++)
+			scratch[n + i] = attributeValue[order[i]];
+		System.arraycopy(scratch, 0, attributeName, first, n);
+		System.arraycopy(scratch, n, attributeValue, first, n);
+	}
+}
@@ -0,0 +1,131 @@
+package com.ltpeacock.sorter.xml;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * SAX2 event handler that builds an {@link XMLTree} in a single pass, keeping the attributes of each element
+ * in the order that they appear in the document. Unless the handler has no sorter, the child elements of each
+ * element are sorted as soon as the element ends, and are handed to an {@link XMLSpillStore}, if there is one, to keep the tree within
+ * its memory budget. With {@link XMLSortRules}, the rule that applies to each element is recorded in the tree
+ * as the element starts.
+ * <br>
+ * Adjacent character data is coalesced into one text node the same way a DOM parser does.
+ * Comments, CDATA sections and processing instructions outside the document element are ignored.
+ * @author LieutenantPeacock
+ *
+ */
+class XMLTreeSAXHandler extends DefaultHandler implements LexicalHandler {
+	private final XMLTree tree = new XMLTree();
+	private final XMLTreeSorter sorter;
+	private final XMLSpillStore spillStore;
+	private final XMLSortRules.Matcher matcher;
+	private XMLSortRules.State[] states = new XMLSortRules.State[16];
+	private boolean inDTD;
+
+	XMLTreeSAXHandler(final XMLTreeSorter sorter, final XMLSpillStore spillStore,
+			final XMLSortRules.Matcher matcher) {
+		this.sorter = sorter;
+		this.spillStore = spillStore;
+		this.matcher = matcher;
+		if (matcher != null)
+			states[0] = matcher.getStart();
+	}
+
+	@Override
+	public void startElement(final String uri, final String localName, final String qName,
+			final Attributes attributes) {
+		final int element = tree.startElement(qName);
+		if (matcher != null) {
+			final int depth = tree.getDepth();
+			if (depth == states.length)
+				states = Arrays.copyOf(states, depth * 2);
+			states[depth] = matcher.next(states[depth - 1], qName);
+			tree.setRule(element, states[depth].getRule());
+		}
+		final int attributesLen = attributes.getLength();
+		for (int i = 0; i < attributesLen; i++) {
+			tree.addAttribute(attributes.getQName(i), attributes.getValue(i));
+		}
+	}
+
+	@Override
+	public void endElement(final String uri, final String localName, final String qName) throws SAXException {
+		final int element = tree.endElement();
+		if (sorter != null)
+			sorter.sortChildren(tree, element);
+		if (spillStore != null) {
+			try {
+				spillStore.elementEnded(tree, element);
+			} catch (IOException e) {
+				throw new SAXException(e);
+			}
+		}
+	}
+
+	@Override
+	public void characters(final char[] ch, final int start, final int length) {
+		if (tree.getDepth() > 0) {
+			if (tree.getOpenContent() == XMLTree.NONE)
+				tree.startContent(XMLTree.TEXT);
+			tree.appendChars(ch, start, length);
+		}
+	}
+
+	@Override
+	public void processingInstruction(final String target, final String data) {
+		// Not written to the output, but still separates the text around it.
+		tree.endContent();
+	}
+
+	@Override
+	public void comment(final char[] ch, final int start, final int length) {
+		if (!inDTD && tree.getDepth() > 0) {
+			tree.startContent(XMLTree.COMMENT);
+			tree.appendChars(ch, start, length);
+			tree.endContent();
+		}
+	}
+
+	@Override
+	public void startCDATA() {
+		if (tree.getDepth() > 0)
+			tree.startContent(XMLTree.CDATA);
+	}
+
+	@Override
+	public void endCDATA() {
+		tree.endContent();
+	}
+
+	@Override
+	public void startDTD(final String name, final String publicId, final String systemId) {
+		inDTD = true;
+	}
+
+	@Override
+	public void endDTD() {
+		inDTD = false;
+	}
+
+	@Override
+	public void startEntity(final String name) {
+	}
+
+	@Override
+	public void endEntity(final String name) {
+	}
+
+	/**
+	 * Get the tree built from the document.
+	 * @return The tree, with the child elements of every element sorted.
+	 */
+	XMLTree getTree() {
+		return tree;
+	}
+}
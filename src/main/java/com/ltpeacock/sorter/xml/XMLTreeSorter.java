@@ -0,0 +1,308 @@
+package com.ltpeacock.sorter.xml;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.RecursiveAction;
+
+import com.ltpeacock.sorter.SortKeyBuilder;
+
+/**
+ * Sorts the child elements and attributes of elements in an {@link XMLTree}.
+ * <br>
+ * Comparators implementing {@link TreeElementComparator} or {@link TreeAttributeComparator} are run directly
+ * against the tree. Any other comparator is run against {@link ElementVO} and {@link ElementAttribute} views,
+ * which are only created for the elements or attributes being sorted.
+ * <br>
+ * Element comparators implementing {@link KeyedElementComparator} are not called for each comparison: the
+ * sort key of every child is computed once, and the children are sorted by comparing those keys.
+ * <br>
+ * With {@link XMLSortRules}, elements that a rule applies to are sorted by a separate sorter for that rule.
+ * <br>
+ * Instances keep scratch buffers and are not thread-safe. A sorter created with a parallel threshold must be used
+ * from a {@link java.util.concurrent.ForkJoinPool ForkJoinPool}, and splits the work for sibling lists longer than
+ * the threshold into fork/join tasks.
+ * @author LieutenantPeacock
+ *
+ */
+final class XMLTreeSorter {
+	private final Comparator<ElementVO> elementComparator;
+	private final TreeElementComparator treeElementComparator;
+	private final KeyedElementComparator keyedElementComparator;
+	private final Comparator<ElementAttribute> attributeComparator;
+	private final TreeAttributeComparator treeAttributeComparator;
+	private int[] buffer = new int[16];
+	private int[] scratch = new int[16];
+	private final SortKeyBuilder keyBuilder = new SortKeyBuilder();
+	private final int parallelThreshold;
+	/** Sorters for each rule number, or {@code null} if there are no rules. */
+	private final XMLTreeSorter[] ruleSorters;
+
+	XMLTreeSorter(final Comparator<ElementVO> elementComparator,
+			final Comparator<ElementAttribute> attributeComparator) {
+		this(elementComparator, attributeComparator, null);
+	}
+
+	XMLTreeSorter(final Comparator<ElementVO> elementComparator,
+			final Comparator<ElementAttribute> attributeComparator, final XMLSortRules rules) {
+		this.parallelThreshold = Integer.MAX_VALUE;
+		this.elementComparator = elementComparator == ElementComparator.MAINTAIN_ORDER ? null : elementComparator;
+		this.treeElementComparator = isTreeComparator(this.elementComparator, TreeElementComparator.class,
+				ElementVO.class) ? (TreeElementComparator) elementComparator : null;
+		this.keyedElementComparator = isKeyedComparator(this.treeElementComparator)
+				? (KeyedElementComparator) elementComparator : null;
+		this.attributeComparator = attributeComparator == AttributeComparator.MAINTAIN_ORDER ? null
+				: attributeComparator;
+		this.treeAttributeComparator = isTreeComparator(this.attributeComparator, TreeAttributeComparator.class,
+				ElementAttribute.class) ? (TreeAttributeComparator) attributeComparator : null;
+		if (rules == null || rules.size() == 0) {
+			this.ruleSorters = null;
+		} else {
+			this.ruleSorters = new XMLTreeSorter[rules.size() + 1];
+			for (int rule = 1; rule <= rules.size(); rule++) {
+				ruleSorters[rule] = new XMLTreeSorter(rules.getElementComparator(rule),
+						rules.isSkip(rule) ? AttributeComparator.MAINTAIN_ORDER : attributeComparator);
+			}
+		}
+	}
+
+	/**
+	 * Creates a sorter with the same comparators as another one, but with its own scratch buffers.
+	 * @param parallelThreshold The length above which sibling lists are sorted with fork/join tasks.
+	 */
+	XMLTreeSorter(final XMLTreeSorter prototype, final int parallelThreshold) {
+		this.elementComparator = prototype.elementComparator;
+		this.treeElementComparator = prototype.treeElementComparator;
+		this.keyedElementComparator = prototype.keyedElementComparator;
+		this.attributeComparator = prototype.attributeComparator;
+		this.treeAttributeComparator = prototype.treeAttributeComparator;
+		this.parallelThreshold = parallelThreshold;
+		if (prototype.ruleSorters == null) {
+			this.ruleSorters = null;
+		} else {
+			this.ruleSorters = new XMLTreeSorter[prototype.ruleSorters.length];
+			for (int rule = 1; rule < ruleSorters.length; rule++)
+				ruleSorters[rule] = new XMLTreeSorter(prototype.ruleSorters[rule], parallelThreshold);
+		}
+	}
+
+	/**
+	 * Get the sorter for the child elements and attributes of an element, which is this sorter unless
+	 * a rule applies to the element.
+	 */
+	XMLTreeSorter forElement(final XMLTree tree, final int element) {
+		if (ruleSorters != null) {
+			final int rule = tree.getRule(element);
+			if (rule != 0)
+				return ruleSorters[rule];
+		}
+		return this;
+	}
+
+	/**
+	 * Sorts the child elements of an element.
+	 */
+	void sortChildren(final XMLTree tree, final int element) {
+		if (ruleSorters != null && tree.getRule(element) != 0) {
+			forElement(tree, element).sortChildren(tree, element);
+			return;
+		}
+		if (elementComparator == null)
+			return;
+		final int n = tree.getChildCount(element);
+		if (n < 2)
+			return;
+		ensureCapacity(n);
+		tree.collectChildren(element, buffer);
+		if (keyedElementComparator != null) {
+			final byte[][] keys = new byte[n][];
+			final int[] children = Arrays.copyOf(buffer, n);
+			if (n > parallelThreshold) {
+				new SortKeys(tree, children, keys, 0, n).invoke();
+			} else {
+				for (int i = 0; i < n; i++)
+					keys[i] = sortKey(tree, children[i]);
+			}
+			for (int i = 0; i < n; i++)
+				buffer[i] = i;
+			sort(n, (a, b) -> SortKeyBuilder.compare(keys[a], keys[b]));
+			for (int i = 0; i < n; i++)
+				buffer[i] = children[buffer[i]];
+		} else if (treeElementComparator != null) {
+			final TreeElementComparator c = treeElementComparator;
+			sort(n, (a, b) -> c.compare(tree, a, b));
+		} else {
+			final ElementVO[] views = new ElementVO[n];
+			for (int i = 0; i < n; i++) {
+				views[i] = new ElementVO(tree, buffer[i]);
+				buffer[i] = i;
+			}
+			final Comparator<ElementVO> c = elementComparator;
+			sort(n, (a, b) -> c.compare(views[a], views[b]));
+			for (int i = 0; i < n; i++)
+				buffer[i] = views[buffer[i]].getIndex();
+		}
+		tree.setChildren(element, buffer, n);
+	}
+
+	private void sort(final int n, final Util.IntComparator c) {
+		if (n > parallelThreshold)
+			Util.parallelSort(buffer, 0, n, scratch, c, parallelThreshold);
+		else
+			Util.sort(buffer, 0, n, scratch, c);
+	}
+
+	/**
+	 * Determines whether elements are compared by precomputed sort keys.
+	 */
+	boolean hasSortKeys() {
+		return keyedElementComparator != null;
+	}
+
+	/**
+	 * Determines whether this sorter and the sorters of its rules either keep the order of elements or sort them
+	 * with {@link ElementComparator}, whose sort keys only depend on the name and attributes of each element, so
+	 * that sibling elements can be compared without their content or child elements.
+	 */
+	boolean comparesNamesOnly() {
+		if (elementComparator != null && !(keyedElementComparator instanceof ElementComparator))
+			return false;
+		if (ruleSorters != null) {
+			for (int rule = 1; rule < ruleSorters.length; rule++) {
+				if (!ruleSorters[rule].comparesNamesOnly())
+					return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Computes the sort key of an element. Only valid if {@link #hasSortKeys()}.
+	 */
+	byte[] sortKey(final XMLTree tree, final int element) {
+		keyedElementComparator.appendSortKey(tree, element, keyBuilder.reset());
+		return keyBuilder.toKey();
+	}
+
+	/**
+	 * Compares two elements of the same tree with the element comparator.
+	 */
+	int compareElements(final XMLTree tree, final int element1, final int element2) {
+		if (elementComparator == null)
+			return 0;
+		if (treeElementComparator != null)
+			return treeElementComparator.compare(tree, element1, element2);
+		return elementComparator.compare(new ElementVO(tree, element1), new ElementVO(tree, element2));
+	}
+
+	/**
+	 * Sorts the attributes of an element.
+	 */
+	void sortAttributes(final XMLTree tree, final int element) {
+		if (ruleSorters != null && tree.getRule(element) != 0) {
+			forElement(tree, element).sortAttributes(tree, element);
+			return;
+		}
+		if (attributeComparator == null)
+			return;
+		final int n = tree.getAttributeCount(element);
+		if (n < 2)
+			return;
+		final int first = tree.getFirstAttribute(element);
+		ensureCapacity(2 * n);
+		for (int i = 0; i < n; i++)
+			buffer[i] = first + i;
+		if (treeAttributeComparator != null) {
+			final TreeAttributeComparator c = treeAttributeComparator;
+			Util.sort(buffer, 0, n, scratch, (a, b) -> c.compare(tree, a, b));
+		} else {
+			final ElementAttribute[] views = new ElementAttribute[n];
+			for (int i = 0; i < n; i++)
+				views[i] = new ElementAttribute(tree.getAttributeName(first + i), tree.getAttributeValue(first + i));
+			final Comparator<ElementAttribute> c = attributeComparator;
+			Util.sort(buffer, 0, n, scratch, (a, b) -> c.compare(views[a - first], views[b - first]));
+		}
+		tree.setAttributeOrder(element, buffer, scratch);
+	}
+
+	private void ensureCapacity(final int n) {
+		if (buffer.length < n) {
+			final int capacity = Math.max(n, buffer.length * 2);
+			buffer = Arrays.copyOf(buffer, capacity);
+			scratch = new int[capacity];
+		}
+	}
+
+	/**
+	 * Computes the sort keys of a range of children with fork/join tasks, each using its own key builder.
+	 */
+	private final class SortKeys extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final XMLTree tree;
+		private final int[] children;
+		private final byte[][] keys;
+		private final int from, to;
+
+		SortKeys(final XMLTree tree, final int[] children, final byte[][] keys, final int from, final int to) {
+			this.tree = tree;
+			this.children = children;
+			this.keys = keys;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= parallelThreshold) {
+				final SortKeyBuilder key = new SortKeyBuilder();
+				for (int i = from; i < to; i++) {
+					keyedElementComparator.appendSortKey(tree, children[i], key.reset());
+					keys[i] = key.toKey();
+				}
+				return;
+			}
+			final int mid = (from + to) >>> 1;
+			invokeAll(new SortKeys(tree, children, keys, from, mid), new SortKeys(tree, children, keys, mid, to));
+		}
+	}
+
+	/**
+	 * Determines whether a tree comparator can be replaced by its sort keys: it must implement
+	 * {@link KeyedElementComparator}, and must not override {@link TreeElementComparator#compare(XMLTree, int, int)}
+	 * in a subclass of the class that implements the key method.
+	 */
+	private static boolean isKeyedComparator(final TreeElementComparator comparator) {
+		if (!(comparator instanceof KeyedElementComparator))
+			return false;
+		try {
+			final Class<?> type = comparator.getClass();
+			final Class<?> treeMethodOwner = type.getMethod("compare", XMLTree.class, int.class, int.class)
+					.getDeclaringClass();
+			final Class<?> keyMethodOwner = type
+					.getMethod("appendSortKey", XMLTree.class, int.class, SortKeyBuilder.class).getDeclaringClass();
+			return treeMethodOwner.isAssignableFrom(keyMethodOwner);
+		} catch (NoSuchMethodException e) {
+			return true;
+		}
+	}
+
+	/**
+	 * Determines whether a comparator should be run against the tree: it must implement the tree comparator
+	 * interface, and must not override its {@link Comparator} method in a subclass of the class that implements
+	 * the tree method (as a subclass of {@link ElementComparator} that only overrides
+	 * {@link ElementComparator#compare(ElementVO, ElementVO)} would).
+	 */
+	private static boolean isTreeComparator(final Object comparator, final Class<?> treeType,
+			final Class<?> valueType) {
+		if (!treeType.isInstance(comparator))
+			return false;
+		try {
+			final Class<?> type = comparator.getClass();
+			final Class<?> treeMethodOwner = type.getMethod("compare", XMLTree.class, int.class, int.class)
+					.getDeclaringClass();
+			final Class<?> valueMethodOwner = type.getMethod("compare", valueType, valueType).getDeclaringClass();
+			return valueMethodOwner.isAssignableFrom(treeMethodOwner);
+		} catch (NoSuchMethodException e) {
+			return true;
+		}
+	}
+}
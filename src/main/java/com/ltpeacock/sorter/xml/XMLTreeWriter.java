@@ -0,0 +1,119 @@
+package com.ltpeacock.sorter.xml;
+
+import static com.ltpeacock.sorter.xml.Util.isBlank;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes the elements of a sorted {@link XMLTree} to an {@link XMLByteWriter}.
+ * <br>
+ * Unless whitespace is preserved, text is normalized in place: each line of a text node is trimmed and written
+ * on its own indented line, and blank lines are dropped.
+ * @author LieutenantPeacock
+ *
+ */
+final class XMLTreeWriter {
+	private final XMLTreeSorter sorter;
+	private final int indent;
+	private final boolean selfClosing;
+	private final boolean preserveWhitespace;
+	private XMLSpillStore spillStore;
+
+	XMLTreeWriter(final XMLTreeSorter sorter, final int indent, final boolean selfClosing,
+			final boolean preserveWhitespace) {
+		this.sorter = sorter;
+		this.indent = indent;
+		this.selfClosing = selfClosing;
+		this.preserveWhitespace = preserveWhitespace;
+	}
+
+	void setSpillStore(final XMLSpillStore spillStore) {
+		this.spillStore = spillStore;
+	}
+
+	/**
+	 * Creates a writer for the given stream with the indentation of this tree writer.
+	 */
+	XMLByteWriter createWriter(final OutputStream out) {
+		return new XMLByteWriter(out, indent);
+	}
+
+	/**
+	 * Writes an element with its attributes, content and descendants.
+	 */
+	void writeElement(final XMLTree tree, final int element, final XMLByteWriter out, final int depth)
+			throws IOException {
+		final char[] chars = tree.getChars();
+		final boolean spilled = spillStore != null && spillStore.hasRuns(element);
+		if (!preserveWhitespace)
+			out.writeIndent(depth);
+		boolean selfClose = selfClosing && tree.getFirstChild(element) == XMLTree.NONE && !spilled;
+		for (int node = tree.getFirstContent(element); node != XMLTree.NONE; node = tree.getNextContent(node)) {
+			if (tree.getContentKind(node) != XMLTree.TEXT
+					|| !isBlank(chars, tree.getContentStart(node), tree.getContentLength(node))) {
+				selfClose = false;
+				break;
+			}
+		}
+		final String name = tree.getName(element);
+		out.writeStartTag(name);
+		sorter.sortAttributes(tree, element);
+		for (int i = tree.getFirstAttribute(element), end = i + tree.getAttributeCount(element); i < end; i++) {
+			out.writeAttribute(tree.getAttributeName(i), tree.getAttributeValue(i));
+		}
+		out.closeStartTag(selfClose);
+		for (int node = tree.getFirstContent(element); node != XMLTree.NONE; node = tree.getNextContent(node)) {
+			final int start = tree.getContentStart(node), length = tree.getContentLength(node);
+			if (tree.getContentKind(node) == XMLTree.TEXT) {
+				if (preserveWhitespace) {
+					out.writeText(chars, start, length);
+				} else if (!isBlank(chars, start, length)) {
+					writeLines(chars, start, start + length, out, depth + 1);
+				}
+			} else if (tree.getContentKind(node) == XMLTree.COMMENT) {
+				out.writeComment(chars, start, length);
+			} else {
+				out.writeCData(chars, start, length);
+			}
+		}
+		if (spilled)
+			spillStore.writeRuns(tree, element, out);
+		for (int child = tree.getFirstChild(element); child != XMLTree.NONE; child = tree.getNextSibling(child)) {
+			writeElement(tree, child, out, depth + 1);
+		}
+		if (!selfClose) {
+			if (!preserveWhitespace)
+				out.writeIndent(depth);
+			out.writeEndTag(name);
+		}
+	}
+
+	/**
+	 * Writes each line of the given text trimmed and on its own line, skipping blank lines.
+	 * Lines are separated by the same characters as {@code \R} in a regular expression.
+	 */
+	static void writeLines(final char[] chars, final int start, final int end, final XMLByteWriter out,
+			final int depth) throws IOException {
+		int lineStart = start;
+		while (lineStart < end) {
+			int lineEnd = lineStart;
+			while (lineEnd < end && !isLineBreak(chars[lineEnd]))
+				lineEnd++;
+			int from = lineStart, to = lineEnd;
+			while (from < to && chars[from] <= ' ')
+				from++;
+			while (to > from && chars[to - 1] <= ' ')
+				to--;
+			if (from < to) {
+				out.writeIndent(depth);
+				out.writeText(chars, from, to - from);
+			}
+			lineStart = lineEnd + 1;
+		}
+	}
+
+	private static boolean isLineBreak(final char c) {
+		return c >= '\n' && c <= '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+	}
+}
@@ -0,0 +1,215 @@
+package com.ltpeacock.sorter.yaml;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import org.yaml.snakeyaml.nodes.MappingNode;
+import org.yaml.snakeyaml.nodes.Node;
+import org.yaml.snakeyaml.nodes.NodeTuple;
+import org.yaml.snakeyaml.nodes.SequenceNode;
+
+import com.ltpeacock.sorter.ContentSorter;
+
+/**
+ * <p>Engine for sorting OpenAPI YAML.</p>
+ * The sections are ordered as by {@link com.ltpeacock.sorter.json.SortOpenApiJSONEngine SortOpenApiJSONEngine}:
+ * {@code openapi}, {@code info}, {@code servers}, {@code paths} and {@code components} come first, the entries of
+ * {@code paths} are sorted by path, the {@code responses} of each operation by code, the sections of
+ * {@code components} and their entries by name, and each server starts with its {@code url} and
+ * {@code description}. Sorting is performed on SnakeYAML's node tree, as by {@link SortYAMLEngine}, so comments,
+ * scalar styles and tags are preserved and nothing else is moved; unlike the JSON engine, no sections or keys are
+ * left out.
+ * @author LieutenantPeacock
+ *
+ */
+public class SortOpenApiYAMLEngine implements ContentSorter {
+	private static final List<String> ROOT_ORDER = Arrays.asList("openapi", "info", "servers", "paths",
+			"components");
+	private static final List<String> SERVER_ORDER = Arrays.asList("url", "description");
+	private static final Comparator<NodeTuple> NAME_ORDER = Comparator
+			.comparing(tuple -> SortYAMLEngine.keyText(tuple.getKeyNode()));
+	/** The number of {@code responses} mappings sorted by one task. */
+	private static final int RESPONSES_PER_TASK = 64;
+	private int indent = 2;
+	private ForkJoinPool forkJoinPool;
+	private int parallelism = 1;
+	private final YAMLLimits limits = new YAMLLimits();
+
+	/**
+	 * Sorts the OpenAPI YAML from an {@link InputStream} and prints the result to the given {@link OutputStream}.
+	 * Each document in the stream is sorted independently.
+	 * @param is The InputStream to read the OpenAPI YAML file from.
+	 * @param os The OutputStream to write the sorted YAML to.
+	 * @throws IOException If there is an error in reading/writing data.
+	 */
+	@Override
+	public void sort(final InputStream is, final OutputStream os) throws IOException {
+		final ForkJoinPool pool = forkJoinPool != null ? forkJoinPool
+				: parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+		try {
+			SortYAMLEngine.sortDocuments(is, os, indent, limits.loaderOptions(), document -> sort(document, pool));
+		} finally {
+			if (pool != null && pool != forkJoinPool)
+				pool.shutdown();
+		}
+	}
+
+	/**
+	 * Sorts an OpenAPI document in place, in parallel if a pool or a parallelism level is set. Nodes other than
+	 * mappings are left unchanged.
+	 * @param node The root node of the document.
+	 */
+	public void sort(final Node node) {
+		final ForkJoinPool pool = forkJoinPool != null ? forkJoinPool
+				: parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+		try {
+			sort(node, pool);
+		} finally {
+			if (pool != null && pool != forkJoinPool)
+				pool.shutdown();
+		}
+	}
+
+	private void sort(final Node node, final ForkJoinPool pool) {
+		if (!(node instanceof MappingNode))
+			return;
+		final MappingNode root = (MappingNode) node;
+		root.setValue(orderFirst(root.getValue(), ROOT_ORDER));
+		// Aliases can make several parts of the spec share one mapping, which must only be sorted by one task
+		final Set<MappingNode> targets = Collections.newSetFromMap(new IdentityHashMap<>());
+		final List<MappingNode> responses = new ArrayList<>();
+		final List<Runnable> tasks = new ArrayList<>();
+		for (final NodeTuple tuple : root.getValue()) {
+			final String key = SortYAMLEngine.keyText(tuple.getKeyNode());
+			final Node value = tuple.getValueNode();
+			if ("servers".equals(key) && value instanceof SequenceNode) {
+				for (final Node server : ((SequenceNode) value).getValue()) {
+					if (server instanceof MappingNode)
+						((MappingNode) server).setValue(orderFirst(((MappingNode) server).getValue(), SERVER_ORDER));
+				}
+			} else if ("paths".equals(key) && value instanceof MappingNode) {
+				final MappingNode paths = (MappingNode) value;
+				paths.getValue().sort(NAME_ORDER);
+				for (final NodeTuple item : paths.getValue())
+					findResponses(item.getValueNode(), targets, responses);
+			} else if ("components".equals(key) && value instanceof MappingNode) {
+				final MappingNode components = (MappingNode) value;
+				components.getValue().sort(NAME_ORDER);
+				for (final NodeTuple section : components.getValue()) {
+					final Node entries = section.getValueNode();
+					if (entries instanceof MappingNode && targets.add((MappingNode) entries))
+						tasks.add(() -> ((MappingNode) entries).getValue().sort(NAME_ORDER));
+				}
+			}
+		}
+		for (int from = 0; from < responses.size(); from += RESPONSES_PER_TASK) {
+			final List<MappingNode> chunk = responses.subList(from,
+					Math.min(responses.size(), from + RESPONSES_PER_TASK));
+			tasks.add(() -> chunk.forEach(mapping -> mapping.getValue().sort(NAME_ORDER)));
+		}
+		run(tasks, pool);
+	}
+
+	/**
+	 * Runs independent tasks, each of which sorts a different part of the document, on the pool if there is one.
+	 */
+	private static void run(final List<Runnable> tasks, final ForkJoinPool pool) {
+		if (pool == null || tasks.size() < 2) {
+			tasks.forEach(Runnable::run);
+			return;
+		}
+		final List<ForkJoinTask<?>> forks = new ArrayList<>(tasks.size());
+		for (final Runnable task : tasks)
+			forks.add(pool.submit(task));
+		for (final ForkJoinTask<?> fork : forks)
+			fork.join();
+	}
+
+	/**
+	 * Adds the {@code responses} of each operation of a path item that are not sorted by another task yet.
+	 */
+	private static void findResponses(final Node pathItem, final Set<MappingNode> targets,
+			final List<MappingNode> responses) {
+		if (!(pathItem instanceof MappingNode))
+			return;
+		for (final NodeTuple operation : ((MappingNode) pathItem).getValue()) {
+			if (!(operation.getValueNode() instanceof MappingNode))
+				continue;
+			for (final NodeTuple tuple : ((MappingNode) operation.getValueNode()).getValue()) {
+				final Node value = tuple.getValueNode();
+				if ("responses".equals(SortYAMLEngine.keyText(tuple.getKeyNode())) && value instanceof MappingNode
+						&& targets.add((MappingNode) value))
+					responses.add((MappingNode) value);
+			}
+		}
+	}
+
+	/**
+	 * Moves the entries with the given keys to the front, in the given order, and keeps the rest in their order.
+	 */
+	private static List<NodeTuple> orderFirst(final List<NodeTuple> tuples, final List<String> keys) {
+		final List<NodeTuple> ordered = new ArrayList<>(tuples.size());
+		for (final String key : keys) {
+			for (final NodeTuple tuple : tuples) {
+				if (key.equals(SortYAMLEngine.keyText(tuple.getKeyNode())))
+					ordered.add(tuple);
+			}
+		}
+		for (final NodeTuple tuple : tuples) {
+			if (!keys.contains(SortYAMLEngine.keyText(tuple.getKeyNode())))
+				ordered.add(tuple);
+		}
+		return ordered;
+	}
+
+	/**
+	 * Set the amount of indent used when outputting the YAML. The default is {@code 2}.
+	 * @param indent The number of spaces used for one indent level.
+	 */
+	public void setIndent(final int indent) {
+		this.indent = indent;
+	}
+
+	/**
+	 * Set the {@link ForkJoinPool} used to sort large specs in parallel. The sections of {@code components} and
+	 * chunks of {@code paths} are then sorted concurrently, and the output is the same as with sequential
+	 * sorting. The default is {@code null}, which sorts on the calling thread unless a parallelism level is set.
+	 * @param forkJoinPool The pool to sort with, e.g. {@link ForkJoinPool#commonPool()}.
+	 * @see #setParallelism(int)
+	 */
+	public void setForkJoinPool(final ForkJoinPool forkJoinPool) {
+		this.forkJoinPool = forkJoinPool;
+	}
+
+	/**
+	 * Set the number of threads used to sort large specs in parallel, when no {@link ForkJoinPool} is set.
+	 * A new pool with this parallelism is created for each input and shut down afterwards.
+	 * The default is {@code 1}, which sorts on the calling thread.
+	 * @param parallelism The number of threads to sort with.
+	 * @see #setForkJoinPool(ForkJoinPool)
+	 */
+	public void setParallelism(final int parallelism) {
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Set the largest number of code points in one document of the input, after which reading it fails with a
+	 * {@link org.yaml.snakeyaml.error.YAMLException YAMLException}. The default is SnakeYAML's, 3145728, which is
+	 * 3 MB.
+	 * @param codePointLimit The largest number of code points in one document.
+	 * @see SortYAMLEngine#setCodePointLimit(int)
+	 */
+	public void setCodePointLimit(final int codePointLimit) {
+		limits.setCodePointLimit(codePointLimit);
+	}
+}
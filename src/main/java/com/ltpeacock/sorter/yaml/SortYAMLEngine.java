@@ -1,5 +1,6 @@
 package com.ltpeacock.sorter.yaml;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -7,42 +8,72 @@ import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.Writer;
+import java.math.BigDecimal;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
 
 import org.yaml.snakeyaml.DumperOptions;
 import org.yaml.snakeyaml.LoaderOptions;
 import org.yaml.snakeyaml.Yaml;
 import org.yaml.snakeyaml.emitter.Emitter;
+import org.yaml.snakeyaml.error.YAMLException;
+import org.yaml.snakeyaml.events.DocumentStartEvent;
 import org.yaml.snakeyaml.nodes.MappingNode;
 import org.yaml.snakeyaml.nodes.Node;
 import org.yaml.snakeyaml.nodes.NodeTuple;
 import org.yaml.snakeyaml.nodes.ScalarNode;
 import org.yaml.snakeyaml.nodes.SequenceNode;
+import org.yaml.snakeyaml.nodes.Tag;
 import org.yaml.snakeyaml.resolver.Resolver;
 import org.yaml.snakeyaml.serializer.Serializer;
 
+import com.ltpeacock.sorter.ArraySortRules;
 import com.ltpeacock.sorter.ContentSorter;
+import com.ltpeacock.sorter.OrderedTaskWriter;
+import com.ltpeacock.sorter.SortPermutationCache;
+import com.ltpeacock.sorter.SortedInputMatcher;
 
 /**
  * <p>Engine for sorting YAML by key.</p>
  * Sorting is performed on SnakeYAML's node tree rather than the loaded object graph, which preserves
  * comments, scalar styles and tags so that the output differs from the input only in key order.
+ * A collection that several aliases refer to is sorted once, where it is first reached. An anchor that is defined
+ * again for another node is renamed, so that its aliases still refer to the same nodes once they are reordered.
+ * <br>
+ * With the default comparator, and without array sort rules or a limit on nodes, input is checked for being sorted
+ * with the events of {@link StreamingSortYAMLEngine}, without composing a node tree, up to the first anchor or
+ * alias, and input that is already sorted is copied to the output as it is.
  * @author LieutenantPeacock
  *
  */
 public class SortYAMLEngine implements ContentSorter {
+	private static final Set<String> BOOLEAN_TRUE = new HashSet<>(Arrays.asList("true", "yes", "y", "on"));
+	private static final Comparator<Node> KEY_TEXT_ORDER = Comparator.comparing(SortYAMLEngine::keyText);
 	private final Comparator<Node> keyComparator;
+	private final Comparator<NodeTuple> tupleComparator;
 	private boolean recursive = true;
 	private int indent = 2;
+	private SortPermutationCache permutationCache = new SortPermutationCache();
+	private ArraySortRules arraySortRules;
+	private ForkJoinPool forkJoinPool;
+	private int parallelism = 1;
+	private final YAMLLimits limits = new YAMLLimits();
+	private boolean checkSorted = true;
 
 	/**
 	 * Constructs a {@code SortYAMLEngine} that sorts the keys in lexicographical order.
 	 */
 	public SortYAMLEngine() {
-		this(Comparator.comparing(SortYAMLEngine::keyText));
+		this(KEY_TEXT_ORDER);
 	}
 
 	/**
@@ -53,6 +84,7 @@ public class SortYAMLEngine implements ContentSorter {
 	 */
 	public SortYAMLEngine(final Comparator<Node> keyComparator) {
 		this.keyComparator = keyComparator;
+		this.tupleComparator = Comparator.comparing(NodeTuple::getKeyNode, keyComparator);
 	}
 
 	/**
@@ -64,24 +96,146 @@ public class SortYAMLEngine implements ContentSorter {
 	 */
 	@Override
 	public void sort(final InputStream is, final OutputStream os) throws IOException {
-		final LoaderOptions loaderOptions = new LoaderOptions();
-		loaderOptions.setProcessComments(true);
+		InputStream input = is;
+		if (checkSorted && checksEvents()) {
+			input = SortedInputMatcher.copyIfSorted(is, os, in -> checkEvents(in) == Boolean.TRUE);
+			if (input == null)
+				return;
+		}
+		final ForkJoinPool pool = forkJoinPool != null ? forkJoinPool
+				: parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+		try {
+			// Two documents per thread keep every thread busy while the oldest document is written
+			sortDocuments(input, os, indent, limits.loaderOptions(), this::sort, pool,
+					pool == null ? 1 : 2 * pool.getParallelism());
+		} finally {
+			if (pool != null && pool != forkJoinPool)
+				pool.shutdown();
+		}
+	}
+
+	/**
+	 * Checks whether the YAML is already sorted and formatted as this engine would write it. With the default
+	 * comparator, and without array sort rules or a limit on nodes, the events of input that can be read twice are
+	 * checked as by {@link StreamingSortYAMLEngine#isSorted(InputStream)} first, without composing a node tree,
+	 * stopping at the first key that is out of order. Only if there is an anchor or alias is the input sorted
+	 * against itself, as it is otherwise.
+	 * @param is The InputStream to read the YAML stream from.
+	 * @return Whether sorting the YAML would write exactly the same bytes.
+	 * @throws IOException If there is an error in reading data.
+	 */
+	@Override
+	public boolean isSorted(final InputStream is) throws IOException {
+		if (checksEvents() && SortedInputMatcher.markIfRereadable(is)) {
+			final Boolean sorted = checkEvents(is);
+			if (sorted != null)
+				return sorted;
+			is.reset();
+		}
+		return ContentSorter.super.isSorted(is);
+	}
+
+	/**
+	 * Determines whether the output is the same as that of {@link StreamingSortYAMLEngine} for documents without
+	 * anchors, which is when the keys are ordered by their text and the items of sequences keep their order. The
+	 * streaming engine counts more nodes, so there must be no limit on nodes.
+	 */
+	private boolean checksEvents() {
+		return keyComparator == KEY_TEXT_ORDER && arraySortRules == null && !limits.limitsNodes();
+	}
+
+	/**
+	 * Checks the events of the input up to the first anchor or alias.
+	 * @return Whether the input is sorted, or {@code null} if it has an anchor or alias.
+	 */
+	private Boolean checkEvents(final InputStream is) throws IOException {
+		final StreamingSortYAMLEngine checker = new StreamingSortYAMLEngine(null, limits);
+		checker.setIndent(indent);
+		checker.setRecursive(recursive);
+		return checker.check(is, true);
+	}
+
+	/**
+	 * Reads each document of a YAML stream as a node tree with its comments, sorts it in place and writes it.
+	 * @param loaderOptions The options for reading the stream.
+	 * @param sorter Sorts the root node of each document.
+	 */
+	static void sortDocuments(final InputStream is, final OutputStream os, final int indent,
+			final LoaderOptions loaderOptions, final Consumer<Node> sorter) throws IOException {
+		sortDocuments(is, os, indent, loaderOptions, sorter, null, 1);
+	}
+
+	/**
+	 * Reads each document of a YAML stream as a node tree with its comments, sorts it in place and writes it.
+	 * With a pool, the documents are read on the calling thread while the documents read before them are sorted
+	 * and written into buffers on the pool, and the buffers are written out in the order of the documents.
+	 * @param loaderOptions The options for reading the stream.
+	 * @param sorter Sorts the root node of each document. It is called from several threads at once when there
+	 * is a pool.
+	 * @param pool The pool to sort documents on, or {@code null} to sort them on the calling thread.
+	 * @param window The largest number of documents being sorted while the oldest one is waited for.
+	 */
+	static void sortDocuments(final InputStream is, final OutputStream os, final int indent,
+			final LoaderOptions loaderOptions, final Consumer<Node> sorter, final ForkJoinPool pool, final int window)
+			throws IOException {
+		final Yaml loader = new Yaml(loaderOptions);
+		final Reader reader = new InputStreamReader(is, StandardCharsets.UTF_8);
+		if (pool == null) {
+			final Writer writer = new OutputStreamWriter(os, StandardCharsets.UTF_8);
+			final DumperOptions dumperOptions = dumperOptions(indent, false);
+			final Serializer serializer = new Serializer(new Emitter(writer, dumperOptions), new Resolver(),
+					dumperOptions, null);
+			serializer.open();
+			for (final Node document : loader.composeAll(reader)) {
+				YAMLAnchorNames.rename(document);
+				sorter.accept(document);
+				serializer.serialize(document);
+			}
+			serializer.close();
+			writer.flush();
+			return;
+		}
+		// An emitter writes "---" before every document but the first, which is the same as an explicit start
+		final DumperOptions first = dumperOptions(indent, false), next = dumperOptions(indent, true);
+		final Iterator<Node> documents = loader.composeAll(reader).iterator();
+		try (OrderedTaskWriter tasks = new OrderedTaskWriter(os, pool, window)) {
+			boolean firstDocument = true;
+			while (documents.hasNext()) {
+				final Node document = documents.next();
+				final DumperOptions dumperOptions = firstDocument ? first : next;
+				// Only the end of the stream writes "..." after a document that could otherwise run on
+				final boolean last = !documents.hasNext();
+				firstDocument = false;
+				tasks.submit(() -> {
+					YAMLAnchorNames.rename(document);
+					sorter.accept(document);
+					final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+					final Writer writer = new OutputStreamWriter(buffer, StandardCharsets.UTF_8);
+					final Emitter emitter = new Emitter(writer, dumperOptions);
+					final Serializer serializer = new Serializer(emitter, new Resolver(), dumperOptions, null);
+					serializer.open();
+					serializer.serialize(document);
+					if (last)
+						serializer.close();
+					else
+						// The emitter holds back the end of a document until it sees the start of the next one
+						emitter.emit(new DocumentStartEvent(null, null, false, null, null));
+					writer.flush();
+					return buffer;
+				});
+			}
+			tasks.drain();
+		}
+		os.flush();
+	}
+
+	private static DumperOptions dumperOptions(final int indent, final boolean explicitStart) {
 		final DumperOptions dumperOptions = new DumperOptions();
 		dumperOptions.setIndent(indent);
 		dumperOptions.setProcessComments(true);
 		dumperOptions.setAnchorGenerator(Node::getAnchor);
-		final Yaml loader = new Yaml(loaderOptions);
-		final Reader reader = new InputStreamReader(is, StandardCharsets.UTF_8);
-		final Writer writer = new OutputStreamWriter(os, StandardCharsets.UTF_8);
-		final Serializer serializer = new Serializer(new Emitter(writer, dumperOptions), new Resolver(),
-				dumperOptions, null);
-		serializer.open();
-		for (final Node document : loader.composeAll(reader)) {
-			sort(document);
-			serializer.serialize(document);
-		}
-		serializer.close();
-		writer.flush();
+		dumperOptions.setExplicitStart(explicitStart);
+		return dumperOptions;
 	}
 
 	/**
@@ -91,34 +245,151 @@ public class SortYAMLEngine implements ContentSorter {
 	 * @param node The node to sort.
 	 */
 	public void sort(final Node node) {
+		final YAMLTraversal traversal = new YAMLTraversal(limits.newCounter());
+		// With the default comparator, the text of each key is taken once and compared as a string
+		final YAMLKeySorter keySorter = keyComparator == KEY_TEXT_ORDER ? new YAMLKeySorter(permutationCache) : null;
+		sort(node, true, arraySortRules == null ? null : new ArrayList<>(), keySorter, traversal);
+	}
+
+	/**
+	 * Sorts a node in place.
+	 * @param sort Whether the keys of the node are sorted if it is a mapping.
+	 * @param path The path of the node, which is only followed when there are array sort rules, or {@code null}.
+	 * @param keySorter The sorter for the default order, or {@code null} to sort with the comparator.
+	 * @param traversal The nodes reached so far, of which collections are not sorted again.
+	 */
+	private void sort(final Node node, final boolean sort, final List<String> path, final YAMLKeySorter keySorter,
+			final YAMLTraversal traversal) {
+		if (!traversal.enter(node))
+			return;
 		if (node instanceof MappingNode) {
-			sortMapping((MappingNode) node);
+			sortMapping((MappingNode) node, sort, path, keySorter, traversal);
 		} else if (node instanceof SequenceNode) {
-			sortSequence((SequenceNode) node);
+			sortSequence((SequenceNode) node, sort, path, keySorter, traversal);
 		}
 	}
 
-	private void sortMapping(final MappingNode node) {
-		final List<NodeTuple> tuples = new ArrayList<>(node.getValue());
-		tuples.sort(Comparator.comparing(NodeTuple::getKeyNode, keyComparator));
-		node.setValue(tuples);
-		if (recursive) {
+	/**
+	 * Sorts the entries of a mapping in place, without copying them into a new list.
+	 */
+	private void sortMapping(final MappingNode node, final boolean sort, final List<String> path,
+			final YAMLKeySorter keySorter, final YAMLTraversal traversal) {
+		final List<NodeTuple> tuples = node.getValue();
+		if (sort) {
+			if (keySorter != null)
+				keySorter.sort(tuples, traversal::keyText);
+			else
+				tuples.sort(tupleComparator);
+		}
+		if (sort && recursive || path != null) {
 			for (final NodeTuple tuple : tuples) {
-				sort(tuple.getValueNode());
+				if (path != null)
+					path.add(traversal.keyText(tuple.getKeyNode()));
+				sort(tuple.getValueNode(), sort && recursive, path, keySorter, traversal);
+				if (path != null)
+					path.remove(path.size() - 1);
+			}
+		}
+	}
+
+	private void sortSequence(final SequenceNode node, final boolean sort, final List<String> path,
+			final YAMLKeySorter keySorter, final YAMLTraversal traversal) {
+		final List<Node> items = node.getValue();
+		final int[] order = path == null ? null : sortItems(items, path);
+		if (order != null) {
+			final List<Node> sorted = new ArrayList<>(items.size());
+			for (final int index : order)
+				sorted.add(items.get(index));
+			items.clear();
+			items.addAll(sorted);
+		}
+		if (sort && recursive || path != null) {
+			final List<Node> values = items;
+			for (int i = 0; i < values.size(); i++) {
+				if (path != null)
+					path.add(Integer.toString(order == null ? i : order[i]));
+				sort(values.get(i), sort && recursive, path, keySorter, traversal);
+				if (path != null)
+					path.remove(path.size() - 1);
 			}
 		}
 	}
 
-	private void sortSequence(final SequenceNode node) {
-		if (recursive) {
-			for (final Node item : node.getValue()) {
-				sort(item);
+	/**
+	 * Get the order of the items of a sequence by the array sort rule for its path.
+	 * @return The original indexes of the items in sorted order, or {@code null} if no rule applies.
+	 */
+	private int[] sortItems(final List<Node> items, final List<String> path) {
+		return arraySortRules.order(path, items.size(), (item, keyPath) -> key(items.get(item), keyPath));
+	}
+
+	/**
+	 * Get the sort key of the node at a key path inside an item.
+	 */
+	private static Object key(final Node item, final List<String> keyPath) {
+		Node node = item;
+		for (final String segment : keyPath) {
+			Node next = null;
+			if (node instanceof MappingNode) {
+				for (final NodeTuple tuple : ((MappingNode) node).getValue()) {
+					if (segment.equals(keyText(tuple.getKeyNode())))
+						next = tuple.getValueNode();
+				}
+			} else if (node instanceof SequenceNode) {
+				final List<Node> values = ((SequenceNode) node).getValue();
+				try {
+					final int index = Integer.parseInt(segment);
+					if (index >= 0 && index < values.size())
+						next = values.get(index);
+				} catch (NumberFormatException e) {
+					// Not an index, so there is no such item
+				}
 			}
+			if (next == null)
+				return null;
+			node = next;
 		}
+		return key(node);
+	}
+
+	/**
+	 * Get the sort key of a scalar, as described by {@link ArraySortRules}, from its resolved tag.
+	 */
+	private static Object key(final Node node) {
+		if (!(node instanceof ScalarNode))
+			return null;
+		final String value = ((ScalarNode) node).getValue();
+		final Tag tag = node.getTag();
+		if (Tag.INT.equals(tag) || Tag.FLOAT.equals(tag))
+			return numberKey(value.replace("_", ""));
+		if (Tag.BOOL.equals(tag))
+			return BOOLEAN_TRUE.contains(value.toLowerCase(Locale.ROOT));
+		if (Tag.NULL.equals(tag))
+			return null;
+		return value;
 	}
 
-	private static String keyText(final Node node) {
-		return node instanceof ScalarNode ? ((ScalarNode) node).getValue() : node.toString();
+	/**
+	 * Converts the text of a number to a key: a {@link BigDecimal}, or the text itself for numbers that have no
+	 * decimal form, such as {@code .inf} or {@code 0x1F}.
+	 */
+	private static Object numberKey(final String text) {
+		try {
+			return new BigDecimal(text);
+		} catch (NumberFormatException e) {
+			return text;
+		}
+	}
+
+	/**
+	 * Get the text of a key. A key that is a sequence or a mapping is written in flow style from the values of its
+	 * scalars, such as {@code [a, b]} or {@code {x: 1}}, so that it does not depend on where the key is or on the
+	 * identity of its nodes, and an alias to a node that contains it is written as {@code *}.
+	 */
+	static String keyText(final Node node) {
+		if (node instanceof ScalarNode)
+			return ((ScalarNode) node).getValue();
+		return new YAMLTraversal(new YAMLLimits.Counter(0, 0)).keyText(node);
 	}
 
 	/**
@@ -140,4 +411,109 @@ public class SortYAMLEngine implements ContentSorter {
 	public void setIndent(final int indent) {
 		this.indent = indent;
 	}
+
+	/**
+	 * Set the cache of sort permutations, which sorts mappings with the same keys in the same order as a
+	 * mapping sorted before without comparing their keys again. It is only used with the default comparator.
+	 * By default, each engine has its own cache with the default capacity.
+	 * @param permutationCache The cache, or {@code null} to sort the keys of every mapping.
+	 */
+	public void setPermutationCache(final SortPermutationCache permutationCache) {
+		this.permutationCache = permutationCache;
+	}
+
+	/**
+	 * Get the cache of sort permutations, whose counters show how many of the mappings that were out of order had
+	 * a known shape.
+	 * @return The cache, or {@code null} if there is none.
+	 */
+	public SortPermutationCache getPermutationCache() {
+		return permutationCache;
+	}
+
+	/**
+	 * Set the rules for ordering the items of sequences, which otherwise keep their original order. Scalars are
+	 * compared by the type of their resolved tag, so {@code 10} sorts after {@code 9} but {@code "10"} does not.
+	 * The rules apply to every sequence, whether or not the sorting is recursive.
+	 * The default is {@code null}, which keeps the order of all sequences.
+	 * @param arraySortRules The rules for ordering sequences.
+	 */
+	public void setArraySortRules(final ArraySortRules arraySortRules) {
+		this.arraySortRules = arraySortRules;
+	}
+
+	/**
+	 * Set the {@link ForkJoinPool} used to sort the documents of a multi-document stream in parallel. Documents are
+	 * read on the calling thread while up to two documents per thread of the pool are sorted and written into
+	 * buffers, and the output is the same as with sequential sorting. The comparator must be safe to call from
+	 * several threads at once.
+	 * The default is {@code null}, which sorts on the calling thread unless a parallelism level is set.
+	 * @param forkJoinPool The pool to sort with, e.g. {@link ForkJoinPool#commonPool()}.
+	 */
+	public void setForkJoinPool(final ForkJoinPool forkJoinPool) {
+		this.forkJoinPool = forkJoinPool;
+	}
+
+	/**
+	 * Set the number of threads used to sort documents in parallel when no {@link ForkJoinPool} is set. A new pool
+	 * with this parallelism is created for each input and shut down afterwards. The default is {@code 1}, which
+	 * sorts on the calling thread.
+	 * @param parallelism The number of threads to sort with.
+	 * @see #setForkJoinPool(ForkJoinPool)
+	 */
+	public void setParallelism(final int parallelism) {
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Set the largest number of nodes visited while sorting one document, counting the nodes walked through to
+	 * get the text of complex keys, after which sorting fails with a {@link YAMLException}. Each collection is
+	 * sorted only once, however many aliases refer to it, so the number of nodes is at most about the size of the
+	 * document unless it has complex keys built from aliases.
+	 * The default is {@code 0}, which sets no limit.
+	 * @param maxNodes The largest number of nodes, or {@code 0} for no limit.
+	 */
+	public void setMaxNodes(final long maxNodes) {
+		limits.setMaxNodes(maxNodes);
+	}
+
+	/**
+	 * Set the largest number of alias expansions while sorting one document, after which sorting fails with a
+	 * {@link YAMLException}. An alias is expanded each time sorting reaches a collection that it has reached
+	 * before, which is then not sorted again. The text of each collection within complex keys is written once and
+	 * reused for other aliases to it; only a collection that contains an alias to a collection around it is walked
+	 * through again, which also counts as an alias expansion. Regardless of this limit, the text of one key can be
+	 * at most 16777216 characters long, as it can grow exponentially with the number of nested aliases, as in a
+	 * "billion laughs" document.
+	 * The default is {@code 100000}.
+	 * @param maxAliasExpansions The largest number of alias expansions, or {@code 0} for no limit.
+	 */
+	public void setMaxAliasExpansions(final long maxAliasExpansions) {
+		limits.setMaxAliasExpansions(maxAliasExpansions);
+	}
+
+	/**
+	 * Set the largest number of code points, which are characters other than surrogate pairs, in one document of
+	 * the input, after which reading it fails with a {@link YAMLException}. Generated files, such as large specs,
+	 * can be beyond the default, which should only be raised for input that is trusted not to exhaust memory.
+	 * The default is SnakeYAML's, 3145728, which is 3 MB.
+	 * @param codePointLimit The largest number of code points in one document.
+	 */
+	public void setCodePointLimit(final int codePointLimit) {
+		limits.setCodePointLimit(codePointLimit);
+	}
+
+	/**
+	 * Set whether the input is first checked to be sorted already, in which case it is copied to the output as
+	 * it is. The check is only made with the default comparator, and without array sort rules or a limit on nodes;
+	 * it reads the events of the input without composing a node tree, and gives up at the first anchor or alias.
+	 * Only input that can be read twice without holding it in memory is checked, such as a file sorted through
+	 * {@link #sort(java.nio.file.Path, java.nio.file.Path)}, not standard input. The output is the same either way.
+	 * The default is {@code true}.
+	 * @param checkSorted Whether sorted input is copied as it is.
+	 * @see #isSorted(InputStream)
+	 */
+	public void setCheckSorted(final boolean checkSorted) {
+		this.checkSorted = checkSorted;
+	}
 }
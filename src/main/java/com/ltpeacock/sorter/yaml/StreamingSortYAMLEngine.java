@@ -0,0 +1,604 @@
+package com.ltpeacock.sorter.yaml;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.yaml.snakeyaml.DumperOptions;
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.comments.CommentType;
+import org.yaml.snakeyaml.emitter.Emitable;
+import org.yaml.snakeyaml.emitter.Emitter;
+import org.yaml.snakeyaml.error.YAMLException;
+import org.yaml.snakeyaml.events.AliasEvent;
+import org.yaml.snakeyaml.events.CollectionStartEvent;
+import org.yaml.snakeyaml.events.CommentEvent;
+import org.yaml.snakeyaml.events.DocumentEndEvent;
+import org.yaml.snakeyaml.events.DocumentStartEvent;
+import org.yaml.snakeyaml.events.Event;
+import org.yaml.snakeyaml.events.ImplicitTuple;
+import org.yaml.snakeyaml.events.MappingEndEvent;
+import org.yaml.snakeyaml.events.MappingStartEvent;
+import org.yaml.snakeyaml.events.NodeEvent;
+import org.yaml.snakeyaml.events.ScalarEvent;
+import org.yaml.snakeyaml.events.SequenceEndEvent;
+import org.yaml.snakeyaml.events.SequenceStartEvent;
+import org.yaml.snakeyaml.events.StreamEndEvent;
+import org.yaml.snakeyaml.events.StreamStartEvent;
+import org.yaml.snakeyaml.nodes.NodeId;
+import org.yaml.snakeyaml.nodes.Tag;
+import org.yaml.snakeyaml.resolver.Resolver;
+
+import com.ltpeacock.sorter.ContentSorter;
+import com.ltpeacock.sorter.SortPermutationCache;
+import com.ltpeacock.sorter.SortedInputMatcher;
+
+/**
+ * <p>Engine for sorting YAML by key without reading whole documents into memory.</p>
+ * The input is read as a stream of SnakeYAML parser events rather than composed into a node tree, and each event is
+ * written out as soon as it has been read, except for the entries of mappings, which are buffered until the end of
+ * their mapping so that they can be reordered. The items of sequences, including a top-level sequence, are written
+ * one by one as they are read. The buffered entries of a mapping are held in a compact encoding, and are moved to a
+ * temporary file when they grow beyond the memory budget.
+ * <br>
+ * The output is the same as that of {@link SortYAMLEngine} with the default comparator, indent and recursive setting:
+ * comments move with the keys they precede, and scalar styles, flow styles, tags and anchors are kept. If an alias
+ * would come before its anchor in the new order, the anchored node is written at the alias instead. Unlike
+ * {@link SortYAMLEngine}, anchors that are never referenced and comments before aliases are kept as well, and an alias
+ * used as a key is ordered by the text of its node only if that node is a scalar or is itself within a key, and by
+ * {@code *} otherwise. Array sort rules are not supported.
+ * <br>
+ * The same limits as those of {@link SortYAMLEngine} can be set for untrusted input. Every node read counts towards
+ * the limit on nodes, and every alias to a collection counts as an alias expansion, although only the text of keys
+ * is ever expanded.
+ * <br>
+ * A file that is already sorted is copied to the output as it is, after a check that reads the same events but writes
+ * the entries of each mapping as they are read, stopping at the first key that is out of order.
+ * @author LieutenantPeacock
+ *
+ */
+public class StreamingSortYAMLEngine implements ContentSorter {
+	private final Comparator<String> keyComparator;
+	private boolean recursive = true;
+	private int indent = 2;
+	private long memoryBudget = 0;
+	private Path tempDirectory;
+	private SortPermutationCache permutationCache = new SortPermutationCache();
+	private final YAMLLimits limits;
+	private boolean checkSorted = true;
+
+	/**
+	 * Constructs a {@code StreamingSortYAMLEngine} that sorts the keys in lexicographical order.
+	 */
+	public StreamingSortYAMLEngine() {
+		this(null);
+	}
+
+	/**
+	 * Constructs a {@code StreamingSortYAMLEngine} that sorts the keys using the {@code keyComparator}, which
+	 * compares the text of the keys: the value of a scalar key, or a flow-style rendering of a complex key such as
+	 * {@code [a, b]}.
+	 * @param keyComparator The {@link Comparator} for sorting mapping keys, or {@code null} for lexicographical order.
+	 */
+	public StreamingSortYAMLEngine(final Comparator<String> keyComparator) {
+		this(keyComparator, new YAMLLimits());
+	}
+
+	/**
+	 * Constructs a {@code StreamingSortYAMLEngine} with the limits of another engine, which can check its input.
+	 */
+	StreamingSortYAMLEngine(final Comparator<String> keyComparator, final YAMLLimits limits) {
+		this.keyComparator = keyComparator;
+		this.limits = limits;
+	}
+
+	/**
+	 * Sorts the YAML from an {@link InputStream} and prints the result to the given {@link OutputStream}.
+	 * Each document in the stream (documents are separated by {@code ---}) is sorted independently.
+	 * @param is The InputStream to read the YAML stream from.
+	 * @param os The OutputStream to write the sorted YAML to.
+	 * @throws IOException If there is an error in reading/writing data.
+	 */
+	@Override
+	public void sort(final InputStream is, final OutputStream os) throws IOException {
+		InputStream input = is;
+		if (checkSorted) {
+			input = SortedInputMatcher.copyIfSorted(is, os, this::isSorted);
+			if (input == null)
+				return;
+		}
+		final Writer writer = new OutputStreamWriter(os, StandardCharsets.UTF_8);
+		final Session session = new Session(parse(input), null, false);
+		try {
+			session.sortStream(new Emitter(writer, dumperOptions()));
+		} finally {
+			session.close();
+		}
+		writer.flush();
+	}
+
+	/**
+	 * Checks whether the YAML is already sorted and formatted as this engine would write it. The events are read
+	 * as for sorting, but the entries of each mapping are written as they are read, without buffering any, and
+	 * the check stops at the first key that is out of order or the first byte that differs.
+	 * @param is The InputStream to read the YAML stream from.
+	 * @return Whether sorting the YAML would write exactly the same bytes.
+	 * @throws IOException If there is an error in reading data.
+	 */
+	@Override
+	public boolean isSorted(final InputStream is) throws IOException {
+		return check(is, false) == Boolean.TRUE;
+	}
+
+	/**
+	 * Checks whether the YAML is already sorted, optionally giving up at the first anchor or alias, since for some
+	 * documents with anchors the output of {@link SortYAMLEngine} differs from that of this engine.
+	 * @param withoutReferences Whether to give up at the first anchor or alias.
+	 * @return Whether sorting the YAML would write exactly the same bytes, or {@code null} if the check gave up.
+	 */
+	Boolean check(final InputStream is, final boolean withoutReferences) throws IOException {
+		final SortedInputMatcher matcher = new SortedInputMatcher(is);
+		final Writer writer = new OutputStreamWriter(matcher.getOutput(), StandardCharsets.UTF_8);
+		final Session session = new Session(parse(matcher.getInput()), matcher, withoutReferences);
+		try {
+			session.sortStream(new Emitter(writer, dumperOptions()));
+		} catch (StopCheck e) {
+			return e.gaveUp ? null : Boolean.FALSE;
+		}
+		writer.flush();
+		return matcher.matchesAll();
+	}
+
+	private Iterator<Event> parse(final InputStream is) {
+		final Yaml loader = new Yaml(limits.loaderOptions());
+		return loader.parse(new InputStreamReader(is, StandardCharsets.UTF_8)).iterator();
+	}
+
+	private DumperOptions dumperOptions() {
+		final DumperOptions dumperOptions = new DumperOptions();
+		dumperOptions.setIndent(indent);
+		dumperOptions.setProcessComments(true);
+		return dumperOptions;
+	}
+
+	/**
+	 * Stops a check once the input is known not to be sorted, or once the check gives up.
+	 */
+	private static final class StopCheck extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+		final boolean gaveUp;
+
+		StopCheck(final boolean gaveUp) {
+			super(null, null, false, false);
+			this.gaveUp = gaveUp;
+		}
+	}
+
+	/**
+	 * State for sorting or checking one stream: the events, the block comments waiting for the node they belong to,
+	 * and an event buffer for each depth of nested mappings, which are not used when checking.
+	 */
+	private final class Session {
+		private final Iterator<Event> events;
+		private final Resolver resolver = new Resolver();
+		private final YAMLKeySorter keySorter = new YAMLKeySorter(permutationCache);
+		private final List<YAMLEventBuffer> buffers = new ArrayList<>();
+		/**
+		 * Block comments that have been read but not written. As with SnakeYAML's composer, they belong to the next
+		 * scalar or flow collection, so comments at the end of a block collection move with the key that follows.
+		 */
+		private final List<Event> pending = new ArrayList<>();
+		/** The text of anchored scalars, and of anchored nodes within keys, for ordering aliases used as keys. */
+		private final Map<String, String> anchorTexts = new HashMap<>();
+		private final YAMLAnchorNames anchorNames = new YAMLAnchorNames();
+		/** The anchors of collections, aliases to which count as alias expansions. */
+		private final Set<String> collectionAnchors = new HashSet<>();
+		/** The counter of the nodes and alias expansions of the current document. */
+		private YAMLLimits.Counter counter = limits.newCounter();
+		/** An event that has been read ahead and is returned by the next call to {@link #next(Emitable)}. */
+		private Event lookahead;
+		/** The matcher of the input and output when checking whether the input is sorted, or {@code null}. */
+		private final SortedInputMatcher matcher;
+		/** Whether a check gives up at the first anchor or alias. */
+		private final boolean withoutReferences;
+
+		Session(final Iterator<Event> events, final SortedInputMatcher matcher, final boolean withoutReferences) {
+			this.events = events;
+			this.matcher = matcher;
+			this.withoutReferences = withoutReferences;
+		}
+
+		void sortStream(final Emitable out) throws IOException {
+			out.emit(new StreamStartEvent(null, null));
+			Event event = next(out);
+			if (!(event instanceof StreamStartEvent))
+				throw new YAMLException("Expected the start of the stream, but got " + event);
+			while (!((event = next(out)) instanceof StreamEndEvent)) {
+				if (!(event instanceof DocumentStartEvent))
+					throw new YAMLException("Expected the start of a document, but got " + event);
+				// The document markers are written as SnakeYAML's serializer writes them
+				out.emit(new DocumentStartEvent(null, null, false, null, null));
+				copyNode(next(out), out, true, 0, null);
+				event = next(out);
+				if (!(event instanceof DocumentEndEvent))
+					throw new YAMLException("Expected the end of the document, but got " + event);
+				writePending(out);
+				out.emit(new DocumentEndEvent(null, null, false));
+				anchorTexts.clear();
+				anchorNames.clear();
+				collectionAnchors.clear();
+				counter = limits.newCounter();
+			}
+			writePending(out);
+			out.emit(new StreamEndEvent(null, null));
+		}
+
+		/**
+		 * Get the next event that is not a comment. Inline comments are written as they are read, and block comments
+		 * are kept until the node they belong to.
+		 */
+		private Event next(final Emitable out) throws IOException {
+			if (lookahead != null) {
+				final Event event = lookahead;
+				lookahead = null;
+				return event;
+			}
+			while (events.hasNext()) {
+				final Event event = events.next();
+				if (!(event instanceof CommentEvent))
+					return event;
+				if (((CommentEvent) event).getCommentType() == CommentType.IN_LINE)
+					out.emit(event);
+				else
+					pending.add(event);
+			}
+			throw new YAMLException("Unexpected end of the stream");
+		}
+
+		private void writePending(final Emitable out) throws IOException {
+			for (final Event comment : pending)
+				out.emit(comment);
+			pending.clear();
+		}
+
+		/**
+		 * Reads the node that starts with the given event, and writes it sorted.
+		 * @param sort Whether the keys of the node are sorted if it is a mapping.
+		 * @param depth The number of collections that contain the node.
+		 * @param keyText The text of the key that the node is part of, or {@code null} if it is not part of a key.
+		 */
+		private void copyNode(final Event event, final Emitable out, final boolean sort, final int depth,
+				final StringBuilder keyText) throws IOException {
+			counter.countNode();
+			if (matcher != null) {
+				if (!matcher.isMatching())
+					throw new StopCheck(false);
+				if (withoutReferences && event instanceof NodeEvent && ((NodeEvent) event).getAnchor() != null)
+					throw new StopCheck(true);
+			}
+			if (event instanceof ScalarEvent) {
+				final ScalarEvent scalar = normalize((ScalarEvent) event);
+				writePending(out);
+				out.emit(scalar);
+				if (scalar.getAnchor() != null)
+					anchorTexts.put(scalar.getAnchor(), scalar.getValue());
+				if (keyText != null)
+					YAMLLimits.Counter.appendKeyText(keyText, scalar.getValue());
+			} else if (event instanceof AliasEvent) {
+				final String anchor = anchorNames.resolve(((AliasEvent) event).getAnchor());
+				if (collectionAnchors.contains(anchor))
+					counter.countAliasExpansion();
+				out.emit(new AliasEvent(anchor, null, null));
+				if (keyText != null)
+					YAMLLimits.Counter.appendKeyText(keyText, anchorTexts.getOrDefault(anchor, "*"));
+			} else if (event instanceof CollectionStartEvent) {
+				final CollectionStartEvent start = normalize((CollectionStartEvent) event);
+				final int textStart = keyText == null ? 0 : keyText.length();
+				if (start.getAnchor() != null)
+					collectionAnchors.add(start.getAnchor());
+				if (start.isFlow())
+					writePending(out);
+				out.emit(start);
+				final Event end;
+				if (start instanceof SequenceStartEvent)
+					end = copySequence(out, sort, depth, keyText);
+				else if (sort && keyText == null)
+					end = sortMapping(out, depth);
+				else
+					end = copyMapping(out, depth, keyText);
+				if (keyText != null && start.getAnchor() != null)
+					anchorTexts.put(start.getAnchor(), keyText.substring(textStart));
+				if (depth == 0) {
+					// Comments after the entries of the top-level node are written before its end, as its end comments
+					final List<Event> inline = new ArrayList<>();
+					final Event next = next(inline::add);
+					writePending(out);
+					out.emit(end);
+					for (final Event comment : inline)
+						out.emit(comment);
+					lookahead = next;
+				} else {
+					out.emit(end);
+				}
+			} else {
+				throw new YAMLException("Expected a node, but got " + event);
+			}
+		}
+
+		/**
+		 * Writes the items of a sequence as they are read.
+		 * @return The end event of the sequence.
+		 */
+		private Event copySequence(final Emitable out, final boolean sort, final int depth,
+				final StringBuilder keyText) throws IOException {
+			if (keyText != null)
+				keyText.append('[');
+			Event event;
+			boolean first = true;
+			while (!((event = next(out)) instanceof SequenceEndEvent)) {
+				if (keyText != null && !first)
+					keyText.append(", ");
+				first = false;
+				copyNode(event, out, sort && recursive, depth + 1, keyText);
+			}
+			if (keyText != null)
+				keyText.append(']');
+			return event;
+		}
+
+		/**
+		 * Writes the entries of a mapping in their original order, which is done for mappings within keys and for
+		 * mappings that are not sorted when the sorting is not recursive.
+		 * @return The end event of the mapping.
+		 */
+		private Event copyMapping(final Emitable out, final int depth, final StringBuilder keyText)
+				throws IOException {
+			if (keyText != null)
+				keyText.append('{');
+			Event event;
+			boolean first = true;
+			while (!((event = next(out)) instanceof MappingEndEvent)) {
+				if (keyText != null && !first)
+					keyText.append(", ");
+				first = false;
+				copyNode(event, out, false, depth + 1, keyText);
+				if (keyText != null)
+					keyText.append(": ");
+				copyNode(next(out), out, false, depth + 1, keyText);
+			}
+			if (keyText != null)
+				keyText.append('}');
+			return event;
+		}
+
+		/**
+		 * Reads the entries of a mapping into the buffer for its depth, and writes them in the order of their keys.
+		 * @return The end event of the mapping.
+		 */
+		private Event sortMapping(final Emitable out, final int depth) throws IOException {
+			if (matcher != null)
+				return checkMapping(out, depth);
+			final YAMLEventBuffer buffer = getBuffer(depth);
+			Event event;
+			while (!((event = next(buffer)) instanceof MappingEndEvent)) {
+				buffer.startEntry();
+				final StringBuilder key = new StringBuilder();
+				copyNode(event, buffer, false, depth + 1, key);
+				buffer.setKey(key.toString());
+				copyNode(next(buffer), buffer, recursive, depth + 1, null);
+			}
+			final List<String> keys = buffer.getKeys();
+			final int[] order;
+			if (keyComparator == null) {
+				order = keySorter.order(keys.toArray(new String[0]), keys.size());
+			} else {
+				final Integer[] indexes = new Integer[keys.size()];
+				for (int i = 0; i < indexes.length; i++)
+					indexes[i] = i;
+				Arrays.sort(indexes, (a, b) -> keyComparator.compare(keys.get(a), keys.get(b)));
+				order = new int[indexes.length];
+				for (int i = 0; i < indexes.length; i++)
+					order[i] = indexes[i];
+			}
+			buffer.writeEntries(order, out);
+			buffer.reset();
+			return event;
+		}
+
+		/**
+		 * Writes the entries of a mapping as they are read, as long as their keys are in order. The entries of a
+		 * mapping in order are written in the order they were read, so when checking, none of them are buffered.
+		 * @return The end event of the mapping.
+		 */
+		private Event checkMapping(final Emitable out, final int depth) throws IOException {
+			Event event;
+			String previous = null;
+			while (!((event = next(out)) instanceof MappingEndEvent)) {
+				final StringBuilder key = new StringBuilder();
+				copyNode(event, out, false, depth + 1, key);
+				final String text = key.toString();
+				// The sort is stable, so keys that compare equal stay in their order
+				if (previous != null && (keyComparator == null ? previous.compareTo(text)
+						: keyComparator.compare(previous, text)) > 0)
+					throw new StopCheck(false);
+				previous = text;
+				copyNode(next(out), out, recursive, depth + 1, null);
+			}
+			return event;
+		}
+
+		/**
+		 * Sets the tags of an event as SnakeYAML's composer and serializer would, so that the output is the same as
+		 * that of {@link SortYAMLEngine}: a tag that is the one the value resolves to is left implicit. An anchor
+		 * that was defined before is renamed, as {@link SortYAMLEngine} does.
+		 */
+		private ScalarEvent normalize(final ScalarEvent scalar) {
+			final String value = scalar.getValue();
+			final Tag tag = scalar.getTag() == null || "!".equals(scalar.getTag())
+					? resolver.resolve(NodeId.scalar, value, scalar.getImplicit().canOmitTagInPlainScalar())
+					: new Tag(scalar.getTag());
+			final ImplicitTuple implicit = new ImplicitTuple(tag.equals(resolver.resolve(NodeId.scalar, value, true)),
+					tag.equals(resolver.resolve(NodeId.scalar, value, false)));
+			return new ScalarEvent(anchor(scalar), tag.getValue(), implicit, value, null, null,
+					scalar.getScalarStyle());
+		}
+
+		private CollectionStartEvent normalize(final CollectionStartEvent start) {
+			final boolean sequence = start instanceof SequenceStartEvent;
+			final Tag defaultTag = sequence ? Tag.SEQ : Tag.MAP;
+			final Tag tag = start.getTag() == null || "!".equals(start.getTag()) ? defaultTag : new Tag(start.getTag());
+			return sequence
+					? new SequenceStartEvent(anchor(start), tag.getValue(), tag.equals(defaultTag), null, null,
+							start.getFlowStyle())
+					: new MappingStartEvent(anchor(start), tag.getValue(), tag.equals(defaultTag), null, null,
+							start.getFlowStyle());
+		}
+
+		private String anchor(final NodeEvent event) {
+			return event.getAnchor() == null ? null : anchorNames.define(event.getAnchor());
+		}
+
+		private YAMLEventBuffer getBuffer(final int depth) {
+			while (buffers.size() <= depth)
+				buffers.add(null);
+			YAMLEventBuffer buffer = buffers.get(depth);
+			if (buffer == null) {
+				buffer = new YAMLEventBuffer(memoryBudget, tempDirectory);
+				buffers.set(depth, buffer);
+			}
+			return buffer;
+		}
+
+		/**
+		 * Deletes any temporary files left by a mapping that was not finished.
+		 */
+		void close() throws IOException {
+			for (final YAMLEventBuffer buffer : buffers) {
+				if (buffer != null)
+					buffer.close();
+			}
+		}
+	}
+
+	/**
+	 * Set whether the sorting should be recursive.
+	 * If set to {@code true}, the keys of all mappings contained within the root node
+	 * will also be sorted, including mappings nested inside sequences.
+	 * If set to {@code false}, only the keys of the root mapping are sorted.
+	 * The default is {@code true}.
+	 * @param recursive Whether or not the sorting should be recursive.
+	 */
+	public void setRecursive(final boolean recursive) {
+		this.recursive = recursive;
+	}
+
+	/**
+	 * Set the amount of indent used when outputting the YAML. The default is {@code 2}.
+	 * @param indent The number of spaces used for one indent level.
+	 */
+	public void setIndent(final int indent) {
+		this.indent = indent;
+	}
+
+	/**
+	 * Set the approximate amount of memory, in bytes, that the entries of each mapping being sorted may use.
+	 * The entries of a mapping are held, as encoded events, until the end of the mapping so that they can be
+	 * reordered; when they grow beyond this budget, they are moved to a temporary file instead, and only their
+	 * keys stay in memory. The output is the same either way.
+	 * The default is {@code 0}, which keeps all entries in memory.
+	 *
+	 * @param bytes The memory budget in bytes, or {@code 0} for no limit.
+	 */
+	public void setMemoryBudget(final long bytes) {
+		this.memoryBudget = bytes;
+	}
+
+	/**
+	 * Set the directory for the temporary files used when a memory budget is set. The default is
+	 * {@code null}, which uses the system temporary-file directory.
+	 *
+	 * @param tempDirectory The directory for temporary files.
+	 * @see #setMemoryBudget(long)
+	 */
+	public void setTempDirectory(final Path tempDirectory) {
+		this.tempDirectory = tempDirectory;
+	}
+
+	/**
+	 * Set the largest number of nodes read while sorting one document, after which sorting fails with a
+	 * {@link YAMLException}. The default is {@code 0}, which sets no limit.
+	 * @param maxNodes The largest number of nodes, or {@code 0} for no limit.
+	 * @see SortYAMLEngine#setMaxNodes(long)
+	 */
+	public void setMaxNodes(final long maxNodes) {
+		limits.setMaxNodes(maxNodes);
+	}
+
+	/**
+	 * Set the largest number of aliases to collections while sorting one document, after which sorting fails with
+	 * a {@link YAMLException}. Regardless of this limit, the text of one key can be at most 16777216 characters
+	 * long, as with {@link SortYAMLEngine}. The default is {@code 100000}.
+	 * @param maxAliasExpansions The largest number of alias expansions, or {@code 0} for no limit.
+	 * @see SortYAMLEngine#setMaxAliasExpansions(long)
+	 */
+	public void setMaxAliasExpansions(final long maxAliasExpansions) {
+		limits.setMaxAliasExpansions(maxAliasExpansions);
+	}
+
+	/**
+	 * Set the largest number of code points, which are characters other than surrogate pairs, in one document of
+	 * the input, after which reading it fails with a {@link YAMLException}. Since only the entries of the mappings
+	 * being sorted are held in memory, with a memory budget this can be raised for large documents.
+	 * The default is SnakeYAML's, 3145728, which is 3 MB.
+	 * @param codePointLimit The largest number of code points in one document.
+	 */
+	public void setCodePointLimit(final int codePointLimit) {
+		limits.setCodePointLimit(codePointLimit);
+	}
+
+	/**
+	 * Set the cache of sort permutations, which sorts mappings with the same keys in the same order as a mapping
+	 * sorted before without comparing their keys again. It is only used with the default comparator.
+	 * By default, each engine has its own cache with the default capacity.
+	 * @param permutationCache The cache, or {@code null} to sort the keys of every mapping.
+	 */
+	public void setPermutationCache(final SortPermutationCache permutationCache) {
+		this.permutationCache = permutationCache;
+	}
+
+	/**
+	 * Get the cache of sort permutations, whose counters show how many of the mappings that were out of order had
+	 * a known shape.
+	 * @return The cache, or {@code null} if there is none.
+	 */
+	public SortPermutationCache getPermutationCache() {
+		return permutationCache;
+	}
+
+	/**
+	 * Set whether the input is first checked to be sorted already, in which case it is copied to the output as
+	 * it is. The check buffers no entries and stops at the first key that is out of order, and the output is the
+	 * same either way. Only input that can be read twice without holding it in memory is checked, such as a file
+	 * sorted through {@link #sort(java.nio.file.Path, java.nio.file.Path)}, not standard input. The default is
+	 * {@code true}.
+	 * @param checkSorted Whether sorted input is copied as it is.
+	 * @see #isSorted(InputStream)
+	 */
+	public void setCheckSorted(final boolean checkSorted) {
+		this.checkSorted = checkSorted;
+	}
+}
@@ -0,0 +1,85 @@
+package com.ltpeacock.sorter.yaml;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.yaml.snakeyaml.nodes.MappingNode;
+import org.yaml.snakeyaml.nodes.Node;
+import org.yaml.snakeyaml.nodes.NodeTuple;
+import org.yaml.snakeyaml.nodes.SequenceNode;
+
+/**
+ * <p>Gives each anchored node of one YAML document a name of its own.</p>
+ * An anchor may be defined again for another node, after which aliases to it refer to the new node. Once the
+ * entries are reordered, an alias can end up after a later definition of its anchor, so each definition of an anchor
+ * that has been defined before is renamed, in the order of the input, by appending {@code _2}, {@code _3} and so on,
+ * skipping names that are already used in the document. Anchors that are defined once keep their names.
+ * <br>
+ * Not thread-safe.
+ * @author LieutenantPeacock
+ *
+ */
+final class YAMLAnchorNames {
+	private final Set<String> used = new HashSet<>();
+	/** The name that each anchor of the input currently refers to. */
+	private final Map<String, String> names = new HashMap<>();
+
+	/**
+	 * Renames the anchors of a node tree in place, in the order of the input.
+	 * @param document The root node of a document that has not been reordered yet.
+	 */
+	static void rename(final Node document) {
+		new YAMLAnchorNames().rename(document, Collections.newSetFromMap(new IdentityHashMap<>()));
+	}
+
+	/**
+	 * Only anchored nodes can be reached more than once, as aliases are the only shared references in a node tree.
+	 */
+	private void rename(final Node node, final Set<Node> reached) {
+		if (node.getAnchor() != null) {
+			if (!reached.add(node))
+				return;
+			node.setAnchor(define(node.getAnchor()));
+		}
+		if (node instanceof SequenceNode) {
+			for (final Node item : ((SequenceNode) node).getValue())
+				rename(item, reached);
+		} else if (node instanceof MappingNode) {
+			for (final NodeTuple tuple : ((MappingNode) node).getValue()) {
+				rename(tuple.getKeyNode(), reached);
+				rename(tuple.getValueNode(), reached);
+			}
+		}
+	}
+
+	/**
+	 * Defines an anchor of the input.
+	 * @return The name of the anchor in the output.
+	 */
+	String define(final String anchor) {
+		String name = anchor;
+		for (int n = 2; !used.add(name); n++)
+			name = anchor + '_' + n;
+		names.put(anchor, name);
+		return name;
+	}
+
+	/**
+	 * Get the name in the output of the node that an alias of the input refers to.
+	 */
+	String resolve(final String anchor) {
+		return names.getOrDefault(anchor, anchor);
+	}
+
+	/**
+	 * Forgets the anchors, which is done at the end of each document.
+	 */
+	void clear() {
+		used.clear();
+		names.clear();
+	}
+}
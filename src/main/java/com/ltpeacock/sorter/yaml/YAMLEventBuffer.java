@@ -0,0 +1,469 @@
+package com.ltpeacock.sorter.yaml;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.yaml.snakeyaml.DumperOptions;
+import org.yaml.snakeyaml.comments.CommentType;
+import org.yaml.snakeyaml.emitter.Emitable;
+import org.yaml.snakeyaml.error.YAMLException;
+import org.yaml.snakeyaml.events.AliasEvent;
+import org.yaml.snakeyaml.events.CollectionStartEvent;
+import org.yaml.snakeyaml.events.CommentEvent;
+import org.yaml.snakeyaml.events.Event;
+import org.yaml.snakeyaml.events.ImplicitTuple;
+import org.yaml.snakeyaml.events.MappingEndEvent;
+import org.yaml.snakeyaml.events.MappingStartEvent;
+import org.yaml.snakeyaml.events.NodeEvent;
+import org.yaml.snakeyaml.events.ScalarEvent;
+import org.yaml.snakeyaml.events.SequenceEndEvent;
+import org.yaml.snakeyaml.events.SequenceStartEvent;
+
+/**
+ * <p>Holds the events of the entries of one mapping while it is being read by {@link StreamingSortYAMLEngine}.</p>
+ * Events are encoded compactly into a byte buffer, and only the text of each entry's key and the position of its
+ * events are kept as objects, so that the entries can be written out in any order once the mapping has ended.
+ * When the encoded events grow beyond the memory budget, they are moved to a temporary file, and the rest of the
+ * mapping is written there.
+ * <br>
+ * The position of every anchored node is recorded, so that when an alias would be written before the node it
+ * refers to, the node is written in its place and an alias is written where the node was.
+ * @author LieutenantPeacock
+ *
+ */
+final class YAMLEventBuffer extends OutputStream implements Emitable {
+	private static final String PREFIX = "lp-multisorter-";
+	private static final int SCALAR = 1, ALIAS = 2, SEQUENCE_START = 3, SEQUENCE_END = 4, MAPPING_START = 5,
+			MAPPING_END = 6, COMMENT = 7;
+	private static final DumperOptions.ScalarStyle[] SCALAR_STYLES = DumperOptions.ScalarStyle.values();
+	private static final DumperOptions.FlowStyle[] FLOW_STYLES = DumperOptions.FlowStyle.values();
+	private static final CommentType[] COMMENT_TYPES = CommentType.values();
+
+	private final long memoryBudget;
+	private final Path tempDirectory;
+	private byte[] data = new byte[1024];
+	private long count;
+	private Path file;
+	private OutputStream fileOut;
+	private FileChannel fileIn;
+	private final List<String> keys = new ArrayList<>();
+	private long[] offsets = new long[16];
+	/** Whether any anchor or alias has been written, which rules out copying the encoded events as they are. */
+	private boolean references;
+	private final Map<String, Range> anchors = new HashMap<>();
+	private final ArrayDeque<Range> openAnchors = new ArrayDeque<>();
+	/** The anchored node that ended last, which the inline comments right after it belong to. */
+	private Range lastAnchor;
+	private int depth;
+
+	/**
+	 * The encoded events of an anchored node.
+	 */
+	private static final class Range {
+		final long start;
+		final int depth;
+		long end;
+
+		Range(final long start, final int depth) {
+			this.start = start;
+			this.depth = depth;
+		}
+	}
+
+	/**
+	 * @param memoryBudget The number of bytes kept in memory before the events are moved to a file,
+	 * or {@code 0} for no limit.
+	 * @param tempDirectory The directory for the temporary file, or {@code null} for the system default.
+	 */
+	YAMLEventBuffer(final long memoryBudget, final Path tempDirectory) {
+		this.memoryBudget = memoryBudget;
+		this.tempDirectory = tempDirectory;
+	}
+
+	/**
+	 * Starts an entry, whose events are those written from now until the next entry starts or the mapping ends.
+	 * The text of its key is only known once the key has been written.
+	 * @see #setKey(String)
+	 */
+	void startEntry() {
+		final int index = keys.size();
+		if (index == offsets.length)
+			offsets = Arrays.copyOf(offsets, index * 2);
+		// Events written before the first entry, such as comments, belong to it
+		offsets[index] = index == 0 ? 0 : count;
+		keys.add(null);
+	}
+
+	/**
+	 * Sets the text of the key of the last entry.
+	 */
+	void setKey(final String key) {
+		keys.set(keys.size() - 1, key);
+	}
+
+	/**
+	 * Get the texts of the keys of the entries, in their original order.
+	 */
+	List<String> getKeys() {
+		return keys;
+	}
+
+	@Override
+	public void emit(final Event event) throws IOException {
+		final long start = count;
+		if (event instanceof NodeEvent) {
+			final String anchor = ((NodeEvent) event).getAnchor();
+			if (anchor != null) {
+				references = true;
+				if (!(event instanceof AliasEvent)) {
+					final Range range = new Range(start, depth);
+					anchors.put(anchor, range);
+					if (event instanceof CollectionStartEvent)
+						openAnchors.push(range);
+				}
+			}
+		}
+		switch (event.getEventId()) {
+		case Scalar: {
+			final ScalarEvent scalar = (ScalarEvent) event;
+			write(SCALAR);
+			writeString(scalar.getAnchor());
+			writeString(scalar.getTag());
+			write((scalar.getImplicit().canOmitTagInPlainScalar() ? 1 : 0)
+					| (scalar.getImplicit().canOmitTagInNonPlainScalar() ? 2 : 0));
+			write(scalar.getScalarStyle().ordinal());
+			writeString(scalar.getValue());
+			if (scalar.getAnchor() != null)
+				(lastAnchor = anchors.get(scalar.getAnchor())).end = count;
+			break;
+		}
+		case Alias:
+			write(ALIAS);
+			writeString(((AliasEvent) event).getAnchor());
+			break;
+		case SequenceStart:
+		case MappingStart: {
+			final CollectionStartEvent collection = (CollectionStartEvent) event;
+			write(event instanceof SequenceStartEvent ? SEQUENCE_START : MAPPING_START);
+			writeString(collection.getAnchor());
+			writeString(collection.getTag());
+			write(collection.getImplicit() ? 1 : 0);
+			write(collection.getFlowStyle().ordinal());
+			depth++;
+			break;
+		}
+		case SequenceEnd:
+		case MappingEnd:
+			write(event instanceof SequenceEndEvent ? SEQUENCE_END : MAPPING_END);
+			depth--;
+			if (!openAnchors.isEmpty() && openAnchors.peek().depth == depth)
+				(lastAnchor = openAnchors.pop()).end = count;
+			break;
+		case Comment: {
+			final CommentEvent comment = (CommentEvent) event;
+			write(COMMENT);
+			write(comment.getCommentType().ordinal());
+			writeString(comment.getValue());
+			if (lastAnchor != null && lastAnchor.end == start && comment.getCommentType() == CommentType.IN_LINE)
+				lastAnchor.end = count;
+			break;
+		}
+		default:
+			throw new YAMLException("Unexpected event in a mapping: " + event);
+		}
+	}
+
+	private void writeString(final String value) throws IOException {
+		if (value == null) {
+			writeLength(0);
+			return;
+		}
+		final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		writeLength(bytes.length + 1);
+		write(bytes, 0, bytes.length);
+	}
+
+	private void writeLength(int length) throws IOException {
+		while (length >= 0x80) {
+			write(length & 0x7F | 0x80);
+			length >>>= 7;
+		}
+		write(length);
+	}
+
+	/**
+	 * Writes the entries in the given order. If no anchors or aliases were written and the target is a buffer too,
+	 * the encoded events are copied as they are.
+	 * @param order The original indexes of the entries, or {@code null} to write them in their original order.
+	 * @param out The target.
+	 */
+	void writeEntries(final int[] order, final Emitable out) throws IOException {
+		flushFile();
+		final int size = keys.size();
+		final Replay replay = references || !(out instanceof YAMLEventBuffer) ? new Replay(out) : null;
+		for (int i = 0; i < size; i++) {
+			final int index = order == null ? i : order[i];
+			final long start = offsets[index], end = index + 1 < size ? offsets[index + 1] : count;
+			if (replay != null)
+				replay.write(start, end);
+			else
+				copyTo((YAMLEventBuffer) out, start, end);
+		}
+	}
+
+	/**
+	 * Decodes the events of a buffer for a target, and makes sure that each anchored node of the buffer is written
+	 * before any alias to it.
+	 */
+	private final class Replay {
+		private final Emitable out;
+		/** The anchors whose nodes have been written. */
+		private final Set<String> written = new HashSet<>();
+		/** The anchors whose nodes were written at an alias, and which are written as an alias instead. */
+		private final Set<String> moved = new HashSet<>();
+
+		Replay(final Emitable out) {
+			this.out = out;
+		}
+
+		void write(final long start, final long end) throws IOException {
+			final Reader reader = new Reader(start);
+			while (reader.position < end) {
+				final long position = reader.position;
+				final Event event = reader.read();
+				if (event instanceof AliasEvent) {
+					final String anchor = ((AliasEvent) event).getAnchor();
+					final Range range = anchors.get(anchor);
+					if (range != null && written.add(anchor)) {
+						// The node comes after its alias in the new order, so it is written here instead
+						write(range.start, range.end);
+						moved.add(anchor);
+						continue;
+					}
+				} else if (event instanceof NodeEvent && ((NodeEvent) event).getAnchor() != null) {
+					final String anchor = ((NodeEvent) event).getAnchor();
+					final Range range = anchors.get(anchor);
+					if (range != null && range.start == position) {
+						if (moved.contains(anchor)) {
+							out.emit(new AliasEvent(anchor, null, null));
+							reader.seek(range.end);
+							continue;
+						}
+						written.add(anchor);
+					}
+				}
+				out.emit(event);
+			}
+		}
+	}
+
+	/**
+	 * Decodes events from a position of the buffer.
+	 */
+	private final class Reader {
+		private final byte[] chunk = file == null ? data : new byte[8192];
+		private long chunkStart;
+		private int chunkLength = file == null ? (int) count : 0;
+		long position;
+
+		Reader(final long position) {
+			this.position = position;
+		}
+
+		void seek(final long position) {
+			this.position = position;
+		}
+
+		private int readByte() throws IOException {
+			if (position < chunkStart || position >= chunkStart + chunkLength) {
+				final ByteBuffer buffer = ByteBuffer.wrap(chunk);
+				// Cast for Java 8, where ByteBuffer does not override this method
+				((Buffer) buffer).limit((int) Math.min(chunk.length, count - position));
+				final int n = fileIn.read(buffer, position);
+				if (n <= 0)
+					throw new IOException("Unexpected end of temporary file " + file);
+				chunkStart = position;
+				chunkLength = n;
+			}
+			return chunk[(int) (position++ - chunkStart)] & 0xFF;
+		}
+
+		private int readLength() throws IOException {
+			int length = 0;
+			for (int shift = 0;; shift += 7) {
+				final int b = readByte();
+				length |= (b & 0x7F) << shift;
+				if (b < 0x80)
+					return length;
+			}
+		}
+
+		private String readString() throws IOException {
+			final int length = readLength() - 1;
+			if (length < 0)
+				return null;
+			if (file != null) {
+				final byte[] bytes = new byte[length];
+				for (int i = 0; i < length; i++)
+					bytes[i] = (byte) readByte();
+				return new String(bytes, StandardCharsets.UTF_8);
+			}
+			final String value = new String(data, (int) position, length, StandardCharsets.UTF_8);
+			position += length;
+			return value;
+		}
+
+		Event read() throws IOException {
+			switch (readByte()) {
+			case SCALAR: {
+				final String anchor = readString(), tag = readString();
+				final int implicit = readByte();
+				final DumperOptions.ScalarStyle style = SCALAR_STYLES[readByte()];
+				return new ScalarEvent(anchor, tag, new ImplicitTuple((implicit & 1) != 0, (implicit & 2) != 0),
+						readString(), null, null, style);
+			}
+			case ALIAS:
+				return new AliasEvent(readString(), null, null);
+			case SEQUENCE_START: {
+				final String anchor = readString(), tag = readString();
+				final boolean implicit = readByte() != 0;
+				return new SequenceStartEvent(anchor, tag, implicit, null, null, FLOW_STYLES[readByte()]);
+			}
+			case SEQUENCE_END:
+				return new SequenceEndEvent(null, null);
+			case MAPPING_START: {
+				final String anchor = readString(), tag = readString();
+				final boolean implicit = readByte() != 0;
+				return new MappingStartEvent(anchor, tag, implicit, null, null, FLOW_STYLES[readByte()]);
+			}
+			case MAPPING_END:
+				return new MappingEndEvent(null, null);
+			case COMMENT: {
+				final CommentType type = COMMENT_TYPES[readByte()];
+				return new CommentEvent(type, readString(), null, null);
+			}
+			default:
+				throw new IOException("Corrupt event buffer at " + (position - 1));
+			}
+		}
+	}
+
+	/**
+	 * Copies encoded events to another buffer, which has no anchors to record in them.
+	 */
+	private void copyTo(final YAMLEventBuffer out, final long start, final long end) throws IOException {
+		if (file == null) {
+			out.write(data, (int) start, (int) (end - start));
+			return;
+		}
+		final ByteBuffer chunk = ByteBuffer.wrap(data);
+		long position = start;
+		while (position < end) {
+			// Cast for Java 8, where ByteBuffer does not override these methods
+			((Buffer) chunk).clear();
+			((Buffer) chunk).limit((int) Math.min(data.length, end - position));
+			final int n = fileIn.read(chunk, position);
+			if (n < 0)
+				throw new IOException("Unexpected end of temporary file " + file);
+			out.write(data, 0, n);
+			position += n;
+		}
+	}
+
+	/**
+	 * Makes the events written to the temporary file, if there is one, readable.
+	 */
+	private void flushFile() throws IOException {
+		if (file != null && fileIn == null) {
+			fileOut.flush();
+			fileIn = FileChannel.open(file, StandardOpenOption.READ);
+		}
+	}
+
+	@Override
+	public void write(final int b) throws IOException {
+		if (fileOut == null && count == data.length)
+			grow(1);
+		if (fileOut != null)
+			fileOut.write(b);
+		else
+			data[(int) count] = (byte) b;
+		count++;
+	}
+
+	@Override
+	public void write(final byte[] b, final int off, final int len) throws IOException {
+		if (fileOut == null && len > data.length - count)
+			grow(len);
+		if (fileOut != null)
+			fileOut.write(b, off, len);
+		else
+			System.arraycopy(b, off, data, (int) count, len);
+		count += len;
+	}
+
+	/**
+	 * Makes room for more bytes, or moves the events to a temporary file if they would not fit in the budget.
+	 */
+	private void grow(final int needed) throws IOException {
+		final long required = count + needed;
+		if (memoryBudget > 0 && required > memoryBudget || required > Integer.MAX_VALUE - 8) {
+			file = tempDirectory == null ? Files.createTempFile(PREFIX, ".yaml")
+					: Files.createTempFile(tempDirectory, PREFIX, ".yaml");
+			fileOut = new BufferedOutputStream(Files.newOutputStream(file), 65536);
+			fileOut.write(data, 0, (int) count);
+			// The array is kept for copying the events back out of the file
+			if (data.length != 65536)
+				data = new byte[65536];
+			return;
+		}
+		data = Arrays.copyOf(data, (int) Math.min(Integer.MAX_VALUE - 8, Math.max(required, 2L * data.length)));
+	}
+
+	/**
+	 * Clears the buffer for the next mapping, deleting the temporary file if there is one.
+	 */
+	void reset() throws IOException {
+		close();
+		count = 0;
+		keys.clear();
+		references = false;
+		anchors.clear();
+		openAnchors.clear();
+		lastAnchor = null;
+		depth = 0;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			if (fileIn != null)
+				fileIn.close();
+			if (fileOut != null)
+				fileOut.close();
+		} finally {
+			fileIn = null;
+			fileOut = null;
+			if (file != null) {
+				Files.deleteIfExists(file);
+				file = null;
+			}
+		}
+	}
+}
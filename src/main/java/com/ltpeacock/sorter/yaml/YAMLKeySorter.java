@@ -0,0 +1,125 @@
+package com.ltpeacock.sorter.yaml;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+import org.yaml.snakeyaml.nodes.Node;
+import org.yaml.snakeyaml.nodes.NodeTuple;
+
+import com.ltpeacock.sorter.SortPermutationCache;
+
+/**
+ * <p>Sorts the entries of mappings by the text of their keys, which is taken from each key once.</p>
+ * The keys of a mapping are read into a scratch array, together with its entries, before any are compared, so a
+ * comparison costs one {@link String#compareTo(String)} however complex the key is. Mappings that are already in
+ * order are left as they are; others are ordered by the permutation cache, if they are narrow enough for it, or by
+ * a stable merge sort of the indexes of the keys. The scratch arrays grow to the widest mapping and are reused for
+ * all the mappings of a document. {@link StreamingSortYAMLEngine}, which has no nodes, orders the key texts of its
+ * buffered entries with {@link #order(String[], int)}.
+ * <br>
+ * Not thread-safe.
+ * @author LieutenantPeacock
+ *
+ */
+final class YAMLKeySorter {
+	/** Ranges of at most this many keys are sorted by insertion. */
+	private static final int INSERTION_THRESHOLD = 8;
+	private final SortPermutationCache permutationCache;
+	private String[] keys = new String[16];
+	private NodeTuple[] tuples = new NodeTuple[16];
+	private int[] order = new int[16];
+	private int[] merge = new int[16];
+
+	/**
+	 * @param permutationCache The cache of sort permutations, or {@code null}.
+	 */
+	YAMLKeySorter(final SortPermutationCache permutationCache) {
+		this.permutationCache = permutationCache;
+	}
+
+	/**
+	 * Sorts the entries of a mapping in place. Entries whose keys have the same text keep their order.
+	 * @param entries The entries of the mapping.
+	 * @param keyText Gets the text of a key.
+	 */
+	void sort(final List<NodeTuple> entries, final Function<Node, String> keyText) {
+		final int size = entries.size();
+		if (size < 2)
+			return;
+		if (keys.length < size) {
+			keys = new String[Math.max(size, keys.length * 2)];
+			tuples = new NodeTuple[keys.length];
+		}
+		for (int i = 0; i < size; i++) {
+			tuples[i] = entries.get(i);
+			keys[i] = keyText.apply(tuples[i].getKeyNode());
+		}
+		final int[] permutation = order(keys, size);
+		if (permutation != null) {
+			for (int i = 0; i < size; i++)
+				entries.set(i, tuples[permutation[i]]);
+		}
+		// Do not hold on to the nodes of this mapping until the next one
+		Arrays.fill(tuples, 0, size, null);
+		Arrays.fill(keys, 0, size, null);
+	}
+
+	/**
+	 * Get the order of the keys of a mapping. Keys with the same text keep their order.
+	 * @param keys The texts of the keys, in their original order.
+	 * @param size The number of keys.
+	 * @return The original indexes of the keys in sorted order, or {@code null} if they are in order already.
+	 * The array must not be modified, and is only valid until the next call.
+	 */
+	int[] order(final String[] keys, final int size) {
+		boolean sorted = true;
+		for (int i = 1; i < size && sorted; i++)
+			sorted = keys[i - 1].compareTo(keys[i]) <= 0;
+		if (sorted)
+			return null;
+		if (permutationCache != null && size <= SortPermutationCache.MAX_SHAPE_LENGTH) {
+			final String[] names = Arrays.copyOf(keys, size);
+			return permutationCache.getPermutation(names, (a, b) -> names[a].compareTo(names[b]));
+		}
+		if (order.length < size) {
+			order = new int[Math.max(size, order.length * 2)];
+			merge = new int[order.length];
+		}
+		for (int i = 0; i < size; i++)
+			order[i] = i;
+		mergeSort(keys, 0, size);
+		return order;
+	}
+
+	/**
+	 * Sorts a range of {@link #order} by the keys at its indexes, keeping equal keys in their order.
+	 */
+	private void mergeSort(final String[] keys, final int from, final int to) {
+		if (to - from <= INSERTION_THRESHOLD) {
+			for (int i = from + 1; i < to; i++) {
+				final int index = order[i];
+				int j = i - 1;
+				while (j >= from && keys[order[j]].compareTo(keys[index]) > 0) {
+					order[j + 1] = order[j];
+					j--;
+				}
+				order[j + 1] = index;
+			}
+			return;
+		}
+		final int middle = (from + to) >>> 1;
+		mergeSort(keys, from, middle);
+		mergeSort(keys, middle, to);
+		if (keys[order[middle - 1]].compareTo(keys[order[middle]]) <= 0)
+			return;
+		System.arraycopy(order, from, merge, from, to - from);
+		int i = from, j = middle, k = from;
+		while (i < middle && j < to)
+			order[k++] = keys[merge[j]].compareTo(keys[merge[i]]) < 0 ? merge[j++] : merge[i++];
+		while (i < middle)
+			order[k++] = merge[i++];
+		while (j < to)
+			order[k++] = merge[j++];
+	}
+}
@@ -0,0 +1,105 @@
+package com.ltpeacock.sorter.yaml;
+
+import org.yaml.snakeyaml.LoaderOptions;
+import org.yaml.snakeyaml.error.YAMLException;
+
+/**
+ * <p>The limits that the YAML engines apply to untrusted input, and the options for reading it.</p>
+ * A document can be at most as long as the code point limit, which is enforced by SnakeYAML while reading it. While
+ * sorting a document, the number of nodes and the number of alias expansions can be limited, and the text of a key
+ * can be at most {@value #MAX_KEY_TEXT_LENGTH} characters long; each of these is counted by a {@link Counter} for
+ * one document, which throws a {@link YAMLException} once a limit is exceeded.
+ * @author LieutenantPeacock
+ *
+ */
+final class YAMLLimits {
+	/** SnakeYAML's default limit on the size of a document, 3 MB. */
+	static final int DEFAULT_CODE_POINT_LIMIT = 3 * 1024 * 1024;
+	/** The default limit on alias expansions, far above what SnakeYAML's composer lets through by default. */
+	static final long DEFAULT_MAX_ALIAS_EXPANSIONS = 100_000;
+	/**
+	 * The largest number of characters of the text of a key, which with nested aliases can grow exponentially with
+	 * the size of the document, as in a "billion laughs" document.
+	 */
+	static final int MAX_KEY_TEXT_LENGTH = 1 << 24;
+	private int codePointLimit = DEFAULT_CODE_POINT_LIMIT;
+	private long maxNodes = 0;
+	private long maxAliasExpansions = DEFAULT_MAX_ALIAS_EXPANSIONS;
+
+	void setCodePointLimit(final int codePointLimit) {
+		this.codePointLimit = codePointLimit;
+	}
+
+	void setMaxNodes(final long maxNodes) {
+		this.maxNodes = maxNodes;
+	}
+
+	void setMaxAliasExpansions(final long maxAliasExpansions) {
+		this.maxAliasExpansions = maxAliasExpansions;
+	}
+
+	/**
+	 * Determines whether the number of nodes is limited.
+	 */
+	boolean limitsNodes() {
+		return maxNodes > 0;
+	}
+
+	/**
+	 * Get the options for reading YAML with its comments, within the code point limit.
+	 */
+	LoaderOptions loaderOptions() {
+		final LoaderOptions loaderOptions = new LoaderOptions();
+		loaderOptions.setProcessComments(true);
+		loaderOptions.setCodePointLimit(codePointLimit);
+		return loaderOptions;
+	}
+
+	/**
+	 * Get a counter for sorting one document within these limits.
+	 */
+	Counter newCounter() {
+		return new Counter(maxNodes, maxAliasExpansions);
+	}
+
+	/**
+	 * Counts the nodes and alias expansions while sorting one document.
+	 * <br>
+	 * Not thread-safe.
+	 */
+	static final class Counter {
+		private final long maxNodes;
+		private final long maxAliasExpansions;
+		private long nodes;
+		private long aliasExpansions;
+
+		/**
+		 * @param maxNodes The largest number of nodes, or {@code 0} for no limit.
+		 * @param maxAliasExpansions The largest number of alias expansions, or {@code 0} for no limit.
+		 */
+		Counter(final long maxNodes, final long maxAliasExpansions) {
+			this.maxNodes = maxNodes;
+			this.maxAliasExpansions = maxAliasExpansions;
+		}
+
+		void countNode() {
+			if (++nodes > maxNodes && maxNodes > 0)
+				throw new YAMLException("Sorting visited more than " + maxNodes + " nodes");
+		}
+
+		void countAliasExpansion() {
+			if (++aliasExpansions > maxAliasExpansions && maxAliasExpansions > 0)
+				throw new YAMLException("Sorting expanded more than " + maxAliasExpansions + " aliases");
+		}
+
+		/**
+		 * Appends a value to the text of a key, unless that makes it longer than
+		 * {@value YAMLLimits#MAX_KEY_TEXT_LENGTH} characters.
+		 */
+		static void appendKeyText(final StringBuilder text, final String value) {
+			if (text.length() + (long) value.length() > MAX_KEY_TEXT_LENGTH)
+				throw new YAMLException("Key text longer than " + MAX_KEY_TEXT_LENGTH + " characters");
+			text.append(value);
+		}
+	}
+}
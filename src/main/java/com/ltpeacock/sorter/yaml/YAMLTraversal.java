@@ -0,0 +1,122 @@
+package com.ltpeacock.sorter.yaml;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.yaml.snakeyaml.nodes.MappingNode;
+import org.yaml.snakeyaml.nodes.Node;
+import org.yaml.snakeyaml.nodes.NodeTuple;
+import org.yaml.snakeyaml.nodes.ScalarNode;
+import org.yaml.snakeyaml.nodes.SequenceNode;
+
+/**
+ * <p>Keeps track of the nodes reached while sorting one node tree, in which aliases are shared references to the
+ * nodes of their anchors.</p>
+ * Each collection is sorted only the first time it is reached, however many aliases lead to it, so sorting takes
+ * time in proportion to the number of distinct nodes and does not follow a cycle forever. Likewise, the text of
+ * each collection within complex keys is written once and reused wherever an alias leads to it again, unless it
+ * contains an alias to a collection around it, whose text depends on where it is reached from. Each time a
+ * collection is reached again counts as an alias expansion, as does each time the text of a complex key walks
+ * through such a collection again. Both are counted against the {@link YAMLLimits} of the engine.
+ * <br>
+ * Not thread-safe.
+ * @author LieutenantPeacock
+ *
+ */
+final class YAMLTraversal {
+	private final YAMLLimits.Counter counter;
+	private final Set<Node> sorted = Collections.newSetFromMap(new IdentityHashMap<>());
+	private final Set<Node> written = Collections.newSetFromMap(new IdentityHashMap<>());
+	private final Map<Node, String> texts = new IdentityHashMap<>();
+
+	/**
+	 * @param counter The counter of the nodes and alias expansions of the document.
+	 */
+	YAMLTraversal(final YAMLLimits.Counter counter) {
+		this.counter = counter;
+	}
+
+	/**
+	 * Counts a node that is about to be sorted.
+	 * @return {@code false} if the node is a collection that has been reached before, which is not sorted again.
+	 */
+	boolean enter(final Node node) {
+		if (!(node instanceof ScalarNode) && !sorted.add(node)) {
+			counter.countAliasExpansion();
+			return false;
+		}
+		counter.countNode();
+		return true;
+	}
+
+	/**
+	 * Get the text of a key, the same as {@link SortYAMLEngine#keyText(Node)}, counting the nodes that are walked
+	 * through to write it.
+	 */
+	String keyText(final Node node) {
+		if (node instanceof ScalarNode)
+			return ((ScalarNode) node).getValue();
+		final StringBuilder text = new StringBuilder();
+		appendText(node, text, new IdentityHashMap<>());
+		return text.toString();
+	}
+
+	/**
+	 * Appends the text of a node, from the texts written before if it is a collection that has one.
+	 * @param open The collections whose text is being written, around the node, with their depths.
+	 * @return The smallest depth of a collection around the node, or of the node itself, that its text contains an
+	 * alias to, or {@link Integer#MAX_VALUE} if there is none.
+	 */
+	private int appendText(final Node node, final StringBuilder text, final Map<Node, Integer> open) {
+		counter.countNode();
+		if (node instanceof ScalarNode) {
+			YAMLLimits.Counter.appendKeyText(text, ((ScalarNode) node).getValue());
+			return Integer.MAX_VALUE;
+		}
+		final String cached = texts.get(node);
+		if (cached != null) {
+			YAMLLimits.Counter.appendKeyText(text, cached);
+			return Integer.MAX_VALUE;
+		}
+		final Integer openDepth = open.get(node);
+		if (openDepth != null) {
+			text.append('*');
+			return openDepth;
+		}
+		if (!written.add(node))
+			counter.countAliasExpansion();
+		final int depth = open.size();
+		open.put(node, depth);
+		final int start = text.length();
+		int outer = Integer.MAX_VALUE;
+		if (node instanceof SequenceNode) {
+			text.append('[');
+			final List<Node> items = ((SequenceNode) node).getValue();
+			for (int i = 0; i < items.size(); i++) {
+				if (i > 0)
+					text.append(", ");
+				outer = Math.min(outer, appendText(items.get(i), text, open));
+			}
+			text.append(']');
+		} else if (node instanceof MappingNode) {
+			text.append('{');
+			final List<NodeTuple> tuples = ((MappingNode) node).getValue();
+			for (int i = 0; i < tuples.size(); i++) {
+				if (i > 0)
+					text.append(", ");
+				outer = Math.min(outer, appendText(tuples.get(i).getKeyNode(), text, open));
+				text.append(": ");
+				outer = Math.min(outer, appendText(tuples.get(i).getValueNode(), text, open));
+			}
+			text.append('}');
+		}
+		open.remove(node);
+		// A text with an alias to a collection around the node depends on where the node is reached from
+		if (outer >= depth)
+			texts.put(node, text.substring(start));
+		return outer;
+	}
+}
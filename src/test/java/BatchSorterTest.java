@@ -0,0 +1,69 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.ltpeacock.sorter.json.StreamingSortJSONEngine;
+
+/**
+ * Checks which files {@link BatchSorter} writes when the same file or the same output comes up more than once.
+ * @author LieutenantPeacock
+ *
+ */
+class BatchSorterTest {
+	private static final String UNSORTED = "{\"b\": 1, \"a\": 2}";
+	private static final String SORTED = "{\n    \"a\": 2,\n    \"b\": 1\n}";
+
+	@TempDir
+	Path directory;
+
+	/**
+	 * Files of the same name from different directories would overwrite each other in the output directory, so
+	 * nothing is sorted.
+	 */
+	@Test
+	void sameOutputName() throws IOException {
+		final Path first = write("first/x.json"), second = write("second/x.json");
+		final Path output = directory.resolve("out");
+		assertFalse(batch(output, first.toString(), second.toString()));
+		assertFalse(Files.exists(output));
+		assertEquals(UNSORTED, read(first));
+		assertEquals(UNSORTED, read(second));
+	}
+
+	/**
+	 * A file given both on its own and within its directory is sorted once.
+	 */
+	@Test
+	void sameFile() throws IOException {
+		final Path file = write("in/x.json");
+		assertTrue(batch(null, file.toString(), file.getParent().toString(), file.toString()));
+		assertEquals(SORTED, read(file));
+		final Path output = directory.resolve("out");
+		assertTrue(batch(output, file.toString(), file.getParent().resolve(".").resolve("x.json").toString()));
+		assertEquals(SORTED, read(output.resolve("x.json")));
+	}
+
+	private Path write(final String name) throws IOException {
+		final Path file = directory.resolve(name);
+		Files.createDirectories(file.getParent());
+		return Files.write(file, UNSORTED.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static String read(final Path file) throws IOException {
+		return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+	}
+
+	private static boolean batch(final Path outputDirectory, final String... args) throws IOException {
+		return new BatchSorter(StreamingSortJSONEngine::new, 2, "*.json", outputDirectory, false)
+				.run(Arrays.asList(args));
+	}
+}
@@ -0,0 +1,105 @@
+package com.ltpeacock.sorter.json;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * JSON documents for checking that the engines write the same output: random documents and edge cases.
+ * @author LieutenantPeacock
+ *
+ */
+final class JSONTestDocuments {
+	private static final String[] KEYS = { "a", "b", "B", "aa", "a b", "10", "9", "\u00e9x", "\\u00e9", "z\\\"q", "",
+			"\\ud83d\\ude00", "\u4e2d", "_", "\\/x" };
+	private static final String[] NUMBERS = { "0", "-0", "1", "-17", "1.0", "1.50", "1e3", "1E+3", "2.5e-7", "0.1",
+			"9007199254740993", "123456789012345678901234567890", "-98765432109876543210.000001", "1e308",
+			"4.9e-324", "3.141592653589793238462643383279" };
+	private static final String[] STRINGS = { "\"\"", "\"x\"", "\"\\u0000\\u001f\"", "\"\\ud83d\\ude00 \u00e9\"",
+			"\"tab\\tnew\\nline\"", "\"\\\"quoted\\\" \\\\ \\/\"", "\"</script>\"", "\"\u2028\u2029\"" };
+
+	/**
+	 * Documents that the engines handle in special ways: scalars, empty containers, escapes, numbers beyond the
+	 * range of a {@code long} or a {@code double}, and deep nesting.
+	 */
+	static final String[] EDGE_CASES = { "{}", "[]", "\"text\"", "42", "-1.5e10", "null", "true",
+			"  {\"b\" : [ ] , \"a\" : { } }  ", "[[], {}, [[{}]]]",
+			"{\"\\u0062\": \"\\u00E9\\uD83D\\uDE00\", \"a\": \"\\b\\f\\r\", \"\\u00e9\": 1, \"\u00e9\u00e9\": 2}",
+			"{\"big\": 123456789012345678901234567890, \"neg\": -0, \"exp\": 1E-5, \"long\": 9223372036854775808, "
+					+ "\"frac\": 0.30000000000000004, \"int\": 9223372036854775807, \"e\": 1.0e2}",
+			"[1, 1.0, 1e0, 10E-1, -0.0, 0.1e1]", deep(300) };
+
+	private JSONTestDocuments() {
+	}
+
+	/**
+	 * Get a random document, whose top-level value is an object.
+	 */
+	static String random(final Random random, final int depth) {
+		final StringBuilder sb = new StringBuilder();
+		appendObject(sb, random, depth);
+		return sb.toString();
+	}
+
+	/**
+	 * Get a document with objects and arrays nested to the given depth.
+	 */
+	static String deep(final int depth) {
+		final StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < depth; i++)
+			sb.append(i % 2 == 0 ? "{\"z\": 1, \"k" + (depth - i) + "\": " : "[\"x\", ");
+		sb.append("\"\\u00e9\"");
+		for (int i = depth - 1; i >= 0; i--)
+			sb.append(i % 2 == 0 ? ", \"a\": null}" : "]");
+		return sb.toString();
+	}
+
+	private static void appendValue(final StringBuilder sb, final Random random, final int depth) {
+		switch (random.nextInt(depth > 0 ? 7 : 5)) {
+		case 0:
+			sb.append(NUMBERS[random.nextInt(NUMBERS.length)]);
+			break;
+		case 1:
+			sb.append(STRINGS[random.nextInt(STRINGS.length)]);
+			break;
+		case 2:
+			sb.append(random.nextBoolean() ? "true" : random.nextBoolean() ? "false" : "null");
+			break;
+		case 3:
+			sb.append(random.nextInt(2000) - 1000);
+			break;
+		case 4:
+			sb.append('"').append(KEYS[random.nextInt(KEYS.length)]).append('"');
+			break;
+		case 5:
+			appendObject(sb, random, depth - 1);
+			break;
+		default:
+			sb.append('[');
+			final int length = random.nextInt(5);
+			for (int i = 0; i < length; i++) {
+				if (i > 0)
+					sb.append(random.nextBoolean() ? "," : " ,\n ");
+				appendValue(sb, random, depth - 1);
+			}
+			sb.append(']');
+		}
+	}
+
+	private static void appendObject(final StringBuilder sb, final Random random, final int depth) {
+		sb.append('{');
+		final int size = random.nextInt(8);
+		// Distinct keys, as openjson rejects duplicates
+		final Set<String> keys = new HashSet<>();
+		for (int i = 0; i < size; i++) {
+			final String key = KEYS[random.nextInt(KEYS.length)];
+			if (!keys.add(key))
+				continue;
+			if (keys.size() > 1)
+				sb.append(random.nextBoolean() ? "," : ",\n  ");
+			sb.append('"').append(key).append("\":");
+			appendValue(sb, random, depth);
+		}
+		sb.append('}');
+	}
+}
@@ -0,0 +1,91 @@
+package com.ltpeacock.sorter.json;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that {@link SortJSONEngine} writes the same newline-delimited JSON when sorting batches of lines in
+ * parallel as when sorting them one at a time, and that each record is sorted as a document of its own would be.
+ * @author LieutenantPeacock
+ *
+ */
+class SortJSONEngineLineDelimitedTest {
+	@Test
+	void edgeCases() throws IOException {
+		final StringBuilder sb = new StringBuilder();
+		for (final String document : JSONTestDocuments.EDGE_CASES)
+			sb.append(document.replace("\n", " ")).append('\n');
+		assertSameOutput(sb.toString());
+	}
+
+	@Test
+	void randomRecords() throws IOException {
+		for (int seed = 0; seed < 20; seed++) {
+			final Random random = new Random(seed);
+			final StringBuilder sb = new StringBuilder();
+			final int lines = random.nextInt(200);
+			for (int i = 0; i < lines; i++) {
+				if (random.nextInt(10) == 0)
+					sb.append(random.nextBoolean() ? "" : " \t");
+				else
+					sb.append(JSONTestDocuments.random(random, 3).replace("\n", " "));
+				sb.append(random.nextInt(5) == 0 ? "\r\n" : "\n");
+			}
+			if (random.nextBoolean())
+				sb.append(JSONTestDocuments.random(random, 3).replace("\n", " "));
+			assertSameOutput(sb.toString());
+		}
+	}
+
+	private static void assertSameOutput(final String document) throws IOException {
+		final byte[] input = document.getBytes(StandardCharsets.UTF_8);
+		for (final boolean rawNumbers : new boolean[] { false, true }) {
+			final String expected = sort(input, rawNumbers, 1, 1024);
+			assertEquals(sortRecords(document, rawNumbers), expected, "raw numbers " + rawNumbers);
+			for (final int batchSize : new int[] { 1, 3, 1024 })
+				assertEquals(expected, sort(input, rawNumbers, 4, batchSize),
+						"raw numbers " + rawNumbers + ", batch size " + batchSize);
+		}
+	}
+
+	private static String sort(final byte[] input, final boolean rawNumbers, final int parallelism,
+			final int batchSize) throws IOException {
+		final SortJSONEngine engine = new SortJSONEngine();
+		engine.setLineDelimited(true);
+		engine.setRawNumbers(rawNumbers);
+		engine.setParallelism(parallelism);
+		engine.setBatchSize(batchSize);
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		engine.sort(new ByteArrayInputStream(input), out);
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Sorts each line as a document of its own, without indent.
+	 */
+	private static String sortRecords(final String document, final boolean rawNumbers) throws IOException {
+		final StringBuilder sb = new StringBuilder();
+		final String[] lines = document.split("\r?\n", -1);
+		// A line break at the end does not start another line
+		final int count = lines[lines.length - 1].isEmpty() ? lines.length - 1 : lines.length;
+		for (int i = 0; i < count; i++) {
+			if (!lines[i].trim().isEmpty()) {
+				final SortJSONEngine engine = new SortJSONEngine();
+				engine.setIndent(0);
+				engine.setRawNumbers(rawNumbers);
+				final ByteArrayOutputStream out = new ByteArrayOutputStream();
+				engine.sort(new ByteArrayInputStream(lines[i].getBytes(StandardCharsets.UTF_8)), out);
+				sb.append(new String(out.toByteArray(), StandardCharsets.UTF_8));
+			}
+			sb.append('\n');
+		}
+		return sb.toString();
+	}
+}
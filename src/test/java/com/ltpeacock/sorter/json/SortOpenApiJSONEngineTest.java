@@ -0,0 +1,67 @@
+package com.ltpeacock.sorter.json;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.github.openjson.JSONObject;
+
+/**
+ * Checks which components {@link SortOpenApiJSONEngine} keeps when pruning the components that are not
+ * referenced from the paths.
+ * @author LieutenantPeacock
+ *
+ */
+class SortOpenApiJSONEngineTest {
+	/**
+	 * A property named {@code mapping} is a schema like any other, whose references are followed.
+	 */
+	@Test
+	void propertyNamedMapping() {
+		final JSONObject schemas = prune(spec("Settings", "{"
+				+ "\"Settings\": {\"type\": \"object\", \"properties\": {"
+				+ "\"mapping\": {\"type\": \"array\", \"items\": {\"$ref\": \"#/components/schemas/Target\"}}}},"
+				+ "\"Target\": {\"type\": \"string\"},"
+				+ "\"Unused\": {\"type\": \"string\"}}"));
+		assertEquals(Arrays.asList("Settings", "Target"), names(schemas));
+	}
+
+	/**
+	 * The values of the mapping of a discriminator are references or bare schema names.
+	 */
+	@Test
+	void discriminatorMapping() {
+		final JSONObject schemas = prune(spec("Pet", "{"
+				+ "\"Pet\": {\"type\": \"object\", \"discriminator\": {\"propertyName\": \"kind\", \"mapping\": {"
+				+ "\"dog\": \"Dog\", \"cat\": \"#/components/schemas/Cat\", \"fish\": \"other.yaml#/Fish\"}}},"
+				+ "\"Dog\": {\"type\": \"object\"},"
+				+ "\"Cat\": {\"type\": \"object\"},"
+				+ "\"Fish\": {\"type\": \"object\"},"
+				+ "\"mapping\": {\"type\": \"object\"}}"));
+		assertEquals(Arrays.asList("Cat", "Dog", "Pet"), names(schemas));
+	}
+
+	/**
+	 * Get a spec whose only path responds with the given schema.
+	 */
+	private static JSONObject spec(final String schema, final String schemas) {
+		return new JSONObject("{\"openapi\": \"3.0.3\", \"info\": {\"title\": \"t\", \"version\": \"1\"},"
+				+ "\"servers\": [], \"paths\": {\"/x\": {\"get\": {\"responses\": {\"200\": {"
+				+ "\"description\": \"ok\", \"content\": {\"application/json\": {\"schema\": {"
+				+ "\"$ref\": \"#/components/schemas/" + schema + "\"}}}}}}}},"
+				+ "\"components\": {\"schemas\": " + schemas + "}}");
+	}
+
+	private static JSONObject prune(final JSONObject spec) {
+		final SortOpenApiJSONEngine engine = new SortOpenApiJSONEngine();
+		engine.setPruneComponents(true);
+		return engine.sort(spec).getJSONObject("components").getJSONObject("schemas");
+	}
+
+	private static List<String> names(final JSONObject object) {
+		return Arrays.asList(object.keySet().toArray(new String[0]));
+	}
+}
@@ -0,0 +1,113 @@
+package com.ltpeacock.sorter.json;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Checks that {@link StreamingSortJSONEngine} writes the same output as {@link SortJSONEngine}, and that both
+ * engines find the same input to be sorted already.
+ * @author LieutenantPeacock
+ *
+ */
+class StreamingSortJSONEngineTest {
+	@TempDir
+	Path tempDirectory;
+
+	@Test
+	void edgeCases() throws IOException {
+		for (final String document : JSONTestDocuments.EDGE_CASES)
+			assertSameOutput(document);
+	}
+
+	@Test
+	void randomDocuments() throws IOException {
+		for (int seed = 0; seed < 100; seed++)
+			assertSameOutput(JSONTestDocuments.random(new Random(seed), 4));
+	}
+
+	@Test
+	void memoryBudget() throws IOException {
+		final List<String> documents = new ArrayList<>(Arrays.asList(JSONTestDocuments.EDGE_CASES));
+		for (int seed = 0; seed < 20; seed++)
+			documents.add(JSONTestDocuments.random(new Random(seed), 5));
+		for (final String document : documents) {
+			final byte[] input = document.getBytes(StandardCharsets.UTF_8);
+			final String expected = sort(new SortJSONEngine(), input);
+			for (final long budget : new long[] { 1, 64 }) {
+				final StreamingSortJSONEngine engine = new StreamingSortJSONEngine();
+				engine.setMemoryBudget(budget);
+				engine.setTempDirectory(tempDirectory);
+				assertEquals(expected, sort(engine, input), "memory budget " + budget + " for " + document);
+			}
+		}
+		try (Stream<Path> files = Files.list(tempDirectory)) {
+			assertEquals(0, files.count(), "temporary files left behind");
+		}
+	}
+
+	private static void assertSameOutput(final String document) throws IOException {
+		final byte[] input = document.getBytes(StandardCharsets.UTF_8);
+		for (final Comparator<String> comparator : Arrays.<Comparator<String>>asList(Comparator.naturalOrder(),
+				Comparator.reverseOrder())) {
+			for (final int indent : new int[] { 0, 2, 4 }) {
+				for (final boolean recursive : new boolean[] { true, false }) {
+					for (final boolean rawNumbers : new boolean[] { false, true }) {
+						final SortJSONEngine expected = new SortJSONEngine(comparator);
+						expected.setIndent(indent);
+						expected.setRecursive(recursive);
+						expected.setRawNumbers(rawNumbers);
+						final StreamingSortJSONEngine actual = new StreamingSortJSONEngine(comparator);
+						actual.setIndent(indent);
+						actual.setRecursive(recursive);
+						actual.setRawNumbers(rawNumbers);
+						final String output = sort(expected, input);
+						final String settings = "indent " + indent + ", recursive " + recursive + ", raw numbers "
+								+ rawNumbers + " for " + document;
+						assertEquals(output, sort(actual, input), settings);
+						assertSortedCheck(expected, actual, input, settings);
+						assertSortedCheck(expected, actual, output.getBytes(StandardCharsets.UTF_8), settings);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Checks that both engines find the input to be sorted exactly when sorting it writes the same bytes. The
+	 * output is not always sorted itself, as openjson writes {@code -0.0} as {@code -0}, which is then written as
+	 * {@code 0}.
+	 */
+	private static void assertSortedCheck(final SortJSONEngine expected, final StreamingSortJSONEngine actual,
+			final byte[] input, final String settings) throws IOException {
+		final boolean sorted = Arrays.equals(input, sort(expected, input).getBytes(StandardCharsets.UTF_8));
+		assertEquals(sorted, expected.isSorted(new ByteArrayInputStream(input)), settings);
+		assertEquals(sorted, actual.isSorted(new ByteArrayInputStream(input)), settings);
+	}
+
+	private static String sort(final SortJSONEngine engine, final byte[] input) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		engine.sort(new ByteArrayInputStream(input), out);
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	private static String sort(final StreamingSortJSONEngine engine, final byte[] input) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		engine.sort(new ByteArrayInputStream(input), out);
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+}
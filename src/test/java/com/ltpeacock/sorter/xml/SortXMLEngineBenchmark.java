@@ -0,0 +1,94 @@
+package com.ltpeacock.sorter.xml;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Benchmark of {@link SortXMLEngine} with increasing parallelism, on a wide document (one element with a very
+ * large number of children) and a deep document (many nested subtrees of moderate size).
+ * <br>
+ * Usage: {@code SortXMLEngineBenchmark [elements] [maxParallelism] [iterations]}
+ * <br>
+ * For each document and parallelism level, the best time of the given number of iterations is printed, together
+ * with the speedup over sequential sorting. The output of each run is checked against the sequential output.
+ * @author LieutenantPeacock
+ *
+ */
+public class SortXMLEngineBenchmark {
+	public static void main(final String[] args) {
+		final int elements = args.length > 0 ? Integer.parseInt(args[0]) : 500_000;
+		final int maxParallelism = args.length > 1 ? Integer.parseInt(args[1])
+				: Runtime.getRuntime().availableProcessors();
+		final int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+		run("wide", wideDocument(elements), maxParallelism, iterations);
+		run("deep", deepDocument(elements), maxParallelism, iterations);
+	}
+
+	private static void run(final String name, final byte[] document, final int maxParallelism,
+			final int iterations) {
+		System.out.printf("%s document: %,d bytes%n", name, document.length);
+		System.out.println("parallelism\tbest ms\tspeedup");
+		final byte[] expected = sort(document, 1);
+		long sequential = 0;
+		for (int parallelism = 1; parallelism <= maxParallelism; parallelism *= 2) {
+			long best = Long.MAX_VALUE;
+			for (int i = 0; i < iterations; i++) {
+				final long start = System.nanoTime();
+				final byte[] output = sort(document, parallelism);
+				best = Math.min(best, System.nanoTime() - start);
+				if (!Arrays.equals(expected, output))
+					throw new IllegalStateException("Output differs with parallelism " + parallelism);
+			}
+			if (parallelism == 1)
+				sequential = best;
+			System.out.printf("%d\t%d\t%.2f%n", parallelism, best / 1_000_000, (double) sequential / best);
+		}
+	}
+
+	private static byte[] sort(final byte[] document, final int parallelism) {
+		final SortXMLEngine engine = new SortXMLEngine();
+		engine.setParallelism(parallelism);
+		final ByteArrayOutputStream out = new ByteArrayOutputStream(document.length * 2);
+		engine.sort(new ByteArrayInputStream(document), out);
+		return out.toByteArray();
+	}
+
+	private static byte[] wideDocument(final int elements) {
+		final Random random = new Random(1);
+		final StringBuilder sb = new StringBuilder("<root>");
+		for (int i = 0; i < elements; i++)
+			appendElement(sb, random, (char) ('a' + random.nextInt(26))).append("/>");
+		return sb.append("</root>").toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static byte[] deepDocument(final int elements) {
+		final Random random = new Random(1);
+		final StringBuilder sb = new StringBuilder("<root>");
+		int count = 0;
+		while (count < elements) {
+			// Subtrees of 4 levels with 8 children per element
+			count += appendSubtree(sb, random, 4);
+		}
+		return sb.append("</root>").toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static int appendSubtree(final StringBuilder sb, final Random random, final int levels) {
+		final char letter = (char) ('a' + random.nextInt(26));
+		appendElement(sb, random, letter).append('>');
+		int count = 1;
+		if (levels > 1) {
+			for (int i = 0; i < 8; i++)
+				count += appendSubtree(sb, random, levels - 1);
+		}
+		sb.append("</e").append(letter).append('>');
+		return count;
+	}
+
+	private static StringBuilder appendElement(final StringBuilder sb, final Random random, final char letter) {
+		return sb.append("<e").append(letter).append(" name=\"n").append(random.nextInt(1_000_000))
+				.append("\" b=\"").append(random.nextInt(100)).append('"');
+	}
+}
@@ -0,0 +1,120 @@
+package com.ltpeacock.sorter.xml;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Checks that {@link SortXMLEngine} writes the same output with a memory budget, which spills sorted runs of
+ * elements to temporary files, as it does in memory.
+ * @author LieutenantPeacock
+ *
+ */
+class SortXMLEngineMemoryBudgetTest {
+	private static final long[] BUDGETS = { 2048, 16384 };
+
+	@TempDir
+	Path tempDirectory;
+
+	@Test
+	void randomDocuments() throws IOException {
+		for (int seed = 0; seed < 20; seed++) {
+			final Random random = new Random(seed);
+			final StringBuilder sb = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<root>");
+			final int children = 1 + random.nextInt(30);
+			for (int i = 0; i < children; i++)
+				appendElement(sb, random, 5);
+			assertSameOutput(sb.append("</root>").toString());
+		}
+	}
+
+	@Test
+	void deepNesting() throws IOException {
+		final StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 500; i++)
+			sb.append("<e").append(i % 7).append(" b=\"").append(500 - i).append("\"><z/><a>").append(i)
+					.append("</a>");
+		for (int i = 499; i >= 0; i--)
+			sb.append("</e").append(i % 7).append('>');
+		assertSameOutput(sb.toString());
+	}
+
+	@Test
+	void wideDocument() throws IOException {
+		final Random random = new Random(1);
+		final StringBuilder sb = new StringBuilder("<root>");
+		for (int i = 0; i < 5000; i++) {
+			final char letter = (char) ('a' + random.nextInt(26));
+			sb.append("<e").append(letter).append(" name=\"n").append(random.nextInt(1000)).append("\"/>");
+		}
+		assertSameOutput(sb.append("</root>").toString());
+	}
+
+	@Test
+	void unicodeAndEscapes() throws IOException {
+		assertSameOutput("<root>\n"
+				+ "  <élève nom=\"Émile &amp; 张伟\" a=\"&#x1F600;\">😀 &lt;&#233;&gt;</élève>\n"
+				+ "  <b><![CDATA[<raw> & ü]]></b>\n"
+				+ "  <!-- comment ☃ -->\n"
+				+ "  <a q=\"&quot;'\">text &#x10FFFF; tail</a>\n"
+				+ "  <élève nom=\"Émile\"/>\n"
+				+ "  <ns:x xmlns:ns=\"urn:x\" ns:attr=\"1\">mixed <y/> content <w/></ns:x>\n"
+				+ "</root>");
+	}
+
+	private void assertSameOutput(final String document) throws IOException {
+		final byte[] input = document.getBytes(StandardCharsets.UTF_8);
+		for (final boolean preserveWhitespace : new boolean[] { false, true }) {
+			final String expected = sort(input, 0, preserveWhitespace);
+			for (final long budget : BUDGETS)
+				assertEquals(expected, sort(input, budget, preserveWhitespace),
+						"memory budget " + budget + ", preserve whitespace " + preserveWhitespace);
+		}
+		try (Stream<Path> files = Files.list(tempDirectory)) {
+			assertEquals(0, files.count(), "temporary files left behind");
+		}
+	}
+
+	private String sort(final byte[] input, final long memoryBudget, final boolean preserveWhitespace) {
+		final SortXMLEngine engine = new SortXMLEngine();
+		engine.setMemoryBudget(memoryBudget);
+		engine.setTempDirectory(tempDirectory);
+		engine.setPreserveWhitespace(preserveWhitespace);
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		engine.sort(new ByteArrayInputStream(input), out);
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	private static void appendElement(final StringBuilder sb, final Random random, final int levels) {
+		final String name = "e" + (char) ('a' + random.nextInt(6));
+		sb.append('<').append(name);
+		final int attributes = random.nextInt(3);
+		for (int i = 0; i < attributes; i++)
+			sb.append(" a").append(i).append("=\"").append(random.nextInt(5)).append('"');
+		if (levels == 0 || random.nextInt(3) == 0) {
+			if (random.nextBoolean())
+				sb.append("/>");
+			else
+				sb.append('>').append(random.nextInt(100)).append("</").append(name).append('>');
+			return;
+		}
+		sb.append('>');
+		final int children = random.nextInt(6);
+		for (int i = 0; i < children; i++) {
+			if (random.nextInt(8) == 0)
+				sb.append("<!-- c").append(random.nextInt(10)).append(" -->");
+			appendElement(sb, random, levels - 1);
+		}
+		sb.append("</").append(name).append('>');
+	}
+}
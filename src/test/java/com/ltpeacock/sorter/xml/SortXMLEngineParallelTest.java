@@ -0,0 +1,82 @@
+package com.ltpeacock.sorter.xml;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Comparator;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that {@link SortXMLEngine} writes the same output when sorting in parallel as when sorting sequentially,
+ * including with a comparator that looks at the child elements of the elements it compares.
+ * @author LieutenantPeacock
+ *
+ */
+class SortXMLEngineParallelTest {
+	/**
+	 * Orders elements by the names and attributes of their child elements, in their current order, and then by
+	 * their own.
+	 */
+	private static final Comparator<ElementVO> BY_CHILDREN = Comparator
+			.comparing(SortXMLEngineParallelTest::childNames).thenComparing(SortXMLEngineParallelTest::name);
+
+	@Test
+	void defaultComparator() {
+		for (int seed = 0; seed < 20; seed++)
+			assertSameOutput(document(new Random(seed)), new ElementComparator());
+	}
+
+	@Test
+	void comparatorOfChildElements() {
+		for (int seed = 0; seed < 20; seed++)
+			assertSameOutput(document(new Random(seed)), BY_CHILDREN);
+	}
+
+	private static void assertSameOutput(final byte[] input, final Comparator<ElementVO> comparator) {
+		final String expected = sort(input, comparator, 1, 8192);
+		for (final int threshold : new int[] { 1, 4, 64 })
+			assertEquals(expected, sort(input, comparator, 4, threshold), "parallel threshold " + threshold);
+	}
+
+	private static String sort(final byte[] input, final Comparator<ElementVO> comparator, final int parallelism,
+			final int threshold) {
+		final SortXMLEngine engine = new SortXMLEngine(comparator, new AttributeComparator());
+		engine.setParallelism(parallelism);
+		engine.setParallelThreshold(threshold);
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		engine.sort(new ByteArrayInputStream(input), out);
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	private static String childNames(final ElementVO element) {
+		final StringBuilder sb = new StringBuilder();
+		for (final ElementVO child : element.getChildElements())
+			sb.append(name(child)).append(' ');
+		return sb.toString();
+	}
+
+	private static String name(final ElementVO element) {
+		return element.getElement().getTagName() + element.getElement().getAttribute("n");
+	}
+
+	private static byte[] document(final Random random) {
+		final StringBuilder sb = new StringBuilder("<root>");
+		final int children = 1 + random.nextInt(40);
+		for (int i = 0; i < children; i++)
+			appendElement(sb, random, 4);
+		return sb.append("</root>").toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static void appendElement(final StringBuilder sb, final Random random, final int levels) {
+		final char name = (char) ('a' + random.nextInt(4));
+		sb.append('<').append(name).append(" n=\"").append(random.nextInt(10)).append("\">");
+		final int children = levels == 0 ? 0 : random.nextInt(5);
+		for (int i = 0; i < children; i++)
+			appendElement(sb, random, levels - 1);
+		sb.append("</").append(name).append('>');
+	}
+}
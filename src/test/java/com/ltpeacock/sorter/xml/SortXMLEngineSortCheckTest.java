@@ -0,0 +1,153 @@
+package com.ltpeacock.sorter.xml;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that {@link SortXMLEngine#isSorted(java.io.InputStream)} finds a document sorted exactly when sorting it
+ * writes the same bytes, and that sorted input copied as it is matches the sorted output.
+ * @author LieutenantPeacock
+ *
+ */
+class SortXMLEngineSortCheckTest {
+	@Test
+	void defaultComparators() throws IOException {
+		assertChecks(SortXMLEngine::new);
+	}
+
+	@Test
+	void formattingOptions() throws IOException {
+		for (final int indent : new int[] { 0, 4 }) {
+			assertChecks(() -> {
+				final SortXMLEngine engine = new SortXMLEngine();
+				engine.setIndent(indent);
+				engine.setSelfClosing(false);
+				return engine;
+			});
+		}
+		assertChecks(() -> {
+			final SortXMLEngine engine = new SortXMLEngine();
+			engine.setPreserveWhitespace(true);
+			return engine;
+		});
+	}
+
+	@Test
+	void sortRules() throws IOException {
+		assertChecks(() -> {
+			final SortXMLEngine engine = new SortXMLEngine();
+			engine.setSortRules(new XMLSortRules().keep("root/a").skip("**/b/c"));
+			return engine;
+		});
+	}
+
+	@Test
+	void comparatorOfContent() throws IOException {
+		assertChecks(() -> new SortXMLEngine((e1, e2) -> e1.getElement().getTextContent()
+				.compareTo(e2.getElement().getTextContent()), new AttributeComparator()));
+	}
+
+	@Test
+	void contentAfterChildElement() throws IOException {
+		final SortXMLEngine engine = new SortXMLEngine();
+		assertFalse(isSorted(engine, "<?xml version=\"1.0\" ?>\n<root>\n  <a/>\n  text\n</root>"));
+		assertTrue(isSorted(engine, "<?xml version=\"1.0\" ?>\n<root>\n  text\n  <a/>\n</root>"));
+		assertTrue(isSorted(engine,
+				"<?xml version=\"1.0\" ?>\n<root><!--c-->\n  <a name=\"1\"/>\n  <a name=\"2\"/>\n</root>"));
+		assertFalse(isSorted(engine,
+				"<?xml version=\"1.0\" ?>\n<root>\n  <a name=\"2\"/>\n  <a name=\"1\"/>\n</root>"));
+	}
+
+	private static void assertChecks(final Supplier<SortXMLEngine> engines) throws IOException {
+		for (int seed = 0; seed < 200; seed++) {
+			final String input = document(new Random(seed));
+			final SortXMLEngine engine = engines.get();
+			final String sorted = sort(engine, input);
+			assertEquals(sorted.equals(input), isSorted(engine, input), input);
+			assertEquals(sort(engine, sorted).equals(sorted), isSorted(engine, sorted), sorted);
+			final SortXMLEngine unchecked = engines.get();
+			unchecked.setCheckSorted(false);
+			assertEquals(sort(unchecked, sorted), sort(engine, sorted), sorted);
+		}
+	}
+
+	private static boolean isSorted(final SortXMLEngine engine, final String input) throws IOException {
+		return engine.isSorted(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	private static String sort(final SortXMLEngine engine, final String input) {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		engine.sort(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), out);
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	private static String document(final Random random) {
+		final StringBuilder sb = new StringBuilder("<?xml version=\"1.0\" ?>\n<root>");
+		final int children = random.nextInt(5);
+		for (int i = 0; i < children; i++)
+			appendElement(sb, random, 3, 1);
+		return sb.append(random.nextBoolean() ? "\n" : "").append("</root>").toString();
+	}
+
+	private static void appendElement(final StringBuilder sb, final Random random, final int levels,
+			final int depth) {
+		final char name = (char) ('a' + random.nextInt(3));
+		appendIndent(sb, random, depth);
+		sb.append('<').append(name);
+		if (random.nextBoolean())
+			sb.append(" name=\"").append(random.nextInt(3)).append('"');
+		if (random.nextInt(4) == 0)
+			sb.append(" m=\"x\"");
+		final int children = levels == 0 ? 0 : random.nextInt(3);
+		if (children == 0 && random.nextBoolean()) {
+			sb.append("/>");
+			return;
+		}
+		sb.append('>');
+		final int content = random.nextInt(4);
+		for (int i = 0; i < content; i++) {
+			switch (random.nextInt(6)) {
+			case 0:
+				sb.append("text ").append(random.nextInt(3));
+				break;
+			case 1:
+				sb.append("\n").append("  ", 0, random.nextInt(3)).append("line\n");
+				break;
+			case 2:
+				sb.append("<!--note-->");
+				break;
+			case 3:
+				sb.append("<![CDATA[<x>]]>");
+				break;
+			case 4:
+				sb.append("<?pi data?>");
+				break;
+			default:
+				appendIndent(sb, random, depth + 1);
+				break;
+			}
+		}
+		for (int i = 0; i < children; i++)
+			appendElement(sb, random, levels - 1, depth + 1);
+		appendIndent(sb, random, depth);
+		sb.append("</").append(name).append('>');
+	}
+
+	private static void appendIndent(final StringBuilder sb, final Random random, final int depth) {
+		if (random.nextInt(4) != 0) {
+			sb.append('\n');
+			for (int i = 0; i < depth * 2; i++)
+				sb.append(' ');
+		}
+	}
+}
@@ -0,0 +1,391 @@
+package com.ltpeacock.sorter.yaml;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.yaml.snakeyaml.error.YAMLException;
+
+import com.ltpeacock.sorter.ContentSorter;
+
+/**
+ * Checks that {@link StreamingSortYAMLEngine} writes the same output as {@link SortYAMLEngine}.
+ * @author LieutenantPeacock
+ *
+ */
+class StreamingSortYAMLEngineTest {
+	private static final String[] SCALARS = { "v", "'single q'", "\"double \\t \\u00e9 \\U0001F600\"", "\u00e9\u00e8",
+			"\ud83d\ude00", "true", "~", "null", "1.5", "-17", "0x1F", "123456789012345678901234567890", "1e400",
+			".inf", "!!str 12", "!custom tagged", "2024-01-01", "'it''s'", "\"\"" };
+	private static final String[] EDGE_CASES = {
+			"", "scalar\n", "- b\n- a\n", "{b: 1, a: 2}\n", "[b, a]\n",
+			"b: 1\na: 2\n---\nd: 1\nc: 2\n--- text\n---\n- z\n- y\n",
+			"# head\nb: 1 # inline\n# before a\na: 2\n# tail\n",
+			"b: |\n  literal\n  text\na: >-\n  folded\n  text\nc: |+\n  keep\n\n",
+			"\"\\u00e9\": 1\n\u00e9a: 2\nE: 3\ne: 4\n\"\\U0001F600\": 5\n'10': 6\n9: 7\n",
+			"big: 123456789012345678901234567890\nsmall: -0.0000000000000000001\ninf: -.Inf\nhex: 0xFF\n",
+			"b: &x {d: 1, c: 2}\na: *x\nc: [*x, *x]\n",
+			"z: &s scalar\ny: &m\n  q: 1\n  p: *s\nx: *m\nw: *s\n",
+			"b: &x 1\na: *x\n---\nb: &x 2\na: *x\n",
+			"z: &x 1\nb: *x\nc: &x 2\na: *x\n",
+			"d: &x {q: 1}\nc: *x\nb: &x {r: 2}\na: *x\n",
+			"k: &x_2 5\nz: &x 1\nb: *x\nc: &x 2\nm: *x_2\na: *x\n",
+			"b: &x\n  d: &x 1\n  c: *x\na: *x\n",
+			"? [b, a]\n: 1\n? {y: 1, x: 2}\n: 2\nplain: 3\n",
+			"!!map\nb: !!seq [2, 1]\na: !!str 1\n",
+			deep(40) };
+
+	@TempDir
+	Path tempDirectory;
+
+	@Test
+	void edgeCases() throws IOException {
+		for (final String document : EDGE_CASES)
+			assertSameOutput(document);
+	}
+
+	@Test
+	void randomDocuments() throws IOException {
+		for (int seed = 0; seed < 100; seed++) {
+			final Random random = new Random(seed);
+			final StringBuilder sb = new StringBuilder();
+			final int documents = random.nextInt(4) == 0 ? 2 + random.nextInt(3) : 1;
+			for (int i = 0; i < documents; i++) {
+				if (i > 0 || random.nextBoolean())
+					sb.append("---\n");
+				new DocumentWriter(random, sb).write();
+			}
+			assertSameOutput(sb.toString());
+		}
+	}
+
+	/**
+	 * Both engines find a document sorted exactly when sorting it writes the same bytes, and copy sorted input as
+	 * it is only when that is the sorted output.
+	 */
+	@Test
+	void sortCheck() throws IOException {
+		final List<String> documents = new ArrayList<>();
+		Collections.addAll(documents, EDGE_CASES);
+		for (int seed = 0; seed < 50; seed++) {
+			final Random random = new Random(seed);
+			final StringBuilder sb = new StringBuilder();
+			new DocumentWriter(random, sb).write();
+			documents.add(sb.toString());
+		}
+		for (final String document : documents) {
+			for (final int indent : new int[] { 2, 4 }) {
+				for (final boolean recursive : new boolean[] { true, false }) {
+					assertChecks(document, () -> {
+						final SortYAMLEngine engine = new SortYAMLEngine();
+						engine.setIndent(indent);
+						engine.setRecursive(recursive);
+						return engine;
+					}, engine -> ((SortYAMLEngine) engine).setCheckSorted(false));
+					assertChecks(document, () -> {
+						final StreamingSortYAMLEngine engine = new StreamingSortYAMLEngine();
+						engine.setIndent(indent);
+						engine.setRecursive(recursive);
+						return engine;
+					}, engine -> ((StreamingSortYAMLEngine) engine).setCheckSorted(false));
+				}
+			}
+			assertChecks(document, () -> new StreamingSortYAMLEngine(Comparator.<String>reverseOrder()),
+					engine -> ((StreamingSortYAMLEngine) engine).setCheckSorted(false));
+		}
+		assertTrue(new SortYAMLEngine().isSorted(input("a: 1\nb:\n  c: 2\n  d: 3\n")));
+		assertFalse(new SortYAMLEngine().isSorted(input("a: 1\nb:\n  d: 3\n  c: 2\n")));
+		assertTrue(new StreamingSortYAMLEngine().isSorted(input("a: &x 1\nb: *x\n")));
+		assertFalse(new StreamingSortYAMLEngine().isSorted(input("b: 1\na: 2\n")));
+	}
+
+	private static void assertChecks(final String document, final Supplier<ContentSorter> engines,
+			final Consumer<ContentSorter> uncheck) throws IOException {
+		final String sorted = sort(engines.get(), document);
+		for (final String input : new String[] { document, sorted }) {
+			final String output;
+			try {
+				output = sort(engines.get(), input);
+			} catch (YAMLException e) {
+				// SnakeYAML cannot read some of its own output back, such as a comment after an anchor
+				continue;
+			}
+			assertEquals(output.equals(input), engines.get().isSorted(input(input)), input);
+			final ContentSorter unchecked = engines.get();
+			uncheck.accept(unchecked);
+			assertEquals(sort(unchecked, input), output, input);
+		}
+	}
+
+	/**
+	 * Redefined anchors keep referring to the same nodes once the entries are reordered.
+	 */
+	@Test
+	void redefinedAnchors() throws IOException {
+		final String document = "z: &x 1\nb: *x\nc: &x 2\na: *x\n";
+		final String expected = "a: &x_2 2\nb: &x 1\nc: *x_2\nz: *x\n";
+		assertEquals(expected, sort(new SortYAMLEngine(), document));
+		assertEquals(expected, sort(new StreamingSortYAMLEngine(), document));
+	}
+
+	/**
+	 * Each document of a stream must be within the code point limit.
+	 */
+	@Test
+	void codePointLimit() throws IOException {
+		final String document = "b: " + String.join("", Collections.nCopies(200, "x")) + "\na: 1\n";
+		final String stream = document + "---\n" + document;
+		final SortYAMLEngine tree = new SortYAMLEngine();
+		final StreamingSortYAMLEngine streaming = new StreamingSortYAMLEngine();
+		tree.setCodePointLimit(300);
+		streaming.setCodePointLimit(300);
+		assertEquals(sort(tree, stream), sort(streaming, stream));
+		tree.setCodePointLimit(100);
+		streaming.setCodePointLimit(100);
+		assertThrows(YAMLException.class, () -> sort(tree, stream));
+		assertThrows(YAMLException.class, () -> sort(streaming, stream));
+	}
+
+	/**
+	 * The limits on nodes and alias expansions apply to each document.
+	 */
+	@Test
+	void nodeAndAliasLimits() throws IOException {
+		final String document = "c: &x {q: 1}\nb: *x\na: [*x, *x]\n";
+		final String stream = document + "---\n" + document;
+		final SortYAMLEngine tree = new SortYAMLEngine();
+		final StreamingSortYAMLEngine streaming = new StreamingSortYAMLEngine();
+		tree.setMaxAliasExpansions(3);
+		streaming.setMaxAliasExpansions(3);
+		tree.setMaxNodes(20);
+		streaming.setMaxNodes(20);
+		assertEquals(sort(tree, stream), sort(streaming, stream));
+		tree.setMaxAliasExpansions(2);
+		streaming.setMaxAliasExpansions(2);
+		assertThrows(YAMLException.class, () -> sort(tree, stream));
+		assertThrows(YAMLException.class, () -> sort(streaming, stream));
+		tree.setMaxAliasExpansions(0);
+		streaming.setMaxAliasExpansions(0);
+		tree.setMaxNodes(3);
+		streaming.setMaxNodes(3);
+		assertThrows(YAMLException.class, () -> sort(tree, stream));
+		assertThrows(YAMLException.class, () -> sort(streaming, stream));
+	}
+
+	/**
+	 * A key whose text grows exponentially with nested aliases, as in a "billion laughs" document, fails once its
+	 * text is too long, even without a limit on alias expansions.
+	 */
+	@Test
+	void keyTextLimit() {
+		final StringBuilder sb = new StringBuilder("? [&a0 [x, x, x, x, x, x, x, x, x, x]");
+		for (int i = 1; i < 10; i++) {
+			sb.append(", &a").append(i).append(" [");
+			for (int j = 0; j < 10; j++)
+				sb.append(j == 0 ? "*a" : ", *a").append(i - 1);
+			sb.append(']');
+		}
+		final String document = sb.append("]\n: 1\nb: 2\n").toString();
+		final SortYAMLEngine tree = new SortYAMLEngine();
+		final StreamingSortYAMLEngine streaming = new StreamingSortYAMLEngine();
+		tree.setMaxAliasExpansions(0);
+		streaming.setMaxAliasExpansions(0);
+		assertThrows(YAMLException.class, () -> sort(tree, document));
+		assertThrows(YAMLException.class, () -> sort(streaming, document));
+	}
+
+	private void assertSameOutput(final String document) throws IOException {
+		for (final int indent : new int[] { 2, 4 }) {
+			for (final boolean recursive : new boolean[] { true, false }) {
+				final SortYAMLEngine expected = new SortYAMLEngine();
+				expected.setIndent(indent);
+				expected.setRecursive(recursive);
+				final String output = sort(expected, document);
+				for (final long budget : new long[] { 0, 64 }) {
+					final StreamingSortYAMLEngine actual = new StreamingSortYAMLEngine();
+					actual.setIndent(indent);
+					actual.setRecursive(recursive);
+					actual.setMemoryBudget(budget);
+					actual.setTempDirectory(tempDirectory);
+					assertEquals(output, sort(actual, document), "indent " + indent + ", recursive " + recursive
+							+ ", memory budget " + budget + " for\n" + document);
+				}
+			}
+		}
+		try (Stream<Path> files = Files.list(tempDirectory)) {
+			assertEquals(0, files.count(), "temporary files left behind");
+		}
+	}
+
+	private static String sort(final ContentSorter engine, final String document) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		engine.sort(input(document), out);
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+
+	private static ByteArrayInputStream input(final String document) {
+		return new ByteArrayInputStream(document.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Get a document with mappings nested to the given depth, each of which also has a sequence.
+	 */
+	private static String deep(final int depth) {
+		final StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < depth; i++) {
+			pad(sb, i).append("z").append(i).append(": [y, x]\n");
+			pad(sb, i).append("k").append(depth - i).append(":\n");
+		}
+		return pad(sb, depth).append("a: \u00e9\n").toString();
+	}
+
+	private static StringBuilder pad(final StringBuilder sb, final int indent) {
+		for (int i = 0; i < indent; i++)
+			sb.append(' ');
+		return sb;
+	}
+
+	/**
+	 * Writes a random document in block style. Every anchor is referred to by an alias, as
+	 * {@link SortYAMLEngine} drops anchors that are not, and some anchors are defined again after they have been
+	 * referred to. Block comments are not written after anchored nodes or before aliases, where the streaming
+	 * engine keeps comments that {@link SortYAMLEngine} drops.
+	 */
+	private static final class DocumentWriter {
+		private final Random random;
+		private final StringBuilder sb;
+		/** The anchors that aliases can refer to. */
+		private final List<String> anchors = new ArrayList<>();
+		/** The anchors whose current definitions have not been referred to yet. */
+		private final Set<String> unreferenced = new HashSet<>();
+		private boolean anchoredLine;
+
+		DocumentWriter(final Random random, final StringBuilder sb) {
+			this.random = random;
+			this.sb = sb;
+		}
+
+		void write() {
+			if (random.nextInt(4) == 0)
+				sb.append("# head\n");
+			writeMapping(0, 0);
+			for (final String anchor : anchors) {
+				if (unreferenced.contains(anchor))
+					sb.append("zz").append(anchor).append(": *").append(anchor).append('\n');
+			}
+			if (random.nextInt(4) == 0)
+				sb.append("# tail\n");
+		}
+
+		private void writeMapping(final int indent, final int depth) {
+			final int entries = 1 + random.nextInt(depth == 0 ? 10 : 5);
+			final Set<String> keys = new HashSet<>();
+			for (int i = 0; i < entries; i++) {
+				final String key = random.nextInt(6) == 0 ? "'" + (char) ('a' + random.nextInt(26)) + " q'"
+						: (char) ('a' + random.nextInt(26)) + Integer.toString(random.nextInt(20));
+				if (!keys.add(key))
+					continue;
+				final int type = depth > 2 ? random.nextInt(3) : random.nextInt(7);
+				if (type != 2 && !anchoredLine && random.nextInt(6) == 0)
+					pad(sb, indent).append("# comment ").append(random.nextInt(9)).append('\n');
+				anchoredLine = false;
+				pad(sb, indent).append(key).append(':');
+				switch (type) {
+				case 0:
+					sb.append(' ').append(SCALARS[random.nextInt(SCALARS.length)]).append('\n');
+					break;
+				case 1: {
+					final String anchor = define();
+					sb.append(" &").append(anchor).append(' ').append(SCALARS[random.nextInt(SCALARS.length)]);
+					sb.append(random.nextInt(4) == 0 ? " # inline\n" : "\n");
+					defined(anchor);
+					break;
+				}
+				case 2:
+					if (anchors.isEmpty()) {
+						sb.append(" ~\n");
+					} else {
+						final String anchor = anchors.get(random.nextInt(anchors.size()));
+						sb.append(" *").append(anchor).append('\n');
+						unreferenced.remove(anchor);
+					}
+					break;
+				case 3: {
+					final String anchor = random.nextInt(3) == 0 ? define() : null;
+					if (anchor != null) {
+						sb.append(" &").append(anchor);
+						// SnakeYAML fails to parse a block comment right after an anchor on its own
+						anchoredLine = true;
+					}
+					sb.append('\n');
+					writeMapping(indent + 2, depth + 1);
+					if (anchor != null)
+						defined(anchor);
+					break;
+				}
+				case 4:
+					sb.append('\n');
+					for (int j = random.nextInt(3); j >= 0; j--) {
+						pad(sb, indent).append("- ");
+						if (random.nextBoolean()) {
+							sb.append("z: 1\n");
+							pad(sb, indent + 2).append("a: ").append(SCALARS[random.nextInt(SCALARS.length)])
+									.append('\n');
+						} else {
+							sb.append(SCALARS[random.nextInt(SCALARS.length)]).append('\n');
+						}
+					}
+					break;
+				case 5:
+					sb.append(random.nextBoolean() ? " {y: 1, x: [b, a]}\n" : " [{q: 1, p: 2}, c]\n");
+					break;
+				default:
+					sb.append(" |\n");
+					pad(sb, indent + 2).append("literal ").append(random.nextInt(9)).append('\n');
+				}
+			}
+		}
+
+		/**
+		 * Get the name for a new anchor: one that has been defined and referred to before, or a new one.
+		 */
+		private String define() {
+			if (!anchors.isEmpty() && random.nextInt(3) == 0) {
+				final String anchor = anchors.get(random.nextInt(anchors.size()));
+				if (!unreferenced.contains(anchor))
+					return anchor;
+			}
+			return "a" + anchors.size();
+		}
+
+		/**
+		 * Makes an anchor available to aliases once its node has been written.
+		 */
+		private void defined(final String anchor) {
+			if (!anchors.contains(anchor))
+				anchors.add(anchor);
+			unreferenced.add(anchor);
+			anchoredLine = true;
+		}
+	}
+}